@@ -0,0 +1,64 @@
+package com.gatekeeper.api;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Admission control for analyses. Two limits protect the request threads when GROQ is slow or down:
+ * <ul>
+ * <li>At most {@code GATEKEEPER_MAX_ANALYSES} analyses run at once; requests beyond that are shed with 503
+ *     and {@code Retry-After} before doing any work. An async job holds its permit until it is done, and a
+ *     batch holds one for all of its PRs.</li>
+ * <li>An admitted analysis only calls GROQ when the circuit breaker is closed, fewer than
+ *     {@code GATEKEEPER_MAX_ENRICHMENTS} analyses are waiting on GROQ and the scheduler queue is shorter than
+ *     {@code GATEKEEPER_SHED_GROQ_QUEUE}. Otherwise it is answered from the heuristics at once and flagged
+ *     {@code degraded}, so the rule-based verdict stays fast under any GROQ backlog.</li>
+ * </ul>
+ */
+final class AdmissionControl {
+    static final int MAX_ANALYSES = Env.intValue("GATEKEEPER_MAX_ANALYSES", 150);
+    static final int MAX_ENRICHMENTS = Env.intValue("GATEKEEPER_MAX_ENRICHMENTS", 32);
+    static final int MAX_GROQ_QUEUE = Env.intValue("GATEKEEPER_SHED_GROQ_QUEUE", 64);
+    static final int RETRY_AFTER_SECONDS = 1;
+
+    /** Released when the analysis is done. */
+    interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final Semaphore analyses = new Semaphore(MAX_ANALYSES);
+    private final Semaphore enrichments = new Semaphore(MAX_ENRICHMENTS);
+
+    /**
+     * Admit one analysis, or return null when the backend is saturated and the request should be shed.
+     */
+    Permit analysis() {
+        if (!analyses.tryAcquire()) {
+            GatekeeperMetrics.shed();
+            return null;
+        }
+        return analyses::release;
+    }
+
+    /**
+     * Reserve the right to call GROQ for one analysis.
+     * @return A permit to close when the enrichment is done, or null when the analysis should use heuristics only
+     */
+    Permit enrichment(GroqAnalysisService groq) {
+        String reason = null;
+        if (groq.queuedCalls() >= MAX_GROQ_QUEUE) {
+            reason = "groq_backlog";
+        } else if (!enrichments.tryAcquire()) {
+            reason = "overloaded";
+        } else if (!groq.available()) {
+            // Asked last: a half-open breaker hands its probe to the analysis it says yes to
+            enrichments.release();
+            reason = "groq_unavailable";
+        }
+        if (reason != null) {
+            GatekeeperMetrics.degraded(reason);
+            return null;
+        }
+        return enrichments::release;
+    }
+}
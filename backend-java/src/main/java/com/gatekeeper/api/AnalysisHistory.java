@@ -0,0 +1,492 @@
+package com.gatekeeper.api;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Every analysis answered by the backend, persisted in a {@link HistoryLog} as a compact binary record
+ * and indexed in memory for the dashboard. Records get ascending ids in append order; the index keeps
+ * per-id columns (time, risk, decision, repository, author, log location) plus id lists per repository,
+ * author and decision, all rebuilt from the log on startup. A query walks the shortest id list among its
+ * filters from the newest id in its time range down, so a page costs the records it skips and returns
+ * rather than the size of the history, and only the returned records are decoded from the log.
+ */
+final class AnalysisHistory implements Closeable {
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 500;
+    private static final byte FORMAT = 1;
+    private static final long DAY_MS = 86_400_000L;
+    // Decision codes of the index; NONE is a failed analysis without a decision
+    private static final String[] DECISIONS = {null, "BLOCK", "WARN", "ALLOW"};
+
+    /** One stored analysis; {@code id} is the cursor for the next page. */
+    record Entry(long id, String repository, String author, AnalyzeController.AnalyzeResponse analysis) {}
+
+    /**
+     * @param next Pass as {@code before} to get the following page; null on the last page
+     */
+    record Page(List<Entry> items, Long next) {}
+
+    record Day(String date, long total, Map<String, Long> decisions) {}
+
+    record Stats(long total, Map<String, Long> decisions, double averageRisk, List<Day> days) {}
+
+    private final HistoryLog log;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+    // Non-decreasing copy of the analysis time, so a time range is one id range
+    private long[] times = new long[1024];
+    private double[] risks = new double[1024];
+    private byte[] decisions = new byte[1024];
+    private int[] repositories = new int[1024];
+    private int[] authors = new int[1024];
+    private long[] locations = new long[1024];
+    private final Dictionary repositoryIds = new Dictionary();
+    private final Dictionary authorIds = new Dictionary();
+    private final IdList[] byDecision = {new IdList(), new IdList(), new IdList(), new IdList()};
+
+    AnalysisHistory(Path dir, int segmentBytes) throws IOException {
+        this.log = new HistoryLog(dir, segmentBytes, this::index);
+    }
+
+    /**
+     * Open the history in GATEKEEPER_HISTORY_DIR, or return null when it is disabled or cannot be opened.
+     */
+    static AnalysisHistory fromEnv() {
+        if (!Env.flag("GATEKEEPER_HISTORY", true)) return null;
+        Path dir = Path.of(Env.value("GATEKEEPER_HISTORY_DIR", "history"));
+        int segmentBytes = (int) Math.min(1024, Math.max(1, Env.longValue("GATEKEEPER_HISTORY_SEGMENT_MB", 64))) * 1024 * 1024;
+        try {
+            long start = System.nanoTime();
+            AnalysisHistory history = new AnalysisHistory(dir, segmentBytes);
+            System.err.println("Loaded " + history.size() + " analyses from history " + dir.toAbsolutePath()
+                + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return history;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Analysis history " + dir + " unavailable, not recording analyses: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Persist one analysis and make it visible to queries.
+     */
+    void record(String repository, String author, AnalyzeController.AnalyzeResponse analysis) {
+        Entry entry = new Entry(-1, repository, author, analysis);
+        byte[] payload = encode(entry);
+        lock.writeLock().lock();
+        try {
+            index(log.append(payload), entry.repository(), entry.author(), analysis.analysisTimestamp(), analysis.riskScore(), analysis.decision());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to record analysis of PR " + analysis.prNumber() + " in history: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Entry get(long id) {
+        lock.readLock().lock();
+        try {
+            return id < 0 || id >= size ? null : read((int) id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Newest analyses first, matching every filter that is not null.
+     * @param from Earliest analysis time in epoch milliseconds, inclusive
+     * @param to Latest analysis time in epoch milliseconds, exclusive
+     * @param before Only ids below this one; the {@code next} of the previous page
+     */
+    Page query(String repository, String author, String decision, Long from, Long to, Long before, Integer limit) {
+        int max = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(MAX_LIMIT, limit));
+        lock.readLock().lock();
+        try {
+            Filter filter = filter(repository, author, decision, from, to, before);
+            List<Entry> items = new ArrayList<>();
+            if (filter == null) return new Page(items, null);
+            int i = filter.ids == null ? filter.hi : filter.ids.upperBound(filter.hi - 1);
+            while (--i >= 0) {
+                int id = filter.ids == null ? i : filter.ids.get(i);
+                if (id < filter.lo) break;
+                if (!filter.test(id)) continue;
+                if (items.size() == max) return new Page(items, items.get(max - 1).id());
+                items.add(read(id));
+            }
+            return new Page(items, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts by decision, average risk and per-day counts (UTC) of the analyses matching the filters.
+     * Reads only the in-memory columns.
+     */
+    Stats stats(String repository, String author, String decision, Long from, Long to) {
+        lock.readLock().lock();
+        try {
+            Filter filter = filter(repository, author, decision, from, to, null);
+            long[] total = new long[DECISIONS.length];
+            double riskSum = 0;
+            List<Day> days = new ArrayList<>();
+            if (filter != null && filter.ids == null) {
+                // Ids are in time order, so each day is one id range found by binary search
+                for (int lo = filter.lo; lo < filter.hi; ) {
+                    long epochDay = Math.floorDiv(times[lo], DAY_MS);
+                    int hi = Math.min(filter.hi, firstAtOrAfter((epochDay + 1) * DAY_MS));
+                    long[] day = new long[DECISIONS.length];
+                    double risk = 0;
+                    for (int id = lo; id < hi; id++) {
+                        if (!filter.test(id)) continue;
+                        day[decisions[id]]++;
+                        risk += risks[id];
+                    }
+                    addDay(days, epochDay, day, total);
+                    riskSum += risk;
+                    lo = hi;
+                }
+            } else if (filter != null) {
+                long[] day = new long[DECISIONS.length];
+                long epochDay = 0;
+                long dayEnd = Long.MIN_VALUE;
+                int start = filter.ids.upperBound(filter.lo - 1);
+                int end = filter.ids.upperBound(filter.hi - 1);
+                for (int i = start; i < end; i++) {
+                    int id = filter.ids.get(i);
+                    if (!filter.test(id)) continue;
+                    if (times[id] >= dayEnd) {
+                        if (dayEnd != Long.MIN_VALUE) addDay(days, epochDay, day, total);
+                        epochDay = Math.floorDiv(times[id], DAY_MS);
+                        dayEnd = (epochDay + 1) * DAY_MS;
+                        day = new long[DECISIONS.length];
+                    }
+                    day[decisions[id]]++;
+                    riskSum += risks[id];
+                }
+                if (dayEnd != Long.MIN_VALUE) addDay(days, epochDay, day, total);
+            }
+            long count = Arrays.stream(total).sum();
+            return new Stats(count, counts(total), count == 0 ? 0 : riskSum / count, days);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Write everything recorded so far to disk. */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            log.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Matching ids are those in [lo, hi) that are in {@code ids} (all when null) and pass the other filters.
+     */
+    private final class Filter {
+        final int lo;
+        final int hi;
+        final IdList ids;
+        final int repository;
+        final int author;
+        final int decision;
+
+        Filter(int lo, int hi, IdList ids, int repository, int author, int decision) {
+            this.lo = lo;
+            this.hi = hi;
+            this.ids = ids;
+            this.repository = repository;
+            this.author = author;
+            this.decision = decision;
+        }
+
+        boolean test(int id) {
+            return (repository < 0 || repositories[id] == repository)
+                && (author < 0 || authors[id] == author)
+                && (decision < 0 || decisions[id] == decision);
+        }
+    }
+
+    /**
+     * Resolve the filters against the index; null when nothing can match.
+     */
+    private Filter filter(String repository, String author, String decision, Long from, Long to, Long before) {
+        int repositoryId = repository == null ? -1 : repositoryIds.find(repository);
+        int authorId = author == null ? -1 : authorIds.find(author);
+        int decisionCode = decision == null ? -1 : decisionCode(decision);
+        if ((repository != null && repositoryId < 0) || (author != null && authorId < 0) || (decision != null && decisionCode <= 0)) {
+            return null;
+        }
+        int lo = from == null ? 0 : firstAtOrAfter(from);
+        int hi = to == null ? size : firstAtOrAfter(to);
+        if (before != null) hi = (int) Math.min(hi, Math.max(0, before));
+        if (lo >= hi) return null;
+        // Walk the shortest id list; the columns check the remaining filters
+        IdList ids = null;
+        if (repositoryId >= 0) ids = repositoryIds.ids(repositoryId);
+        if (authorId >= 0 && (ids == null || authorIds.ids(authorId).size < ids.size)) ids = authorIds.ids(authorId);
+        if (decisionCode > 0 && (ids == null || byDecision[decisionCode].size < ids.size)) ids = byDecision[decisionCode];
+        return new Filter(lo, hi, ids, repositoryId, authorId, decisionCode);
+    }
+
+    private int firstAtOrAfter(long time) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Index a record read back from the log; only the fields ahead of the PR number are decoded.
+     */
+    private void index(long location, ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        if (in.get() != FORMAT) throw new IllegalStateException("Unknown history record format");
+        long timestamp = in.getLong();
+        double risk = in.getDouble();
+        String repository = readString(in);
+        String author = readString(in);
+        skipString(in);
+        skipString(in);
+        index(location, repository, author, timestamp, risk, readString(in));
+    }
+
+    private void index(long location, String repository, String author, long timestamp, double risk, String decision) {
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            risks = Arrays.copyOf(risks, capacity);
+            decisions = Arrays.copyOf(decisions, capacity);
+            repositories = Arrays.copyOf(repositories, capacity);
+            authors = Arrays.copyOf(authors, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+        }
+        int id = size;
+        // Concurrent analyses can finish slightly out of order
+        times[id] = id == 0 ? timestamp : Math.max(times[id - 1], timestamp);
+        risks[id] = risk;
+        byte code = (byte) Math.max(0, decisionCode(decision));
+        decisions[id] = code;
+        repositories[id] = repository == null ? -1 : repositoryIds.add(repository, id);
+        authors[id] = author == null ? -1 : authorIds.add(author, id);
+        byDecision[code].add(id);
+        locations[id] = location;
+        size++;
+    }
+
+    private Entry read(int id) {
+        Entry stored = decode(log.read(locations[id]));
+        return new Entry(id, stored.repository(), stored.author(), stored.analysis());
+    }
+
+    private static int decisionCode(String decision) {
+        for (int i = 1; i < DECISIONS.length; i++) {
+            if (DECISIONS[i].equals(decision)) return i;
+        }
+        return decision == null ? 0 : -1;
+    }
+
+    private static void addDay(List<Day> days, long epochDay, long[] counts, long[] total) {
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total[i] += counts[i];
+            sum += counts[i];
+        }
+        if (sum > 0) days.add(new Day(LocalDate.ofEpochDay(epochDay).toString(), sum, counts(counts)));
+    }
+
+    private static Map<String, Long> counts(long[] counts) {
+        Map<String, Long> byName = new LinkedHashMap<>();
+        for (int i = 1; i < DECISIONS.length; i++) byName.put(DECISIONS[i], counts[i]);
+        if (counts[0] > 0) byName.put("NONE", counts[0]);
+        return byName;
+    }
+
+    static byte[] encode(Entry entry) {
+        AnalyzeController.AnalyzeResponse a = entry.analysis();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT);
+            out.writeLong(a.analysisTimestamp());
+            out.writeDouble(a.riskScore());
+            writeString(out, entry.repository());
+            writeString(out, entry.author());
+            writeString(out, a.prNumber());
+            writeString(out, a.riskLevel());
+            writeString(out, a.decision());
+            writeString(out, a.prStatus());
+            writeStrings(out, a.missingTests());
+            writeStrings(out, a.suggestedTests());
+            writeString(out, a.summary());
+            writeString(out, a.explanation());
+            writeString(out, a.suggestionCode());
+            writeStrings(out, a.spellingSuggestions());
+            writeString(out, a.groqSuggestion());
+            writeString(out, a.errorMessage());
+            out.writeBoolean(a.degraded());
+            writeString(out, a.derivedFrom());
+            writeFindings(out, a.files());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Entry decode(ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        if (in.get() != FORMAT) throw new IllegalStateException("Unknown history record format");
+        long timestamp = in.getLong();
+        double risk = in.getDouble();
+        String repository = readString(in);
+        String author = readString(in);
+        String prNumber = readString(in);
+        String riskLevel = readString(in);
+        String decision = readString(in);
+        String prStatus = readString(in);
+        List<String> missingTests = readStrings(in);
+        List<String> suggestedTests = readStrings(in);
+        String summary = readString(in);
+        String explanation = readString(in);
+        String suggestionCode = readString(in);
+        List<String> spellingSuggestions = readStrings(in);
+        String groqSuggestion = readString(in);
+        String errorMessage = readString(in);
+        // Records written before the degraded flag, the near-duplicate source or the per-file findings existed end early
+        boolean degraded = in.hasRemaining() && in.get() != 0;
+        String derivedFrom = in.hasRemaining() ? readString(in) : null;
+        List<AnalyzeController.FileFinding> files = in.hasRemaining() ? readFindings(in) : null;
+        return new Entry(-1, repository, author, new AnalyzeController.AnalyzeResponse(prNumber, risk, riskLevel, decision, prStatus,
+            missingTests, suggestedTests, summary, explanation, suggestionCode, spellingSuggestions, groqSuggestion, errorMessage, timestamp, degraded, derivedFrom, files));
+    }
+
+    // Strings are UTF-8 with an int length, -1 for null; lists are an int count, -1 for null
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list == null ? -1 : list.size());
+        if (list != null) {
+            for (String s : list) writeString(out, s);
+        }
+    }
+
+    private static void writeFindings(DataOutputStream out, List<AnalyzeController.FileFinding> findings) throws IOException {
+        out.writeInt(findings == null ? -1 : findings.size());
+        if (findings != null) {
+            for (AnalyzeController.FileFinding f : findings) {
+                writeString(out, f.path());
+                out.writeDouble(f.riskContribution());
+                writeStrings(out, f.missingTests());
+            }
+        }
+    }
+
+    private static List<AnalyzeController.FileFinding> readFindings(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0) return null;
+        List<AnalyzeController.FileFinding> findings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) findings.add(new AnalyzeController.FileFinding(readString(in), in.getDouble(), readStrings(in)));
+        return findings;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length > 0) in.position(in.position() + length);
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0) return null;
+        List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) list.add(readString(in));
+        return list;
+    }
+
+    /** Ascending ids, appended in order. */
+    private static final class IdList {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        int get(int i) {
+            return ids[i];
+        }
+
+        /** Number of ids up to and including {@code id}. */
+        int upperBound(int id) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ids[mid] <= id) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /** Distinct repository or author names with the ids of their analyses. */
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<IdList> ids = new ArrayList<>();
+
+        int add(String name, int id) {
+            int code = codes.computeIfAbsent(name, k -> {
+                ids.add(new IdList());
+                return ids.size() - 1;
+            });
+            ids.get(code).add(id);
+            return code;
+        }
+
+        int find(String name) {
+            return codes.getOrDefault(name, -1);
+        }
+
+        IdList ids(int code) {
+            return ids.get(code);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.gatekeeper.api;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Asynchronous analysis jobs with progressive results.
+ * A job publishes the rule-based verdict as soon as it is computed, then one event per GROQ
+ * enrichment as each call completes, and finally the complete response. Every event is kept
+ * so subscribers that connect late get a full replay before live events.
+ * <p>
+ * Events: {@code verdict} (AnalyzeResponse with heuristic enrichments), {@code suggestedTests},
+ * {@code explanation}, {@code spellingSuggestions}, {@code groqSuggestion}, {@code complete}
+ * (final AnalyzeResponse) or {@code failed}. While GROQ writes the explanation, live subscribers also get
+ * {@code explanationDelta} events with each piece of text; these are not replayed. Each subscriber is sent its
+ * events on its own, so a slow client delays neither the analysis nor other subscribers.
+ * <p>
+ * At most {@code GATEKEEPER_MAX_RUNNING_JOBS} jobs run at once; further submissions are refused until one finishes.
+ * Finished jobs are kept for {@code GATEKEEPER_JOB_TTL_MINUTES}, and beyond {@code GATEKEEPER_MAX_JOBS} the oldest
+ * of them are dropped.
+ */
+final class AnalysisJobs {
+    private static final long JOB_TTL_MS = Env.longValue("GATEKEEPER_JOB_TTL_MINUTES", 15) * 60_000L;
+    private static final int MAX_JOBS = Env.intValue("GATEKEEPER_MAX_JOBS", 10_000);
+    private static final int MAX_RUNNING_JOBS = Env.intValue("GATEKEEPER_MAX_RUNNING_JOBS", 100);
+    private static final long EMITTER_TIMEOUT_MS = GroqEnrichment.ANALYSIS_BUDGET_MS + 30_000;
+
+    private static final ExecutorService RUNNER = Executors.newVirtualThreadPerTaskExecutor();
+
+    enum State { RUNNING, DONE, FAILED }
+
+    record Event(String name, Object data) {}
+
+    record Snapshot(String jobId, State state, long createdAt, Map<String, Object> fields, AnalyzeController.AnalyzeResponse result) {}
+
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Semaphore running;
+
+    AnalysisJobs() {
+        this(MAX_RUNNING_JOBS);
+    }
+
+    /**
+     * @param maxRunning Jobs allowed to run at once
+     */
+    AnalysisJobs(int maxRunning) {
+        this.running = new Semaphore(maxRunning);
+    }
+
+    /**
+     * Start analyzing in the background and return the job id right away.
+     * @param controller Runs the analysis stages
+     * @param permit Admission of the analysis, closed when the job is done or refused
+     * @return The job id, or null when too many jobs are running and the request should be shed
+     */
+    String submit(AnalyzeController controller, AnalyzeController.AnalyzeRequest req, AdmissionControl.Permit permit) {
+        if (!running.tryAcquire()) {
+            permit.close();
+            return null;
+        }
+        evictExpired();
+        Job job = new Job(UUID.randomUUID().toString());
+        jobs.put(job.id, job);
+        RUNNER.execute(() -> {
+            try {
+                run(controller, job, req);
+            } finally {
+                running.release();
+                permit.close();
+            }
+        });
+        return job.id;
+    }
+
+    Snapshot snapshot(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.snapshot();
+    }
+
+    SseEmitter subscribe(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.subscribe();
+    }
+
+    private static void run(AnalyzeController controller, Job job, AnalyzeController.AnalyzeRequest req) {
+        try {
+            AnalyzeController.Verdict verdict = controller.heuristics(req, controller.scan(req));
+            GroqEnrichment.Result heuristic = controller.heuristicEnrichment(verdict);
+            job.publish("verdict", controller.respond(verdict, heuristic, null));
+            if (!controller.groqEnabled()) {
+                job.finish(controller.finish(verdict, heuristic, null));
+                return;
+            }
+            AnalyzeController.Reuse reused = controller.reuseNearDuplicate(verdict, null);
+            if (reused != null) {
+                job.finish(reused.response());
+                return;
+            }
+            if (!controller.groqAvailable()) {
+                job.finish(controller.finish(verdict, heuristic, null, true));
+                return;
+            }
+
+            // Publishing only queues events for the subscribers, so it is cheap enough for the futures' completion threads
+            GroqEnrichment enrichment = controller.startEnrichment(verdict, GroqScheduler.Priority.INTERACTIVE, job::publishDelta);
+            enrichment.suggestedTests.thenAccept(v -> job.publishField("suggestedTests", v));
+            enrichment.explanation.thenAccept(v -> job.publishField("explanation", v));
+            enrichment.spellingSuggestions.thenAccept(v -> job.publishField("spellingSuggestions", v));
+            enrichment.groqSuggestion.thenAccept(v -> job.publishField("groqSuggestion", v));
+            job.finish(controller.finish(verdict, controller.await(verdict, enrichment), null));
+        } catch (RuntimeException e) {
+            System.err.println("Async analysis " + job.id + " failed: " + e.getMessage());
+            job.fail(e.getMessage());
+        }
+    }
+
+    // Running jobs are bounded by the semaphore, so only finished ones need evicting
+    private void evictExpired() {
+        long cutoff = System.currentTimeMillis() - JOB_TTL_MS;
+        jobs.values().removeIf(j -> j.createdAt < cutoff && j.state != State.RUNNING);
+        if (jobs.size() >= MAX_JOBS) {
+            // Still full: drop the oldest finished jobs
+            jobs.values().stream()
+                .filter(j -> j.state != State.RUNNING)
+                .sorted(Comparator.comparingLong(j -> j.createdAt))
+                .limit(jobs.size() - MAX_JOBS + 1L)
+                .forEach(j -> jobs.remove(j.id));
+        }
+    }
+
+    private static final class Job {
+        final String id;
+        final long createdAt = System.currentTimeMillis();
+        private final List<Event> events = new ArrayList<>();
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private volatile State state = State.RUNNING;
+        private AnalyzeController.AnalyzeResponse result;
+
+        Job(String id) {
+            this.id = id;
+        }
+
+        void publishField(String field, Object value) {
+            if (value == null) return;
+            synchronized (this) {
+                // Late GROQ results after the budget ran out are already settled in the final response
+                if (state != State.RUNNING) return;
+                fields.put(field, value);
+                publish(field, Map.of(field, value));
+            }
+        }
+
+        /**
+         * Send a piece of the explanation to the current subscribers only; late subscribers get the whole
+         * explanation from its field event instead.
+         */
+        synchronized void publishDelta(String text) {
+            if (state != State.RUNNING || fields.containsKey("explanation")) return;
+            Event event = new Event("explanationDelta", Map.of("text", text));
+            subscribers.forEach(s -> s.offer(event));
+        }
+
+        synchronized void publish(String name, Object data) {
+            Event event = new Event(name, data);
+            events.add(event);
+            subscribers.forEach(s -> s.offer(event));
+        }
+
+        synchronized void finish(AnalyzeController.AnalyzeResponse response) {
+            result = response;
+            publish("complete", response);
+            state = State.DONE;
+            closeAll();
+        }
+
+        synchronized void fail(String message) {
+            publish("failed", Map.of("error", String.valueOf(message)));
+            state = State.FAILED;
+            closeAll();
+        }
+
+        synchronized SseEmitter subscribe() {
+            Subscriber subscriber = new Subscriber();
+            events.forEach(subscriber::offer);
+            if (state == State.RUNNING) {
+                subscribers.add(subscriber);
+                subscriber.emitter.onCompletion(() -> unsubscribe(subscriber));
+                subscriber.emitter.onTimeout(() -> unsubscribe(subscriber));
+                subscriber.emitter.onError(e -> unsubscribe(subscriber));
+            } else {
+                subscriber.close();
+            }
+            return subscriber.emitter;
+        }
+
+        synchronized Snapshot snapshot() {
+            return new Snapshot(id, state, createdAt, new LinkedHashMap<>(fields), result);
+        }
+
+        private synchronized void unsubscribe(Subscriber subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        private void closeAll() {
+            subscribers.forEach(Subscriber::close);
+            subscribers.clear();
+        }
+    }
+
+    /**
+     * One client's event stream. Events are queued while the job's lock is held and sent from the runner pool,
+     * one at a time and in order, so a client that stops reading holds up only its own stream.
+     */
+    private static final class Subscriber {
+        final SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        private final Queue<Event> pending = new ArrayDeque<>();
+        private boolean sending;
+        private boolean closed;
+        private boolean done;
+
+        synchronized void offer(Event event) {
+            if (done || closed) return;
+            pending.add(event);
+            schedule();
+        }
+
+        /**
+         * Complete the stream once the events queued so far are sent.
+         */
+        synchronized void close() {
+            closed = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (sending || done) return;
+            sending = true;
+            RUNNER.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Event next;
+                synchronized (this) {
+                    next = pending.poll();
+                    if (next == null) {
+                        sending = false;
+                        if (!closed || done) return;
+                        done = true;
+                    }
+                }
+                if (next == null) {
+                    emitter.complete();
+                    return;
+                }
+                if (!send(emitter, next)) {
+                    synchronized (this) {
+                        done = true;
+                        pending.clear();
+                    }
+                }
+            }
+        }
+
+        private static boolean send(SseEmitter emitter, Event event) {
+            try {
+                emitter.send(SseEmitter.event().name(event.name()).data(event.data()));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+    }
+}
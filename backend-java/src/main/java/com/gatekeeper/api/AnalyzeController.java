@@ -1,115 +1,570 @@
 package com.gatekeeper.api;
 
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.airlift.compress.MalformedInputException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.io.IOException;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/api")
 public class AnalyzeController {
+    private static final int MAX_FILE_FINDINGS = Env.intValue("GATEKEEPER_MAX_FILE_FINDINGS", 100);
     private final GroqAnalysisService groqService;
+    private final AnalysisHistory history;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AnalysisJobs jobs = new AnalysisJobs();
+    private final IncrementalAnalysis incremental = new IncrementalAnalysis();
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final AdmissionControl admission = new AdmissionControl();
+    private final NearDuplicateIndex nearDuplicates = new NearDuplicateIndex();
 
     public AnalyzeController() {
-        String groqApiKey = System.getenv("GROQ_API_KEY");
-        this.groqService = groqApiKey != null ? new GroqAnalysisService(groqApiKey) : null;
+        this(groqFromEnv(), AnalysisHistory.fromEnv());
     }
 
-    record AnalyzeRequest(String prNumber, String author, List<String> changedFiles, String diff) {}
-    record AnalyzeResponse(String prNumber, double riskScore, String riskLevel, String decision, String prStatus, List<String> missingTests, List<String> suggestedTests, String summary, String explanation, String suggestionCode, List<String> spellingSuggestions, String groqSuggestion, String errorMessage, long analysisTimestamp) {}
+    /**
+     * @param groqService GROQ client, or null for rule-based analysis only
+     */
+    AnalyzeController(GroqAnalysisService groqService) {
+        this(groqService, null);
+    }
+
+    /**
+     * @param history Where finished analyses are recorded, or null to keep none
+     */
+    AnalyzeController(GroqAnalysisService groqService, AnalysisHistory history) {
+        this.groqService = groqService;
+        this.history = history;
+    }
+
+    private static GroqAnalysisService groqFromEnv() {
+        String groqApiKey = Env.value("GROQ_API_KEY");
+        return groqApiKey != null ? new GroqAnalysisService(groqApiKey) : null;
+    }
+
+    record AnalyzeRequest(String prNumber, String author, String repository, List<String> changedFiles, String diff) {}
+    record AnalyzeResponse(String prNumber, double riskScore, String riskLevel, String decision, String prStatus, List<String> missingTests, List<String> suggestedTests, String summary, String explanation, String suggestionCode, List<String> spellingSuggestions, String groqSuggestion, String errorMessage, long analysisTimestamp, boolean degraded, String derivedFrom, List<FileFinding> files) {}
+
+    /**
+     * What one file of the diff adds to the analysis.
+     * @param riskContribution The file's uncapped share of the risk score, see {@link RuleSet#contribution}
+     */
+    record FileFinding(String path, double riskContribution, List<String> missingTests) {}
 
     @PostMapping("/analyze")
     public ResponseEntity<AnalyzeResponse> analyze(@RequestBody AnalyzeRequest req, @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
-        // Simple API key check (in production use proper auth)
-        String required = System.getenv("GATEKEEPER_API_KEY");
-        if (required != null && !required.isBlank() && (apiKey == null || !apiKey.equals(required))) {
+        if (!isAuthorized(apiKey)) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
+        try (AdmissionControl.Permit permit = admission.analysis()) {
+            if (permit == null) return shed();
+            long start = System.nanoTime();
+            // Redelivered webhooks share the analysis of the first delivery
+            AnalyzeResponse response = singleFlight.run(req, () -> analyzeUpdate(req));
+            GatekeeperMetrics.Stage.ANALYSIS.record(start);
+            return ResponseEntity.ok(response);
+        }
+    }
 
-        String diff = req.diff() == null ? "" : req.diff();
-        List<String> changedFiles = req.changedFiles() == null ? new ArrayList<>() : req.changedFiles();
-        double risk = computeRisk(diff, changedFiles);
-        String decision = classify(risk, diff, changedFiles);
-        List<String> missing = findMissingTests(diff, changedFiles);
-        
-        // Use GROQ service safely if available
-        List<String> suggested;
-        String explanation;
-        List<String> spellingSuggestions = Collections.emptyList();
-        String groqSuggestion = null;
-        
-        if (groqService != null) {
-            suggested = groqService.generateTestRecommendations(changedFiles, diff);
-            String groqExplanation = groqService.generateEnhancedExplanation(decision, risk, diff, changedFiles);
-            explanation = groqExplanation != null ? groqExplanation : explain(risk, diff, changedFiles);
-            
-            // Get spelling suggestions
-            try {
-                spellingSuggestions = groqService.generateSpellingSuggestions(diff);
-                if (spellingSuggestions == null) spellingSuggestions = Collections.emptyList();
-            } catch (Exception e) {
-                spellingSuggestions = Collections.emptyList();
-            }
-            
-            // Get GROQ suggestion
-            String suggestionCode = generateSuggestionCode(decision, risk, changedFiles, diff);
-            if (spellingSuggestions.isEmpty() || "BLOCK".equals(suggestionCode)) {
-                // Only override if no spelling issues found
-                if (spellingSuggestions.isEmpty()) {
-                    try {
-                        groqSuggestion = groqService.generateEnhancedSuggestionDescription(suggestionCode, explanation);
-                    } catch (Exception e) {
-                        // Silently ignore GROQ errors
-                    }
+    /**
+     * Analyze a diff without materializing it: accepts the AnalyzeRequest JSON or a raw unified diff
+     * (text/x-diff, text/plain), optionally with Content-Encoding: gzip. Metadata for raw uploads comes
+     * from the query string, and changed files default to the paths in the diff headers.
+     */
+    @PostMapping("/analyze/stream")
+    public ResponseEntity<AnalyzeResponse> analyzeStream(HttpServletRequest request,
+                                                         @RequestParam(required = false) String prNumber,
+                                                         @RequestParam(required = false) String author,
+                                                         @RequestParam(required = false) String repository,
+                                                         @RequestParam(required = false) List<String> changedFiles,
+                                                         @RequestHeader(value = "X-API-KEY", required = false) String apiKey) throws IOException {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try (AdmissionControl.Permit permit = admission.analysis()) {
+            if (permit == null) return shed();
+            return analyzeStream(request, prNumber, author, repository, changedFiles);
+        }
+    }
+
+    private ResponseEntity<AnalyzeResponse> analyzeStream(HttpServletRequest request, String prNumber, String author,
+                                                          String repository, List<String> changedFiles) throws IOException {
+        long start = System.nanoTime();
+        String contentType = request.getContentType();
+        if (contentType != null && (contentType.contains("smile") || contentType.contains("cbor"))) {
+            // The body is scanned as it arrives by a JSON-only reader; binary requests go to /api/analyze
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+        String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (!RequestDecompression.supported(contentEncoding)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                .header(HttpHeaders.ACCEPT_ENCODING, RequestDecompression.SUPPORTED)
+                .build();
+        }
+        DiffIngest ingest;
+        try {
+            ingest = DiffIngest.read(request.getInputStream(), contentType, contentEncoding);
+        } catch (IllegalArgumentException | IOException | MalformedInputException e) {
+            // Malformed JSON, or a body that is corrupt, cut off or failed to arrive; the bound endpoints answer 400 too
+            return ResponseEntity.badRequest().build();
+        }
+        String note = ingest.truncated()
+            ? "Diff exceeded " + DiffIngest.MAX_DIFF_BYTES + " bytes; analysis covers the first " + DiffIngest.MAX_DIFF_BYTES + " bytes only"
+            : null;
+        AnalyzeResponse response = runAnalysis(ingest.toRequest(prNumber, author, repository, changedFiles), FileScans.of(ingest.scan()), note);
+        GatekeeperMetrics.Stage.ANALYSIS.record(start);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Analyze many PRs in one call. Results are streamed back as NDJSON, one AnalyzeResponse per line
+     * in completion order, so clients can act on each PR as soon as it is done.
+     */
+    @PostMapping(value = "/analyze/batch", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> analyzeBatch(@RequestBody List<AnalyzeRequest> requests, @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (requests.size() > BatchAnalysis.MAX_BATCH_SIZE) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        // A batch counts as one analysis; its pipeline bounds the work of its PRs
+        AdmissionControl.Permit permit = admission.analysis();
+        if (permit == null) return shed();
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("application/x-ndjson"))
+            .body(new BatchAnalysis(this, objectMapper).start(requests, permit));
+    }
+
+    /**
+     * Start an analysis in the background. The rule-based verdict is published within milliseconds on the
+     * job's event stream, GROQ enrichments follow as they complete.
+     */
+    @PostMapping("/analyze/async")
+    public ResponseEntity<Map<String, String>> analyzeAsync(@RequestBody AnalyzeRequest req, @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        AdmissionControl.Permit permit = admission.analysis();
+        if (permit == null) return shed();
+        String jobId = jobs.submit(this, req, permit);
+        if (jobId == null) return shed();
+        return ResponseEntity.accepted().body(Map.of(
+            "jobId", jobId,
+            "status", "/api/analyze/jobs/" + jobId,
+            "events", "/api/analyze/jobs/" + jobId + "/events"));
+    }
+
+    @GetMapping("/analyze/jobs/{jobId}")
+    public ResponseEntity<AnalysisJobs.Snapshot> analysisJob(@PathVariable String jobId, @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        AnalysisJobs.Snapshot snapshot = jobs.snapshot(jobId);
+        return snapshot == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(snapshot);
+    }
+
+    /**
+     * Server-Sent Events for one job; events already published are replayed first.
+     */
+    @GetMapping(value = "/analyze/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> analysisJobEvents(@PathVariable String jobId, @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        SseEmitter emitter = jobs.subscribe(jobId);
+        return emitter == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Stream the GROQ explanation of a PR as Server-Sent Events: {@code verdict} (rule-based response) at once,
+     * a {@code delta} with each piece of text as GROQ writes it, then {@code explanation} with the complete text.
+     * That is the heuristic explanation when GROQ is not configured or the stream failed, replacing any deltas.
+     */
+    @PostMapping(value = "/analyze/explain", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> explainStream(@RequestBody AnalyzeRequest req, @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        Verdict verdict = heuristics(req, scan(req));
+        String fallback = explain(verdict.risk(), verdict.diff(), verdict.files());
+        ExplanationStream stream = new ExplanationStream(fallback, GroqAnalysisService.STREAM_TIMEOUT_MS);
+        stream.send("verdict", respond(verdict, heuristicEnrichment(verdict), null));
+        Flow.Publisher<String> explanation = groqService == null || !groqAvailable() ? null
+            : groqService.streamEnhancedExplanation(verdict.decision(), verdict.risk(), diffContext(verdict), verdict.changedFiles());
+        stream.start(explanation);
+        return ResponseEntity.ok(stream.emitter());
+    }
+
+    /**
+     * Analyze a PR whose complete diff is in the request. Repeat analyses of the same PR only scan and
+     * enrich the hunks that changed since the previous one.
+     */
+    private AnalyzeResponse analyzeUpdate(AnalyzeRequest req) {
+        long start = System.nanoTime();
+        IncrementalAnalysis.Plan plan = incremental.plan(req);
+        if (plan == null) {
+            // One pass over the diff feeds every rule below
+            return runAnalysis(req, scan(req), null);
+        }
+        GatekeeperMetrics.Stage.SCAN.record(start);
+        Verdict verdict = heuristics(req, plan.scan());
+        GroqEnrichment.Result enrichment;
+        // A heuristic fallback is not kept as the PR's enrichment, so its next update asks GROQ again
+        boolean keep = true;
+        Reuse reused;
+        if (groqService == null) {
+            enrichment = heuristicEnrichment(verdict);
+        } else if (plan.unchanged()) {
+            enrichment = plan.previous();
+        } else if (plan.previous() == null && (reused = reuseNearDuplicate(verdict, null)) != null) {
+            incremental.record(plan, reused.enrichment());
+            return reused.response();
+        } else {
+            try (AdmissionControl.Permit permit = admission.enrichment(groqService)) {
+                if (permit == null) {
+                    return finish(verdict, heuristicEnrichment(verdict), null, true);
+                }
+                if (plan.previous() != null) {
+                    // Only the new and changed hunks go to GROQ
+                    Verdict delta = new Verdict(req, plan.deltaDiff(), verdict.changedFiles(), verdict.files(), verdict.scan(), verdict.risk(), verdict.decision(), verdict.missingTests(), verdict.fileFindings());
+                    GroqEnrichment update = startEnrichment(groqService.asUpdateOf(plan.previous().explanation()), delta, null);
+                    GroqEnrichment.Result result = update.await();
+                    keep = update.explained();
+                    enrichment = incremental.merge(plan, result, keep, verdict.diff());
+                } else {
+                    GroqEnrichment full = startEnrichment(verdict);
+                    enrichment = await(verdict, full);
+                    keep = full.explained();
                 }
             }
-        } else {
+        }
+        if (keep) incremental.record(plan, enrichment);
+        return finish(verdict, enrichment, null);
+    }
+
+    /**
+     * Rule-based verdict plus GROQ enrichment for one PR.
+     * @param scan Scans of the complete diff; req.diff() may be only a retained prefix of it
+     * @param errorMessage Note about degraded input, or null
+     */
+    private AnalyzeResponse runAnalysis(AnalyzeRequest req, FileScans scan, String errorMessage) {
+        Verdict verdict = heuristics(req, scan);
+        if (groqService == null) {
             // Fallback when GROQ not available
-            suggested = suggestTests(missing, changedFiles);
-            explanation = explain(risk, diff, changedFiles);
+            return finish(verdict, heuristicEnrichment(verdict), errorMessage);
         }
-        
-        String summary = generateSummary(req, changedFiles);
+        Reuse reused = reuseNearDuplicate(verdict, errorMessage);
+        if (reused != null) return reused.response();
+        try (AdmissionControl.Permit permit = admission.enrichment(groqService)) {
+            if (permit == null) return finish(verdict, heuristicEnrichment(verdict), errorMessage, true);
+            return finish(verdict, await(verdict, startEnrichment(verdict)), errorMessage);
+        }
+    }
+
+    /**
+     * Response built from a recent analysis of a near-identical diff, and the enrichment it reused.
+     */
+    record Reuse(AnalyzeResponse response, GroqEnrichment.Result enrichment) {}
+
+    /**
+     * Finish with the enrichment of a recent analysis of the same repository whose diff is nearly the same, such as
+     * the original of a rebased, cherry-picked or backported PR, when the rules reach the same decision; null when the verdict
+     * needs its own GROQ calls. Only valid when {@link #groqEnabled()}.
+     */
+    Reuse reuseNearDuplicate(Verdict v, String errorMessage) {
+        NearDuplicateIndex.Match match = nearDuplicates.find(NearDuplicateIndex.signature(v.diff()), v.decision(), v.req().repository(), v.diff());
+        if (match == null) return null;
+        GatekeeperMetrics.nearDuplicate();
+        return new Reuse(recorded(v.req(), respond(v, match.enrichment(), errorMessage, false, match.source())), match.enrichment());
+    }
+
+    /**
+     * Wait for a verdict's GROQ enrichment; when GROQ wrote it, keep it for later near-duplicate diffs.
+     */
+    GroqEnrichment.Result await(Verdict v, GroqEnrichment enrichment) {
+        GroqEnrichment.Result result = enrichment.await();
+        if (enrichment.explained()) {
+            String source = (v.req().repository() == null ? "" : v.req().repository()) + "#" + v.req().prNumber();
+            nearDuplicates.add(NearDuplicateIndex.signature(v.diff()), v.decision(), v.req().repository(), source, result);
+        }
+        return result;
+    }
+
+    /**
+     * Output of the rule-based stage: everything the GROQ stage and the response are built from.
+     */
+    record Verdict(AnalyzeRequest req, String diff, List<String> changedFiles, ChangedFileIndex files, DiffScan scan,
+                   double risk, String decision, List<String> missingTests, List<FileFinding> fileFindings) {}
+
+    /**
+     * Single pass over the request's diff that feeds every rule, file by file in parallel for large diffs.
+     */
+    FileScans scan(AnalyzeRequest req) {
+        long start = System.nanoTime();
+        FileScans scan = FileScans.scan(RuleEngine.current(), req.diff());
+        GatekeeperMetrics.Stage.SCAN.record(start);
+        return scan;
+    }
+
+    /**
+     * Cheap rule-based stage; needs no I/O, so callers may run it on any thread.
+     */
+    Verdict heuristics(AnalyzeRequest req, FileScans scans) {
+        DiffScan scan = scans.total();
+        String diff = req.diff() == null ? "" : req.diff();
+        List<String> changedFiles = req.changedFiles() == null ? new ArrayList<>() : req.changedFiles();
+        GatekeeperMetrics.diff(scan.chars());
+        // Every path is classified once here, with the rules the diff was scanned with; the rules below only read the index
+        ChangedFileIndex files = ChangedFileIndex.of(scan.rules(), changedFiles);
+        long riskStart = System.nanoTime();
+        double risk = computeRisk(scan, files);
+        GatekeeperMetrics.Stage.RISK.record(riskStart);
+        long classifyStart = System.nanoTime();
+        String decision = classify(risk, diff, files);
+        GatekeeperMetrics.Stage.CLASSIFICATION.record(classifyStart);
+        long testsStart = System.nanoTime();
+        List<String> missing = findMissingTests(scan, files);
+        List<FileFinding> fileFindings = fileFindings(scans, files);
+        GatekeeperMetrics.Stage.MISSING_TESTS.record(testsStart);
+        return new Verdict(req, diff, changedFiles, files, scan, risk, decision, missing, fileFindings);
+    }
+
+    boolean groqEnabled() {
+        return groqService != null;
+    }
+
+    /**
+     * Whether an analysis that is about to call GROQ may do so, false while the circuit breaker is open;
+     * only valid when {@link #groqEnabled()}. For background work that does not hold a request thread.
+     */
+    boolean groqAvailable() {
+        if (groqService.available()) return true;
+        GatekeeperMetrics.degraded("groq_unavailable");
+        return false;
+    }
+
+    /**
+     * Wait until the GROQ scheduler has room for the calls of one batch enrichment, and reserve it; give it back
+     * with {@link #releaseGroqBatch}. Only valid when {@link #groqEnabled()}.
+     */
+    void acquireGroqBatch(int calls) throws InterruptedException {
+        groqService.acquireBatch(calls);
+    }
+
+    void releaseGroqBatch(int calls) {
+        groqService.releaseBatch(calls);
+    }
+
+    /**
+     * Start the GROQ calls for a verdict; only valid when {@link #groqEnabled()}.
+     */
+    GroqEnrichment startEnrichment(Verdict v) {
+        return startEnrichment(v, GroqScheduler.Priority.INTERACTIVE);
+    }
+
+    GroqEnrichment startEnrichment(Verdict v, GroqScheduler.Priority priority) {
+        return startEnrichment(v, priority, null);
+    }
+
+    /**
+     * @param explanationDeltas Receives the GROQ explanation piece by piece while it is generated, or null
+     */
+    GroqEnrichment startEnrichment(Verdict v, GroqScheduler.Priority priority, Consumer<String> explanationDeltas) {
+        return startEnrichment(groqService.withPriority(priority), v, explanationDeltas);
+    }
+
+    private GroqEnrichment startEnrichment(GroqAnalysisService groq, Verdict v, Consumer<String> explanationDeltas) {
+        // All GROQ calls run concurrently; any that miss their deadline keep the heuristic value
+        return GroqEnrichment.start(groq, v.decision(), v.risk(), diffContext(v), v.changedFiles(),
+            suggestionCode(v), suggestTests(v.missingTests(), v.changedFiles()), explain(v.risk(), v.diff(), v.files()), explanationDeltas);
+    }
+
+    /**
+     * Part of the verdict's diff the GROQ prompts see. Hunks are ranked once with the verdict's rules; each
+     * prompt then takes its share of this selection.
+     */
+    private String diffContext(Verdict v) {
+        return DiffContext.select(v.scan().rules(), v.diff(), GroqAnalysisService.DIFF_TOKENS);
+    }
+
+    GroqEnrichment.Result heuristicEnrichment(Verdict v) {
+        // Fallback when GROQ not available
+        return new GroqEnrichment.Result(suggestTests(v.missingTests(), v.changedFiles()),
+            explain(v.risk(), v.diff(), v.files()), Collections.emptyList(), null);
+    }
+
+    /**
+     * Assemble the response from the rule-based verdict and its (GROQ or heuristic) enrichment.
+     */
+    AnalyzeResponse respond(Verdict v, GroqEnrichment.Result enrichment, String errorMessage) {
+        return respond(v, enrichment, errorMessage, false);
+    }
+
+    /**
+     * @param degraded True when GROQ was skipped because it is unavailable or the backend is overloaded
+     */
+    AnalyzeResponse respond(Verdict v, GroqEnrichment.Result enrichment, String errorMessage, boolean degraded) {
+        return respond(v, enrichment, errorMessage, degraded, null);
+    }
+
+    /**
+     * @param derivedFrom PR whose enrichment was reused for this near-identical diff, or null
+     */
+    AnalyzeResponse respond(Verdict v, GroqEnrichment.Result enrichment, String errorMessage, boolean degraded, String derivedFrom) {
+        double risk = v.risk();
+        String decision = v.decision();
+        List<String> spellingSuggestions = enrichment.spellingSuggestions();
+        String summary = generateSummary(v.req(), v.files());
         
         // Generate suggestion code - used for UI categorization and display
         // Suggestion codes help users understand the type of review needed
-        String suggestionCode = null;
-        
-        // Try GROQ-based code generation first (more context-aware)
-        if (groqService != null) {
-            suggestionCode = groqService.generateSuggestionCodeFromAnalysis(decision, risk, diff, changedFiles);
-        }
-        
-        // Fall back to rule-based generation if GROQ unavailable or returned null
-        if (suggestionCode == null) {
-            suggestionCode = generateSuggestionCode(decision, risk, changedFiles, diff);
-        }
+        String suggestionCode = suggestionCode(v);
         
         // If spelling issues found, escalate suggestion code
         if (!spellingSuggestions.isEmpty() && !"BLOCK".equals(suggestionCode)) {
             suggestionCode = "WARN_SPELLING_ERRORS";
         }
         
-        String errorMessage = null; // No errors if we reached here
         long analysisTimestamp = System.currentTimeMillis();
         
         // Generate risk level and PR status
-        String riskLevel = getRiskLevel(risk);
+        String riskLevel = v.files().rules().riskLevel(risk);
         String prStatus = getPRStatus(decision, risk);
 
-        AnalyzeResponse resp = new AnalyzeResponse(req.prNumber(), risk, riskLevel, decision, prStatus, missing, suggested, summary, explanation, suggestionCode, spellingSuggestions, groqSuggestion, errorMessage, analysisTimestamp);
-        return ResponseEntity.ok(resp);
+        return new AnalyzeResponse(v.req().prNumber(), risk, riskLevel, decision, prStatus, v.missingTests(), enrichment.suggestedTests(), summary, enrichment.explanation(), suggestionCode, spellingSuggestions, enrichment.groqSuggestion(), errorMessage, analysisTimestamp, degraded, derivedFrom, v.fileFindings());
     }
-    
-    private String getRiskLevel(double risk) {
-        if (risk >= 0.90) return "CRITICAL";
-        if (risk >= 0.75) return "HIGH";
-        if (risk >= 0.35) return "MEDIUM";
-        if (risk >= 0.10) return "LOW";
-        return "MINIMAL";
+
+    /**
+     * Final response of an analysis, recorded in the history; intermediate results use {@link #respond}.
+     */
+    AnalyzeResponse finish(Verdict v, GroqEnrichment.Result enrichment, String errorMessage) {
+        return finish(v, enrichment, errorMessage, false);
+    }
+
+    AnalyzeResponse finish(Verdict v, GroqEnrichment.Result enrichment, String errorMessage, boolean degraded) {
+        return recorded(v.req(), respond(v, enrichment, errorMessage, degraded));
+    }
+
+    AnalyzeResponse recorded(AnalyzeRequest req, AnalyzeResponse response) {
+        if (history != null) history.record(req.repository(), req.author(), response);
+        return response;
+    }
+
+    /**
+     * Stored analyses, newest first. Pass a page's {@code next} as {@code before} for the following page;
+     * {@code from} and {@code to} are epoch milliseconds.
+     */
+    @GetMapping("/history")
+    public ResponseEntity<AnalysisHistory.Page> history(@RequestParam(required = false) String repository,
+                                                        @RequestParam(required = false) String author,
+                                                        @RequestParam(required = false) String decision,
+                                                        @RequestParam(required = false) Long from,
+                                                        @RequestParam(required = false) Long to,
+                                                        @RequestParam(required = false) Long before,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (history == null) return ResponseEntity.noContent().build();
+        return ResponseEntity.ok(history.query(repository, author, decision, from, to, before, limit));
+    }
+
+    /**
+     * Decision counts, average risk and per-day counts of the stored analyses matching the filters.
+     */
+    @GetMapping("/history/stats")
+    public ResponseEntity<AnalysisHistory.Stats> historyStats(@RequestParam(required = false) String repository,
+                                                              @RequestParam(required = false) String author,
+                                                              @RequestParam(required = false) String decision,
+                                                              @RequestParam(required = false) Long from,
+                                                              @RequestParam(required = false) Long to,
+                                                              @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (history == null) return ResponseEntity.noContent().build();
+        return ResponseEntity.ok(history.stats(repository, author, decision, from, to));
+    }
+
+    @GetMapping("/history/{id}")
+    public ResponseEntity<AnalysisHistory.Entry> historyEntry(@PathVariable long id, @RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        AnalysisHistory.Entry entry = history == null ? null : history.get(id);
+        return entry == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(entry);
+    }
+
+    @PreDestroy
+    void closeHistory() {
+        if (history != null) history.close();
     }
     
+    @GetMapping("/groq/cache")
+    public ResponseEntity<GroqResponseCache.Stats> groqCacheStats(@RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        GroqResponseCache.Stats stats = groqService == null ? null : groqService.cacheStats();
+        return stats == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(stats);
+    }
+
+    @GetMapping("/groq/scheduler")
+    public ResponseEntity<GroqScheduler.Stats> groqSchedulerStats(@RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return groqService == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(groqService.schedulerStats());
+    }
+
+    @GetMapping("/rules")
+    public ResponseEntity<RuleEngine.Info> rules(@RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(RuleEngine.info());
+    }
+
+    /**
+     * Re-read GATEKEEPER_RULES_FILE now instead of waiting for the next change check.
+     */
+    @PostMapping("/rules/reload")
+    public ResponseEntity<RuleEngine.Info> reloadRules(@RequestHeader(value = "X-API-KEY", required = false) String apiKey) {
+        if (!isAuthorized(apiKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (RuleEngine.RULES_FILE == null) return ResponseEntity.notFound().build();
+        return RuleEngine.reload() ? ResponseEntity.ok(RuleEngine.info()) : ResponseEntity.unprocessableEntity().body(RuleEngine.info());
+    }
+
+    /**
+     * Answer for a request refused by admission control; clients should retry shortly.
+     */
+    private static <T> ResponseEntity<T> shed() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header("Retry-After", String.valueOf(AdmissionControl.RETRY_AFTER_SECONDS))
+            .build();
+    }
+
+    private boolean isAuthorized(String apiKey) {
+        // Simple API key check (in production use proper auth)
+        String required = Env.value("GATEKEEPER_API_KEY");
+        return required == null || required.isBlank() || (apiKey != null && apiKey.equals(required));
+    }
+
     private String getPRStatus(String decision, double risk) {
         if ("BLOCK".equals(decision)) {
             return "❌ BLOCKED - Manual review required before merge";
@@ -123,91 +578,91 @@ public class AnalyzeController {
         }
     }
 
-    private double computeRisk(String diff, List<String> files) {
-        if (diff==null || diff.isBlank()) return 0.0;
-        int lines = diff.split("\n").length;
-        // Risk based on lines changed: base risk calculation
-        double base = Math.min(1.0, lines / 200.0);
-        
-        // Penalize dangerous keywords in diff
-        String lower = diff.toLowerCase();
-        if (lower.contains("system.exit") || lower.contains("runtime.getruntime") || lower.contains("exec(") || lower.contains("password")) {
-            return Math.max(0.75, base + 0.5);
-        }
-        
-        // Analyze changed file types for risk
-        if (files != null && !files.isEmpty()) {
-            for (String file : files) {
-                String fileLower = file.toLowerCase();
-                // High-risk file types
-                if (fileLower.endsWith(".properties") || fileLower.endsWith(".yml") || fileLower.endsWith(".yaml") || fileLower.endsWith(".xml")) {
-                    base += 0.1;
-                }
-                // Config files
-                if (fileLower.contains("pom.xml") || fileLower.contains("build.gradle") || fileLower.contains("dockerfile")) {
-                    base += 0.15;
-                }
-                // Security-related files
-                if (fileLower.contains("security") || fileLower.contains("auth") || fileLower.contains("password") || fileLower.contains("secret")) {
-                    base += 0.2;
-                }
-            }
-        }
-        return Math.min(1.0, base);
+    double computeRisk(DiffScan scan, ChangedFileIndex files) {
+        return scan.rules().risk(scan, files);
     }
 
-    private String classify(double risk, String diff, List<String> files) {
-        // Enhanced classification based on risk and file types
-        if (risk >= 0.75) return "BLOCK";
-        if (risk >= 0.35) return "WARN";
-        
-        // Check if only test/doc files changed (lower risk)
-        if (files != null && !files.isEmpty()) {
-            boolean onlyTestsAndDocs = files.stream().allMatch(f -> 
-                f.toLowerCase().matches(".*\\.(test\\.js|spec\\.js|test\\.java|spec\\.java|md|txt|doc)$"));
-            if (onlyTestsAndDocs && risk < 0.1) return "ALLOW";
-        }
-        
-        return "ALLOW";
+    String classify(double risk, String diff, ChangedFileIndex files) {
+        return files.rules().decision(risk);
     }
 
-    private List<String> findMissingTests(String diff, List<String> files) {
+    List<String> findMissingTests(DiffScan scan, ChangedFileIndex files) {
         List<String> res = new ArrayList<>();
-        if ((diff==null || diff.isBlank()) && (files == null || files.isEmpty())) return res;
+        if (scan.blank() && files.isEmpty()) return res;
         
         // Check for new public methods or endpoints in the diff
-        if (diff != null && !diff.isBlank()) {
-            Pattern methodPat = Pattern.compile("public (static )?[\\w<>\\[\\]]+\\s+\\w+\\s*\\(");
-            var m = methodPat.matcher(diff);
-            int count = 0;
-            while (m.find()) count++;
+        if (!scan.blank()) {
+            int count = scan.publicMethods();
             if (count>0) res.add("Unit tests for new/changed public methods ("+count+" found)");
-            if (diff.contains("TODO") || diff.contains("FIXME")) res.add("Address TODO/FIXME and add tests");
-            if (diff.contains("new endpoint") || diff.contains("@GetMapping") || diff.contains("@PostMapping")) res.add("Integration tests for new endpoints");
+            if (scan.hasAny("TODO", "FIXME")) res.add("Address TODO/FIXME and add tests");
+            if (scan.hasAny("NEW_ENDPOINT", "GET_MAPPING", "POST_MAPPING")) res.add("Integration tests for new endpoints");
         }
         
         // Analyze changed files for test coverage needs
-        if (files != null && !files.isEmpty()) {
-            boolean hasMainCode = files.stream().anyMatch(f -> f.toLowerCase().matches(".*src/main/.*\\.java$"));
-            boolean hasTests = files.stream().anyMatch(f -> f.toLowerCase().matches(".*src/test/.*\\.java$"));
-            boolean hasControllers = files.stream().anyMatch(f -> f.toLowerCase().contains("controller"));
-            boolean hasServices = files.stream().anyMatch(f -> f.toLowerCase().contains("service"));
-            
-            if (hasMainCode && !hasTests) {
-                res.add("Test files are missing for modified source code");
-            }
-            if (hasControllers) {
-                res.add("Integration tests for API endpoints");
-            }
-            if (hasServices) {
-                res.add("Unit tests for service layer changes");
-            }
+        if (files.any("MAIN_JAVA") && !files.any("TEST_JAVA")) {
+            res.add("Test files are missing for modified source code");
+        }
+        if (files.any("CONTROLLER")) {
+            res.add("Integration tests for API endpoints");
+        }
+        if (files.any("SERVICE")) {
+            res.add("Unit tests for service layer changes");
         }
         
         return res;
     }
 
-    private List<String> suggestTests(List<String> missing, List<String> files) {
+    /**
+     * Risk contribution and missing tests per file of the diff, the largest contributions first, at most
+     * {@code GATEKEEPER_MAX_FILE_FINDINGS} of them. The same rules as {@link #findMissingTests}, applied to
+     * each file's own scan and path.
+     */
+    List<FileFinding> fileFindings(FileScans scans, ChangedFileIndex files) {
+        if (scans.files().isEmpty() || MAX_FILE_FINDINGS <= 0) return List.of();
+        // A file that appears more than once in the diff gets one finding
+        Map<String, DiffScan> byPath = new LinkedHashMap<>();
+        for (FileScans.FileScan f : scans.files()) byPath.merge(f.path(), f.scan(), DiffScan::combine);
+        RuleSet rules = scans.total().rules();
+        PathMatcher.Classifier classifier = rules.paths().classifier();
+        int mainJava = rules.category("MAIN_JAVA"), testJava = rules.category("TEST_JAVA");
+        int controller = rules.category("CONTROLLER"), service = rules.category("SERVICE");
+        List<String> paths = new ArrayList<>(byPath.keySet());
+        int[][] categories = new int[paths.size()][];
+        boolean testsChanged = files.any("TEST_JAVA");
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = classifier.classify(paths.get(i));
+            testsChanged |= in(categories[i], testJava);
+        }
+
+        List<FileFinding> findings = new ArrayList<>(categories.length);
+        for (int i = 0; i < categories.length; i++) {
+            DiffScan scan = byPath.get(paths.get(i));
+            int[] c = categories[i];
+            List<String> missing = new ArrayList<>();
+            if (!scan.blank()) {
+                int count = scan.publicMethods();
+                if (count>0) missing.add("Unit tests for new/changed public methods ("+count+" found)");
+                if (scan.hasAny("TODO", "FIXME")) missing.add("Address TODO/FIXME and add tests");
+                if (scan.hasAny("NEW_ENDPOINT", "GET_MAPPING", "POST_MAPPING")) missing.add("Integration tests for new endpoints");
+            }
+            if (in(c, mainJava) && !testsChanged) missing.add("Test files are missing for modified source code");
+            if (in(c, controller)) missing.add("Integration tests for API endpoints");
+            if (in(c, service)) missing.add("Unit tests for service layer changes");
+            findings.add(new FileFinding(paths.get(i), rules.contribution(scan, c), missing));
+        }
+        // Stable, so equal contributions stay in diff order
+        findings.sort(Comparator.comparingDouble(FileFinding::riskContribution).reversed());
+        return findings.size() > MAX_FILE_FINDINGS ? List.copyOf(findings.subList(0, MAX_FILE_FINDINGS)) : findings;
+    }
+
+    private static boolean in(int[] categories, int category) {
+        for (int c : categories) {
+            if (c == category) return true;
+        }
+        return false;
+    }
+
+    List<String> suggestTests(List<String> missing, List<String> files) {
         List<String> s = new ArrayList<>();
         for (String m : missing) {
             if (m.contains("Unit tests")) s.add("Create JUnit tests covering edge cases and null inputs");
@@ -218,109 +673,49 @@ public class AnalyzeController {
         return s;
     }
 
-    private String generateSummary(AnalyzeRequest req, List<String> changedFiles) {
+    String generateSummary(AnalyzeRequest req, ChangedFileIndex files) {
         StringBuilder sb = new StringBuilder();
         sb.append("PR #").append(req.prNumber()).append(" by ").append(req.author()).append(". ");
         
-        int fileCount = changedFiles == null ? 0 : changedFiles.size();
-        sb.append("Changed files: ").append(fileCount).append(". ");
+        sb.append("Changed files: ").append(files.size()).append(". ");
         
         // Analyze file types changed
-        if (changedFiles != null && !changedFiles.isEmpty()) {
-            boolean hasTests = changedFiles.stream().anyMatch(f -> f.toLowerCase().contains("test"));
-            boolean hasConfig = changedFiles.stream().anyMatch(f -> f.toLowerCase().matches(".*(properties|yml|yaml|xml)$"));
-            boolean hasDocs = changedFiles.stream().anyMatch(f -> f.toLowerCase().matches(".*\\.(md|txt)$"));
-            
-            List<String> categories = new ArrayList<>();
-            if (hasTests) categories.add("tests");
-            if (hasConfig) categories.add("config");
-            if (hasDocs) categories.add("docs");
-            if (changedFiles.stream().anyMatch(f -> f.toLowerCase().endsWith(".java"))) categories.add("source code");
-            
-            if (!categories.isEmpty()) {
-                sb.append("Contains: ").append(String.join(", ", categories)).append(". ");
-            }
+        List<String> categories = new ArrayList<>();
+        if (files.any("TEST")) categories.add("tests");
+        if (files.any("CONFIG_SUFFIX")) categories.add("config");
+        if (files.any("DOCS")) categories.add("docs");
+        if (files.any("JAVA")) categories.add("source code");
+        
+        if (!categories.isEmpty()) {
+            sb.append("Contains: ").append(String.join(", ", categories)).append(". ");
         }
         
         sb.append("Analysis completed by Gatekeeper.");
         return sb.toString();
     }
 
-    private String explain(double risk, String diff, List<String> files) {
-        if (risk >= 0.75) {
+    String explain(double risk, String diff, ChangedFileIndex files) {
+        String decision = files.rules().decision(risk);
+        if ("BLOCK".equals(decision)) {
             return "High risk: Large changes or dangerous operations detected. Requires manual security review.";
         }
-        if (risk >= 0.35) {
+        if ("WARN".equals(decision)) {
             return "Medium risk: Moderate changes detected. Additional testing and code review recommended.";
         }
         
         // Low risk - provide specific feedback based on changes
-        if (files != null && !files.isEmpty()) {
-            boolean onlyDocsAndTests = files.stream().allMatch(f -> 
-                f.toLowerCase().matches(".*(test|spec|\\.md|\\.txt|readme).*"));
-            if (onlyDocsAndTests) {
-                return "Low risk: Only documentation and test files modified.";
-            }
-            
-            boolean hasSecurityFiles = files.stream().anyMatch(f -> 
-                f.toLowerCase().matches(".*(security|auth|password|secret|crypto|ssl).*"));
-            if (hasSecurityFiles) {
-                return "Low risk: Small changes in security-related files. Verify implementation details.";
-            }
+        if (files.all("DOCS_OR_TESTS")) {
+            return "Low risk: Only documentation and test files modified.";
+        }
+        if (files.any("SECURITY_RELATED")) {
+            return "Low risk: Small changes in security-related files. Verify implementation details.";
         }
         
         return "Low risk: Small changes or documentation-only updates.";
     }
 
-    private String generateSuggestionCode(String decision, double risk, List<String> files, String diff) {
-        // Generate context-aware suggestion codes based on decision, risk, and file analysis
-        // These codes are displayed prominently in the UI to help developers quickly understand the review category
-        // Code Format: <DECISION>_<CATEGORY> where DECISION is BLOCK/WARN/ALLOW
-        // 
-        // UI Display:
-        // - BLOCK codes: Displayed in red (#d32f2f) - requires immediate action
-        // - WARN codes: Displayed in orange (#f57c00) - requires additional review
-        // - ALLOW codes: Displayed in green (#388e3c) - safe for merge
-        //
-        // Suggestion codes also trigger specific descriptive messages in the dashboard
-        // and influence the PR status display (❌ BLOCKED, ⚠️ NEEDS REVIEW, ✅ APPROVED)
-        
-        if ("BLOCK".equals(decision)) {
-            if (risk >= 0.9) return "BLOCK_CRITICAL_SECURITY";
-            if (risk >= 0.8) {
-                // Check for specific security issues
-                String lower = diff.toLowerCase();
-                if (lower.contains("password") || lower.contains("secret") || lower.contains("apikey")) {
-                    return "BLOCK_CREDENTIAL_EXPOSURE";
-                }
-                if (lower.contains("runtime.exec") || lower.contains("system.exit")) {
-                    return "BLOCK_DANGEROUS_EXEC";
-                }
-                return "BLOCK_HIGH_SECURITY_RISK";
-            }
-            return "BLOCK_DANGEROUS_OPERATIONS";
-        }
-        
-        if ("WARN".equals(decision)) {
-            if (risk >= 0.5) {
-                // Check if config files changed
-                boolean hasConfigFiles = files != null && files.stream()
-                    .anyMatch(f -> f.toLowerCase().matches(".*(properties|yml|yaml|xml|config)$"));
-                if (hasConfigFiles) return "WARN_CONFIG_CHANGES_REVIEW";
-                return "WARN_MODERATE_RISK_REVIEW";
-            }
-            if (risk >= 0.4) {
-                // Architecture/structure changes
-                boolean hasArchChanges = files != null && files.stream()
-                    .anyMatch(f -> f.toLowerCase().matches(".*(pom|gradle|build|docker|kubernetes).*"));
-                if (hasArchChanges) return "WARN_BUILD_CONFIG_CHANGES";
-                return "WARN_CONFIG_CHANGES_REVIEW";
-            }
-            return "WARN_ENHANCED_TESTING_NEEDED";
-        }
-        
-        // ALLOW decision
-        if (risk >= 0.1) return "ALLOW_WITH_TESTING_REQUIRED";
-        return "ALLOW_LOW_RISK_SAFE";
+    private String suggestionCode(Verdict v) {
+        // Codes are <DECISION>_<CATEGORY>; the dashboard colors them by decision and shows a description per code
+        return v.files().rules().suggestionCode(v.decision(), v.risk(), v.scan(), v.files());
     }
 }
@@ -0,0 +1,344 @@
+package com.gatekeeper.api;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline backtest of the rule-based analysis over a local git history, for tuning the risk weights and the
+ * decision and risk level thresholds against what actually happened. Each commit, or each first-parent merge
+ * with {@code BACKTEST_MERGES}, becomes the request a PR with that diff would have sent, and goes through
+ * the same rule stage as {@code /api/analyze}, with the active rules and without GROQ. A commit counts as bad
+ * when a later commit reverts it, or when it is listed in {@code BACKTEST_LABELS}.
+ * <p>
+ * The commit list is split fork-join style into chunks of {@code BACKTEST_CHUNK}; each chunk reads its
+ * diffs from its own {@code git log} process and analyzes them as they stream in, so diff generation and
+ * analysis both run on every core and only one diff per worker is held in memory.
+ * <p>
+ * Writes {@code verdicts.csv}, one row per commit, and {@code sweep.csv}, flag rate, precision and recall
+ * of "risk at or above t" for t from 0 to 1, to {@code BACKTEST_OUT}, and prints a summary.
+ * <p>
+ * Run with {@code java -cp <backend jar> -Dloader.main=com.gatekeeper.api.Backtest org.springframework.boot.loader.launch.PropertiesLauncher <repository> [revision range...]}.
+ */
+public final class Backtest {
+    private static final int CHUNK = Env.intValue("BACKTEST_CHUNK", 256);
+    private static final int PARALLELISM = Env.intValue("BACKTEST_PARALLELISM", Runtime.getRuntime().availableProcessors());
+    private static final int MAX_DIFF_CHARS = Env.intValue("BACKTEST_MAX_DIFF_CHARS", 16 * 1024 * 1024);
+    private static final boolean MERGES = Env.flag("BACKTEST_MERGES", false);
+    private static final String OUT = Env.value("BACKTEST_OUT", "backtest");
+    private static final String LABELS = Env.value("BACKTEST_LABELS");
+    private static final double STEP = Env.doubleValue("BACKTEST_SWEEP_STEP", 0.05);
+
+    private static final char COMMIT_MARK = '\0';
+    private static final Pattern REVERT = Pattern.compile("This reverts commit ([0-9a-f]{40})");
+
+    /**
+     * @param chars Diff characters analyzed; the diff was cut to {@code BACKTEST_MAX_DIFF_CHARS} when truncated
+     */
+    record Verdict(String commit, long time, String author, int files, int chars, boolean truncated, double risk,
+                   String riskLevel, String decision, String suggestionCode, int missingTests) {}
+
+    private final Path repository;
+    private final int chunk;
+    private final RuleSet rules = RuleEngine.current();
+    private final AnalyzeController analyzer = new AnalyzeController(null);
+
+    Backtest(Path repository) {
+        this(repository, CHUNK);
+    }
+
+    /**
+     * @param chunk Commits read from one git process
+     */
+    Backtest(Path repository, int chunk) {
+        this.repository = repository;
+        this.chunk = chunk;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("usage: Backtest <repository> [revision range...]");
+            System.exit(2);
+        }
+        List<String> revisions = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : List.of("HEAD");
+        new Backtest(Path.of(args[0])).run(revisions, Path.of(OUT), System.out);
+    }
+
+    /**
+     * Analyze the commits of {@code revisions}, write {@code verdicts.csv} and {@code sweep.csv} to {@code out}
+     * and print the summary.
+     * @return One verdict per commit, newest first
+     */
+    Verdict[] run(List<String> revisions, Path out, PrintStream log) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        List<String> commits = commits(revisions);
+        Set<String> bad = bad();
+        log.printf("Analyzing %d %s with rules %s on %d threads%n", commits.size(), MERGES ? "merges" : "commits",
+            rules.source(), PARALLELISM);
+
+        Verdict[] verdicts = new Verdict[commits.size()];
+        new ForkJoinPool(PARALLELISM).invoke(new Chunk(commits, verdicts, 0, commits.size()));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Files.createDirectories(out);
+        writeVerdicts(out.resolve("verdicts.csv"), verdicts, bad);
+        List<double[]> sweep = sweep(verdicts, bad);
+        writeSweep(out.resolve("sweep.csv"), sweep);
+        summary(log, verdicts, bad, sweep, elapsedMs);
+        log.println("Wrote " + out.resolve("verdicts.csv") + " and " + out.resolve("sweep.csv"));
+        return verdicts;
+    }
+
+    /**
+     * Analyzes the commits {@code [from, to)}: splits while the range is larger than a chunk, then reads the
+     * chunk's diffs from one git process.
+     */
+    private final class Chunk extends RecursiveAction {
+        // Serializable only through ForkJoinTask; a chunk is never written out, so its fields are transient
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<String> commits;
+        private final transient Verdict[] verdicts;
+        private final int from, to;
+
+        Chunk(List<String> commits, Verdict[] verdicts, int from, int to) {
+            this.commits = commits;
+            this.verdicts = verdicts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunk) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Chunk(commits, verdicts, from, mid), new Chunk(commits, verdicts, mid, to));
+                return;
+            }
+            try {
+                analyzeChunk(commits, verdicts, from, to);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void analyzeChunk(List<String> commits, Verdict[] verdicts, int from, int to) throws IOException, InterruptedException {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = from; i < to; i++) index.put(commits.get(i), i);
+
+        List<String> command = new ArrayList<>(List.of("log", "--no-walk=unsorted", "--stdin", "-p", "--no-color", "--no-ext-diff",
+            "--format=%x00%H%x09%at%x09%an"));
+        if (MERGES) command.add("--diff-merges=first-parent");
+        Process git = git(command);
+        try (Writer stdin = new OutputStreamWriter(git.getOutputStream(), StandardCharsets.UTF_8)) {
+            for (int i = from; i < to; i++) stdin.write(commits.get(i) + "\n");
+        }
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(git.getInputStream(), StandardCharsets.UTF_8), 64 * 1024)) {
+            String header = null;
+            StringBuilder diff = new StringBuilder();
+            List<String> files = new ArrayList<>();
+            boolean truncated = false;
+            for (String line; (line = in.readLine()) != null; ) {
+                if (!line.isEmpty() && line.charAt(0) == COMMIT_MARK) {
+                    if (header != null) record(verdicts, index, header, diff, files, truncated);
+                    header = line.substring(1);
+                    diff.setLength(0);
+                    files = new ArrayList<>();
+                    truncated = false;
+                    continue;
+                }
+                if (line.startsWith("diff --git ")) {
+                    int b = line.lastIndexOf(" b/");
+                    if (b > 0) files.add(line.substring(b + 3));
+                }
+                if (diff.length() + line.length() + 1 > MAX_DIFF_CHARS) {
+                    truncated = true;
+                } else {
+                    diff.append(line).append('\n');
+                }
+            }
+            if (header != null) record(verdicts, index, header, diff, files, truncated);
+        }
+        if (git.waitFor() != 0) throw new IOException("git log failed for commits " + commits.get(from) + "..." + commits.get(to - 1));
+    }
+
+    private void record(Verdict[] verdicts, Map<String, Integer> index, String header, StringBuilder diff, List<String> files, boolean truncated) {
+        String[] fields = header.split("\t", 3);
+        Integer i = index.get(fields[0]);
+        if (i == null) return;
+        verdicts[i] = analyze(fields[0], Long.parseLong(fields[1]), fields.length > 2 ? fields[2] : "", diff.toString(), files, truncated);
+    }
+
+    /**
+     * The rule stage of {@code /api/analyze} for one commit.
+     */
+    Verdict analyze(String commit, long time, String author, String diff, List<String> files, boolean truncated) {
+        AnalyzeController.AnalyzeRequest req = new AnalyzeController.AnalyzeRequest(commit, author, repository.toString(), files, diff);
+        AnalyzeController.Verdict v = analyzer.heuristics(req, FileScans.of(DiffScanner.scan(rules, diff)));
+        String suggestionCode = rules.suggestionCode(v.decision(), v.risk(), v.scan(), v.files());
+        return new Verdict(commit, time, author, files.size(), diff.length(), truncated, v.risk(), rules.riskLevel(v.risk()),
+            v.decision(), suggestionCode, v.missingTests().size());
+    }
+
+    private List<String> commits(List<String> revisions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("rev-list"));
+        command.addAll(MERGES ? List.of("--first-parent", "--merges") : List.of("--no-merges"));
+        command.addAll(revisions);
+        command.add("--");
+        return lines(git(command));
+    }
+
+    /**
+     * Commits reverted anywhere in the repository, plus those listed in the labels file.
+     */
+    private Set<String> bad() throws IOException, InterruptedException {
+        Set<String> bad = new HashSet<>();
+        for (String line : lines(git(List.of("log", "--all", "--format=%B", "--grep=This reverts commit")))) {
+            Matcher m = REVERT.matcher(line);
+            while (m.find()) bad.add(m.group(1));
+        }
+        if (LABELS != null) {
+            for (String line : Files.readAllLines(Path.of(LABELS))) {
+                if (!line.isBlank() && !line.startsWith("#")) bad.add(line.trim());
+            }
+        }
+        return bad;
+    }
+
+    private Process git(List<String> args) throws IOException {
+        List<String> command = new ArrayList<>(List.of("git", "-C", repository.toString(), "-c", "core.quotepath=off"));
+        command.addAll(args);
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static List<String> lines(Process process) throws IOException, InterruptedException {
+        process.getOutputStream().close();
+        List<String> lines;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            lines = in.lines().filter(l -> !l.isEmpty()).toList();
+        }
+        if (process.waitFor() != 0) throw new IOException("git exited with " + process.exitValue());
+        return lines;
+    }
+
+    /**
+     * One row per threshold: {@code {t, flagged, flagged bad}}.
+     */
+    private static List<double[]> sweep(Verdict[] verdicts, Set<String> bad) {
+        int steps = (int) Math.round(1 / STEP);
+        long[] flagged = new long[steps + 1];
+        long[] flaggedBad = new long[steps + 1];
+        for (Verdict v : verdicts) {
+            if (v == null) continue;
+            boolean isBad = bad.contains(v.commit());
+            for (int s = 0; s <= steps; s++) {
+                // Compared with a tolerance so a risk of exactly 0.35 counts at t = 7 * 0.05
+                if (v.risk() + 1e-9 < s * STEP) break;
+                flagged[s]++;
+                if (isBad) flaggedBad[s]++;
+            }
+        }
+        List<double[]> rows = new ArrayList<>();
+        for (int s = 0; s <= steps; s++) rows.add(new double[] { s * STEP, flagged[s], flaggedBad[s] });
+        return rows;
+    }
+
+    private static void writeVerdicts(Path file, Verdict[] verdicts, Set<String> bad) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("commit,time,author,files,diffChars,truncated,risk,riskLevel,decision,suggestionCode,missingTests,bad\n");
+            for (Verdict v : verdicts) {
+                if (v == null) continue;
+                out.write(String.join(",", v.commit(), String.valueOf(v.time()), csv(v.author()), String.valueOf(v.files()),
+                    String.valueOf(v.chars()), String.valueOf(v.truncated()), String.format(Locale.ROOT, "%.4f", v.risk()),
+                    v.riskLevel(), v.decision(), v.suggestionCode(), String.valueOf(v.missingTests()),
+                    String.valueOf(bad.contains(v.commit()))));
+                out.write('\n');
+            }
+        }
+    }
+
+    private static void writeSweep(Path file, List<double[]> sweep) throws IOException {
+        long total = sweep.isEmpty() ? 0 : (long) sweep.get(0)[1];
+        long totalBad = sweep.isEmpty() ? 0 : (long) sweep.get(0)[2];
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("threshold,flagged,flaggedShare,flaggedBad,precision,recall\n");
+            for (double[] row : sweep) {
+                out.write(String.format(Locale.ROOT, "%.2f,%d,%.4f,%d,%.4f,%.4f%n", row[0], (long) row[1], ratio(row[1], total),
+                    (long) row[2], ratio(row[2], row[1]), ratio(row[2], totalBad)));
+            }
+        }
+    }
+
+    private void summary(PrintStream out, Verdict[] verdicts, Set<String> bad, List<double[]> sweep, long elapsedMs) {
+        long total = 0, totalBad = 0;
+        // Rows in rule order, including outcomes no commit got
+        Map<String, long[]> decisions = new LinkedHashMap<>();
+        rules.decisions().forEach(d -> decisions.put(d, new long[2]));
+        Map<String, long[]> levels = new LinkedHashMap<>();
+        rules.riskLevels().forEach(l -> levels.put(l, new long[2]));
+        for (Verdict v : verdicts) {
+            if (v == null) continue;
+            boolean isBad = bad.contains(v.commit());
+            total++;
+            if (isBad) totalBad++;
+            count(decisions, v.decision(), isBad);
+            count(levels, v.riskLevel(), isBad);
+        }
+        out.printf("%nAnalyzed %d of %d in %.1f s (%.0f/s); %d bad%n", total, verdicts.length, elapsedMs / 1000.0,
+            total * 1000.0 / Math.max(1, elapsedMs), totalBad);
+        table(out, "Decision", decisions, total);
+        table(out, "Risk level", levels, total);
+
+        out.printf("%n%-10s%10s%10s%11s%9s%n", "Risk >=", "flagged", "share", "precision", "recall");
+        double bestF1 = -1, best = Double.NaN;
+        for (double[] row : sweep) {
+            double precision = ratio(row[2], row[1]), recall = ratio(row[2], totalBad);
+            out.printf(Locale.ROOT, "%-10.2f%10d%9.1f%%%10.1f%%%8.1f%%%n", row[0], (long) row[1], 100 * ratio(row[1], total),
+                100 * precision, 100 * recall);
+            double f1 = precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0;
+            if (f1 > bestF1) {
+                bestF1 = f1;
+                best = row[0];
+            }
+        }
+        if (totalBad > 0) {
+            out.printf(Locale.ROOT, "Best F1 %.3f at risk >= %.2f%n", bestF1, best);
+        } else {
+            out.println("No reverted or labelled commits, so only the flag rates are meaningful");
+        }
+    }
+
+    private static void count(Map<String, long[]> counts, String key, boolean bad) {
+        long[] c = counts.computeIfAbsent(key, k -> new long[2]);
+        c[0]++;
+        if (bad) c[1]++;
+    }
+
+    private static void table(PrintStream out, String title, Map<String, long[]> counts, long total) {
+        out.printf("%n%-12s%10s%10s%8s%10s%n", title, "commits", "share", "bad", "bad rate");
+        counts.forEach((key, c) -> out.printf(Locale.ROOT, "%-12s%10d%9.1f%%%8d%9.1f%%%n", key, c[0], 100 * ratio(c[0], total),
+            c[1], 100 * ratio(c[1], c[0])));
+    }
+
+    private static double ratio(double part, double whole) {
+        return whole == 0 ? 0 : part / whole;
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
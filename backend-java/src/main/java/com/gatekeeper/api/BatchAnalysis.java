@@ -0,0 +1,167 @@
+package com.gatekeeper.api;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * Two-stage pipeline for analyzing many PRs in one call.
+ * The rule-based stage runs in parallel on the common fork-join pool. Its results feed the GROQ
+ * stage, where each enrichment first reserves its calls with the GROQ scheduler; the scheduler's budgets
+ * and priority queue pace the batch so it cannot trip provider rate limits or delay interactive analyses.
+ * Each result is written as one NDJSON line as soon as its PR is finished, so total time is set by GROQ
+ * throughput rather than request count times latency.
+ * A batch that runs past {@code GATEKEEPER_BATCH_TIMEOUT_MS}, or whose client goes away, is aborted: PRs not
+ * yet enriched make no more GROQ calls and are not reported.
+ */
+final class BatchAnalysis {
+    static final int MAX_BATCH_SIZE = Env.intValue("GATEKEEPER_BATCH_MAX_SIZE", 1000);
+    static final long TIMEOUT_MS = Env.longValue("GATEKEEPER_BATCH_TIMEOUT_MS", 30 * 60_000L);
+    // One enrichment issues up to four GROQ calls, or one in consolidated mode
+    private static final int CALLS_PER_ENRICHMENT = GroqEnrichment.CONSOLIDATED ? 1 : 4;
+
+    private static final ExecutorService GROQ_STAGE = Executors.newVirtualThreadPerTaskExecutor();
+    private static final ExecutorService WRITERS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final Object END = new Object();
+
+    private final AnalyzeController controller;
+    private final ObjectMapper objectMapper;
+    private final List<CompletableFuture<?>> all = new ArrayList<>();
+    // Threads waiting in the GROQ stage, interrupted when the batch is aborted
+    private final Set<Thread> enriching = new HashSet<>();
+    private volatile boolean aborted;
+
+    BatchAnalysis(AnalyzeController controller, ObjectMapper objectMapper) {
+        this.controller = controller;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Analyze all requests and send one AnalyzeResponse per line, in completion order, on the returned emitter.
+     * @param permit Admission of the batch, closed when it has finished or was aborted
+     */
+    ResponseBodyEmitter start(List<AnalyzeController.AnalyzeRequest> requests, AdmissionControl.Permit permit) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(TIMEOUT_MS);
+        emitter.onTimeout(() -> {
+            abort();
+            emitter.complete();
+        });
+        emitter.onError(e -> abort());
+        WRITERS.execute(() -> {
+            try {
+                run(requests, emitter);
+            } finally {
+                permit.close();
+            }
+        });
+        return emitter;
+    }
+
+    private void run(List<AnalyzeController.AnalyzeRequest> requests, ResponseBodyEmitter emitter) {
+        BlockingQueue<Object> done = new LinkedBlockingQueue<>();
+        synchronized (all) {
+            for (AnalyzeController.AnalyzeRequest req : requests) {
+                all.add(CompletableFuture
+                    .supplyAsync(() -> controller.heuristics(req, controller.scan(checkAborted(req))), ForkJoinPool.commonPool())
+                    .thenApplyAsync(this::enrich, GROQ_STAGE)
+                    .handle((resp, e) -> resp != null ? resp : aborted ? null : controller.recorded(req, failed(req, e)))
+                    .thenAccept(resp -> {
+                        if (resp != null) done.add(resp);
+                    }));
+            }
+            CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> done.add(END));
+        }
+
+        boolean finished = false;
+        try {
+            for (Object next = done.take(); next != END && !aborted; next = done.take()) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                objectMapper.writeValue(line, next);
+                line.write('\n');
+                // Push every finished PR to the client right away
+                emitter.send(line.toByteArray());
+            }
+            finished = !aborted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | IllegalStateException e) {
+            // Client went away or the emitter timed out; the container completes the response
+        } finally {
+            if (finished) emitter.complete(); else abort();
+        }
+    }
+
+    /**
+     * Stop the batch: PRs still waiting for the GROQ stage give up, and those in it stop waiting.
+     */
+    private void abort() {
+        if (aborted) return;
+        aborted = true;
+        synchronized (all) {
+            all.forEach(f -> f.cancel(true));
+        }
+        synchronized (enriching) {
+            enriching.forEach(Thread::interrupt);
+        }
+    }
+
+    private <T> T checkAborted(T value) {
+        if (aborted) throw new CancellationException("Batch aborted");
+        return value;
+    }
+
+    private AnalyzeController.AnalyzeResponse enrich(AnalyzeController.Verdict verdict) {
+        // Cancelling a PR's future does not stop its stages that already run; an aborted PR is neither finished nor recorded
+        checkAborted(verdict);
+        if (!controller.groqEnabled()) {
+            return controller.finish(verdict, controller.heuristicEnrichment(verdict), null);
+        }
+        AnalyzeController.Reuse reused = controller.reuseNearDuplicate(verdict, null);
+        if (reused != null) return reused.response();
+        GroqEnrichment.Result enrichment = null;
+        boolean available;
+        enter();
+        try {
+            checkAborted(verdict);
+            controller.acquireGroqBatch(CALLS_PER_ENRICHMENT);
+            try {
+                checkAborted(verdict);
+                available = controller.groqAvailable();
+                if (available) enrichment = controller.await(verdict, controller.startEnrichment(verdict, GroqScheduler.Priority.BATCH));
+            } finally {
+                controller.releaseGroqBatch(CALLS_PER_ENRICHMENT);
+            }
+        } catch (InterruptedException e) {
+            throw new CancellationException("Batch aborted");
+        } finally {
+            leave();
+        }
+        checkAborted(verdict);
+        if (!available) return controller.finish(verdict, controller.heuristicEnrichment(verdict), null, true);
+        return controller.finish(verdict, enrichment, null);
+    }
+
+    // abort() interrupts a thread only between enter() and leave(), so the history write that follows never sees it
+    private void enter() {
+        synchronized (enriching) {
+            enriching.add(Thread.currentThread());
+        }
+    }
+
+    private void leave() {
+        synchronized (enriching) {
+            enriching.remove(Thread.currentThread());
+            Thread.interrupted();
+        }
+    }
+
+    private static AnalyzeController.AnalyzeResponse failed(AnalyzeController.AnalyzeRequest req, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        System.err.println("Batch analysis failed for PR " + req.prNumber() + ": " + cause);
+        return new AnalyzeController.AnalyzeResponse(req.prNumber(), 0.0, null, null, null, List.of(), List.of(), null, null, null,
+            List.of(), null, "Analysis failed: " + cause.getMessage(), System.currentTimeMillis(), false, null, List.of());
+    }
+}
@@ -0,0 +1,119 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+
+/**
+ * Changed files of one request, each classified once into the path categories of a {@link RuleSet},
+ * with a count per category, so the rules ask "any / all / how many" without rescanning the paths.
+ * <p>
+ * Paths are classified lazily in request order, only as far as a question needs: {@link #any} stops at the
+ * first path in the category and {@link #all} at the first path outside it, so on a large PR the common
+ * questions are answered from the first few paths. Counts, {@link #present} and a category no path is in
+ * classify them all, once. Filling in is not synchronized; an index belongs to one request and is only
+ * handed between threads along with it.
+ */
+final class ChangedFileIndex {
+    private static final String[] NO_PATHS = new String[0];
+
+    private final RuleSet rules;
+    private final String[] paths;
+    private final int[][] categories;
+    private final int[] counts;
+    // Categories with at least one classified path, in the order they were first seen
+    private final int[] seen;
+    private int seenCount;
+    // Paths [0, classified) are in categories and counts
+    private int classified;
+    private PathMatcher.Classifier classifier;
+    private int[] present;
+
+    private ChangedFileIndex(RuleSet rules, String[] paths) {
+        this.rules = rules;
+        this.paths = paths;
+        this.categories = new int[paths.length][];
+        this.counts = new int[rules.paths().categories()];
+        this.seen = new int[counts.length];
+    }
+
+    /**
+     * Index of {@code files}, classified on first use; a null list gives an empty index.
+     */
+    static ChangedFileIndex of(RuleSet rules, List<String> files) {
+        return new ChangedFileIndex(rules, files == null ? NO_PATHS : files.toArray(NO_PATHS));
+    }
+
+    RuleSet rules() {
+        return rules;
+    }
+
+    int size() {
+        return paths.length;
+    }
+
+    boolean isEmpty() {
+        return paths.length == 0;
+    }
+
+    /** True once every path is classified, so counts and {@link #present} cost nothing more. */
+    boolean complete() {
+        return classified == paths.length;
+    }
+
+    int count(int category) {
+        if (category < 0) return 0;
+        classify(paths.length);
+        return counts[category];
+    }
+
+    int count(String category) {
+        return count(rules.category(category));
+    }
+
+    boolean any(int category) {
+        if (category < 0) return false;
+        while (counts[category] == 0 && classified < paths.length) classify(classified + 1);
+        return counts[category] > 0;
+    }
+
+    boolean any(String category) {
+        return any(rules.category(category));
+    }
+
+    /** True when every path is in the category; false for an empty index or an unknown category. */
+    boolean all(String category) {
+        int c = rules.category(category);
+        if (isEmpty() || c < 0) return false;
+        for (int i = 0; i < paths.length; i++) {
+            if (Arrays.binarySearch(categories(i), c) < 0) return false;
+        }
+        return true;
+    }
+
+    /** Category ids of the i-th path in ascending order, in request order of the paths. */
+    int[] categories(int i) {
+        if (i >= classified) classify(i + 1);
+        return categories[i];
+    }
+
+    int[] present() {
+        classify(paths.length);
+        if (present == null) present = Arrays.copyOf(seen, seenCount);
+        return present;
+    }
+
+    // Classify paths up to, not including, index to
+    private void classify(int to) {
+        if (classified >= to) return;
+        if (classifier == null) classifier = rules.paths().classifier();
+        for (int i = classified; i < to; i++) {
+            int[] path = classifier.classify(paths[i]);
+            categories[i] = path;
+            for (int c : path) {
+                if (counts[c]++ == 0) seen[seenCount++] = c;
+            }
+        }
+        classified = to;
+        // The classifier's scratch arrays are only needed while paths are left
+        if (classified == paths.length) classifier = null;
+    }
+}
@@ -0,0 +1,115 @@
+package com.gatekeeper.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker over the outcomes of recent GROQ calls. It opens when at least {@code failureRate} of the last
+ * {@code window} calls failed, where a call that answered but took longer than {@code slowCallNanos} counts as
+ * failed too, so a GROQ that is down and one that is too slow to meet deadlines both trip it. While open,
+ * analyses skip GROQ. After {@code openNanos} one analysis is let through as a probe; its first call closes
+ * the breaker again or keeps it open for another period.
+ */
+final class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    record Config(int window, int minimumCalls, double failureRate, long slowCallNanos, long openNanos) {
+        static Config fromEnv() {
+            return new Config(
+                Env.intValue("GROQ_BREAKER_WINDOW", 20),
+                Env.intValue("GROQ_BREAKER_MIN_CALLS", 10),
+                Env.doubleValue("GROQ_BREAKER_FAILURE_RATE", 0.5),
+                TimeUnit.MILLISECONDS.toNanos(Env.longValue("GROQ_BREAKER_SLOW_CALL_MS", GroqEnrichment.CALL_TIMEOUT_MS * 3 / 4)),
+                TimeUnit.MILLISECONDS.toNanos(Env.longValue("GROQ_BREAKER_OPEN_MS", 30_000)));
+        }
+    }
+
+    private final Config config;
+    // Ring buffer of the last outcomes, true for a failure
+    private final boolean[] outcomes;
+    private int next;
+    private int calls;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private long probeAt;
+    private boolean probing;
+    private long opened;
+
+    CircuitBreaker(Config config) {
+        this.config = config;
+        this.outcomes = new boolean[Math.max(1, config.window())];
+    }
+
+    /**
+     * Whether an analysis may call GROQ now. In the half-open state this admits the probe, so only call it for
+     * an analysis that will go on to call GROQ.
+     */
+    synchronized boolean allow() {
+        long now = System.nanoTime();
+        if (state == State.OPEN && now - openedAt >= config.openNanos()) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.CLOSED) return true;
+        // A probe whose calls never reached GROQ (all cached, say) would hold the breaker half-open; allow another
+        if (state == State.HALF_OPEN && (!probing || now - probeAt >= config.openNanos())) {
+            probing = true;
+            probeAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record one GROQ call that got an answer.
+     */
+    void success(long elapsedNanos) {
+        record(elapsedNanos > config.slowCallNanos());
+    }
+
+    /**
+     * Record one GROQ call that failed or timed out upstream. Calls that expire before they are sent are no
+     * sign of GROQ's health and are not recorded.
+     */
+    void failure() {
+        record(true);
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    /** How often the breaker has opened. */
+    synchronized long opened() {
+        return opened;
+    }
+
+    private synchronized void record(boolean failed) {
+        if (state == State.OPEN) return;
+        if (state == State.HALF_OPEN) {
+            if (failed) {
+                open();
+            } else {
+                state = State.CLOSED;
+                next = calls = failures = 0;
+            }
+            return;
+        }
+        if (calls == outcomes.length) {
+            if (outcomes[next]) failures--;
+        } else {
+            calls++;
+        }
+        outcomes[next] = failed;
+        if (failed) failures++;
+        next = (next + 1) % outcomes.length;
+        if (calls >= config.minimumCalls() && failures >= config.failureRate() * calls) open();
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        opened++;
+        System.err.println("GROQ circuit breaker opened; analyses use heuristics only for " + TimeUnit.NANOSECONDS.toMillis(config.openNanos()) + " ms");
+    }
+}
@@ -0,0 +1,153 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Ordered suggestion-code rules of a {@link RuleSet}; the first row that matches wins. A row matches a
+ * decision, a minimum risk and optionally any of some keywords and any of some path categories.
+ * Rows with conditions are only looked at through the keywords and categories that actually occur,
+ * and rows without conditions are found by binary search on their minimum risk, so the cost of a
+ * lookup depends on what the change contains rather than on the number of rows. Until the changed files
+ * are all classified, category rows are tried in row order and each category is asked for with
+ * {@link ChangedFileIndex#any}, which usually settles it from the first few paths.
+ */
+final class DecisionTable {
+
+    /**
+     * @param keywords Keyword ids of which at least one must occur; empty for no condition
+     * @param categories Path category ids of which at least one must occur; empty for no condition
+     */
+    record Row(String decision, double minRisk, int[] keywords, int[] categories, String code) {
+        boolean unconditional() {
+            return keywords.length == 0 && categories.length == 0;
+        }
+    }
+
+    private final Row[] rows;
+    private final Map<String, Lookup> byDecision = new HashMap<>();
+
+    /** Rows of one decision, indexed for lookup. */
+    private static final class Lookup {
+        // Unconditional rows by ascending minimum risk, with the earliest row among each prefix
+        double[] minRisk;
+        int[] earliest;
+        int[][] byKeyword;
+        int[][] byCategory;
+        // Categories with rows, by their first row
+        int[] categories;
+    }
+
+    DecisionTable(List<Row> rows, int keywordCount, int categoryCount) {
+        this.rows = rows.toArray(new Row[0]);
+        Map<String, List<Integer>> ids = new LinkedHashMap<>();
+        for (int i = 0; i < this.rows.length; i++) {
+            ids.computeIfAbsent(this.rows[i].decision(), d -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<String, List<Integer>> e : ids.entrySet()) {
+            Lookup lookup = new Lookup();
+            List<Integer> unconditional = new ArrayList<>();
+            List<List<Integer>> byKeyword = new ArrayList<>(Collections.nCopies(keywordCount, null));
+            List<List<Integer>> byCategory = new ArrayList<>(Collections.nCopies(categoryCount, null));
+            for (int id : e.getValue()) {
+                Row row = this.rows[id];
+                if (row.unconditional()) unconditional.add(id);
+                // A row with both conditions is reached through its keywords and checked for its categories
+                if (row.keywords().length > 0) {
+                    for (int k : row.keywords()) post(byKeyword, k, id);
+                } else {
+                    for (int c : row.categories()) post(byCategory, c, id);
+                }
+            }
+            unconditional.sort(Comparator.comparingDouble((Integer id) -> this.rows[id].minRisk()).thenComparingInt(id -> id));
+            lookup.minRisk = new double[unconditional.size()];
+            lookup.earliest = new int[unconditional.size()];
+            int earliest = Integer.MAX_VALUE;
+            for (int i = 0; i < unconditional.size(); i++) {
+                int id = unconditional.get(i);
+                earliest = Math.min(earliest, id);
+                lookup.minRisk[i] = this.rows[id].minRisk();
+                lookup.earliest[i] = earliest;
+            }
+            lookup.byKeyword = postings(byKeyword);
+            lookup.byCategory = postings(byCategory);
+            int[][] postings = lookup.byCategory;
+            lookup.categories = IntStream.range(0, categoryCount).filter(c -> postings[c] != null).boxed()
+                .sorted(Comparator.comparingInt(c -> postings[c][0])).mapToInt(Integer::intValue).toArray();
+            byDecision.put(e.getKey(), lookup);
+        }
+    }
+
+    int size() {
+        return rows.length;
+    }
+
+    /**
+     * Code of the first matching row, or null when none matches.
+     */
+    String lookup(String decision, double risk, DiffScan scan, ChangedFileIndex files) {
+        Lookup lookup = byDecision.get(decision);
+        if (lookup == null) return null;
+        int best = Integer.MAX_VALUE;
+        // Number of unconditional rows whose minimum risk is reached
+        int lo = 0, hi = lookup.minRisk.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lookup.minRisk[mid] <= risk) lo = mid + 1; else hi = mid;
+        }
+        if (lo > 0) best = lookup.earliest[lo - 1];
+
+        for (int k : scan.foundKeywords()) {
+            int[] ids = lookup.byKeyword[k];
+            if (ids != null) best = first(ids, best, risk, files);
+        }
+        for (int c : lookup.categories) {
+            // Once every path is classified, the categories present are the shorter walk
+            if (files.complete()) break;
+            int[] ids = lookup.byCategory[c];
+            if (ids[0] >= best) return rows[best].code();
+            if (files.any(c)) best = first(ids, best, risk, files);
+        }
+        if (files.complete()) {
+            for (int c : files.present()) {
+                int[] ids = lookup.byCategory[c];
+                if (ids != null) best = first(ids, best, risk, files);
+            }
+        }
+        return best == Integer.MAX_VALUE ? null : rows[best].code();
+    }
+
+    // Earliest matching row of a posting list that comes before best, or best
+    private int first(int[] ids, int best, double risk, ChangedFileIndex files) {
+        for (int id : ids) {
+            if (id >= best) break;
+            if (matches(rows[id], risk, files)) return id;
+        }
+        return best;
+    }
+
+    // The keyword condition, if any, is met by the posting list the row was reached through
+    private static boolean matches(Row row, double risk, ChangedFileIndex files) {
+        if (risk < row.minRisk()) return false;
+        if (row.categories().length == 0) return true;
+        for (int c : row.categories()) {
+            if (files.any(c)) return true;
+        }
+        return false;
+    }
+
+    private static void post(List<List<Integer>> postings, int feature, int row) {
+        if (postings.get(feature) == null) postings.set(feature, new ArrayList<>());
+        postings.get(feature).add(row);
+    }
+
+    // Row ids ascend within each list, so a lookup stops at the first row later than the best so far
+    private static int[][] postings(List<List<Integer>> lists) {
+        int[][] result = new int[lists.size()][];
+        for (int i = 0; i < lists.size(); i++) {
+            List<Integer> l = lists.get(i);
+            result[i] = l == null ? null : l.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return result;
+    }
+}
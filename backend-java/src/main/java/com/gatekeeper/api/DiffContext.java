@@ -0,0 +1,147 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+
+/**
+ * Chooses the part of a diff a GROQ prompt gets to see. The diff is split into hunks, each hunk is scored
+ * with the rules' risk signals ({@link RuleSet#relevance}) and the best hunks are packed into a token budget,
+ * each with its file header, in diff order. A diff that fits the budget is sent unchanged; text without
+ * hunks is cut at the last line that fits. Replaces plain prefixes, which mostly showed lockfiles and the
+ * first file while the risky hunk further down was cut off.
+ */
+final class DiffContext {
+
+    private DiffContext() {}
+
+    /**
+     * Best hunks of a diff that fit into {@code tokens} estimated tokens.
+     */
+    static String select(RuleSet rules, String diff, int tokens) {
+        if (diff == null || diff.isEmpty() || tokens <= 0) return "";
+        // Counts stop past the budget, so a large diff is not counted through before its hunks are
+        if (tokens(diff, 0, diff.length(), tokens) <= tokens) return diff;
+
+        List<UnifiedDiff.Section> sections = UnifiedDiff.parse(diff);
+        List<Hunk> hunks = hunks(rules, diff, sections, tokens);
+        if (hunks.isEmpty()) return diff.substring(0, prefixEnd(diff, 0, diff.length(), tokens));
+
+        List<Hunk> ranked = new ArrayList<>(hunks);
+        ranked.sort(Comparator.comparingDouble(Hunk::score).reversed().thenComparingInt(Hunk::section));
+        boolean[] selected = new boolean[sections.size()];
+        int left = tokens;
+        for (Hunk h : ranked) {
+            int cost = h.tokens() + (h.header() >= 0 && !selected[h.header()] ? h.headerTokens() : 0);
+            if (cost > left) continue;
+            selected[h.section()] = true;
+            if (h.header() >= 0) selected[h.header()] = true;
+            left -= cost;
+        }
+
+        StringBuilder out = new StringBuilder(tokens * 4);
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) out.append(diff, sections.get(i).start(), sections.get(i).end());
+        }
+        if (out.isEmpty()) {
+            // The best hunk alone is over budget: send as much of it as fits
+            Hunk best = ranked.get(0);
+            int room = tokens;
+            if (best.header() >= 0 && best.headerTokens() < tokens) {
+                UnifiedDiff.Section header = sections.get(best.header());
+                out.append(diff, header.start(), header.end());
+                room -= best.headerTokens();
+            }
+            UnifiedDiff.Section s = sections.get(best.section());
+            out.append(diff, s.start(), prefixEnd(diff, s.start(), s.end(), room));
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param section Index of the hunk in the parsed sections
+     * @param header Index of its file's header section, or -1 when it has none
+     * @param tokens Estimated tokens of the hunk, or any number over the budget when it does not fit
+     */
+    private record Hunk(int section, int header, double score, int tokens, int headerTokens) {}
+
+    private static List<Hunk> hunks(RuleSet rules, String diff, List<UnifiedDiff.Section> sections, int budget) {
+        PathMatcher.Classifier classifier = rules.paths().classifier();
+        Map<String, int[]> categories = new HashMap<>();
+        List<Hunk> hunks = new ArrayList<>();
+        int header = -1;
+        int headerTokens = 0;
+        for (int i = 0; i < sections.size(); i++) {
+            UnifiedDiff.Section s = sections.get(i);
+            if (!s.hunk()) {
+                // Text trailing a hunk is also a header section, but only a file start is a file's header
+                if (diff.startsWith("diff --git ", s.start()) || diff.startsWith("--- ", s.start())) {
+                    header = i;
+                    headerTokens = tokens(diff, s.start(), s.end(), budget);
+                }
+                continue;
+            }
+            int[] pathCategories = s.path() == null ? new int[0] : categories.computeIfAbsent(s.path(), classifier::classify);
+            double score = rules.relevance(DiffScanner.scan(rules, diff, s.start(), s.end()), pathCategories);
+            hunks.add(new Hunk(i, header, score, tokens(diff, s.start(), s.end(), budget), headerTokens));
+        }
+        return hunks;
+    }
+
+    /**
+     * Estimated LLM tokens of a whole text, see {@link #tokens(CharSequence, int, int)}.
+     */
+    static int tokens(CharSequence text) {
+        return tokens(text, 0, text.length());
+    }
+
+    /**
+     * Estimated LLM tokens of the characters {@code [start, end)}, see {@link Estimator}.
+     */
+    static int tokens(CharSequence text, int start, int end) {
+        return tokens(text, start, end, Integer.MAX_VALUE - 1);
+    }
+
+    // Stops counting once past the limit and returns limit + 1 then
+    private static int tokens(CharSequence text, int start, int end, int limit) {
+        Estimator estimator = new Estimator();
+        int tokens = 0;
+        for (int i = start; i < end && tokens <= limit; i++) tokens += estimator.cost(text.charAt(i));
+        return tokens;
+    }
+
+    /**
+     * End of the longest prefix of {@code [start, end)} within the budget, at a line break when there is one.
+     */
+    private static int prefixEnd(CharSequence text, int start, int end, int tokens) {
+        Estimator estimator = new Estimator();
+        int used = 0;
+        int lastLine = -1;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            used += estimator.cost(c);
+            if (used > tokens) return lastLine >= 0 ? lastLine : i;
+            if (c == '\n') lastLine = i + 1;
+        }
+        return end;
+    }
+
+    /**
+     * Local stand-in for a BPE tokenizer on code: a run of letters and digits costs one token per started five
+     * characters, a run of symbols one per started two (pairs like {@code ");"} merge), a line break one token.
+     * Other whitespace is free, as tokenizers merge it into the following token.
+     */
+    private static final class Estimator {
+        private static final int WORD = 1, SYMBOL = 2;
+        private int kind;
+        private int run;
+
+        int cost(char c) {
+            int k = Character.isLetterOrDigit(c) || c == '_' ? WORD : Character.isWhitespace(c) ? 0 : SYMBOL;
+            if (k != kind) {
+                kind = k;
+                run = 0;
+            }
+            if (k == 0) return c == '\n' ? 1 : 0;
+            return run++ % (k == WORD ? 5 : 2) == 0 ? 1 : 0;
+        }
+    }
+}
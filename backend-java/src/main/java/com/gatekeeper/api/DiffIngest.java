@@ -0,0 +1,312 @@
+package com.gatekeeper.api;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Streaming reader for analysis requests with very large diffs.
+ * The diff is never held as one string: characters are pushed straight into a {@link DiffScanner},
+ * only a bounded prefix is retained for the LLM prompts, and file paths are picked up from
+ * {@code diff --git} headers. Input beyond the configured size limit is not read; the analysis
+ * then covers the part that was received and the request is marked as truncated.
+ * <p>
+ * Accepts either a JSON {@code AnalyzeRequest} object or a raw unified diff, optionally gzip encoded.
+ */
+final class DiffIngest extends Writer {
+    static final long MAX_DIFF_BYTES = Env.longValue("GATEKEEPER_MAX_DIFF_BYTES", 512L * 1024 * 1024);
+    static final int RETAIN_CHARS = Env.intValue("GATEKEEPER_DIFF_RETAIN_CHARS", 1024 * 1024);
+    static final int MAX_CHANGED_FILES = Env.intValue("GATEKEEPER_MAX_CHANGED_FILES", 50_000);
+
+    private static final String DIFF_HEADER = "diff --git ";
+    private static final int MAX_HEADER_LINE = 4096;
+    private static final int MAX_FIELD_CHARS = 1024;
+
+    private final DiffScanner scanner = new DiffScanner();
+    private final StringBuilder retained = new StringBuilder();
+    private final StringBuilder line = new StringBuilder();
+    private final Set<String> diffFiles = new LinkedHashSet<>();
+    private boolean skipLine;
+    private LimitedInputStream input;
+
+    private String prNumber;
+    private String author;
+    private String repository;
+    private List<String> changedFiles;
+
+    /**
+     * Read one request body.
+     * @param contentType Request content type; JSON bodies are parsed as AnalyzeRequest, anything else is a raw diff
+     * @param contentEncoding Request content encoding; gzip and zstd are decompressed on the fly
+     * @throws IllegalArgumentException for any other content encoding
+     */
+    static DiffIngest read(InputStream body, String contentType, String contentEncoding) throws IOException {
+        InputStream in = RequestDecompression.decode(body, contentEncoding);
+        DiffIngest ingest = new DiffIngest();
+        ingest.input = new LimitedInputStream(in, MAX_DIFF_BYTES);
+        Reader reader = new BufferedReader(new InputStreamReader(ingest.input, StandardCharsets.UTF_8), 64 * 1024);
+        if (contentType != null && contentType.toLowerCase().contains("json")) {
+            ingest.readJson(reader);
+        } else {
+            reader.transferTo(ingest);
+        }
+        ingest.flushLine();
+        return ingest;
+    }
+
+    /**
+     * Metadata fields that were not in the body are taken from the given defaults.
+     */
+    AnalyzeController.AnalyzeRequest toRequest(String defaultPrNumber, String defaultAuthor, String defaultRepository, List<String> defaultFiles) {
+        List<String> files = changedFiles != null ? changedFiles
+            : defaultFiles != null && !defaultFiles.isEmpty() ? defaultFiles
+            : new ArrayList<>(diffFiles);
+        return new AnalyzeController.AnalyzeRequest(
+            prNumber != null ? prNumber : defaultPrNumber,
+            author != null ? author : defaultAuthor,
+            repository != null ? repository : defaultRepository,
+            files,
+            retained.toString());
+    }
+
+    DiffScan scan() {
+        return scanner.finish();
+    }
+
+    boolean truncated() {
+        return input.limitReached;
+    }
+
+    // Writer side: every diff character arrives here
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+        scanner.feed(buf, off, len);
+        int keep = Math.min(len, RETAIN_CHARS - retained.length());
+        if (keep > 0) retained.append(buf, off, keep);
+        for (int i = off, end = off + len; i < end; i++) {
+            char c = buf[i];
+            if (c == '\n') {
+                flushLine();
+            } else if (!skipLine) {
+                // Only "diff --git" header lines are buffered
+                if (line.length() >= MAX_HEADER_LINE || (line.length() < DIFF_HEADER.length() && c != DIFF_HEADER.charAt(line.length()))) {
+                    skipLine = true;
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void flushLine() {
+        if (!skipLine && line.length() > DIFF_HEADER.length() && diffFiles.size() < MAX_CHANGED_FILES) {
+            int b = line.lastIndexOf(" b/");
+            if (b > 0) diffFiles.add(line.substring(b + 3).trim());
+        }
+        line.setLength(0);
+        skipLine = false;
+    }
+
+    // Minimal JSON object reader so the diff value can be streamed instead of buffered
+
+    private void readJson(Reader in) throws IOException {
+        JsonCursor json = new JsonCursor(in);
+        try {
+            if (json.nextNonSpace() != '{') throw new IllegalArgumentException("Expected a JSON object");
+            int c = json.nextNonSpace();
+            while (c == '"') {
+                String name = json.readString(MAX_FIELD_CHARS);
+                if (json.nextNonSpace() != ':') throw new IllegalArgumentException("Expected ':' after \"" + name + "\"");
+                int first = json.nextNonSpace();
+                switch (name) {
+                    case "prNumber" -> prNumber = json.readScalar(first, MAX_FIELD_CHARS);
+                    case "author" -> author = json.readScalar(first, MAX_FIELD_CHARS);
+                    case "repository" -> repository = json.readScalar(first, MAX_FIELD_CHARS);
+                    case "changedFiles" -> changedFiles = json.readStringArray(first, MAX_CHANGED_FILES, MAX_HEADER_LINE);
+                    case "diff" -> {
+                        if (first == '"') json.streamString(this);
+                        else json.skipValue(first);
+                    }
+                    default -> json.skipValue(first);
+                }
+                c = json.nextNonSpace();
+                if (c == ',') c = json.nextNonSpace();
+            }
+            if (c != '}') throw new IllegalArgumentException("Malformed JSON object");
+        } catch (EOFException e) {
+            // Hitting the size limit ends the body early; keep whatever was read
+            if (!truncated()) throw new IllegalArgumentException("Unexpected end of JSON body");
+        }
+    }
+
+    private static final class JsonCursor {
+        private final Reader in;
+        private final char[] chunk = new char[8192];
+
+        JsonCursor(Reader in) {
+            this.in = in;
+        }
+
+        int next() throws IOException {
+            int c = in.read();
+            if (c < 0) throw new EOFException();
+            return c;
+        }
+
+        int nextNonSpace() throws IOException {
+            int c;
+            do {
+                c = next();
+            } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+            return c;
+        }
+
+        /** Read the rest of a string whose opening quote was consumed, keeping at most max characters. */
+        String readString(int max) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = readStringChar()) >= 0) {
+                if (sb.length() < max) sb.append((char) c);
+            }
+            return sb.toString();
+        }
+
+        void streamString(Writer out) throws IOException {
+            int n = 0;
+            try {
+                int c;
+                while ((c = readStringChar()) >= 0) {
+                    chunk[n++] = (char) c;
+                    if (n == chunk.length) {
+                        out.write(chunk, 0, n);
+                        n = 0;
+                    }
+                }
+            } finally {
+                if (n > 0) out.write(chunk, 0, n);
+            }
+        }
+
+        String readScalar(int first, int max) throws IOException {
+            if (first == '"') return readString(max);
+            if (first == '{' || first == '[') {
+                skipValue(first);
+                return null;
+            }
+            StringBuilder sb = new StringBuilder().append((char) first);
+            in.mark(1);
+            int c;
+            while ((c = in.read()) >= 0 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                if (sb.length() < max) sb.append((char) c);
+                in.mark(1);
+            }
+            in.reset();
+            String s = sb.toString();
+            return "null".equals(s) ? null : s;
+        }
+
+        List<String> readStringArray(int first, int maxItems, int maxChars) throws IOException {
+            if (first != '[') {
+                skipValue(first);
+                return null;
+            }
+            List<String> items = new ArrayList<>();
+            int c = nextNonSpace();
+            while (c != ']') {
+                String item = readScalar(c, maxChars);
+                if (item != null && items.size() < maxItems) items.add(item);
+                c = nextNonSpace();
+                if (c == ',') c = nextNonSpace();
+            }
+            return items;
+        }
+
+        void skipValue(int first) throws IOException {
+            if (first == '"') {
+                while (readStringChar() >= 0) {
+                    // discard
+                }
+            } else if (first == '{' || first == '[') {
+                int depth = 1;
+                while (depth > 0) {
+                    int c = next();
+                    if (c == '"') skipValue(c);
+                    else if (c == '{' || c == '[') depth++;
+                    else if (c == '}' || c == ']') depth--;
+                }
+            } else {
+                readScalar(first, 0);
+            }
+        }
+
+        /** Next decoded string character, or -1 at the closing quote. */
+        private int readStringChar() throws IOException {
+            int c = next();
+            if (c == '"') return -1;
+            if (c != '\\') return c;
+            int e = next();
+            return switch (e) {
+                case 'n' -> '\n';
+                case 't' -> '\t';
+                case 'r' -> '\r';
+                case 'b' -> '\b';
+                case 'f' -> '\f';
+                case 'u' -> {
+                    int v = 0;
+                    for (int i = 0; i < 4; i++) {
+                        // ASCII hex digits only; Character.digit also takes other scripts' digits
+                        int h = next(), d = h < 0x80 ? Character.digit(h, 16) : -1;
+                        if (d < 0) throw new IllegalArgumentException("Malformed \\u escape in JSON string");
+                        v = (v << 4) | d;
+                    }
+                    yield v;
+                }
+                default -> e;
+            };
+        }
+    }
+
+    /**
+     * Reports end of stream once the limit is reached instead of failing, so a huge body degrades to a partial analysis.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private boolean limitReached;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return end();
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (remaining <= 0) return end();
+            int n = super.read(buf, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        private int end() throws IOException {
+            // Only a body that actually continues past the limit counts as truncated
+            if (!limitReached && super.read() >= 0) limitReached = true;
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.gatekeeper.api;
+
+import java.util.Arrays;
+
+/**
+ * Everything the rule-based analysis needs to know about a diff, gathered in one pass by {@link DiffScanner}.
+ * @param rules Rule set whose keywords were counted; the analysis of this scan uses the same rules
+ * @param chars Number of characters scanned
+ * @param lines Line count with the same meaning as {@code diff.split("\n").length}
+ * @param newlines Number of '\n' characters, needed to combine scans of consecutive pieces
+ * @param blank True when the diff is empty or whitespace only
+ * @param keywordCounts Occurrences per keyword, indexed by the rule set's keyword id
+ * @param foundKeywords Ids of the keywords that occur at least once, in the order they were first seen
+ * @param publicMethods Number of public method signatures
+ */
+public record DiffScan(RuleSet rules, long chars, int lines, int newlines, boolean blank, int[] keywordCounts,
+                       int[] foundKeywords, int publicMethods) {
+
+    static DiffScan empty(RuleSet rules) {
+        return new DiffScan(rules, 0, 0, 0, true, new int[rules.keywordCount()], new int[0], 0);
+    }
+
+    /**
+     * Scan of this piece followed directly by {@code next}. Associative, so scans of diff pieces cut at
+     * line boundaries can be reduced in any grouping; matches never span a line break, except a method
+     * signature broken across two pieces, which is then not counted. Both scans must use the same rule set.
+     */
+    public DiffScan combine(DiffScan next) {
+        if (next.rules != rules) throw new IllegalArgumentException("Cannot combine scans made with different rule sets");
+        int[] counts = keywordCounts.clone();
+        int[] found = Arrays.copyOf(foundKeywords, foundKeywords.length + next.foundKeywords.length);
+        int n = foundKeywords.length;
+        for (int id : next.foundKeywords) {
+            if (counts[id] == 0) found[n++] = id;
+        }
+        for (int i = 0; i < counts.length; i++) counts[i] += next.keywordCounts[i];
+        int combinedLines = next.lines > 0 ? newlines + next.lines : lines;
+        return new DiffScan(rules, chars + next.chars, combinedLines, newlines + next.newlines, blank && next.blank, counts,
+            Arrays.copyOf(found, n), publicMethods + next.publicMethods);
+    }
+
+    public int count(int keyword) {
+        return keyword < 0 ? 0 : keywordCounts[keyword];
+    }
+
+    /**
+     * Occurrences of a keyword by its name in the rule set; 0 when the rule set does not define it.
+     */
+    public int count(String keyword) {
+        return count(rules.keyword(keyword));
+    }
+
+    public boolean has(String keyword) {
+        return count(keyword) > 0;
+    }
+
+    public boolean hasAny(String... keywords) {
+        for (String k : keywords) {
+            if (has(k)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,215 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+
+/**
+ * Single-pass diff scanner. Counts lines, occurrences of a {@link RuleSet}'s keywords and public method
+ * signatures in one traversal without lowercasing, splitting or otherwise copying the diff, so the
+ * cost stays linear in the diff size no matter how many keywords or rules consume the result.
+ * Input can be fed in chunks of any size, which lets callers scan streams.
+ */
+public final class DiffScanner {
+
+    // States of an in-progress match of "public (static )?[\w<>\[\]]+\s+\w+\s*\("
+    private static final byte STATIC = 0, TYPE_FIRST = 1, TYPE = 2, WS1 = 3, NAME = 4, WS2 = 5, DEAD = 6, MATCH = 7;
+    private static final String STATIC_WORD = "static ";
+    private static final int MAX_ATTEMPTS = 16;
+
+    private final RuleSet rules;
+    private final KeywordAutomaton automaton;
+    // Recent characters, for exact-case verification of case-sensitive keywords
+    private final char[] history;
+    private final int[] counts;
+    private int[] found = new int[8];
+    private int foundCount;
+    private int state = KeywordAutomaton.START;
+    private long pos;
+    private boolean blank = true;
+    private int segment;
+    private int lastNonEmptySegment = -1;
+
+    private final byte[] attemptState = new byte[MAX_ATTEMPTS];
+    private final byte[] attemptIndex = new byte[MAX_ATTEMPTS];
+    private final long[] attemptStart = new long[MAX_ATTEMPTS];
+    private int attempts;
+    private long lastMethodEnd;
+    private int publicMethods;
+
+    /**
+     * Scanner for the keywords of the active rule set.
+     */
+    public DiffScanner() {
+        this(RuleEngine.current());
+    }
+
+    DiffScanner(RuleSet rules) {
+        this.rules = rules;
+        this.automaton = rules.keywordAutomaton();
+        this.history = new char[rules.historySize()];
+        this.counts = new int[rules.keywordCount()];
+    }
+
+    /**
+     * Scan a whole diff held in memory with the active rule set.
+     */
+    public static DiffScan scan(String diff) {
+        return scan(RuleEngine.current(), diff);
+    }
+
+    static DiffScan scan(RuleSet rules, String diff) {
+        if (diff == null || diff.isEmpty()) return DiffScan.empty(rules);
+        return scan(rules, diff, 0, diff.length());
+    }
+
+    /**
+     * Scan the characters {@code [start, end)} of a diff without copying them.
+     */
+    static DiffScan scan(RuleSet rules, CharSequence diff, int start, int end) {
+        if (start >= end) return DiffScan.empty(rules);
+        DiffScanner scanner = new DiffScanner(rules);
+        scanner.feed(diff, start, end);
+        return scanner.finish();
+    }
+
+    public void feed(CharSequence chunk) {
+        feed(chunk, 0, chunk.length());
+    }
+
+    public void feed(CharSequence chunk, int start, int end) {
+        for (int i = start; i < end; i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    public void feed(char[] buf, int off, int len) {
+        for (int i = off, end = off + len; i < end; i++) {
+            accept(buf[i]);
+        }
+    }
+
+    public DiffScan finish() {
+        return new DiffScan(rules, pos, lastNonEmptySegment + 1, segment, blank, counts.clone(), Arrays.copyOf(found, foundCount), publicMethods);
+    }
+
+    private void accept(char c) {
+        history[(int) (pos & (history.length - 1))] = c;
+
+        if (c == '\n') {
+            segment++;
+        } else {
+            lastNonEmptySegment = segment;
+            if (blank && !Character.isWhitespace(c)) blank = false;
+        }
+
+        if (attempts > 0) advanceAttempts(c);
+
+        state = automaton.step(state, c);
+        for (int id : automaton.matches(state)) {
+            String text = automaton.keyword(id);
+            if (rules.caseSensitive(id) && !endsWithExactly(text)) continue;
+            if (counts[id]++ == 0) {
+                if (foundCount == found.length) found = Arrays.copyOf(found, foundCount * 2);
+                found[foundCount++] = id;
+            }
+            if (id == rules.publicKeyword()) startAttempts(pos - text.length() + 1);
+        }
+        pos++;
+    }
+
+    private boolean endsWithExactly(String text) {
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            if (history[(int) ((pos - len + 1 + i) & (history.length - 1))] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A regex find() resumes after the previous match, so signatures overlapping a counted one are ignored.
+     * Both branches of the optional "static " are tracked.
+     */
+    private void startAttempts(long start) {
+        if (start < lastMethodEnd || attempts + 2 > MAX_ATTEMPTS) return;
+        addAttempt(STATIC, start);
+        addAttempt(TYPE_FIRST, start);
+    }
+
+    private void addAttempt(byte s, long start) {
+        attemptState[attempts] = s;
+        attemptIndex[attempts] = 0;
+        attemptStart[attempts] = start;
+        attempts++;
+    }
+
+    private void advanceAttempts(char c) {
+        int live = 0;
+        for (int i = 0; i < attempts; i++) {
+            byte s = step(i, c);
+            if (s == DEAD) continue;
+            if (s == MATCH) {
+                // Signature complete at this character
+                if (attemptStart[i] >= lastMethodEnd) {
+                    publicMethods++;
+                    lastMethodEnd = pos + 1;
+                }
+                continue;
+            }
+            attemptState[live] = s;
+            attemptIndex[live] = attemptIndex[i];
+            attemptStart[live] = attemptStart[i];
+            live++;
+        }
+        attempts = live;
+        if (publicMethods > 0) dropOverlapped();
+    }
+
+    private void dropOverlapped() {
+        int live = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (attemptStart[i] < lastMethodEnd) continue;
+            attemptState[live] = attemptState[i];
+            attemptIndex[live] = attemptIndex[i];
+            attemptStart[live] = attemptStart[i];
+            live++;
+        }
+        attempts = live;
+    }
+
+    private byte step(int i, char c) {
+        switch (attemptState[i]) {
+            case STATIC:
+                if (c != STATIC_WORD.charAt(attemptIndex[i])) return DEAD;
+                return ++attemptIndex[i] == STATIC_WORD.length() ? TYPE_FIRST : STATIC;
+            case TYPE_FIRST:
+                return isTypeChar(c) ? TYPE : DEAD;
+            case TYPE:
+                if (isTypeChar(c)) return TYPE;
+                return isSpace(c) ? WS1 : DEAD;
+            case WS1:
+                if (isSpace(c)) return WS1;
+                return isWordChar(c) ? NAME : DEAD;
+            case NAME:
+                if (isWordChar(c)) return NAME;
+                if (c == '(') return MATCH;
+                return isSpace(c) ? WS2 : DEAD;
+            case WS2:
+                if (c == '(') return MATCH;
+                return isSpace(c) ? WS2 : DEAD;
+            default:
+                return DEAD;
+        }
+    }
+
+    // Character classes of java.util.regex without UNICODE_CHARACTER_CLASS
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isTypeChar(char c) {
+        return isWordChar(c) || c == '<' || c == '>' || c == '[' || c == ']';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
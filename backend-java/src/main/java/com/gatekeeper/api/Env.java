@@ -0,0 +1,51 @@
+package com.gatekeeper.api;
+
+/**
+ * Reads gatekeeper settings. A JVM system property wins over the environment
+ * variable of the same name so tools can configure the backend in-process.
+ */
+final class Env {
+    private Env() {}
+
+    static String value(String name) {
+        String v = System.getProperty(name);
+        if (v == null || v.isBlank()) v = System.getenv(name);
+        return v == null || v.isBlank() ? null : v.trim();
+    }
+
+    static String value(String name, String def) {
+        String v = value(name);
+        return v == null ? def : v;
+    }
+
+    static long longValue(String name, long def) {
+        String v = value(name);
+        if (v == null) return def;
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value for " + name + ": " + v);
+            return def;
+        }
+    }
+
+    static int intValue(String name, int def) {
+        return (int) longValue(name, def);
+    }
+
+    static double doubleValue(String name, double def) {
+        String v = value(name);
+        if (v == null) return def;
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value for " + name + ": " + v);
+            return def;
+        }
+    }
+
+    static boolean flag(String name, boolean def) {
+        String v = value(name);
+        return v == null ? def : Boolean.parseBoolean(v) || "1".equals(v);
+    }
+}
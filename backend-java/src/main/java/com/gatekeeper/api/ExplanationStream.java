@@ -0,0 +1,94 @@
+package com.gatekeeper.api;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Forwards a streamed GROQ explanation to one Server-Sent Events client: a {@code delta} event per piece of
+ * text, then {@code explanation} with the complete text, or with the heuristic one when the stream fails.
+ * Requests one piece at a time, so a slow client slows down reading the GROQ answer instead of buffering it.
+ */
+final class ExplanationStream implements Flow.Subscriber<String> {
+    private final SseEmitter emitter;
+    private final String fallback;
+    private final StringBuilder text = new StringBuilder();
+    private Flow.Subscription subscription;
+
+    /**
+     * @param fallback Heuristic explanation sent when there is no GROQ answer
+     * @param timeoutMs How long the GROQ stream may take; the client connection is kept a little longer
+     */
+    ExplanationStream(String fallback, long timeoutMs) {
+        this.fallback = fallback;
+        this.emitter = new SseEmitter(timeoutMs + 5_000);
+        emitter.onTimeout(this::cancel);
+        emitter.onError(e -> cancel());
+    }
+
+    SseEmitter emitter() {
+        return emitter;
+    }
+
+    /**
+     * Subscribe to the explanation, or finish with the fallback right away when there is none.
+     */
+    void start(Flow.Publisher<String> explanation) {
+        if (explanation == null) {
+            finish(fallback);
+        } else {
+            explanation.subscribe(this);
+        }
+    }
+
+    boolean send(String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(String delta) {
+        synchronized (this) {
+            text.append(delta);
+        }
+        if (send("delta", Map.of("text", delta))) {
+            subscription.request(1);
+        } else {
+            cancel();
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        finish(fallback);
+    }
+
+    @Override
+    public void onComplete() {
+        String complete;
+        synchronized (this) {
+            complete = text.toString().trim();
+        }
+        finish(complete.isEmpty() ? fallback : complete);
+    }
+
+    private void finish(String explanation) {
+        if (send("explanation", Map.of("explanation", explanation))) emitter.complete();
+    }
+
+    private synchronized void cancel() {
+        if (subscription != null) subscription.cancel();
+    }
+}
@@ -0,0 +1,171 @@
+package com.gatekeeper.api;
+
+import java.io.Serial;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A diff scanned file by file. The diff is cut into per-file pieces along {@link UnifiedDiff} sections, files
+ * longer than {@code GATEKEEPER_SCAN_CHUNK_CHARS} into several pieces at line breaks, and runs of pieces are
+ * scanned as fork-join tasks on a work-stealing pool. Task results are reduced with {@link #then}, which is
+ * associative like {@link DiffScan#combine}, so the pieces of a file and the whole-diff scan come out the same
+ * however the work was split. Diffs up to one chunk are scanned on the calling thread.
+ * @param total Scan of the whole diff, equal to scanning it in one pass except for a public method signature
+ *              broken across a piece boundary
+ * @param files Scans per file in diff order; text before the first file header only counts towards the total.
+ *              Empty when the diff was not broken down, as for a streamed diff.
+ */
+record FileScans(DiffScan total, List<FileScan> files) {
+    private static final int CHUNK = Math.max(4096, Env.intValue("GATEKEEPER_SCAN_CHUNK_CHARS", 256 * 1024));
+
+    /**
+     * @param path New path of the file, as in its {@code diff --git} or {@code +++} header
+     */
+    record FileScan(String path, DiffScan scan) {}
+
+    private record Piece(String path, int start, int end) {}
+
+    /**
+     * Scan without a per-file breakdown.
+     */
+    static FileScans of(DiffScan total) {
+        return new FileScans(total, List.of());
+    }
+
+    static FileScans scan(RuleSet rules, String diff) {
+        return scan(rules, diff, ForkJoinPool.commonPool());
+    }
+
+    static FileScans scan(RuleSet rules, String diff, ForkJoinPool pool) {
+        if (diff == null || diff.isEmpty()) return of(DiffScan.empty(rules));
+        List<Piece> pieces = pieces(diff);
+        Task task = new Task(rules, diff, pieces, 0, pieces.size());
+        return diff.length() <= CHUNK ? task.compute() : pool.invoke(task);
+    }
+
+    /**
+     * This scan followed directly by {@code next}; a file cut between the two is joined back into one entry.
+     */
+    FileScans then(FileScans next) {
+        List<FileScan> joined = new ArrayList<>(files.size() + next.files.size());
+        joined.addAll(files);
+        int from = 0;
+        if (!files.isEmpty() && !next.files.isEmpty()) {
+            FileScan last = files.get(files.size() - 1), first = next.files.get(0);
+            if (last.path().equals(first.path())) {
+                joined.set(joined.size() - 1, new FileScan(last.path(), last.scan().combine(first.scan())));
+                from = 1;
+            }
+        }
+        joined.addAll(next.files.subList(from, next.files.size()));
+        return new FileScans(total.combine(next.total), joined);
+    }
+
+    /**
+     * Collects consecutive piece scans in diff order, joining pieces of the same file.
+     */
+    static final class Builder {
+        private final List<FileScan> files = new ArrayList<>();
+        private DiffScan total;
+
+        Builder(RuleSet rules) {
+            total = DiffScan.empty(rules);
+        }
+
+        /**
+         * @param path File the piece belongs to, or null for text before the first file
+         */
+        void add(String path, DiffScan piece) {
+            total = total.combine(piece);
+            if (path == null) return;
+            int last = files.size() - 1;
+            if (last >= 0 && files.get(last).path().equals(path)) {
+                files.set(last, new FileScan(path, files.get(last).scan().combine(piece)));
+            } else {
+                files.add(new FileScan(path, piece));
+            }
+        }
+
+        FileScans build() {
+            return new FileScans(total, files);
+        }
+    }
+
+    // Consecutive sections of one file form a piece, cut at line breaks when longer than a chunk
+    private static List<Piece> pieces(String diff) {
+        List<Piece> pieces = new ArrayList<>();
+        String path = null;
+        int start = 0, end = 0;
+        for (UnifiedDiff.Section s : UnifiedDiff.parse(diff)) {
+            if (!Objects.equals(s.path(), path) && end > start) {
+                split(pieces, diff, path, start, end);
+                start = s.start();
+            }
+            path = s.path();
+            end = s.end();
+        }
+        if (end > start) split(pieces, diff, path, start, end);
+        return pieces;
+    }
+
+    private static void split(List<Piece> pieces, String diff, String path, int start, int end) {
+        while (end - start > CHUNK) {
+            int nl = diff.indexOf('\n', start + CHUNK - 1);
+            if (nl < 0 || nl + 1 >= end) break;
+            pieces.add(new Piece(path, start, nl + 1));
+            start = nl + 1;
+        }
+        pieces.add(new Piece(path, start, end));
+    }
+
+    /**
+     * Scans pieces {@code [lo, hi)}, halving the run by characters until it fits in a chunk.
+     */
+    private static final class Task extends RecursiveTask<FileScans> {
+        // Serializable only through ForkJoinTask; a task is never written out, so its fields are transient
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient RuleSet rules;
+        private final transient String diff;
+        private final transient List<Piece> pieces;
+        private final int lo, hi;
+
+        Task(RuleSet rules, String diff, List<Piece> pieces, int lo, int hi) {
+            this.rules = rules;
+            this.diff = diff;
+            this.pieces = pieces;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected FileScans compute() {
+            int start = pieces.get(lo).start(), end = pieces.get(hi - 1).end();
+            if (hi - lo == 1 || end - start <= CHUNK) {
+                Builder builder = new Builder(rules);
+                for (int i = lo; i < hi; i++) {
+                    Piece p = pieces.get(i);
+                    builder.add(p.path(), DiffScanner.scan(rules, diff, p.start(), p.end()));
+                }
+                return builder.build();
+            }
+            int mid = middle(start + (end - start) / 2);
+            Task left = new Task(rules, diff, pieces, lo, mid);
+            left.fork();
+            FileScans right = new Task(rules, diff, pieces, mid, hi).compute();
+            return left.join().then(right);
+        }
+
+        // First piece starting at or after the offset, kept inside (lo, hi)
+        private int middle(int offset) {
+            int a = lo + 1, b = hi - 1;
+            while (a < b) {
+                int m = (a + b) >>> 1;
+                if (pieces.get(m).start() < offset) a = m + 1; else b = m;
+            }
+            return a;
+        }
+    }
+}
@@ -2,8 +2,10 @@ package com.gatekeeper.api;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
+@ImportRuntimeHints(NativeHints.class)
 public class GatekeeperApplication {
     public static void main(String[] args) {
         SpringApplication.run(GatekeeperApplication.class, args);
@@ -0,0 +1,170 @@
+package com.gatekeeper.api;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import io.micrometer.core.instrument.*;
+
+/**
+ * Micrometer meters for the analysis pipeline, registered with the global registry that Spring Boot
+ * backs with the Prometheus registry ({@code /actuator/prometheus}).
+ * Timers and counters are resolved once up front, so recording is a couple of atomic updates per event.
+ */
+final class GatekeeperMetrics {
+    private static final MeterRegistry REGISTRY = Metrics.globalRegistry;
+
+    private GatekeeperMetrics() {}
+
+    /** Timed steps of one analysis. */
+    enum Stage {
+        SCAN, RISK, CLASSIFICATION, MISSING_TESTS, ENRICHMENT, ANALYSIS;
+
+        private final Timer timer = latencyTimer("gatekeeper.analysis.stage", "Time spent in one analysis stage")
+            .tag("stage", name().toLowerCase(Locale.ROOT))
+            .register(REGISTRY);
+
+        void record(long startNanos) {
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** GROQ call types issued by {@link GroqEnrichment}. */
+    enum GroqCall {
+        TESTS, EXPLANATION, SPELLING, RECOMMENDATION, CONSOLIDATED;
+
+        private final Timer answered = callTimer(this, "answered");
+        private final Timer fallback = callTimer(this, "fallback");
+
+        /**
+         * @param answered False when the call failed, timed out or returned nothing, so the heuristic value is used
+         */
+        void record(long startNanos, boolean answered) {
+            (answered ? this.answered : fallback).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static final DistributionSummary PROMPT_CHARS = sizeSummary("gatekeeper.groq.prompt.size", "Characters sent per GROQ prompt");
+    private static final DistributionSummary RESPONSE_CHARS = sizeSummary("gatekeeper.groq.response.size", "Characters of GROQ answer content");
+    private static final DistributionSummary DIFF_CHARS = sizeSummary("gatekeeper.analysis.diff.size", "Characters of analyzed diffs");
+
+    static void groqPrompt(int chars) {
+        PROMPT_CHARS.record(chars);
+    }
+
+    static void groqResponse(int chars) {
+        RESPONSE_CHARS.record(chars);
+    }
+
+    static void diff(long chars) {
+        DIFF_CHARS.record(chars);
+    }
+
+    /**
+     * Count one HTTP answer from GROQ by status code, or "io_error" when no answer arrived.
+     */
+    static void groqStatus(String status) {
+        REGISTRY.counter("gatekeeper.groq.responses", "status", status).increment();
+    }
+
+    static void groqRetry(String reason) {
+        REGISTRY.counter("gatekeeper.groq.retries", "reason", reason).increment();
+    }
+
+    /**
+     * Count one request answered by another request's analysis: "in_flight" when it waited for a running one,
+     * "recent" when a just finished one was reused.
+     */
+    static void coalesced(String source) {
+        REGISTRY.counter("gatekeeper.analysis.coalesced", "source", source).increment();
+    }
+
+    /**
+     * An analysis reused the GROQ enrichment of a near-identical diff instead of calling GROQ.
+     */
+    static void nearDuplicate() {
+        REGISTRY.counter("gatekeeper.analysis.near_duplicate").increment();
+    }
+
+    /**
+     * Count one request refused with 503 because too many analyses were running.
+     */
+    static void shed() {
+        REGISTRY.counter("gatekeeper.analysis.shed").increment();
+    }
+
+    /**
+     * Count one analysis answered from the heuristics only: "groq_unavailable" (circuit breaker open),
+     * "groq_backlog" (scheduler queue too long) or "overloaded" (too many analyses waiting on GROQ).
+     */
+    static void degraded(String reason) {
+        REGISTRY.counter("gatekeeper.analysis.degraded", "reason", reason).increment();
+    }
+
+    /**
+     * Count one attempt to replace the active rules, "loaded" or "failed".
+     */
+    static void rulesReload(String outcome) {
+        REGISTRY.counter("gatekeeper.rules.reloads", "outcome", outcome).increment();
+    }
+
+    /**
+     * Queue depth, in-flight calls and outcome counters of the GROQ scheduler, read at scrape time.
+     */
+    static void scheduler(GroqScheduler scheduler) {
+        Gauge.builder("gatekeeper.groq.queue.size", scheduler, s -> s.stats().queued())
+            .description("GROQ calls waiting for budget").register(REGISTRY);
+        Gauge.builder("gatekeeper.groq.in.flight", scheduler, s -> s.stats().inFlight())
+            .description("GROQ calls sent and not yet answered").register(REGISTRY);
+        FunctionCounter.builder("gatekeeper.groq.calls", scheduler, s -> s.stats().rejected())
+            .tag("outcome", "rejected").description("Calls refused because the queue was full").register(REGISTRY);
+        FunctionCounter.builder("gatekeeper.groq.calls", scheduler, s -> s.stats().expired())
+            .tag("outcome", "expired").description("Calls dropped at their deadline").register(REGISTRY);
+        FunctionCounter.builder("gatekeeper.groq.calls", scheduler, s -> s.stats().failed())
+            .tag("outcome", "failed").description("Calls that failed after all retries").register(REGISTRY);
+        Gauge.builder("gatekeeper.groq.breaker.open", scheduler, s -> s.stats().breaker() == CircuitBreaker.State.CLOSED ? 0 : 1)
+            .description("1 while the GROQ circuit breaker is open or half-open").register(REGISTRY);
+        FunctionCounter.builder("gatekeeper.groq.breaker.opened", scheduler, s -> s.stats().breakerOpened())
+            .description("Times the GROQ circuit breaker opened").register(REGISTRY);
+    }
+
+    /**
+     * Hit/miss counters and occupancy of the GROQ response cache, read at scrape time.
+     */
+    static void cache(GroqResponseCache cache) {
+        FunctionCounter.builder("gatekeeper.groq.cache.requests", cache, c -> c.stats().hits())
+            .tag("result", "hit").register(REGISTRY);
+        FunctionCounter.builder("gatekeeper.groq.cache.requests", cache, c -> c.stats().misses())
+            .tag("result", "miss").register(REGISTRY);
+        FunctionCounter.builder("gatekeeper.groq.cache.removals", cache, c -> c.stats().evictions())
+            .tag("cause", "eviction").register(REGISTRY);
+        FunctionCounter.builder("gatekeeper.groq.cache.removals", cache, c -> c.stats().expirations())
+            .tag("cause", "expiration").register(REGISTRY);
+        Gauge.builder("gatekeeper.groq.cache.entries", cache, c -> c.stats().entries()).register(REGISTRY);
+        Gauge.builder("gatekeeper.groq.cache.weight", cache, c -> c.stats().weightBytes()).baseUnit("bytes").register(REGISTRY);
+    }
+
+    private static Timer.Builder latencyTimer(String name, String description) {
+        return Timer.builder(name)
+            .description(description)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(Duration.ofNanos(500))
+            .maximumExpectedValue(Duration.ofSeconds(30));
+    }
+
+    private static Timer callTimer(GroqCall call, String outcome) {
+        return latencyTimer("gatekeeper.groq.call", "Latency of one GROQ enrichment call as seen by the analysis")
+            .tag("type", call.name().toLowerCase(Locale.ROOT))
+            .tag("outcome", outcome)
+            .register(REGISTRY);
+    }
+
+    private static DistributionSummary sizeSummary(String name, String description) {
+        return DistributionSummary.builder(name)
+            .description(description)
+            .baseUnit("chars")
+            .publishPercentileHistogram()
+            .minimumExpectedValue(1.0)
+            .maximumExpectedValue(1e9)
+            .register(REGISTRY);
+    }
+}
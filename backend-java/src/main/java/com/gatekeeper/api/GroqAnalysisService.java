@@ -1,10 +1,13 @@
 package com.gatekeeper.api;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -13,14 +16,99 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * Uses GROQ API to generate contextual analysis and improvement suggestions
  */
 public class GroqAnalysisService {
-    private static final String GROQ_API_URL = "https://api.groq.com/openai/v1/chat/completions";
+    // Using llama-3.3-70b-versatile - latest supported GROQ model as of Dec 2025
+    private static final String MODEL = "llama-3.3-70b-versatile";
+    private static final int MAX_TOKENS = 150;
+    // One answer carries all four fields of the consolidated mode
+    private static final int CONSOLIDATED_MAX_TOKENS = 450;
+    // Estimated diff tokens per prompt; the explanation and test prompts keep their former smaller share
+    static final int DIFF_TOKENS = Env.intValue("GROQ_DIFF_TOKENS", 300);
+    private static final int EXPLANATION_DIFF_TOKENS = DIFF_TOKENS * 2 / 3;
+    private static final int TEST_DIFF_TOKENS = DIFF_TOKENS * 5 / 12;
+    // A streamed answer is consumed as it arrives, so it may take longer than a call that is waited for
+    static final long STREAM_TIMEOUT_MS = Env.longValue("GROQ_STREAM_TIMEOUT_MS", 30_000);
+    private static final ExecutorService STREAMS = Executors.newVirtualThreadPerTaskExecutor();
     private final String apiKey;
-    private final HttpClient httpClient;
+    private final GroqScheduler scheduler;
+    private final GroqScheduler.Priority priority;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final GroqResponseCache cache;
+    // Explanation of the previous analysis when diffs passed in are only the hunks changed since then, else null
+    private final String updateOf;
 
     public GroqAnalysisService(String apiKey) {
+        this(apiKey, new GroqScheduler(GroqScheduler.Config.fromEnv(), apiKey), GroqScheduler.Priority.INTERACTIVE, GroqResponseCache.fromEnv(), null);
+    }
+
+    /**
+     * Service whose calls go through the given scheduler
+     * @param cache Response cache, or null for none
+     */
+    GroqAnalysisService(String apiKey, GroqScheduler scheduler, GroqResponseCache cache) {
+        this(apiKey, scheduler, GroqScheduler.Priority.INTERACTIVE, cache, null);
+    }
+
+    private GroqAnalysisService(String apiKey, GroqScheduler scheduler, GroqScheduler.Priority priority, GroqResponseCache cache, String updateOf) {
         this.apiKey = apiKey;
-        this.httpClient = HttpClient.newHttpClient();
+        this.scheduler = scheduler;
+        this.priority = priority;
+        this.cache = cache;
+        this.updateOf = updateOf;
+    }
+
+    /**
+     * Same service whose calls are queued with the given priority; scheduler and cache are shared
+     */
+    GroqAnalysisService withPriority(GroqScheduler.Priority priority) {
+        return priority == this.priority ? this : new GroqAnalysisService(apiKey, scheduler, priority, cache, updateOf);
+    }
+
+    /**
+     * Same service for a PR update whose diffs hold only the hunks changed since an earlier analysis; the
+     * explanation prompts include the earlier explanation and ask for one that covers the whole PR
+     * @param previousExplanation Explanation of the earlier analysis
+     */
+    GroqAnalysisService asUpdateOf(String previousExplanation) {
+        return new GroqAnalysisService(apiKey, scheduler, priority, cache, previousExplanation);
+    }
+
+    /**
+     * Queue, retry and rate-limit counters of the request scheduler
+     */
+    GroqScheduler.Stats schedulerStats() {
+        return scheduler.stats();
+    }
+
+    /**
+     * Whether an analysis should call GROQ now; false while its circuit breaker is open
+     */
+    boolean available() {
+        return scheduler.available();
+    }
+
+    /**
+     * Reserve room in the scheduler for the calls of one batch enrichment, see {@link GroqScheduler#acquireBatch}
+     */
+    void acquireBatch(int calls) throws InterruptedException {
+        scheduler.acquireBatch(calls);
+    }
+
+    void releaseBatch(int calls) {
+        scheduler.releaseBatch(calls);
+    }
+
+    /**
+     * Calls waiting in the scheduler for rate-limit budget
+     */
+    int queuedCalls() {
+        return scheduler.queued();
+    }
+
+    /**
+     * Hit/miss/eviction counters of the response cache, or null when caching is disabled
+     */
+    public GroqResponseCache.Stats cacheStats() {
+        return cache == null ? null : cache.stats();
     }
 
     /**
@@ -47,6 +135,49 @@ public class GroqAnalysisService {
         }
     }
 
+    /**
+     * Generate the enhanced explanation with a streamed GROQ call; every piece of text goes to {@code deltas}
+     * as soon as GROQ produces it, so callers can show the answer while it is being written.
+     * @param deltas Receives the explanation in pieces; when the stream breaks off it may have seen part of a
+     *               text that is then not returned
+     * @return The complete explanation, or null when GROQ is not configured or the stream failed
+     */
+    public String generateEnhancedExplanation(String decision, double riskScore, String diff, List<String> changedFiles, Consumer<String> deltas) {
+        if (apiKey == null || apiKey.isBlank()) {
+            return null;
+        }
+
+        try {
+            return callGroqStream(buildAnalysisPrompt(decision, riskScore, diff, changedFiles), MAX_TOKENS, deltas);
+        } catch (Exception e) {
+            System.err.println("GROQ API error in streamed generateEnhancedExplanation: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The enhanced explanation as a cold publisher of text pieces: each subscription makes its own streamed call
+     * (served from the cache when possible) and completes with the answer, or with an error when GROQ is not
+     * configured or the stream failed. Cancelling the subscription stops reading the answer.
+     */
+    public Flow.Publisher<String> streamEnhancedExplanation(String decision, double riskScore, String diff, List<String> changedFiles) {
+        return subscriber -> {
+            SubmissionPublisher<String> publisher = new SubmissionPublisher<>(STREAMS, Flow.defaultBufferSize());
+            publisher.subscribe(subscriber);
+            STREAMS.execute(() -> {
+                String text = generateEnhancedExplanation(decision, riskScore, diff, changedFiles, delta -> {
+                    if (!publisher.hasSubscribers()) throw new CancellationException();
+                    publisher.submit(delta);
+                });
+                if (text != null) {
+                    publisher.close();
+                } else {
+                    publisher.closeExceptionally(new IOException("GROQ explanation stream failed"));
+                }
+            });
+        };
+    }
+
     /**
      * Generate enhanced suggestion code description using GROQ
      * @param code Suggestion code
@@ -71,71 +202,6 @@ public class GroqAnalysisService {
         }
     }
 
-    /**
-     * Generate suggestion code category based on GROQ analysis of the diff
-     * Helps categorize PR patterns for better UI display
-     * @param decision BLOCK/WARN/ALLOW
-     * @param risk Risk score (0.0 to 1.0)
-     * @param diff Code changes
-     * @param changedFiles List of changed files
-     * @return Suggestion code category string
-     */
-    public String generateSuggestionCodeFromAnalysis(String decision, double risk, String diff, List<String> changedFiles) {
-        if (apiKey == null || apiKey.isBlank()) {
-            return null; // Return null to let controller use default logic
-        }
-
-        try {
-            // Analyze diff for specific patterns
-            String lowerDiff = diff.toLowerCase();
-            
-            // Quick heuristic-based detection for common patterns
-            if ("BLOCK".equals(decision)) {
-                if (lowerDiff.contains("password") || lowerDiff.contains("secret") || lowerDiff.contains("apikey")) {
-                    return "BLOCK_CREDENTIAL_EXPOSURE";
-                }
-                if (lowerDiff.contains("runtime.exec") || lowerDiff.contains("system.exit")) {
-                    return "BLOCK_DANGEROUS_EXEC";
-                }
-                if (risk >= 0.9) {
-                    return "BLOCK_CRITICAL_SECURITY";
-                }
-                if (risk >= 0.8) {
-                    return "BLOCK_HIGH_SECURITY_RISK";
-                }
-                return "BLOCK_DANGEROUS_OPERATIONS";
-            }
-            
-            if ("WARN".equals(decision)) {
-                boolean hasConfigFiles = changedFiles != null && changedFiles.stream()
-                    .anyMatch(f -> f.toLowerCase().matches(".*(properties|yml|yaml|xml|config)$"));
-                boolean hasBuildChanges = changedFiles != null && changedFiles.stream()
-                    .anyMatch(f -> f.toLowerCase().matches(".*(pom|gradle|build|docker|kubernetes).*"));
-                
-                if (hasBuildChanges) {
-                    return "WARN_BUILD_CONFIG_CHANGES";
-                }
-                if (hasConfigFiles) {
-                    return "WARN_CONFIG_CHANGES_REVIEW";
-                }
-                if (risk >= 0.5) {
-                    return "WARN_MODERATE_RISK_REVIEW";
-                }
-                return "WARN_ENHANCED_TESTING_NEEDED";
-            }
-            
-            // ALLOW decision
-            if (risk >= 0.1) {
-                return "ALLOW_WITH_TESTING_REQUIRED";
-            }
-            return "ALLOW_LOW_RISK_SAFE";
-            
-        } catch (Exception e) {
-            System.err.println("GROQ suggestion code analysis error: " + e.getMessage());
-            return null; // Return null for fallback
-        }
-    }
-
     /**
      * Generate test recommendations using GROQ
      * @param changedFiles Files that changed
@@ -151,7 +217,7 @@ public class GroqAnalysisService {
             String files = String.join(", ", changedFiles);
             String prompt = String.format(
                 "Analyze these changed files: %s\n\nDiff:\n%s\n\nGenerate 3 specific test recommendations (one per line, starting with '-'). Be concise.",
-                files, diff.substring(0, Math.min(500, diff.length()))
+                files, context(diff, TEST_DIFF_TOKENS)
             );
             String response = callGroqAPI(prompt);
             return parseTestRecommendations(response);
@@ -173,7 +239,7 @@ public class GroqAnalysisService {
         try {
             String prompt = String.format(
                 "Find up to 5 likely spelling mistakes or obvious typos in the following code or text diff and provide suggested corrections.\n\nDiff:\n%s\n\nRespond with one item per line in the format 'original -> suggestion'. If none, reply 'NONE'.",
-                diff.substring(0, Math.min(1200, diff.length()))
+                context(diff, DIFF_TOKENS)
             );
             String response = callGroqAPI(prompt);
             if (response == null) return Collections.emptyList();
@@ -195,6 +261,105 @@ public class GroqAnalysisService {
         }
     }
 
+    /**
+     * Fields of a consolidated GROQ answer; any field the model left out or that could not be parsed is null
+     */
+    record Consolidated(String explanation, List<String> tests, List<String> spelling, String recommendation) {}
+
+    /**
+     * Generate explanation, test recommendations, spelling suggestions and recommendation with a single GROQ call
+     * that answers in JSON mode. Sends the diff once instead of once per field.
+     * @param suggestionCode Rule-based suggestion code the recommendation is built from
+     * @return Parsed fields, or null when GROQ is not configured or the call failed
+     */
+    public Consolidated generateConsolidatedAnalysis(String decision, double riskScore, String diff, List<String> changedFiles, String suggestionCode) {
+        if (apiKey == null || apiKey.isBlank()) {
+            return null;
+        }
+
+        try {
+            String prompt = String.format(
+                "Analyze this PR:\n\n" +
+                "Files: %s\n" +
+                "Decision: %s\n" +
+                "Risk Score: %.2f\n" +
+                "Suggestion code: %s\n\n" +
+                "%sDiff:\n%s\n\n" +
+                "Respond with a JSON object with exactly these keys:\n" +
+                "\"explanation\": concise technical analysis (2-3 sentences) highlighting the main risks or positive aspects,\n" +
+                "\"tests\": array of 3 specific, concise test recommendations,\n" +
+                "\"spelling\": array of up to 5 likely spelling mistakes or obvious typos in the diff, each formatted 'original -> suggestion', empty if none,\n" +
+                "\"recommendation\": concise, actionable recommendation for developers (max 100 chars).",
+                String.join(", ", changedFiles), decision, riskScore, suggestionCode, updateNote(), context(diff, DIFF_TOKENS)
+            );
+            return parseConsolidated(callGroqAPI(prompt, CONSOLIDATED_MAX_TOKENS, true));
+        } catch (Exception e) {
+            System.err.println("GROQ API error in generateConsolidatedAnalysis: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read the answer token by token and keep every field that was complete before any syntax error,
+     * so a truncated or sloppy answer still yields the fields it got right.
+     * @return The fields found, or null when there is none
+     */
+    Consolidated parseConsolidated(String content) {
+        if (content == null) return null;
+        int start = content.indexOf('{');
+        if (start < 0) return null;
+
+        String explanation = null, recommendation = null;
+        List<String> tests = null, spelling = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(content.substring(start))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "explanation" -> explanation = readText(parser);
+                    case "recommendation" -> recommendation = readText(parser);
+                    case "tests" -> tests = readTextArray(parser, 3);
+                    case "spelling" -> spelling = readTextArray(parser, 5);
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            System.err.println("GROQ consolidated answer is not valid JSON, keeping parsed fields: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            return null;
+        }
+        // Nothing usable is no answer, and counts as a failed call
+        if (explanation == null && tests == null && spelling == null && recommendation == null) return null;
+        return new Consolidated(explanation, tests, spelling, recommendation);
+    }
+
+    private static String readText(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            parser.skipChildren();
+            return null;
+        }
+        String text = parser.getText().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static List<String> readTextArray(JsonParser parser, int limit) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<String> out = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                String item = parser.getText().trim();
+                if (!item.isEmpty() && out.size() < limit) out.add(item);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return out;
+    }
+
     private String buildAnalysisPrompt(String decision, double riskScore, String diff, List<String> changedFiles) {
         String files = String.join(", ", changedFiles);
         return String.format(
@@ -202,37 +367,89 @@ public class GroqAnalysisService {
             "Files: %s\n" +
             "Decision: %s\n" +
             "Risk Score: %.2f\n\n" +
-            "Diff:\n%s\n\n" +
+            "%sDiff:\n%s\n\n" +
             "Provide a concise technical analysis (2-3 sentences) highlighting the main risks or positive aspects. Be specific.",
-            files, decision, riskScore, diff.substring(0, Math.min(800, diff.length()))
+            files, decision, riskScore, updateNote(), context(diff, EXPLANATION_DIFF_TOKENS)
         );
     }
 
+    private String updateNote() {
+        return updateOf == null ? "" : String.format(
+            "This PR was analyzed before: \"%s\"\n" +
+            "The diff below contains only the hunks added or changed since then. The analysis should cover the whole PR as it is now.\n\n",
+            updateOf);
+    }
+
+    /**
+     * The most relevant hunks of the diff that fit the prompt's share of tokens.
+     */
+    private static String context(String diff, int tokens) {
+        return DiffContext.select(RuleEngine.current(), diff, tokens);
+    }
+
     private String callGroqAPI(String prompt) throws Exception {
-        // Using llama-3.3-70b-versatile - latest supported GROQ model as of Dec 2025
-        String requestBody = String.format(
-            "{\"model\":\"llama-3.3-70b-versatile\",\"messages\":[{\"role\":\"user\",\"content\":\"%s\"}],\"max_tokens\":150}",
-            escapeJson(prompt)
-        );
+        return callGroqAPI(prompt, MAX_TOKENS, false);
+    }
+
+    /**
+     * @param jsonMode Ask GROQ to answer with a single JSON object
+     */
+    private String callGroqAPI(String prompt, int maxTokens, boolean jsonMode) throws Exception {
+        // Identical diffs produce identical prompts, so redeliveries and re-runs are served from the cache
+        String cacheKey = cache == null ? null : GroqResponseCache.key(MODEL + "/" + maxTokens + (jsonMode ? "/json" : ""), prompt);
+        if (cacheKey != null) {
+            String cached = cache.get(cacheKey);
+            if (cached != null) return cached;
+        }
 
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(GROQ_API_URL))
-            .header("Authorization", "Bearer " + apiKey)
-            .header("Content-Type", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-            .build();
-
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() == 200) {
-            JsonNode json = objectMapper.readTree(response.body());
-            return json.get("choices").get(0).get("message").get("content").asText().trim();
-        } else {
-            System.err.println("GROQ API error: " + response.statusCode());
-            System.err.println("Response: " + response.body());
-            System.err.println("Request body: " + requestBody);
+        String requestBody = requestBody(prompt, maxTokens, jsonMode ? ",\"response_format\":{\"type\":\"json_object\"}" : "");
+
+        GatekeeperMetrics.groqPrompt(prompt.length());
+        String body = scheduler.execute(requestBody, DiffContext.tokens(prompt) + maxTokens, priority);
+        if (body == null) return null;
+        JsonNode json = objectMapper.readTree(body);
+        String content = json.get("choices").get(0).get("message").get("content").asText().trim();
+        GatekeeperMetrics.groqResponse(content.length());
+        if (cacheKey != null) cache.put(cacheKey, content);
+        return content;
+    }
+
+    /**
+     * Streamed variant of {@link #callGroqAPI}; a cached answer is handed to {@code deltas} in one piece.
+     */
+    private String callGroqStream(String prompt, int maxTokens, Consumer<String> deltas) throws Exception {
+        // A streamed answer is the same completion, so it shares the cache entry of the plain call
+        String cacheKey = cache == null ? null : GroqResponseCache.key(MODEL + "/" + maxTokens, prompt);
+        if (cacheKey != null) {
+            String cached = cache.get(cacheKey);
+            if (cached != null) {
+                deltas.accept(cached);
+                return cached;
+            }
+        }
+
+        GatekeeperMetrics.groqPrompt(prompt.length());
+        GroqStream stream = new GroqStream(deltas);
+        boolean read = scheduler.executeStreaming(requestBody(prompt, maxTokens, ",\"stream\":true"),
+            DiffContext.tokens(prompt) + maxTokens, priority, stream, Duration.ofMillis(STREAM_TIMEOUT_MS));
+        if (!read || !stream.finished()) {
+            stream.cancel();
             return null;
         }
+        String content = stream.text().trim();
+        GatekeeperMetrics.groqResponse(content.length());
+        if (cacheKey != null) cache.put(cacheKey, content);
+        return content;
+    }
+
+    /**
+     * @param options Extra JSON members, each starting with a comma
+     */
+    private String requestBody(String prompt, int maxTokens, String options) {
+        return String.format(
+            "{\"model\":\"%s\",\"messages\":[{\"role\":\"user\",\"content\":\"%s\"}],\"max_tokens\":%d%s}",
+            MODEL, escapeJson(prompt), maxTokens, options
+        );
     }
 
     private List<String> parseTestRecommendations(String response) {
@@ -250,7 +467,7 @@ public class GroqAnalysisService {
         return recommendations.stream().limit(3).toList();
     }
 
-    private String escapeJson(String str) {
+    String escapeJson(String str) {
         if (str == null) return "";
         return str.replace("\\", "\\\\")    // Escape backslash first
                  .replace("\"", "\\\"")    // Escape quotes
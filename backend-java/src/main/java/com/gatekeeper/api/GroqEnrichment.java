@@ -0,0 +1,116 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the GROQ enrichment calls of one analysis concurrently on virtual threads.
+ * Every call has its own deadline and the whole enrichment shares one latency budget;
+ * a call that fails or misses either limit falls back to the rule-based value.
+ * In consolidated mode a single JSON-mode call answers all fields, each of which falls back on its own.
+ * Callers that show the explanation while it is written can have it streamed (separate mode only).
+ */
+final class GroqEnrichment {
+    static final long CALL_TIMEOUT_MS = Env.longValue("GROQ_CALL_TIMEOUT_MS", 4000);
+    static final long ANALYSIS_BUDGET_MS = Env.longValue("GATEKEEPER_ANALYSIS_BUDGET_MS", 6000);
+    static final boolean CONSOLIDATED = "consolidated".equalsIgnoreCase(Env.value("GROQ_ENRICHMENT_MODE", "separate"));
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    record Result(List<String> suggestedTests, String explanation, List<String> spellingSuggestions, String groqSuggestion) {}
+
+    private final long startNanos = System.nanoTime();
+    private final long deadlineNanos;
+    private final List<String> fallbackTests;
+    private final String fallbackExplanation;
+
+    final CompletableFuture<List<String>> suggestedTests;
+    final CompletableFuture<String> explanation;
+    final CompletableFuture<List<String>> spellingSuggestions;
+    final CompletableFuture<String> groqSuggestion;
+
+    private GroqEnrichment(GroqAnalysisService groq, String decision, double risk, String diff, List<String> files,
+                           String suggestionCode, List<String> fallbackTests, String fallbackExplanation, Consumer<String> explanationDeltas) {
+        this.deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(ANALYSIS_BUDGET_MS);
+        this.fallbackTests = fallbackTests;
+        this.fallbackExplanation = fallbackExplanation;
+
+        if (CONSOLIDATED) {
+            CompletableFuture<GroqAnalysisService.Consolidated> answer =
+                call(GatekeeperMetrics.GroqCall.CONSOLIDATED, () -> groq.generateConsolidatedAnalysis(decision, risk, diff, files, suggestionCode));
+            this.suggestedTests = answer.thenApply(a -> a == null || a.tests() == null || a.tests().isEmpty() ? fallbackTests : a.tests());
+            this.explanation = answer.thenApply(a -> a == null || a.explanation() == null ? fallbackExplanation : a.explanation());
+            this.spellingSuggestions = answer.thenApply(a -> a == null || a.spelling() == null ? Collections.<String>emptyList() : a.spelling());
+            this.groqSuggestion = answer.thenApply(a -> a == null || (a.spelling() != null && !a.spelling().isEmpty()) ? null : a.recommendation());
+            return;
+        }
+
+        this.suggestedTests = call(GatekeeperMetrics.GroqCall.TESTS, () -> groq.generateTestRecommendations(files, diff))
+            .thenApply(tests -> tests == null || tests.isEmpty() ? fallbackTests : tests);
+        this.explanation = call(GatekeeperMetrics.GroqCall.EXPLANATION, explanationDeltas == null
+                ? () -> groq.generateEnhancedExplanation(decision, risk, diff, files)
+                : () -> groq.generateEnhancedExplanation(decision, risk, diff, files, explanationDeltas))
+            .thenApply(text -> text != null ? text : fallbackExplanation);
+        this.spellingSuggestions = call(GatekeeperMetrics.GroqCall.SPELLING, () -> groq.generateSpellingSuggestions(diff))
+            .thenApply(s -> s == null ? Collections.<String>emptyList() : s);
+
+        // The recommendation needs the final explanation and is only wanted when no spelling issues were found
+        this.groqSuggestion = explanation.thenCombine(spellingSuggestions, (text, spelling) -> spelling.isEmpty() ? text : null)
+            .thenCompose(text -> text == null
+                ? CompletableFuture.completedFuture((String) null)
+                : call(GatekeeperMetrics.GroqCall.RECOMMENDATION, () -> groq.generateEnhancedSuggestionDescription(suggestionCode, text)));
+    }
+
+    /**
+     * Start all enrichment calls for one PR.
+     * @param suggestionCode Rule-based suggestion code the recommendation is built from
+     * @param fallbackTests Heuristic test suggestions used when GROQ gives none in time
+     * @param fallbackExplanation Heuristic explanation used when GROQ gives none in time
+     * @param explanationDeltas Receives the GROQ explanation piece by piece while it is generated, or null
+     */
+    static GroqEnrichment start(GroqAnalysisService groq, String decision, double risk, String diff, List<String> files,
+                                String suggestionCode, List<String> fallbackTests, String fallbackExplanation,
+                                Consumer<String> explanationDeltas) {
+        return new GroqEnrichment(groq, decision, risk, diff, files, suggestionCode, fallbackTests, fallbackExplanation, explanationDeltas);
+    }
+
+    /**
+     * Wait until every call finished or the analysis budget is spent, then collect
+     * whatever is available with heuristic values for the rest.
+     */
+    Result await() {
+        long remaining = deadlineNanos - System.nanoTime();
+        try {
+            CompletableFuture.allOf(suggestedTests, explanation, spellingSuggestions, groqSuggestion)
+                .get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Fall through and take what is ready
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        GatekeeperMetrics.Stage.ENRICHMENT.record(startNanos);
+        return new Result(
+            suggestedTests.getNow(fallbackTests),
+            explanation.getNow(fallbackExplanation),
+            spellingSuggestions.getNow(Collections.emptyList()),
+            groqSuggestion.getNow(null));
+    }
+
+    /**
+     * Whether GROQ wrote the explanation, rather than the budget running out or the call failing. Only
+     * meaningful after {@link #await}.
+     */
+    boolean explained() {
+        return explanation.isDone() && explanation.getNow(fallbackExplanation) != fallbackExplanation;
+    }
+
+    private static <T> CompletableFuture<T> call(GatekeeperMetrics.GroqCall type, Supplier<T> groqCall) {
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(groqCall, EXECUTOR)
+            .completeOnTimeout(null, CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .exceptionally(e -> null)
+            .whenComplete((value, e) -> type.record(start, value != null && !(value instanceof Collection<?> c && c.isEmpty())));
+    }
+}
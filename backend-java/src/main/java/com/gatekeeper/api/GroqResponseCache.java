@@ -0,0 +1,267 @@
+package com.gatekeeper.api;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache for GROQ completions.
+ * Entries are keyed by a SHA-256 of model and prompt, bounded by an approximate byte weight
+ * with LRU eviction and expire after a fixed TTL. When a file is configured every stored
+ * completion is also appended to it, and the file is replayed on startup so the hit rate
+ * survives restarts. Appends are handed to a single writer thread, so lookups never wait for
+ * the disk, and the writer rewrites the file from the live entries once it has grown to
+ * {@code COMPACT_RATIO} times their weight. Once the file cannot be written the disk tier is switched
+ * off and the cache carries on in memory.
+ */
+final class GroqResponseCache {
+    // Per-entry bookkeeping cost added to the character payload when weighing an entry
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final byte RECORD_PUT = 'P';
+    // The file is rewritten once it is this many times the live weight, and at least COMPACT_MIN_BYTES
+    private static final int COMPACT_RATIO = 4;
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+    // Appends waiting for the writer; beyond this the disk tier drops them rather than holding memory
+    private static final int PENDING_APPENDS = 1024;
+
+    /**
+     * @param diskTier Whether completions are still appended to the cache file
+     */
+    record Stats(long hits, long misses, long evictions, long expirations, int entries, long weightBytes, long maxWeightBytes, boolean diskTier) {}
+
+    private record Entry(String value, long expiresAt, long weight) {}
+
+    private record Record(String key, String value, long expiresAt) {}
+
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final Path file;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight;
+    private final BlockingQueue<Record> pending = new LinkedBlockingQueue<>(PENDING_APPENDS);
+    // Owned by the writer thread once load() returns
+    private DataOutputStream log;
+    private long logBytes;
+    // Cleared when the writer stops, so puts no longer queue appends nobody will write
+    private volatile boolean diskTier;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    GroqResponseCache(long maxWeightBytes, long ttlMillis, Path file) {
+        this.maxWeight = maxWeightBytes;
+        this.ttlMillis = ttlMillis;
+        this.file = file;
+        if (file != null) {
+            load();
+            if (log != null) {
+                diskTier = true;
+                Thread.ofVirtual().name("groq-cache-writer").start(this::writeLoop);
+            }
+        }
+        GatekeeperMetrics.cache(this);
+    }
+
+    /**
+     * Build the cache from GROQ_CACHE_* settings, or return null when caching is disabled.
+     */
+    static GroqResponseCache fromEnv() {
+        if (!Env.flag("GROQ_CACHE_ENABLED", true)) return null;
+        long maxBytes = Env.longValue("GROQ_CACHE_MAX_BYTES", 32L * 1024 * 1024);
+        long ttlMillis = Env.longValue("GROQ_CACHE_TTL_MINUTES", 24 * 60) * 60_000L;
+        String file = Env.value("GROQ_CACHE_FILE");
+        return new GroqResponseCache(maxBytes, ttlMillis, file == null ? null : Path.of(file));
+    }
+
+    static String key(String model, String prompt) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(model.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(prompt.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    synchronized String get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (e.expiresAt() <= System.currentTimeMillis()) {
+            remove(key);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.value();
+    }
+
+    void put(String key, String value) {
+        if (value == null) return;
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        boolean stored;
+        synchronized (this) {
+            stored = store(key, value, expiresAt);
+        }
+        // A full queue means the disk is behind; the entry stays cached in memory either way
+        if (stored && diskTier) pending.offer(new Record(key, value, expiresAt));
+    }
+
+    synchronized Stats stats() {
+        return new Stats(hits.get(), misses.get(), evictions.get(), expirations.get(), entries.size(), weight, maxWeight, diskTier);
+    }
+
+    private boolean store(String key, String value, long expiresAt) {
+        long w = ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+        if (w > maxWeight) return false;
+        Entry previous = entries.put(key, new Entry(value, expiresAt, w));
+        if (previous != null) weight -= previous.weight();
+        weight += w;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            weight -= eldest.getValue().weight();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+        return true;
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null) weight -= e.weight();
+    }
+
+    private void writeLoop() {
+        try {
+            while (log != null) {
+                Record r = pending.take();
+                logBytes += writeRecord(log, r.key(), r.value(), r.expiresAt());
+                // Flush once the burst is written rather than per record
+                if (pending.isEmpty()) {
+                    log.flush();
+                    if (logBytes > Math.max(COMPACT_MIN_BYTES, COMPACT_RATIO * liveWeight())) {
+                        log.close();
+                        compact();
+                        openLog();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("GROQ cache write failed, disabling disk tier: " + e.getMessage());
+        } finally {
+            diskTier = false;
+            closeLog();
+            pending.clear();
+        }
+    }
+
+    private synchronized long liveWeight() {
+        return weight;
+    }
+
+    /**
+     * Replay the append-only file, dropping expired records and a torn tail, and
+     * rewrite it when most of its records are dead.
+     */
+    private void load() {
+        long now = System.currentTimeMillis();
+        int records = 0;
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            if (Files.exists(file)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    while (true) {
+                        int type = in.read();
+                        if (type != RECORD_PUT) break;
+                        long expiresAt = in.readLong();
+                        String key = readString(in);
+                        String value = readString(in);
+                        records++;
+                        if (expiresAt > now) store(key, value, expiresAt);
+                    }
+                } catch (EOFException e) {
+                    // Torn last record from a crash; compaction below drops it
+                    records++;
+                }
+                // Replaying must not count as evictions
+                evictions.set(0);
+            }
+            if (records > entries.size()) {
+                compact();
+            }
+            openLog();
+        } catch (IOException e) {
+            System.err.println("GROQ cache file " + file + " unavailable, using memory only: " + e.getMessage());
+            closeLog();
+        }
+    }
+
+    // Records put after the snapshot are still queued and land in the new file
+    private void compact() throws IOException {
+        List<Record> live;
+        synchronized (this) {
+            live = new ArrayList<>(entries.size());
+            entries.forEach((key, e) -> live.add(new Record(key, e.value(), e.expiresAt())));
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (Record r : live) {
+                writeRecord(out, r.key(), r.value(), r.expiresAt());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void openLog() throws IOException {
+        log = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        logBytes = Files.size(file);
+    }
+
+    private void closeLog() {
+        try {
+            if (log != null) log.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with a broken file
+        }
+        log = null;
+    }
+
+    // Returns the bytes written
+    private static int writeRecord(DataOutputStream out, String key, String value, long expiresAt) throws IOException {
+        out.write(RECORD_PUT);
+        out.writeLong(expiresAt);
+        return 1 + 8 + writeString(out, key) + writeString(out, value);
+    }
+
+    private static int writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > 16 * 1024 * 1024) throw new EOFException("Corrupt record length " + len);
+        byte[] bytes = in.readNBytes(len);
+        if (bytes.length < len) throw new EOFException("Truncated record");
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,520 @@
+package com.gatekeeper.api;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rate-limit-aware scheduler in front of the GROQ chat completions API.
+ * <ul>
+ * <li>Calls wait in a bounded priority queue; interactive analyses go before batch work. A call the token
+ *     budget cannot cover yet stays queued while calls behind it that fit go ahead.</li>
+ * <li>Batch work reserves its calls before it starts them and never has more outstanding than can be in
+ *     flight, so a backfill is paced by the budgets below instead of filling the queue with calls that
+ *     would expire in it or crowd out interactive ones.</li>
+ * <li>Two token buckets track the request and token budgets per minute and are corrected from the
+ *     {@code x-ratelimit-*} and {@code retry-after} headers of every response.</li>
+ * <li>429 and 5xx answers are retried with jittered exponential backoff until the call's deadline.</li>
+ * <li>All calls share one HTTP/2 client, so connections are reused and requests multiplexed.</li>
+ * <li>Streamed calls hand each line of the answer to a subscriber as it arrives instead of buffering it.</li>
+ * <li>Outcomes feed a {@link CircuitBreaker} that tells analyses when to skip GROQ altogether.</li>
+ * </ul>
+ * A call that cannot be admitted, expires in the queue or runs out of retries yields null, the same
+ * as any other GROQ failure, and the caller falls back to its heuristic.
+ */
+final class GroqScheduler {
+    static final String DEFAULT_API_URL = "https://api.groq.com/openai/v1/chat/completions";
+
+    enum Priority { INTERACTIVE, BATCH }
+
+    record Stats(int queued, int inFlight, long sent, long rateLimited, long retried, long rejected, long expired, long failed,
+                 CircuitBreaker.State breaker, long breakerOpened) {}
+
+    record Config(URI apiUrl, double requestsPerMinute, double tokensPerMinute, int maxInFlight, int queueCapacity,
+                  int maxRetries, long baseBackoffMs, long maxBackoffMs, Duration requestTimeout) {
+        static Config fromEnv() {
+            return new Config(
+                URI.create(Env.value("GROQ_API_URL", DEFAULT_API_URL)),
+                Env.doubleValue("GROQ_REQUESTS_PER_MINUTE", 30),
+                Env.doubleValue("GROQ_TOKENS_PER_MINUTE", 12_000),
+                Env.intValue("GROQ_MAX_IN_FLIGHT", 16),
+                Env.intValue("GROQ_QUEUE_CAPACITY", 256),
+                Env.intValue("GROQ_MAX_RETRIES", 3),
+                Env.longValue("GROQ_BACKOFF_BASE_MS", 250),
+                Env.longValue("GROQ_BACKOFF_MAX_MS", 4000),
+                Duration.ofMillis(GroqEnrichment.CALL_TIMEOUT_MS));
+        }
+    }
+
+    private static final Pattern DURATION_PART = Pattern.compile("([0-9]*\\.?[0-9]+)(ms|h|m|s)");
+    private static final int LOG_BODY_CHARS = 200;
+
+    private final Config config;
+    private final String apiKey;
+    private final HttpClient httpClient;
+    private final TokenBucket requestBudget;
+    private final TokenBucket tokenBudget;
+    private final Semaphore inFlight;
+    private final Semaphore batch;
+    private final ScheduledExecutorService retryTimer;
+    private final CircuitBreaker breaker = new CircuitBreaker(CircuitBreaker.Config.fromEnv());
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when a call is queued or an in-flight permit is given back
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Call> queue = new PriorityQueue<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private final class Call implements Comparable<Call> {
+        final String body;
+        final double tokens;
+        final Priority priority;
+        final long deadline;
+        final long created = System.nanoTime();
+        // Receives the lines of a streamed answer; null for calls that wait for the whole body
+        final Flow.Subscriber<String> lines;
+        final long seq = sequence.getAndIncrement();
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        int attempt;
+        // Set once a 200 answer started streaming; from then on the call is not retried
+        volatile boolean streaming;
+        // Whether the in-flight permit of the current attempt was given back
+        final AtomicBoolean released = new AtomicBoolean();
+
+        Call(String body, double tokens, Priority priority, long deadline, Flow.Subscriber<String> lines) {
+            this.body = body;
+            this.tokens = tokens;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.lines = lines;
+        }
+
+        @Override
+        public int compareTo(Call o) {
+            int p = priority.compareTo(o.priority);
+            return p != 0 ? p : Long.compare(seq, o.seq);
+        }
+    }
+
+    GroqScheduler(Config config, String apiKey) {
+        this.config = config;
+        this.apiKey = apiKey;
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+        // Allow a burst of a few seconds' worth of budget, never less than one request
+        this.requestBudget = new TokenBucket(config.requestsPerMinute() / 60.0, Math.max(1, config.requestsPerMinute() / 10.0));
+        this.tokenBudget = new TokenBucket(config.tokensPerMinute() / 60.0, Math.max(1, config.tokensPerMinute() / 10.0));
+        this.inFlight = new Semaphore(config.maxInFlight());
+        this.batch = new Semaphore(config.maxInFlight(), true);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "groq-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        Thread.ofVirtual().name("groq-dispatcher").start(this::dispatchLoop);
+        GatekeeperMetrics.scheduler(this);
+    }
+
+    /**
+     * Send one chat completion request and wait for its body.
+     * @param estimatedTokens Prompt plus completion tokens, charged against the token budget
+     * @return Response body of a 200 answer, or null when the call was rejected, expired or failed
+     */
+    String execute(String requestBody, double estimatedTokens, Priority priority) throws InterruptedException {
+        return await(call(requestBody, estimatedTokens, priority, config.requestTimeout(), null));
+    }
+
+    /**
+     * Send one chat completion request with {@code "stream": true} and hand every line of the answer to
+     * {@code lines} as it arrives. Failures are retried only until the answer starts, so the subscriber
+     * sees at most one stream; it is not subscribed at all when no answer comes.
+     * @param timeout Time allowed for the whole stream
+     * @return True when the stream was read to its end
+     */
+    boolean executeStreaming(String requestBody, double estimatedTokens, Priority priority, Flow.Subscriber<String> lines,
+                             Duration timeout) throws InterruptedException {
+        return await(call(requestBody, estimatedTokens, priority, timeout, lines)) != null;
+    }
+
+    private Call call(String requestBody, double estimatedTokens, Priority priority, Duration timeout, Flow.Subscriber<String> lines) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        return new Call(requestBody, Math.min(estimatedTokens, config.tokensPerMinute() / 10.0), priority, deadline, lines);
+    }
+
+    private String await(Call call) throws InterruptedException {
+        long deadline = call.deadline;
+        lock.lock();
+        try {
+            if (queue.size() >= config.queueCapacity()) {
+                rejected.incrementAndGet();
+                System.err.println("GROQ queue full (" + queue.size() + "), skipping call");
+                return null;
+            }
+            queue.add(call);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            return call.result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (call.result.complete(null)) expire();
+            lock.lock();
+            try {
+                queue.remove(call);
+            } finally {
+                lock.unlock();
+            }
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    Stats stats() {
+        int queued;
+        lock.lock();
+        try {
+            queued = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(queued, config.maxInFlight() - inFlight.availablePermits(), sent.get(), rateLimited.get(),
+            retried.get(), rejected.get(), expired.get(), failed.get(), breaker.state(), breaker.opened());
+    }
+
+    /**
+     * Whether an analysis should call GROQ now; false while the circuit breaker is open. Admits the probe of
+     * a half-open breaker, so only ask when the analysis will go on to call GROQ.
+     */
+    boolean available() {
+        return breaker.allow();
+    }
+
+    /**
+     * Reserve room for the calls of one piece of batch work, waiting while earlier batch work still has as
+     * many calls outstanding as can be in flight. Give it back with {@link #releaseBatch} once those calls
+     * are done.
+     */
+    void acquireBatch(int calls) throws InterruptedException {
+        batch.acquire(Math.min(calls, config.maxInFlight()));
+    }
+
+    void releaseBatch(int calls) {
+        batch.release(Math.min(calls, config.maxInFlight()));
+    }
+
+    /** Calls waiting for budget; cheaper than {@link #stats()}. */
+    int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Not a breaker failure: the deadline passed in the local queue or buckets, or the call is still in flight
+    // and reports its own upstream timeout through fail()
+    private void expire() {
+        expired.incrementAndGet();
+    }
+
+    private void fail() {
+        failed.incrementAndGet();
+        breaker.failure();
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            try {
+                send(next());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("GROQ dispatcher error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Take the first call in priority order that an in-flight permit and both budgets admit right now,
+     * charging them. Never sleeps on a budget: a call that has to wait for tokens is skipped so the calls
+     * behind it can go, and the dispatcher waits only until the earliest skipped call fits or something
+     * changes. Calls whose caller gave up, or whose wait would outlast their deadline, are answered with
+     * the fallback and dropped on the way.
+     */
+    private Call next() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long wait = Long.MAX_VALUE;
+                if (!queue.isEmpty() && inFlight.availablePermits() > 0) {
+                    Call[] waiting = queue.toArray(new Call[0]);
+                    Arrays.sort(waiting);
+                    long now = System.nanoTime();
+                    long requestWait = requestBudget.waitNanos(1);
+                    for (Call call : waiting) {
+                        long remaining = call.deadline - now;
+                        if (call.result.isDone() || remaining <= 0) {
+                            // Caller gave up already; do not spend budget on it
+                            queue.remove(call);
+                            call.result.complete(null);
+                            continue;
+                        }
+                        long callWait = Math.max(requestWait, tokenBudget.waitNanos(call.tokens));
+                        if (callWait >= remaining) {
+                            // Rate limited for longer than the caller will wait; answer with the fallback right away
+                            queue.remove(call);
+                            if (call.result.complete(null)) expire();
+                            continue;
+                        }
+                        if (callWait == 0 && inFlight.tryAcquire()) {
+                            queue.remove(call);
+                            requestBudget.reserve(1);
+                            tokenBudget.reserve(call.tokens);
+                            return call;
+                        }
+                        wait = Math.min(wait, callWait);
+                    }
+                }
+                if (wait == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(Math.max(wait, 1_000_000));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void send(Call call) {
+        long remaining = call.deadline - System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(config.apiUrl())
+            .header("Authorization", "Bearer " + apiKey)
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofNanos(Math.max(remaining, 1_000_000)))
+            .POST(HttpRequest.BodyPublishers.ofString(call.body))
+            .build();
+        sent.incrementAndGet();
+        call.released.set(false);
+        httpClient.sendAsync(request, call.lines == null ? HttpResponse.BodyHandlers.ofString() : streamHandler(call))
+            .whenComplete((response, error) -> {
+                release(call);
+                if (error != null) {
+                    GatekeeperMetrics.groqStatus("io_error");
+                    if (call.streaming) {
+                        // Part of the answer was delivered already; a retry would repeat it
+                        fail();
+                        System.err.println("GROQ stream broke off: " + error.getMessage());
+                        call.result.complete(null);
+                        return;
+                    }
+                    retryOrFail(call, "io_error", "I/O error: " + error.getMessage(), 0);
+                    return;
+                }
+                adapt(response);
+                int status = response.statusCode();
+                GatekeeperMetrics.groqStatus(String.valueOf(status));
+                if (status == 200) {
+                    // A streamed call counted its latency when the answer started
+                    if (call.lines == null) breaker.success(System.nanoTime() - call.created);
+                    call.result.complete(response.body());
+                } else if (status == 429 || status >= 500) {
+                    if (status == 429) rateLimited.incrementAndGet();
+                    retryOrFail(call, status == 429 ? "rate_limited" : "server_error", "status " + status, retryAfterNanos(response));
+                } else {
+                    fail();
+                    System.err.println("GROQ API error: " + status + " " + abbreviate(response.body()));
+                    call.result.complete(null);
+                }
+            });
+    }
+
+    /**
+     * Lines of a 200 answer go to the call's subscriber as they arrive; other answers are read whole for logging.
+     */
+    private HttpResponse.BodyHandler<String> streamHandler(Call call) {
+        return info -> {
+            if (info.statusCode() != 200) return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+            call.streaming = true;
+            breaker.success(System.nanoTime() - call.created);
+            return HttpResponse.BodySubscribers.fromLineSubscriber(new StreamLines(call), lines -> "", StandardCharsets.UTF_8, null);
+        };
+    }
+
+    private void release(Call call) {
+        if (!call.released.compareAndSet(false, true)) return;
+        inFlight.release();
+        lock.lock();
+        try {
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes the lines of a streamed answer to the call's subscriber. When that subscriber cancels, the call
+     * ends at once: the HTTP client never completes a response whose body was abandoned.
+     */
+    private final class StreamLines implements Flow.Subscriber<String> {
+        private final Call call;
+
+        StreamLines(Call call) {
+            this.call = call;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            call.lines.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    release(call);
+                    call.result.complete(null);
+                }
+            });
+        }
+
+        @Override
+        public void onNext(String line) {
+            call.lines.onNext(line);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            call.lines.onError(error);
+        }
+
+        @Override
+        public void onComplete() {
+            call.lines.onComplete();
+        }
+    }
+
+    /**
+     * @param cause Metric tag of the failure
+     * @param reason Log message
+     */
+    private void retryOrFail(Call call, String cause, String reason, long retryAfterNanos) {
+        long backoff = retryAfterNanos > 0 ? retryAfterNanos : jitteredBackoff(call.attempt);
+        if (call.attempt >= config.maxRetries() || System.nanoTime() + backoff >= call.deadline) {
+            fail();
+            System.err.println("GROQ call failed after " + (call.attempt + 1) + " attempt(s): " + reason);
+            call.result.complete(null);
+            return;
+        }
+        call.attempt++;
+        retried.incrementAndGet();
+        GatekeeperMetrics.groqRetry(cause);
+        retryTimer.schedule(() -> {
+            lock.lock();
+            try {
+                // Retries skip the capacity check; they were admitted once already
+                queue.add(call);
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+        }, backoff, TimeUnit.NANOSECONDS);
+    }
+
+    /** Full-range jitter over an exponentially growing cap. */
+    private long jitteredBackoff(int attempt) {
+        long cap = Math.min(config.maxBackoffMs(), config.baseBackoffMs() << Math.min(attempt, 20));
+        return TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(cap / 2, cap + 1));
+    }
+
+    /**
+     * Pull our budgets down to what the provider says is left, and pause until the reset when it is exhausted.
+     */
+    private void adapt(HttpResponse<?> response) {
+        var headers = response.headers();
+        // A malformed header says nothing about the budget; ignore it rather than pause on it
+        headers.firstValue("x-ratelimit-remaining-requests").map(GroqScheduler::parseDouble).filter(v -> !Double.isNaN(v)).ifPresent(left -> {
+            if (left <= 0) {
+                requestBudget.pause(headers.firstValue("x-ratelimit-reset-requests").map(GroqScheduler::parseDuration).orElse(TimeUnit.SECONDS.toNanos(1)));
+            } else {
+                requestBudget.limit(left);
+            }
+        });
+        headers.firstValue("x-ratelimit-remaining-tokens").map(GroqScheduler::parseDouble).filter(v -> !Double.isNaN(v)).ifPresent(left -> {
+            if (left <= 0) {
+                tokenBudget.pause(headers.firstValue("x-ratelimit-reset-tokens").map(GroqScheduler::parseDuration).orElse(TimeUnit.SECONDS.toNanos(1)));
+            } else {
+                tokenBudget.limit(left);
+            }
+        });
+        if (response.statusCode() == 429) {
+            long pause = retryAfterNanos(response);
+            if (pause > 0) requestBudget.pause(pause);
+        }
+    }
+
+    private static long retryAfterNanos(HttpResponse<?> response) {
+        return response.headers().firstValue("retry-after")
+            .map(GroqScheduler::parseDouble)
+            .filter(v -> v > 0)
+            .map(v -> (long) (v * 1e9))
+            .orElse(0L);
+    }
+
+    /** NaN for values that are not a number, such as a {@code retry-after} given as an HTTP date. */
+    private static double parseDouble(String v) {
+        try {
+            return Double.parseDouble(v.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** Parse GROQ reset durations such as "7.66s", "2m59.56s" or "120ms" into nanoseconds. */
+    static long parseDuration(String v) {
+        Matcher m = DURATION_PART.matcher(v.trim());
+        double nanos = 0;
+        while (m.find()) {
+            double amount = Double.parseDouble(m.group(1));
+            nanos += switch (m.group(2)) {
+                case "h" -> amount * 3600e9;
+                case "m" -> amount * 60e9;
+                case "ms" -> amount * 1e6;
+                default -> amount * 1e9;
+            };
+        }
+        return (long) nanos;
+    }
+
+    private static String abbreviate(String s) {
+        if (s == null) return "";
+        return s.length() <= LOG_BODY_CHARS ? s : s.substring(0, LOG_BODY_CHARS) + "...";
+    }
+}
@@ -0,0 +1,109 @@
+package com.gatekeeper.api;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Line subscriber for a streamed chat completion ({@code "stream": true}). Each {@code data:} event is parsed
+ * as its line arrives and its content delta handed on at once, so the text reaches callers token by token
+ * while only the answer so far is kept. One line is requested at a time, which lets a slow consumer hold
+ * back the connection instead of the answer piling up in memory.
+ * <p>
+ * A consumer that throws {@link CancellationException} stops the stream, for example when its client went away.
+ */
+final class GroqStream implements Flow.Subscriber<String> {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String DATA = "data:";
+    private static final String DONE = "[DONE]";
+
+    private final Consumer<String> deltas;
+    private final StringBuilder text = new StringBuilder();
+    private volatile Flow.Subscription subscription;
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+
+    /**
+     * @param deltas Receives each piece of content in order
+     */
+    GroqStream(Consumer<String> deltas) {
+        this.deltas = deltas;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (cancelled) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (cancelled) return;
+        if (line.startsWith(DATA)) {
+            String data = line.substring(DATA.length()).trim();
+            if (data.equals(DONE)) {
+                finished = true;
+            } else {
+                accept(data);
+            }
+        }
+        // Blank lines end an event; comments and other fields carry no content
+        if (!cancelled) subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        if (!cancelled) System.err.println("GROQ stream error: " + error.getMessage());
+    }
+
+    @Override
+    public void onComplete() {
+        // [DONE] marks a complete answer; a stream that just ends was cut off
+    }
+
+    /**
+     * Stop reading; lines still in flight are dropped.
+     */
+    void cancel() {
+        cancelled = true;
+        Flow.Subscription s = subscription;
+        if (s != null) s.cancel();
+    }
+
+    /** True once the stream's {@code [DONE]} event arrived. */
+    boolean finished() {
+        return finished;
+    }
+
+    /** Content received so far. */
+    synchronized String text() {
+        return text.toString();
+    }
+
+    private void accept(String data) {
+        JsonNode content;
+        try {
+            content = MAPPER.readTree(data).path("choices").path(0).path("delta").path("content");
+        } catch (JsonProcessingException e) {
+            System.err.println("Skipping malformed GROQ stream event: " + e.getOriginalMessage());
+            return;
+        }
+        if (!content.isTextual() || content.asText().isEmpty()) return;
+        String delta = content.asText();
+        synchronized (this) {
+            text.append(delta);
+        }
+        try {
+            deltas.accept(delta);
+        } catch (CancellationException e) {
+            cancel();
+        }
+    }
+}
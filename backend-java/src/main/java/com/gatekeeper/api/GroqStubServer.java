@@ -0,0 +1,162 @@
+package com.gatekeeper.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the GROQ chat completions endpoint, for exercising the scheduler without a real key.
+ * It answers after a configurable latency plus random jitter, enforces its own requests-per-minute window
+ * with 429s and {@code x-ratelimit-*} headers like the real API, rejects a further share of calls with 429
+ * as if other clients had used up the quota, and fails a share of calls with 503. Requests with
+ * {@code "stream": true} are answered as server-sent events, one word per chunk.
+ * <p>
+ * Run with {@code java -cp <backend jar> -Dloader.main=com.gatekeeper.api.GroqStubServer org.springframework.boot.loader.launch.PropertiesLauncher [port]}
+ * and point {@code GROQ_API_URL} at {@code http://localhost:<port>/openai/v1/chat/completions}.
+ */
+public final class GroqStubServer {
+    /**
+     * @param latencyJitterMs Upper bound of a uniformly random delay added to {@code latencyMs}
+     * @param rateLimitRate Share of calls within the window answered with 429 anyway
+     * @param errorRate Share of admitted calls that fail with 503
+     */
+    public record Config(long latencyMs, long latencyJitterMs, int requestsPerMinute, double rateLimitRate, double errorRate) {
+        public static Config fromEnv() {
+            return new Config(
+                Env.longValue("GROQ_STUB_LATENCY_MS", 300),
+                Env.longValue("GROQ_STUB_LATENCY_JITTER_MS", 0),
+                Env.intValue("GROQ_STUB_REQUESTS_PER_MINUTE", 30),
+                Env.doubleValue("GROQ_STUB_RATE_LIMIT_RATE", 0.0),
+                Env.doubleValue("GROQ_STUB_ERROR_RATE", 0.0));
+        }
+    }
+
+    private final Config config;
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong windowCount = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong limited = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private HttpServer server;
+
+    public GroqStubServer() {
+        this(Config.fromEnv());
+    }
+
+    public GroqStubServer(Config config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        GroqStubServer stub = new GroqStubServer();
+        stub.start(port);
+        System.out.println("GROQ stub listening on http://localhost:" + stub.port() + "/openai/v1/chat/completions");
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/openai/v1/chat/completions", this::handle);
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /** Calls answered with 200, with 429 and with 503 so far. */
+    public long[] counts() {
+        return new long[] { served.get(), limited.get(), failed.get() };
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if (now - start >= 60_000 && windowStart.compareAndSet(start, now)) {
+            windowCount.set(0);
+            start = now;
+        }
+        int requestsPerMinute = config.requestsPerMinute();
+        long used = windowCount.incrementAndGet();
+        long left = Math.max(0, requestsPerMinute - used);
+        double resetSeconds = Math.max(0, 60_000 - (now - start)) / 1000.0;
+        exchange.getResponseHeaders().add("x-ratelimit-limit-requests", String.valueOf(requestsPerMinute));
+        exchange.getResponseHeaders().add("x-ratelimit-remaining-requests", String.valueOf(left));
+        exchange.getResponseHeaders().add("x-ratelimit-reset-requests", String.format("%.2fs", resetSeconds));
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean shared = random.nextDouble() < config.rateLimitRate();
+        if (used > requestsPerMinute || shared) {
+            limited.incrementAndGet();
+            // A quota used up by other clients frees up soon; the own window only when it resets
+            long retryAfter = shared ? 1 : (long) Math.ceil(resetSeconds);
+            exchange.getResponseHeaders().add("retry-after", String.valueOf(retryAfter));
+            reply(exchange, 429, "{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"requests\"}}");
+            return;
+        }
+        long latencyMs = config.latencyMs() + (config.latencyJitterMs() > 0 ? random.nextLong(config.latencyJitterMs() + 1) : 0);
+        try {
+            Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (random.nextDouble() < config.errorRate()) {
+            failed.incrementAndGet();
+            reply(exchange, 503, "{\"error\":{\"message\":\"Service unavailable\"}}");
+            return;
+        }
+        long n = served.incrementAndGet();
+        if (request.contains("\"stream\":true")) {
+            stream(exchange, "Stub streamed answer " + n + " written one word at a time.", latencyMs);
+            return;
+        }
+        String content = request.contains("\"json_object\"")
+            ? "{\\\"explanation\\\":\\\"Stub answer " + n + "\\\",\\\"tests\\\":[\\\"Stub test " + n + "\\\"],\\\"spelling\\\":[],\\\"recommendation\\\":\\\"Stub recommendation\\\"}"
+            : "- Stub answer " + n;
+        reply(exchange, 200, "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"}}]}");
+    }
+
+    private static void stream(HttpExchange exchange, String content, long latencyMs) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            String[] words = content.split(" ");
+            for (int i = 0; i < words.length; i++) {
+                String piece = i == 0 ? words[i] : " " + words[i];
+                out.write(("data: {\"choices\":[{\"delta\":{\"content\":\"" + piece + "\"}}]}\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                try {
+                    Thread.sleep(latencyMs / words.length);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.gatekeeper.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of binary records in fixed-size, memory-mapped segment files
+ * ({@code segment-000001.log}, ...). Each record is {@code [int length][int crc32c][payload]}; a zero
+ * length marks the end of a segment's data. On open, every segment is read back up to its first empty
+ * or damaged record, which drops a record torn by a crash, and appending continues after it.
+ * Writes land in the page cache at once and reach the disk when the OS flushes them, when a segment
+ * is full, or on {@link #close()}. Not thread-safe; appends must not overlap each other or reads.
+ */
+final class HistoryLog implements Closeable {
+    private static final int HEADER = 8;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private MappedByteBuffer active;
+
+    /**
+     * Open the log and hand every stored record to {@code replay} in append order.
+     * @param replay Receives the location and payload of each record; the payload is only valid during the call
+     */
+    HistoryLog(Path dir, int segmentBytes, BiConsumer<Long, ByteBuffer> replay) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        List<Path> files;
+        try (var listing = Files.list(dir)) {
+            files = listing.filter(p -> p.getFileName().toString().startsWith(PREFIX) && p.getFileName().toString().endsWith(SUFFIX))
+                .sorted().toList();
+        }
+        for (Path file : files) {
+            MappedByteBuffer segment = map(file, Math.max(segmentBytes, (int) Math.min(Integer.MAX_VALUE, Files.size(file))));
+            segments.add(segment);
+            recover(segments.size() - 1, segment, replay);
+        }
+        if (segments.isEmpty()) roll();
+        active = segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Append one record.
+     * @return Its location for {@link #read(long)}
+     * @throws IllegalArgumentException When the record cannot fit in a segment
+     */
+    long append(byte[] payload) throws IOException {
+        if (payload.length + HEADER + 4 > segmentBytes) {
+            throw new IllegalArgumentException("History record of " + payload.length + " bytes exceeds the segment size");
+        }
+        // Room for the record plus the zero length that ends the segment
+        if (active.remaining() < payload.length + HEADER + 4) roll();
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        int offset = active.position();
+        active.position(offset + HEADER);
+        active.put(payload);
+        active.putInt(offset + 4, (int) crc.getValue());
+        // Length last, so a reader never sees a complete header over a partial payload
+        active.putInt(offset, payload.length);
+        return location(segments.size() - 1, offset);
+    }
+
+    /**
+     * Payload of the record at a location returned by {@link #append} or passed to the replay callback.
+     */
+    ByteBuffer read(long location) {
+        MappedByteBuffer segment = segments.get((int) (location >>> 32));
+        int offset = (int) location;
+        int length = segment.getInt(offset);
+        return segment.slice(offset + HEADER, length);
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /** Write everything appended so far to disk. */
+    void force() {
+        active.force();
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private void recover(int index, MappedByteBuffer segment, BiConsumer<Long, ByteBuffer> replay) {
+        int offset = 0;
+        boolean damaged = false;
+        while (offset + HEADER <= segment.capacity()) {
+            int length = segment.getInt(offset);
+            if (length == 0) break;
+            damaged = length < 0 || offset + HEADER + length > segment.capacity();
+            if (!damaged) {
+                ByteBuffer payload = segment.slice(offset + HEADER, length);
+                CRC32C crc = new CRC32C();
+                crc.update(payload.duplicate());
+                damaged = (int) crc.getValue() != segment.getInt(offset + 4);
+                if (!damaged) {
+                    replay.accept(location(index, offset), payload);
+                    offset += HEADER + length;
+                    continue;
+                }
+            }
+            System.err.println("History segment " + (index + 1) + " is damaged at offset " + offset + "; later records in it are ignored");
+            break;
+        }
+        if (damaged) {
+            // New records go here; clear the rest so no stale record after them is ever read back
+            for (int i = offset; i < segment.capacity(); i++) segment.put(i, (byte) 0);
+        }
+        segment.position(offset);
+    }
+
+    private void roll() throws IOException {
+        if (active != null) active.force();
+        Path file = dir.resolve(String.format("%s%06d%s", PREFIX, segments.size() + 1, SUFFIX));
+        active = map(file, segmentBytes);
+        segments.add(active);
+    }
+
+    private static MappedByteBuffer map(Path file, int bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        }
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+}
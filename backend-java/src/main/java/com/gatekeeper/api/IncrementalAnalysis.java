@@ -0,0 +1,156 @@
+package com.gatekeeper.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Per-PR hunk fingerprint index for cheap re-analysis of PR updates.
+ * Each diff is split into file headers and hunks; a hunk's fingerprint covers its file and body but
+ * not the {@code @@} line numbers, so hunks shifted by edits elsewhere still match. On an update only
+ * new or changed hunks are scanned and sent to GROQ; the results are merged with those cached for the
+ * unchanged hunks. The index keeps the most recently updated PRs and drops the rest.
+ */
+final class IncrementalAnalysis {
+    static final boolean ENABLED = Env.flag("GATEKEEPER_INCREMENTAL", true);
+    private static final int MAX_PRS = Env.intValue("GATEKEEPER_INCREMENTAL_MAX_PRS", 2000);
+    private static final int MAX_SPELLING = 5;
+    private static final int MAX_TESTS = 3;
+
+    /**
+     * What an update needs: the combined scan by file, the hunks GROQ has not seen and the previous enrichment.
+     * @param hunkScans Scans of the hunk bodies, without their {@code @@} line, by fingerprint
+     * @param deltaDiff File headers plus new or changed hunks only; empty when nothing changed
+     * @param previous Enrichment of the previous analysis of this PR, or null for a first analysis
+     */
+    record Plan(String key, FileScans scan, Map<String, DiffScan> hunkScans, String deltaDiff, GroqEnrichment.Result previous) {
+        boolean unchanged() {
+            return previous != null && deltaDiff.isEmpty();
+        }
+    }
+
+    private record PrState(Map<String, DiffScan> hunkScans, GroqEnrichment.Result enrichment) {}
+
+    private final Map<String, PrState> index = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PrState> eldest) {
+            return size() > MAX_PRS;
+        }
+    };
+
+    /**
+     * Plan the analysis of a PR update, or return null when the request cannot be tracked
+     * (no repository or PR number).
+     */
+    Plan plan(AnalyzeController.AnalyzeRequest req) {
+        if (!ENABLED || req.repository() == null || req.prNumber() == null || req.diff() == null) return null;
+        String key = req.repository() + "#" + req.prNumber();
+        PrState previous;
+        synchronized (index) {
+            previous = index.get(key);
+        }
+        Map<String, DiffScan> known = previous == null ? Map.of() : previous.hunkScans();
+
+        // Hunk scans made before a rules reload count other keywords and are scanned again below
+        RuleSet rules = RuleEngine.current();
+        String diff = req.diff();
+        FileScans.Builder scan = new FileScans.Builder(rules);
+        Map<String, DiffScan> hunkScans = new LinkedHashMap<>();
+        StringBuilder delta = new StringBuilder();
+        UnifiedDiff.Section header = null;
+        boolean headerInDelta = false;
+        for (UnifiedDiff.Section s : UnifiedDiff.parse(diff)) {
+            if (!s.hunk()) {
+                header = s;
+                headerInDelta = false;
+                scan.add(s.path(), DiffScanner.scan(rules, diff, s.start(), s.end()));
+                continue;
+            }
+            String fp = fingerprint(diff, s);
+            int body = s.bodyStart(diff);
+            DiffScan bodyScan = known.get(fp);
+            if (bodyScan == null) {
+                bodyScan = DiffScanner.scan(rules, diff, body, s.end());
+                if (header != null && !headerInDelta) {
+                    delta.append(diff, header.start(), header.end());
+                    headerInDelta = true;
+                }
+                delta.append(diff, s.start(), s.end());
+            } else if (bodyScan.rules() != rules) {
+                // Unchanged for GROQ, only the keyword counts are stale
+                bodyScan = DiffScanner.scan(rules, diff, body, s.end());
+            }
+            hunkScans.put(fp, bodyScan);
+            // The @@ line is not fingerprinted; its numbers and function context may have changed
+            scan.add(s.path(), DiffScanner.scan(rules, diff, s.start(), body).combine(bodyScan));
+        }
+        // Hunks that disappeared also change what GROQ should describe
+        boolean removed = known.keySet().stream().anyMatch(fp -> !hunkScans.containsKey(fp));
+        if (removed && delta.isEmpty()) {
+            delta.append(diff);
+        }
+        return new Plan(key, scan.build(), hunkScans, delta.toString(), previous == null ? null : previous.enrichment());
+    }
+
+    /**
+     * Combine the enrichment of the changed hunks with the previous one. Spelling findings are kept only
+     * while the misspelled word is still in the diff.
+     * @param explained Whether GROQ wrote the delta's explanation, which then replaces the previous one; it
+     *                  was asked to cover the whole PR. A heuristic fallback never replaces a GROQ explanation.
+     */
+    GroqEnrichment.Result merge(Plan plan, GroqEnrichment.Result delta, boolean explained, String diff) {
+        GroqEnrichment.Result prev = plan.previous();
+        if (prev == null) return delta;
+
+        List<String> tests = new ArrayList<>(new LinkedHashSet<>(concat(delta.suggestedTests(), prev.suggestedTests())));
+        Set<String> spelling = new LinkedHashSet<>(delta.spellingSuggestions());
+        spelling.addAll(stillPresent(prev.spellingSuggestions(), diff));
+        List<String> spellingList = spelling.stream().limit(MAX_SPELLING).toList();
+        // The recommendation is only wanted when no spelling issues are left
+        String groqSuggestion = spellingList.isEmpty() ? (delta.groqSuggestion() != null ? delta.groqSuggestion() : prev.groqSuggestion()) : null;
+        return new GroqEnrichment.Result(tests.subList(0, Math.min(MAX_TESTS, tests.size())),
+            explained ? delta.explanation() : prev.explanation(), spellingList, groqSuggestion);
+    }
+
+    /**
+     * Spelling findings ("original -> fix") whose misspelled word still occurs in the diff.
+     */
+    static List<String> stillPresent(List<String> spelling, String diff) {
+        List<String> present = new ArrayList<>();
+        for (String s : spelling) {
+            int arrow = s.indexOf("->");
+            String original = (arrow > 0 ? s.substring(0, arrow) : s).trim();
+            if (!original.isEmpty() && diff.contains(original)) present.add(s);
+        }
+        return present;
+    }
+
+    /**
+     * Keep the PR's hunks and enrichment for its next update. Only GROQ-written enrichments should be kept;
+     * otherwise the previous state stays, so the next update asks GROQ again.
+     */
+    void record(Plan plan, GroqEnrichment.Result enrichment) {
+        synchronized (index) {
+            index.put(plan.key(), new PrState(plan.hunkScans(), enrichment));
+        }
+    }
+
+    private static List<String> concat(List<String> a, List<String> b) {
+        List<String> all = new ArrayList<>(a);
+        all.addAll(b);
+        return all;
+    }
+
+    private static String fingerprint(String diff, UnifiedDiff.Section hunk) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(String.valueOf(hunk.path()).getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(diff.substring(hunk.bodyStart(diff), hunk.end()).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(sha.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+
+/**
+ * Case-insensitive Aho-Corasick automaton over ASCII keywords.
+ * The goto/failure functions are flattened into one dense transition table, so
+ * matching costs a single array lookup per input character regardless of how
+ * many keywords are registered.
+ */
+final class KeywordAutomaton {
+    static final int START = 0;
+    private static final int[] NONE = new int[0];
+
+    private final String[] keywords;
+    private final int[] charClass = new int[128];
+    private final int alphabet;
+    private final int[] delta;
+    private final int[][] output;
+
+    KeywordAutomaton(List<String> keywords) {
+        this.keywords = keywords.toArray(new String[0]);
+
+        // Dense alphabet: class 0 is "any character that no keyword uses"
+        int classes = 1;
+        for (String k : this.keywords) {
+            for (int i = 0; i < k.length(); i++) {
+                char c = fold(k.charAt(i));
+                if (c >= 128) throw new IllegalArgumentException("Keywords must be ASCII: " + k);
+                if (charClass[c] == 0) charClass[c] = classes++;
+            }
+        }
+        this.alphabet = classes;
+
+        // Trie
+        List<int[]> next = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        next.add(new int[alphabet]);
+        out.add(new ArrayList<>());
+        for (int id = 0; id < this.keywords.length; id++) {
+            String k = this.keywords[id];
+            if (k.isEmpty()) throw new IllegalArgumentException("Empty keyword");
+            int state = START;
+            for (int i = 0; i < k.length(); i++) {
+                int cls = charClass[fold(k.charAt(i))];
+                if (next.get(state)[cls] == 0) {
+                    next.get(state)[cls] = next.size();
+                    next.add(new int[alphabet]);
+                    out.add(new ArrayList<>());
+                }
+                state = next.get(state)[cls];
+            }
+            out.get(state).add(id);
+        }
+
+        // Breadth-first failure links, folded into a complete DFA
+        int states = next.size();
+        int[] fail = new int[states];
+        this.delta = new int[states * alphabet];
+        this.output = new int[states][];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int cls = 0; cls < alphabet; cls++) {
+            int s = next.get(START)[cls];
+            delta[cls] = s;
+            if (s != 0) queue.add(s);
+        }
+        output[START] = NONE;
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            out.get(state).addAll(out.get(fail[state]));
+            output[state] = out.get(state).isEmpty() ? NONE : out.get(state).stream().mapToInt(Integer::intValue).toArray();
+            for (int cls = 0; cls < alphabet; cls++) {
+                int s = next.get(state)[cls];
+                if (s != 0) {
+                    fail[s] = delta[fail[state] * alphabet + cls];
+                    delta[state * alphabet + cls] = s;
+                    queue.add(s);
+                } else {
+                    delta[state * alphabet + cls] = delta[fail[state] * alphabet + cls];
+                }
+            }
+        }
+    }
+
+    int size() {
+        return keywords.length;
+    }
+
+    String keyword(int id) {
+        return keywords[id];
+    }
+
+    int step(int state, char c) {
+        char f = fold(c);
+        int cls = f < 128 ? charClass[f] : 0;
+        return delta[state * alphabet + cls];
+    }
+
+    /**
+     * Ids of all keywords that end at this state; never null.
+     */
+    int[] matches(int state) {
+        return output[state];
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+}
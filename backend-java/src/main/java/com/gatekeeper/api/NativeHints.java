@@ -0,0 +1,30 @@
+package com.gatekeeper.api;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * Reflection and resource hints for the native image. Spring registers the types in controller signatures
+ * itself; these are the ones Jackson meets elsewhere: the request and response records written to batch and
+ * job streams, the job events and the rules file definition, plus the bundled rules file.
+ */
+final class NativeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+            AnalyzeController.AnalyzeRequest.class,
+            AnalyzeController.AnalyzeResponse.class,
+            AnalysisJobs.Event.class,
+            AnalysisJobs.Snapshot.class,
+            AnalysisHistory.Entry.class,
+            AnalysisHistory.Page.class,
+            AnalysisHistory.Stats.class,
+            RuleSet.Definition.class,
+            RuleEngine.Info.class,
+            GroqScheduler.Stats.class,
+            GroqResponseCache.Stats.class);
+        hints.resources().registerPattern(RuleEngine.BUNDLED.substring(1));
+    }
+}
@@ -0,0 +1,167 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+
+/**
+ * Recent GROQ enrichments indexed by diff similarity, so a rebased, cherry-picked or backported PR reuses the
+ * enrichment of the analysis it copies instead of asking GROQ again. A diff is reduced to its added and removed
+ * lines with all whitespace taken out, which drops line numbers, context lines, file headers and indentation,
+ * and summarized by a MinHash signature of those lines. The signature is cut into bands, each looked up in its
+ * own hash table (locality-sensitive hashing), so a lookup is a fixed number of probes and signature
+ * comparisons however many analyses are stored. A candidate is reused when the share of equal signature
+ * values, an estimate of the Jaccard similarity of the two line sets, reaches {@code GATEKEEPER_NEAR_DUP_SIMILARITY}
+ * and the rules reached the same decision.
+ * <p>
+ * Enrichments are only reused within the repository they were written for, as they quote its code and name its PR.
+ * The repository is part of every band key, so analyses of other repositories never displace a candidate.
+ * {@code GATEKEEPER_NEAR_DUP_CROSS_REPO} lifts this for deployments whose repositories share code and reviewers.
+ * <p>
+ * Memory is bounded: the last {@code GATEKEEPER_NEAR_DUP_ENTRIES} enrichments are kept in a ring, and a band
+ * bucket points at the newest of them only.
+ */
+final class NearDuplicateIndex {
+    static final boolean ENABLED = Env.flag("GATEKEEPER_NEAR_DUP", true);
+    private static final double SIMILARITY = Env.doubleValue("GATEKEEPER_NEAR_DUP_SIMILARITY", 0.9);
+    private static final int CAPACITY = Math.max(1, Env.intValue("GATEKEEPER_NEAR_DUP_ENTRIES", 4096));
+    private static final int MIN_LINES = Env.intValue("GATEKEEPER_NEAR_DUP_MIN_LINES", 8);
+    private static final boolean CROSS_REPO = Env.flag("GATEKEEPER_NEAR_DUP_CROSS_REPO", false);
+    // 16 bands of 4: a diff with 0.9 similarity shares a band with probability 0.99999, one with 0.5 with 0.64
+    private static final int BANDS = 16, ROWS = 4, HASHES = BANDS * ROWS;
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_1DE4L);
+        for (int i = 0; i < HASHES; i++) SEEDS[i] = random.nextLong();
+    }
+
+    /**
+     * @param source Repository and PR number of the analysis the enrichment came from
+     * @param enrichment That analysis' enrichment, with spelling findings no longer in the new diff removed
+     */
+    record Match(String source, double similarity, GroqEnrichment.Result enrichment) {}
+
+    private record Entry(long[] signature, String decision, String repository, String source, GroqEnrichment.Result enrichment) {}
+
+    private final Entry[] ring = new Entry[CAPACITY];
+    private final List<Map<Long, Integer>> bands = new ArrayList<>(BANDS);
+    private int next;
+
+    NearDuplicateIndex() {
+        for (int b = 0; b < BANDS; b++) bands.add(new HashMap<>());
+    }
+
+    /**
+     * MinHash signature of a diff's changed lines, or null when the index is off or the diff has fewer than
+     * {@code GATEKEEPER_NEAR_DUP_MIN_LINES} of them; small diffs look alike without being copies.
+     */
+    static long[] signature(String diff) {
+        if (!ENABLED || diff == null) return null;
+        long[] signature = new long[HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int lines = 0;
+        for (int start = 0, end; start < diff.length(); start = end + 1) {
+            end = diff.indexOf('\n', start);
+            if (end < 0) end = diff.length();
+            long h = lineHash(diff, start, end);
+            if (h == 0) continue;
+            lines++;
+            for (int i = 0; i < HASHES; i++) {
+                long v = mix(h ^ SEEDS[i]);
+                if (v < signature[i]) signature[i] = v;
+            }
+        }
+        return lines < MIN_LINES ? null : signature;
+    }
+
+    /**
+     * The most similar recent enrichment for a diff of this repository with this signature and decision, or null.
+     */
+    Match find(long[] signature, String decision, String repository, String diff) {
+        if (signature == null) return null;
+        String scope = scope(repository);
+        Entry best = null;
+        double bestSimilarity = SIMILARITY;
+        synchronized (this) {
+            for (int b = 0; b < BANDS; b++) {
+                Integer slot = bands.get(b).get(bandKey(signature, b, scope));
+                Entry e = slot == null ? null : ring[slot];
+                if (e == null || e == best || !e.decision().equals(decision) || !scope(e.repository()).equals(scope)) continue;
+                double similarity = similarity(signature, e.signature());
+                if (similarity >= bestSimilarity) {
+                    best = e;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null) return null;
+        GroqEnrichment.Result r = best.enrichment();
+        List<String> spelling = IncrementalAnalysis.stillPresent(r.spellingSuggestions(), diff);
+        return new Match(best.source(), bestSimilarity,
+            new GroqEnrichment.Result(r.suggestedTests(), r.explanation(), spelling, spelling.isEmpty() ? r.groqSuggestion() : null));
+    }
+
+    /**
+     * Remember an enrichment GROQ wrote for a diff of this repository with this signature; replaces the oldest
+     * one when full.
+     * @param source Repository and PR number, returned with matches
+     */
+    synchronized void add(long[] signature, String decision, String repository, String source, GroqEnrichment.Result enrichment) {
+        if (signature == null) return;
+        int slot = next;
+        next = (next + 1) % CAPACITY;
+        Entry old = ring[slot];
+        if (old != null) {
+            String oldScope = scope(old.repository());
+            for (int b = 0; b < BANDS; b++) bands.get(b).remove(bandKey(old.signature(), b, oldScope), slot);
+        }
+        ring[slot] = new Entry(signature, decision, repository, source, enrichment);
+        String scope = scope(repository);
+        for (int b = 0; b < BANDS; b++) bands.get(b).put(bandKey(signature, b, scope), slot);
+    }
+
+    // Repository an enrichment may be reused in; one scope for all of them with GATEKEEPER_NEAR_DUP_CROSS_REPO
+    private static String scope(String repository) {
+        return CROSS_REPO || repository == null ? "" : repository;
+    }
+
+    private static double similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) same++;
+        }
+        return (double) same / HASHES;
+    }
+
+    private static long bandKey(long[] signature, int band, String scope) {
+        long h = mix(band ^ (long) scope.hashCode() << 8);
+        for (int r = 0; r < ROWS; r++) h = mix(h * 31 + signature[band * ROWS + r]);
+        return h;
+    }
+
+    /**
+     * Hash of an added or removed line without its whitespace; the sign is part of it. 0 for any other line:
+     * context, file and hunk headers, and changes to whitespace only.
+     */
+    private static long lineHash(String diff, int start, int end) {
+        if (end - start < 2) return 0;
+        char sign = diff.charAt(start);
+        if (sign != '+' && sign != '-') return 0;
+        if (diff.startsWith("+++ ", start) || diff.startsWith("--- ", start)) return 0;
+        long h = sign;
+        boolean content = false;
+        for (int i = start + 1; i < end; i++) {
+            char c = diff.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            h = h * 0x100000001B3L ^ c;
+            content = true;
+        }
+        return content ? mix(h) | 1 : 0;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,152 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+
+/**
+ * Path categories defined by glob patterns on the lowercased path, where {@code *} matches any run of
+ * characters and everything else is literal. The longest literal part of each pattern goes into one
+ * {@link KeywordAutomaton}, and a pattern is only checked when the pass finds that part, so classifying
+ * a path costs one automaton pass plus work for the patterns it nearly matches, however many patterns
+ * are defined. Short parts shared by many patterns, such as an extension, never trigger a check alone.
+ */
+final class PathMatcher {
+    private static final int[] NONE = new int[0];
+
+    /**
+     * @param parts The pattern split at each {@code *}; the first part is a prefix, the last a suffix
+     * @param contains True for {@code *word*}, which needs no check beyond finding the word
+     */
+    private record Pattern(int category, String[] parts, boolean contains) {}
+
+    private final int categories;
+    private final Pattern[] patterns;
+    private final KeywordAutomaton automaton;
+    // Patterns triggered by each automaton word, and patterns without any literal part
+    private final int[][] patternsByWord;
+    private final int[] literalFree;
+
+    /**
+     * @param globs Patterns per category, indexed by category id
+     */
+    PathMatcher(List<List<String>> globs) {
+        this.categories = globs.size();
+        List<Pattern> compiled = new ArrayList<>();
+        Map<String, Integer> wordIds = new LinkedHashMap<>();
+        List<List<Integer>> byWord = new ArrayList<>();
+        List<Integer> free = new ArrayList<>();
+        for (int category = 0; category < globs.size(); category++) {
+            for (String glob : globs.get(category)) {
+                String[] parts = glob.toLowerCase(Locale.ROOT).split("\\*", -1);
+                String trigger = "";
+                for (String part : parts) {
+                    for (int i = 0; i < part.length(); i++) {
+                        if (part.charAt(i) >= 128) throw new IllegalArgumentException("Path patterns must be ASCII: " + glob);
+                    }
+                    if (part.length() > trigger.length()) trigger = part;
+                }
+                int id = compiled.size();
+                boolean contains = parts.length == 3 && parts[0].isEmpty() && parts[2].isEmpty() && !parts[1].isEmpty();
+                compiled.add(new Pattern(category, parts, contains));
+                if (trigger.isEmpty()) {
+                    free.add(id);
+                    continue;
+                }
+                int w = wordIds.computeIfAbsent(trigger, k -> {
+                    byWord.add(new ArrayList<>());
+                    return wordIds.size();
+                });
+                byWord.get(w).add(id);
+            }
+        }
+        this.patterns = compiled.toArray(new Pattern[0]);
+        this.automaton = new KeywordAutomaton(new ArrayList<>(wordIds.keySet()));
+        this.patternsByWord = byWord.stream().map(l -> l.stream().mapToInt(Integer::intValue).toArray()).toArray(int[][]::new);
+        this.literalFree = free.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    int categories() {
+        return categories;
+    }
+
+    int patterns() {
+        return patterns.length;
+    }
+
+    /**
+     * Scratch state for classifying many paths on one thread.
+     */
+    Classifier classifier() {
+        return new Classifier();
+    }
+
+    final class Classifier {
+        // Entries are valid for the path whose stamp they carry, so nothing is cleared between paths
+        private final int[] wordStamp = new int[patternsByWord.length];
+        private final int[] categoryStamp = new int[categories];
+        private int[] found = new int[8];
+        private int stamp;
+
+        /**
+         * Category ids of one path in ascending order; shares one empty array for paths in no category.
+         */
+        int[] classify(String path) {
+            String f = path.toLowerCase(Locale.ROOT);
+            if (++stamp == 0) {
+                Arrays.fill(wordStamp, 0);
+                Arrays.fill(categoryStamp, 0);
+                stamp = 1;
+            }
+            int count = 0;
+            int state = KeywordAutomaton.START;
+            for (int i = 0; i < f.length(); i++) {
+                state = automaton.step(state, f.charAt(i));
+                for (int word : automaton.matches(state)) {
+                    if (wordStamp[word] == stamp) continue;
+                    wordStamp[word] = stamp;
+                    // Anchors and the other parts are checked once the whole path is read
+                    for (int p : patternsByWord[word]) count = add(count, p);
+                }
+            }
+            for (int p : literalFree) count = add(count, p);
+
+            int matched = 0;
+            for (int i = 0; i < count; i++) {
+                Pattern p = patterns[found[i]];
+                if (categoryStamp[p.category()] == stamp) continue;
+                if (p.contains() || matches(f, p.parts())) {
+                    categoryStamp[p.category()] = stamp;
+                    found[matched++] = p.category();
+                }
+            }
+            if (matched == 0) return NONE;
+            int[] result = Arrays.copyOf(found, matched);
+            Arrays.sort(result);
+            return result;
+        }
+
+        private int add(int count, int pattern) {
+            if (count == found.length) found = Arrays.copyOf(found, count * 2);
+            found[count] = pattern;
+            return count + 1;
+        }
+    }
+
+    /**
+     * Glob match; taking the leftmost occurrence of each inner part is enough to find a match if there is one.
+     */
+    private static boolean matches(String f, String[] parts) {
+        if (parts.length == 1) return f.equals(parts[0]);
+        String first = parts[0];
+        String last = parts[parts.length - 1];
+        int end = f.length() - last.length();
+        if (end < first.length() || !f.startsWith(first) || !f.endsWith(last)) return false;
+        int pos = first.length();
+        for (int i = 1; i < parts.length - 1; i++) {
+            if (parts[i].isEmpty()) continue;
+            int at = f.indexOf(parts[i], pos);
+            if (at < 0 || at + parts[i].length() > end) return false;
+            pos = at + parts[i].length();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,240 @@
+package com.gatekeeper.api;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.zstd.ZstdInputStream;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes {@code Content-Encoding: gzip} and {@code zstd} request bodies of the {@code /api} endpoints before they
+ * are bound, so a client can send a multi-megabyte diff compressed to a fraction of its size. The body is inflated
+ * while it is read, never buffered whole. An unknown coding gets 415 with the supported ones in {@code Accept-Encoding}.
+ * <p>
+ * These endpoints bind the whole body into memory, so it is also limited to {@code GATEKEEPER_MAX_BODY_BYTES} after
+ * decoding: a larger declared length gets 413, and a body that turns out larger, such as a small compressed one that
+ * expands without bound, fails to read. {@code /api/analyze/stream} scans its body as it arrives instead, and
+ * decodes and limits it itself, see {@link DiffIngest}.
+ */
+@Component
+final class RequestDecompression extends OncePerRequestFilter {
+    static final String SUPPORTED = "gzip, zstd";
+    static final long MAX_BODY_BYTES = Env.longValue("GATEKEEPER_MAX_BODY_BYTES", 32L * 1024 * 1024);
+
+    /**
+     * Whether {@link #decode} can undo every coding in a {@code Content-Encoding} header. Every endpoint answers
+     * other codings with 415 and the supported ones in {@code Accept-Encoding}.
+     */
+    static boolean supported(String contentEncoding) {
+        if (contentEncoding == null) return true;
+        for (String coding : contentEncoding.split(",")) {
+            switch (coding.trim().toLowerCase(Locale.ROOT)) {
+                case "gzip", "x-gzip", "zstd", "identity", "" -> { }
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The body decoded according to a {@code Content-Encoding} header; codings are undone last to first.
+     * @throws IllegalArgumentException for a coding other than gzip, zstd and identity
+     */
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.isBlank()) return body;
+        String[] codings = contentEncoding.split(",");
+        InputStream in = body;
+        for (int i = codings.length - 1; i >= 0; i--) {
+            in = switch (codings[i].trim().toLowerCase(Locale.ROOT)) {
+                case "gzip", "x-gzip" -> new GZIPInputStream(in, 64 * 1024);
+                case "zstd" -> new ZstdInputStream(in);
+                case "identity", "" -> in;
+                default -> throw new IllegalArgumentException("Unsupported content encoding: " + codings[i].trim());
+            };
+        }
+        return in;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return "GET".equals(request.getMethod()) || !path.startsWith("/api/") || path.equals("/api/analyze/stream");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        if (request.getContentLengthLong() > MAX_BODY_BYTES) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request body exceeds " + MAX_BODY_BYTES + " bytes");
+            return;
+        }
+        String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        // A plain body of known length was checked above; chunked ones are counted as they are read
+        if (contentEncoding == null && request.getContentLengthLong() >= 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (!supported(contentEncoding)) {
+            response.setHeader(HttpHeaders.ACCEPT_ENCODING, SUPPORTED);
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported content encoding: " + contentEncoding);
+            return;
+        }
+        InputStream decoded;
+        try {
+            decoded = decode(request.getInputStream(), contentEncoding);
+        } catch (IOException e) {
+            // Not a gzip stream at all
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        chain.doFilter(new Decoded(request, new Capped(decoded, MAX_BODY_BYTES)), response);
+    }
+
+    /**
+     * The request as its handlers should see it: decoded body, no content coding, length unknown.
+     */
+    private static final class Decoded extends HttpServletRequestWrapper {
+        private final ServletInputStream body;
+        private BufferedReader reader;
+
+        Decoded(HttpServletRequest request, InputStream body) {
+            super(request);
+            this.body = new ServletInputStream() {
+                private boolean finished;
+
+                @Override
+                public int read() throws IOException {
+                    int b = body.read();
+                    finished = b < 0;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = body.read(b, off, len);
+                    finished = n < 0;
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    body.close();
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return finished;
+                }
+
+                // Decoding blocks, so the body is only ever read synchronously
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    throw new IllegalStateException("Decoded request bodies are read synchronously");
+                }
+            };
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return body;
+        }
+
+        @Override
+        public BufferedReader getReader() throws UnsupportedEncodingException {
+            if (reader == null) {
+                String charset = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(body, charset == null ? StandardCharsets.UTF_8.name() : charset));
+            }
+            return reader;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return hidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return hidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            List<String> names = Collections.list(super.getHeaderNames());
+            names.removeIf(Decoded::hidden);
+            return Collections.enumeration(names);
+        }
+
+        private static boolean hidden(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * Fails the read once more than {@code limit} decoded bytes came out, and reports corrupt zstd frames as
+     * I/O errors like corrupt gzip, so either answers 400.
+     */
+    private static final class Capped extends FilterInputStream {
+        private final long limit;
+        private long remaining;
+
+        Capped(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b >= 0 && --remaining < 0) throw tooLarge();
+                return b;
+            } catch (MalformedInputException e) {
+                throw new IOException("Corrupt zstd request body", e);
+            }
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            try {
+                int n = super.read(buf, off, len);
+                if (n > 0 && (remaining -= n) < 0) throw tooLarge();
+                return n;
+            } catch (MalformedInputException e) {
+                throw new IOException("Corrupt zstd request body", e);
+            }
+        }
+
+        private IOException tooLarge() {
+            return new IOException("Decoded request body exceeds " + limit + " bytes");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.gatekeeper.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the active {@link RuleSet}. Rules come from {@code GATEKEEPER_RULES_FILE}, or the bundled
+ * {@code gatekeeper-rules.json} when it is unset. The file is checked for changes every
+ * {@code GATEKEEPER_RULES_RELOAD_MS}; a changed file is compiled on the side and swapped in with one
+ * reference write, so analyses already running finish with the rule set they started with.
+ * Rules that fail to parse or validate are reported and the previous rule set stays active.
+ */
+final class RuleEngine {
+    static final String RULES_FILE = Env.value("GATEKEEPER_RULES_FILE");
+    static final long RELOAD_MS = Env.longValue("GATEKEEPER_RULES_RELOAD_MS", 5000);
+    static final String BUNDLED = "/gatekeeper-rules.json";
+
+    private static final AtomicReference<RuleSet> CURRENT = new AtomicReference<>(initial());
+    private static final AtomicLong RELOADS = new AtomicLong();
+    private static final AtomicLong FAILED_RELOADS = new AtomicLong();
+    // Modification time and size of the file the active rules were read from
+    private static volatile long stamp = fileStamp();
+
+    static {
+        if (RULES_FILE != null && RELOAD_MS > 0) {
+            ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "rules-watcher");
+                t.setDaemon(true);
+                return t;
+            });
+            watcher.scheduleWithFixedDelay(RuleEngine::reloadIfChanged, RELOAD_MS, RELOAD_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private RuleEngine() {}
+
+    /**
+     * @param loadedAt Epoch millis at which the active rules were compiled
+     * @param failedReloads Rule files rejected since startup
+     */
+    record Info(String name, String source, long loadedAt, int keywords, int pathCategories, int pathPatterns,
+                int suggestionRules, long reloads, long failedReloads) {}
+
+    /**
+     * The active rules; read once per analysis and passed along, so one analysis never mixes rule sets.
+     */
+    static RuleSet current() {
+        return CURRENT.get();
+    }
+
+    static Info info() {
+        RuleSet rules = current();
+        return new Info(rules.name(), rules.source(), rules.loadedAt(), rules.keywordCount() - 1, rules.paths().categories(),
+            rules.paths().patterns(), rules.suggestionRules(), RELOADS.get(), FAILED_RELOADS.get());
+    }
+
+    /**
+     * Read the rules file again whether or not it changed.
+     * @return False when there is no rules file or it was rejected
+     */
+    static synchronized boolean reload() {
+        if (RULES_FILE == null) return false;
+        long next = fileStamp();
+        try {
+            CURRENT.set(load(Path.of(RULES_FILE)));
+            RELOADS.incrementAndGet();
+            GatekeeperMetrics.rulesReload("loaded");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            FAILED_RELOADS.incrementAndGet();
+            GatekeeperMetrics.rulesReload("failed");
+            System.err.println("Keeping rules " + current().name() + ", " + RULES_FILE + " was rejected: " + e.getMessage());
+            return false;
+        } finally {
+            // A rejected file is not retried until it changes again
+            stamp = next;
+        }
+    }
+
+    private static void reloadIfChanged() {
+        if (fileStamp() != stamp) reload();
+    }
+
+    private static RuleSet initial() {
+        if (RULES_FILE != null) {
+            try {
+                return load(Path.of(RULES_FILE));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Using bundled rules, " + RULES_FILE + " was rejected: " + e.getMessage());
+            }
+        }
+        try (InputStream in = RuleEngine.class.getResourceAsStream(BUNDLED)) {
+            if (in == null) throw new IllegalStateException(BUNDLED + " missing from the classpath");
+            return RuleSet.parse(in, "classpath:" + BUNDLED.substring(1));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read bundled rules", e);
+        }
+    }
+
+    private static RuleSet load(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return RuleSet.parse(in, file.toString());
+        }
+    }
+
+    private static long fileStamp() {
+        if (RULES_FILE == null) return 0;
+        try {
+            Path file = Path.of(RULES_FILE);
+            return Files.getLastModifiedTime(file).toMillis() * 31 + Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
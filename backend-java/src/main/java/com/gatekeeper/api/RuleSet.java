@@ -0,0 +1,311 @@
+package com.gatekeeper.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Compiled risk rules: diff keywords, path categories, risk weights, decision and risk level thresholds
+ * and suggestion codes, as read from a rules file (see {@code gatekeeper-rules.json}).
+ * Keywords compile into one {@link KeywordAutomaton} used by {@link DiffScanner}, path patterns into a
+ * {@link PathMatcher} and suggestion codes into a {@link DecisionTable}. Immutable, so a rule set can be
+ * shared by any number of analyses and replaced as a whole.
+ */
+final class RuleSet {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Set<String> DECISIONS = Set.of("BLOCK", "WARN", "ALLOW");
+    // Start of a public method signature, counted for every rule set; see DiffScanner
+    private static final String PUBLIC_KEYWORD = "public ";
+    // Relevance of a hunk per other keyword and per public method signature, see relevance()
+    private static final double KEYWORD_RELEVANCE = 0.05;
+    private static final double METHOD_RELEVANCE = 0.05;
+
+    /**
+     * A rules file as written. Maps keep file order, which is the order thresholds and rows are tried in.
+     * @param paths Glob patterns per path category
+     * @param decisions Minimum risk per decision, tried in order
+     * @param riskLevels Minimum risk per risk level, tried in order
+     * @param suggestionCodes Suggestion code rows, the first match wins
+     */
+    record Definition(String name, Map<String, Keyword> keywords, Map<String, List<String>> paths, Risk risk,
+                      Map<String, Double> decisions, Map<String, Double> riskLevels, List<Suggestion> suggestionCodes) {}
+
+    record Keyword(String text, boolean caseSensitive) {}
+
+    /**
+     * @param linesForFullRisk Changed lines that alone give a risk of 1.0
+     * @param dangerousKeywords Keywords that raise the risk to at least {@code dangerousFloor}
+     * @param pathWeights Risk added per changed path in each category
+     */
+    record Risk(double linesForFullRisk, List<String> dangerousKeywords, double dangerousIncrement, double dangerousFloor,
+                Map<String, Double> pathWeights) {}
+
+    record Suggestion(String decision, Double minRisk, List<String> keywords, List<String> paths, String code) {}
+
+    private final String name;
+    private final String source;
+    private final long loadedAt = System.currentTimeMillis();
+
+    private final Map<String, Integer> keywordIds = new HashMap<>();
+    private final boolean[] caseSensitive;
+    private final KeywordAutomaton keywordAutomaton;
+    private final int publicKeyword;
+    private final int historySize;
+
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private final PathMatcher paths;
+
+    private final double linesForFullRisk;
+    private final int[] dangerousKeywords;
+    private final double dangerousIncrement;
+    private final double dangerousFloor;
+    private final double[] pathWeights;
+
+    private final String[] decisions;
+    private final double[] decisionThresholds;
+    private final String[] riskLevels;
+    private final double[] riskLevelThresholds;
+    private final DecisionTable suggestions;
+
+    private RuleSet(Definition def, String source) {
+        this.name = def.name() == null ? source : def.name();
+        this.source = source;
+
+        Map<String, Keyword> keywords = require(def.keywords(), "keywords");
+        List<String> texts = new ArrayList<>();
+        List<Boolean> sensitive = new ArrayList<>();
+        int longestSensitive = PUBLIC_KEYWORD.length();
+        for (Map.Entry<String, Keyword> e : keywords.entrySet()) {
+            Keyword k = e.getValue();
+            if (k == null || k.text() == null || k.text().isEmpty()) throw new IllegalArgumentException("Keyword " + e.getKey() + " has no text");
+            keywordIds.put(e.getKey(), texts.size());
+            texts.add(k.text());
+            sensitive.add(k.caseSensitive());
+            if (k.caseSensitive()) longestSensitive = Math.max(longestSensitive, k.text().length());
+        }
+        this.publicKeyword = texts.size();
+        texts.add(PUBLIC_KEYWORD);
+        sensitive.add(true);
+        this.caseSensitive = new boolean[texts.size()];
+        for (int i = 0; i < caseSensitive.length; i++) caseSensitive[i] = sensitive.get(i);
+        this.keywordAutomaton = new KeywordAutomaton(texts);
+        this.historySize = Integer.highestOneBit(Math.max(32, longestSensitive) * 2 - 1);
+
+        List<List<String>> globs = new ArrayList<>();
+        for (Map.Entry<String, List<String>> e : require(def.paths(), "paths").entrySet()) {
+            categoryIds.put(e.getKey(), globs.size());
+            globs.add(e.getValue() == null ? List.of() : e.getValue());
+        }
+        this.paths = new PathMatcher(globs);
+
+        Risk risk = require(def.risk(), "risk");
+        if (risk.linesForFullRisk() <= 0) throw new IllegalArgumentException("risk.linesForFullRisk must be positive");
+        this.linesForFullRisk = risk.linesForFullRisk();
+        this.dangerousKeywords = ids(risk.dangerousKeywords(), keywordIds, "keyword");
+        this.dangerousIncrement = risk.dangerousIncrement();
+        this.dangerousFloor = risk.dangerousFloor();
+        this.pathWeights = new double[globs.size()];
+        if (risk.pathWeights() != null) {
+            risk.pathWeights().forEach((category, weight) -> pathWeights[id(category, categoryIds, "path category")] = weight);
+        }
+
+        Map<String, Double> decisionMap = require(def.decisions(), "decisions");
+        if (decisionMap.isEmpty()) throw new IllegalArgumentException("Rules need at least one decision");
+        for (String d : decisionMap.keySet()) {
+            if (!DECISIONS.contains(d)) throw new IllegalArgumentException("Unknown decision " + d + ", expected one of " + DECISIONS);
+        }
+        this.decisions = decisionMap.keySet().toArray(new String[0]);
+        this.decisionThresholds = decisionMap.values().stream().mapToDouble(Double::doubleValue).toArray();
+        Map<String, Double> levelMap = require(def.riskLevels(), "riskLevels");
+        if (levelMap.isEmpty()) throw new IllegalArgumentException("Rules need at least one risk level");
+        this.riskLevels = levelMap.keySet().toArray(new String[0]);
+        this.riskLevelThresholds = levelMap.values().stream().mapToDouble(Double::doubleValue).toArray();
+
+        List<DecisionTable.Row> rows = new ArrayList<>();
+        for (Suggestion s : require(def.suggestionCodes(), "suggestionCodes")) {
+            if (s.code() == null || s.decision() == null || !DECISIONS.contains(s.decision())) {
+                throw new IllegalArgumentException("Suggestion code rows need a code and a decision out of " + DECISIONS + ": " + s);
+            }
+            rows.add(new DecisionTable.Row(s.decision(), s.minRisk() == null ? Double.NEGATIVE_INFINITY : s.minRisk(),
+                ids(s.keywords(), keywordIds, "keyword"), ids(s.paths(), categoryIds, "path category"), s.code()));
+        }
+        // Every analysis gets a code: each decision needs a row that always applies
+        for (String d : decisions) {
+            boolean fallback = rows.stream().anyMatch(r -> r.decision().equals(d) && r.unconditional() && r.minRisk() <= 0);
+            if (!fallback) throw new IllegalArgumentException("Decision " + d + " needs a suggestion code row without conditions");
+        }
+        this.suggestions = new DecisionTable(rows, texts.size(), globs.size());
+    }
+
+    /**
+     * Parse and compile a rules file.
+     * @param source Where the rules came from, for messages and {@code /api/rules}
+     * @throws IllegalArgumentException When the rules are inconsistent, for example a row naming an undefined keyword
+     */
+    static RuleSet parse(InputStream in, String source) throws IOException {
+        return compile(MAPPER.readValue(in, Definition.class), source);
+    }
+
+    static RuleSet compile(Definition def, String source) {
+        return new RuleSet(def, source);
+    }
+
+    String name() {
+        return name;
+    }
+
+    String source() {
+        return source;
+    }
+
+    long loadedAt() {
+        return loadedAt;
+    }
+
+    /** Keyword id by name, or -1 when the rules do not define it. */
+    int keyword(String name) {
+        return keywordIds.getOrDefault(name, -1);
+    }
+
+    /** Path category id by name, or -1 when the rules do not define it. */
+    int category(String name) {
+        return categoryIds.getOrDefault(name, -1);
+    }
+
+    /** Defined keywords plus the built-in public method keyword. */
+    int keywordCount() {
+        return caseSensitive.length;
+    }
+
+    boolean caseSensitive(int keyword) {
+        return caseSensitive[keyword];
+    }
+
+    int publicKeyword() {
+        return publicKeyword;
+    }
+
+    /** Characters a scanner keeps to verify case-sensitive keywords; a power of two. */
+    int historySize() {
+        return historySize;
+    }
+
+    KeywordAutomaton keywordAutomaton() {
+        return keywordAutomaton;
+    }
+
+    PathMatcher paths() {
+        return paths;
+    }
+
+    int suggestionRules() {
+        return suggestions.size();
+    }
+
+    /** Decision names, highest threshold first. */
+    List<String> decisions() {
+        return List.of(decisions);
+    }
+
+    /** Risk level names, highest threshold first. */
+    List<String> riskLevels() {
+        return List.of(riskLevels);
+    }
+
+    /**
+     * Risk in [0, 1] from the size of the diff, dangerous keywords and the categories of the changed paths.
+     */
+    double risk(DiffScan scan, ChangedFileIndex files) {
+        if (scan.blank()) return 0.0;
+        double base = Math.min(1.0, scan.lines() / linesForFullRisk);
+        for (int k : dangerousKeywords) {
+            if (scan.count(k) > 0) return Math.max(dangerousFloor, base + dangerousIncrement);
+        }
+        // Weights are added path by path in category order
+        for (int i = 0; i < files.size() && base < 1.0; i++) {
+            for (int c : files.categories(i)) base += pathWeights[c];
+        }
+        return Math.min(1.0, base);
+    }
+
+    /**
+     * How much one hunk matters for review, used to choose what part of a diff the LLM sees: each dangerous
+     * keyword adds {@code dangerousIncrement}, the hunk's file adds its path weights, and other keywords and
+     * new public methods add a little.
+     * @param categories Path categories of the hunk's file
+     */
+    double relevance(DiffScan hunk, int[] categories) {
+        double score = hunk.publicMethods() * METHOD_RELEVANCE;
+        for (int k : hunk.foundKeywords()) {
+            if (k == publicKeyword) continue;
+            score += contains(dangerousKeywords, k) ? dangerousIncrement : KEYWORD_RELEVANCE;
+        }
+        for (int c : categories) score += pathWeights[c];
+        return score;
+    }
+
+    /**
+     * One file's share of {@link #risk}: its lines towards {@code linesForFullRisk}, {@code dangerousIncrement} when
+     * it has a dangerous keyword, and its path weights. Uncapped, so shares of a PR can add up to more than its risk.
+     * @param categories Path categories of the file
+     */
+    double contribution(DiffScan file, int[] categories) {
+        if (file.blank()) return 0.0;
+        double share = file.lines() / linesForFullRisk;
+        for (int k : dangerousKeywords) {
+            if (file.count(k) > 0) {
+                share += dangerousIncrement;
+                break;
+            }
+        }
+        for (int c : categories) share += pathWeights[c];
+        return share;
+    }
+
+    String decision(double risk) {
+        return threshold(decisions, decisionThresholds, risk);
+    }
+
+    String riskLevel(double risk) {
+        return threshold(riskLevels, riskLevelThresholds, risk);
+    }
+
+    /**
+     * Suggestion code shown with a decision made by these rules; never null, as every decision has a fallback row.
+     */
+    String suggestionCode(String decision, double risk, DiffScan scan, ChangedFileIndex files) {
+        return suggestions.lookup(decision, risk, scan, files);
+    }
+
+    // First entry whose minimum is reached; the last entry when none is
+    private static String threshold(String[] names, double[] thresholds, double risk) {
+        for (int i = 0; i < names.length; i++) {
+            if (risk >= thresholds[i]) return names[i];
+        }
+        return names[names.length - 1];
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int i : ids) {
+            if (i == id) return true;
+        }
+        return false;
+    }
+
+    private static <T> T require(T value, String field) {
+        if (value == null) throw new IllegalArgumentException("Rules need a \"" + field + "\" section");
+        return value;
+    }
+
+    private static int[] ids(List<String> names, Map<String, Integer> ids, String kind) {
+        if (names == null) return new int[0];
+        return names.stream().mapToInt(n -> id(n, ids, kind)).toArray();
+    }
+
+    private static int id(String name, Map<String, Integer> ids, String kind) {
+        Integer id = ids.get(name);
+        if (id == null) throw new IllegalArgumentException("Unknown " + kind + ": " + name);
+        return id;
+    }
+}
@@ -0,0 +1,112 @@
+package com.gatekeeper.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight layer for {@code /api/analyze}. Webhook redeliveries and near-simultaneous {@code opened} and
+ * {@code synchronize} events send the same PR head several times; the first request runs the analysis and
+ * identical requests arriving meanwhile wait for it and get the same response. A finished response is kept
+ * for a short window so late duplicates are answered without analyzing again. A failed analysis is not kept.
+ * <p>
+ * Requests are identical when repository, PR number and a hash of diff, changed files and author match;
+ * requests without repository or PR number are never coalesced.
+ */
+final class SingleFlight {
+    static final boolean ENABLED = Env.flag("GATEKEEPER_SINGLE_FLIGHT", true);
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(Env.longValue("GATEKEEPER_DEDUP_WINDOW_MS", 10_000));
+
+    private static final class Flight {
+        final CompletableFuture<AnalyzeController.AnalyzeResponse> result = new CompletableFuture<>();
+        volatile long finishedAt;
+    }
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final long windowNanos;
+
+    SingleFlight() {
+        this(WINDOW_NANOS);
+    }
+
+    /**
+     * @param windowNanos How long a finished response answers identical requests
+     */
+    SingleFlight(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Answer a request with the running or recent analysis of an identical one, or run {@code analysis}.
+     */
+    AnalyzeController.AnalyzeResponse run(AnalyzeController.AnalyzeRequest req, Supplier<AnalyzeController.AnalyzeResponse> analysis) {
+        String key = ENABLED ? key(req) : null;
+        if (key == null) return analysis.get();
+
+        Flight flight = new Flight();
+        while (true) {
+            Flight current = flights.putIfAbsent(key, flight);
+            if (current == null) break;
+            if (!expired(current, System.nanoTime())) {
+                GatekeeperMetrics.coalesced(current.result.isDone() ? "recent" : "in_flight");
+                return join(current, analysis);
+            }
+            flights.remove(key, current);
+        }
+
+        try {
+            AnalyzeController.AnalyzeResponse response = analysis.get();
+            flight.finishedAt = System.nanoTime();
+            flight.result.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            evictExpired();
+        }
+    }
+
+    private static AnalyzeController.AnalyzeResponse join(Flight flight, Supplier<AnalyzeController.AnalyzeResponse> analysis) {
+        try {
+            return flight.result.join();
+        } catch (CompletionException | CancellationException e) {
+            // The leader failed; this request gets its own attempt rather than a shared error
+            return analysis.get();
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.nanoTime();
+        flights.values().removeIf(f -> expired(f, now));
+    }
+
+    private boolean expired(Flight flight, long now) {
+        return flight.result.isDone() && now - flight.finishedAt >= windowNanos;
+    }
+
+    private static String key(AnalyzeController.AnalyzeRequest req) {
+        if (req.repository() == null || req.prNumber() == null) return null;
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            update(sha, req.author());
+            if (req.changedFiles() != null) {
+                for (String file : req.changedFiles()) update(sha, file);
+            }
+            update(sha, req.diff());
+            return req.repository() + "#" + req.prNumber() + "@" + HexFormat.of().formatHex(sha.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Values are separated by a byte that never occurs in UTF-8 text, so ("ab", "c") and ("a", "bc") differ
+    private static void update(MessageDigest sha, String value) {
+        if (value != null) sha.update(value.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0xFF);
+    }
+}
@@ -0,0 +1,82 @@
+package com.gatekeeper.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking token bucket. Callers reserve permits up front and then sleep off any deficit
+ * outside the lock, so waiting threads are served in arrival order at the configured rate.
+ */
+final class TokenBucket {
+    private final double capacity;
+    private double ratePerSecond;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * @param ratePerSecond Sustained permit rate
+     * @param capacity Largest burst that can be taken at once after an idle period
+     */
+    TokenBucket(double ratePerSecond, double capacity) {
+        if (ratePerSecond <= 0 || capacity <= 0) throw new IllegalArgumentException("Rate and capacity must be positive");
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+    }
+
+    void acquire(double permits) throws InterruptedException {
+        long waitNanos = reserve(permits);
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    synchronized boolean tryAcquire(double permits) {
+        refill();
+        if (tokens < permits) return false;
+        tokens -= permits;
+        return true;
+    }
+
+    /**
+     * Take permits now, possibly into debt, and return how long the caller has to wait for them.
+     */
+    synchronized long reserve(double permits) {
+        refill();
+        tokens -= permits;
+        return tokens >= 0 ? 0 : (long) (-tokens / ratePerSecond * 1e9);
+    }
+
+    /**
+     * Cap the permits available right now, e.g. when the provider reports fewer remaining than we assume.
+     */
+    synchronized void limit(double max) {
+        refill();
+        tokens = Math.min(tokens, max);
+    }
+
+    /**
+     * Hand out nothing for the given time, e.g. after the provider answered 429.
+     */
+    synchronized void pause(long nanos) {
+        refill();
+        tokens = Math.min(tokens, -nanos / 1e9 * ratePerSecond);
+    }
+
+    /**
+     * How long a reservation of this many permits would have to wait, without taking them.
+     */
+    synchronized long waitNanos(double permits) {
+        refill();
+        double deficit = permits - tokens;
+        return deficit <= 0 ? 0 : (long) (deficit / ratePerSecond * 1e9);
+    }
+
+    synchronized double available() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) / 1e9 * ratePerSecond);
+        refilledAt = now;
+    }
+}
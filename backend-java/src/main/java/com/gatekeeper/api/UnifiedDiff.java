@@ -0,0 +1,129 @@
+package com.gatekeeper.api;
+
+import java.util.*;
+
+/**
+ * Splits a unified diff into consecutive sections without copying it. Every character of the
+ * diff belongs to exactly one section: file headers ({@code diff --git}, index, ---/+++ lines,
+ * and anything before the first file) and hunks (an {@code @@} line and its body). Hunk bodies are
+ * delimited using the line counts in the {@code @@} header, so removed lines that look like headers
+ * are not mistaken for a new file.
+ */
+final class UnifiedDiff {
+
+    /**
+     * One section {@code [start, end)} of the diff text.
+     * @param path File the section belongs to (new path), or null before the first file
+     * @param hunk True for a hunk, false for a file header
+     */
+    record Section(String path, int start, int end, boolean hunk) {
+        CharSequence text(String diff) {
+            return diff.subSequence(start, end);
+        }
+
+        /** Offset of the first line after the {@code @@} header, or start for headers. */
+        int bodyStart(String diff) {
+            if (!hunk) return start;
+            int nl = diff.indexOf('\n', start);
+            return nl < 0 || nl >= end ? end : nl + 1;
+        }
+    }
+
+    private UnifiedDiff() {}
+
+    static List<Section> parse(String diff) {
+        List<Section> sections = new ArrayList<>();
+        if (diff == null || diff.isEmpty()) return sections;
+
+        String path = null;
+        int sectionStart = 0;
+        boolean inHunk = false;
+        boolean gitHeader = false;
+        int oldLeft = 0, newLeft = 0;
+        int pos = 0, n = diff.length();
+        while (pos < n) {
+            int nl = diff.indexOf('\n', pos);
+            int lineEnd = nl < 0 ? n : nl + 1;
+
+            if (inHunk && (oldLeft > 0 || newLeft > 0)) {
+                // Inside a hunk body: consume lines according to the header counts
+                char c = diff.charAt(pos);
+                if (c == ' ' || c == '\n' || c == '\r') { oldLeft--; newLeft--; }
+                else if (c == '-') oldLeft--;
+                else if (c == '+') newLeft--;
+                else if (c != '\\') { oldLeft = 0; newLeft = 0; continue; } // malformed body; re-read as a marker line
+                pos = lineEnd;
+                continue;
+            }
+
+            boolean git = diff.startsWith("diff --git ", pos);
+            // A plain "--- / +++" pair starts a file unless it is part of the current git header
+            if (git || (diff.startsWith("--- ", pos) && diff.startsWith("+++ ", lineEnd) && (inHunk || !gitHeader))) {
+                add(sections, path, sectionStart, pos, inHunk);
+                sectionStart = pos;
+                inHunk = false;
+                gitHeader = git;
+                path = pathOf(diff, pos, lineEnd);
+            } else if (inHunk && diff.charAt(pos) == '\\') {
+                // "\ No newline at end of file" stays with its hunk
+            } else if (diff.startsWith("+++ ", pos) && !inHunk) {
+                String p = pathOf(diff, pos, lineEnd);
+                if (p != null) path = p;
+            } else if (diff.startsWith("@@", pos)) {
+                add(sections, path, sectionStart, pos, inHunk);
+                sectionStart = pos;
+                inHunk = true;
+                int[] counts = hunkCounts(diff, pos, lineEnd);
+                oldLeft = counts[0];
+                newLeft = counts[1];
+            } else if (inHunk) {
+                // Trailing text after a complete hunk belongs to the next header
+                add(sections, path, sectionStart, pos, true);
+                sectionStart = pos;
+                inHunk = false;
+            }
+            pos = lineEnd;
+        }
+        add(sections, path, sectionStart, n, inHunk);
+        return sections;
+    }
+
+    private static void add(List<Section> sections, String path, int start, int end, boolean hunk) {
+        if (end > start) sections.add(new Section(path, start, end, hunk));
+    }
+
+    /** Path from "diff --git a/x b/y" (y), "+++ b/y" (y) or "--- a/x" (x). */
+    private static String pathOf(String diff, int start, int end) {
+        String line = diff.substring(start, end).trim();
+        if (line.startsWith("diff --git ")) {
+            int b = line.lastIndexOf(" b/");
+            return b > 0 ? line.substring(b + 3) : line.substring("diff --git ".length());
+        }
+        String p = line.substring(4);
+        int tab = p.indexOf('\t');
+        if (tab >= 0) p = p.substring(0, tab);
+        if (p.equals("/dev/null")) return null;
+        return p.startsWith("a/") || p.startsWith("b/") ? p.substring(2) : p;
+    }
+
+    /** Old and new line counts from "@@ -a,b +c,d @@"; a missing count means 1. */
+    private static int[] hunkCounts(String diff, int start, int end) {
+        int[] counts = {0, 0};
+        int i = start + 2;
+        for (int k = 0; k < 2; k++) {
+            char sign = k == 0 ? '-' : '+';
+            while (i < end && diff.charAt(i) != sign) i++;
+            i++;
+            while (i < end && Character.isDigit(diff.charAt(i))) i++;
+            if (i < end && diff.charAt(i) == ',') {
+                int v = 0;
+                i++;
+                while (i < end && Character.isDigit(diff.charAt(i))) v = v * 10 + (diff.charAt(i++) - '0');
+                counts[k] = v;
+            } else {
+                counts[k] = 1;
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,109 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+    private static final AnalyzeController.AnalyzeRequest REQUEST = new AnalyzeController.AnalyzeRequest(
+        "7", "octocat", "acme/service", List.of("src/main/A.java"), "+public void run() {\n+  System.exit(1);\n");
+
+    private final BlockingController controller = new BlockingController();
+
+    @AfterEach
+    void release() {
+        controller.release.countDown();
+    }
+
+    @Test
+    void admitsUpToTheCap() {
+        AdmissionControl admission = new AdmissionControl();
+        List<AdmissionControl.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < AdmissionControl.MAX_ANALYSES; i++) {
+            permits.add(admission.analysis());
+        }
+        assertFalse(permits.contains(null));
+        assertNull(admission.analysis());
+        permits.get(0).close();
+        assertNotNull(admission.analysis());
+    }
+
+    @Test
+    void asyncJobsAndBatchesHoldAdmission() throws Exception {
+        // GATEKEEPER_MAX_ANALYSES defaults to 150, GATEKEEPER_MAX_RUNNING_JOBS to 100
+        for (int i = 0; i < 100; i++) {
+            assertEquals(202, controller.analyzeAsync(REQUEST, null).getStatusCode().value());
+        }
+        for (int i = 0; i < AdmissionControl.MAX_ANALYSES - 100; i++) {
+            assertEquals(200, controller.analyzeBatch(List.of(REQUEST), null).getStatusCode().value());
+        }
+        assertShed(controller.analyze(REQUEST, null));
+        assertShed(controller.analyzeBatch(List.of(REQUEST), null));
+        assertShed(controller.analyzeAsync(REQUEST, null));
+
+        // Finished jobs and batches give their permits back
+        controller.release.countDown();
+        await(() -> controller.analyze(REQUEST, null).getStatusCode().value() == 200);
+        await(() -> controller.analyzeAsync(REQUEST, null).getStatusCode().value() == 202);
+    }
+
+    @Test
+    void unavailableGroqDegradesToTheHeuristics() {
+        AtomicInteger asked = new AtomicInteger();
+        GroqAnalysisService down = new GroqAnalysisService("test-key") {
+            @Override
+            boolean available() {
+                asked.incrementAndGet();
+                return false;
+            }
+        };
+        AnalyzeController.AnalyzeResponse response = new AnalyzeController(down).analyze(REQUEST, null).getBody();
+        assertTrue(response.degraded());
+        assertEquals("BLOCK", response.decision());
+        assertNotNull(response.explanation());
+        assertEquals(1, asked.get());
+        assertEquals(0, down.schedulerStats().sent());
+    }
+
+    @Test
+    void groqBacklogDegradesWithoutTakingTheProbe() {
+        AtomicInteger asked = new AtomicInteger();
+        GroqAnalysisService backlogged = new GroqAnalysisService("test-key") {
+            @Override
+            int queuedCalls() {
+                return AdmissionControl.MAX_GROQ_QUEUE;
+            }
+
+            @Override
+            boolean available() {
+                asked.incrementAndGet();
+                return true;
+            }
+        };
+        AnalyzeController.AnalyzeResponse response = new AnalyzeController(backlogged).analyze(REQUEST, null).getBody();
+        assertTrue(response.degraded());
+        assertEquals("BLOCK", response.decision());
+        // A half-open breaker would have handed its probe to an analysis that never calls GROQ
+        assertEquals(0, asked.get());
+    }
+
+    private static void assertShed(ResponseEntity<?> response) {
+        assertEquals(503, response.getStatusCode().value());
+        assertEquals(String.valueOf(AdmissionControl.RETRY_AFTER_SECONDS), response.getHeaders().getFirst("Retry-After"));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.gatekeeper.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class AnalysisJobsTest {
+    private static final AnalyzeController.AnalyzeRequest REQUEST = new AnalyzeController.AnalyzeRequest(
+        "7", "octocat", "acme/service", List.of("src/main/A.java"), "+public void run() {\n+  System.exit(1);\n");
+    private static final AdmissionControl.Permit NO_PERMIT = () -> { };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingController controller = new BlockingController();
+
+    @AfterEach
+    void release() {
+        controller.release.countDown();
+    }
+
+    @Test
+    void jobRunsThenHoldsItsResult() throws Exception {
+        AnalysisJobs jobs = new AnalysisJobs(4);
+        String id = jobs.submit(controller, REQUEST, NO_PERMIT);
+        AnalysisJobs.Snapshot running = jobs.snapshot(id);
+        assertEquals(AnalysisJobs.State.RUNNING, running.state());
+        assertNull(running.result());
+
+        controller.release.countDown();
+        await(() -> jobs.snapshot(id).state() != AnalysisJobs.State.RUNNING);
+        AnalysisJobs.Snapshot done = jobs.snapshot(id);
+        assertEquals(AnalysisJobs.State.DONE, done.state());
+        assertEquals("7", done.result().prNumber());
+        assertEquals("BLOCK", done.result().decision());
+        assertNull(jobs.snapshot("no-such-job"));
+    }
+
+    @Test
+    void jobThatThrowsFails() throws Exception {
+        AnalyzeController failing = new AnalyzeController(null) {
+            @Override
+            FileScans scan(AnalyzeRequest req) {
+                throw new IllegalStateException("scanner broke");
+            }
+        };
+        AnalysisJobs jobs = new AnalysisJobs(4);
+        String id = jobs.submit(failing, REQUEST, NO_PERMIT);
+        await(() -> jobs.snapshot(id).state() != AnalysisJobs.State.RUNNING);
+        assertEquals(AnalysisJobs.State.FAILED, jobs.snapshot(id).state());
+    }
+
+    @Test
+    void refusesJobsBeyondTheRunningCap() throws Exception {
+        AnalysisJobs jobs = new AnalysisJobs(2);
+        String first = jobs.submit(controller, REQUEST, NO_PERMIT);
+        assertNotNull(jobs.submit(controller, REQUEST, NO_PERMIT));
+        assertNull(jobs.submit(controller, REQUEST, NO_PERMIT));
+
+        controller.release.countDown();
+        await(() -> jobs.snapshot(first).state() == AnalysisJobs.State.DONE);
+        String[] next = new String[1];
+        await(() -> (next[0] = jobs.submit(controller, REQUEST, NO_PERMIT)) != null);
+    }
+
+    @Test
+    void jobsGiveBackTheirAdmission() throws Exception {
+        AnalysisJobs jobs = new AnalysisJobs(1);
+        AtomicInteger closed = new AtomicInteger();
+        String id = jobs.submit(controller, REQUEST, closed::incrementAndGet);
+        // Refused at the cap: released at once
+        assertNull(jobs.submit(controller, REQUEST, closed::incrementAndGet));
+        assertEquals(1, closed.get());
+
+        controller.release.countDown();
+        await(() -> jobs.snapshot(id).state() == AnalysisJobs.State.DONE);
+        await(() -> closed.get() == 2);
+    }
+
+    @Test
+    void asyncEndpointShedsBeyondTheRunningCap() {
+        // GATEKEEPER_MAX_RUNNING_JOBS defaults to 100
+        for (int i = 0; i < 100; i++) {
+            assertEquals(202, controller.analyzeAsync(REQUEST, null).getStatusCode().value());
+        }
+        ResponseEntity<Map<String, String>> shed = controller.analyzeAsync(REQUEST, null);
+        assertEquals(503, shed.getStatusCode().value());
+        assertEquals(String.valueOf(AdmissionControl.RETRY_AFTER_SECONDS), shed.getHeaders().getFirst("Retry-After"));
+    }
+
+    @Test
+    void subscribersGetLiveEventsAndLateOnesAReplay() throws Exception {
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+        String accepted = mvc.perform(post("/api/analyze/async").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(REQUEST)))
+            .andExpect(status().isAccepted())
+            .andReturn().getResponse().getContentAsString();
+        String id = objectMapper.readTree(accepted).get("jobId").asText();
+
+        // Subscribed while the job waits in its scan: the verdict arrives live
+        MvcResult live = mvc.perform(get("/api/analyze/jobs/" + id + "/events")).andExpect(request().asyncStarted()).andReturn();
+        controller.release.countDown();
+        live.getAsyncResult(5000);
+        assertEquals(List.of("verdict", "complete"), eventNames(live.getResponse().getContentAsString()));
+
+        MvcResult late = mvc.perform(get("/api/analyze/jobs/" + id + "/events")).andExpect(request().asyncStarted()).andReturn();
+        late.getAsyncResult(5000);
+        assertEquals(live.getResponse().getContentAsString(), late.getResponse().getContentAsString());
+
+        mvc.perform(get("/api/analyze/jobs/no-such-job/events")).andExpect(status().isNotFound());
+    }
+
+    private static List<String> eventNames(String sse) {
+        List<String> names = new ArrayList<>();
+        for (String line : sse.split("\n")) {
+            if (line.startsWith("event:")) names.add(line.substring("event:".length()));
+        }
+        return names;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalyzeControllerTest {
+    private static final byte[] DIFF = "diff --git a/A.java b/A.java\n@@ -1 +1 @@\n-a\n+b\n".repeat(50).getBytes(StandardCharsets.UTF_8);
+
+    private final AnalyzeController controller = new AnalyzeController(null);
+
+    @Test
+    void streamAnalyzesCompressedDiffs() throws IOException {
+        assertEquals(200, stream(RequestDecompressionTest.gzip(DIFF), "gzip").getStatusCode().value());
+        assertEquals(200, stream(RequestDecompressionTest.zstd(DIFF), "zstd").getStatusCode().value());
+    }
+
+    @Test
+    void streamAnswersUnknownCodingsLikeTheOtherEndpoints() throws IOException {
+        ResponseEntity<?> response = stream(DIFF, "br");
+        assertEquals(415, response.getStatusCode().value());
+        assertEquals(RequestDecompression.SUPPORTED, response.getHeaders().getFirst("Accept-Encoding"));
+    }
+
+    @Test
+    void streamRejectsCorruptAndTruncatedBodies() throws IOException {
+        byte[] gzip = RequestDecompressionTest.gzip(DIFF);
+        byte[] zstd = RequestDecompressionTest.zstd(DIFF);
+        assertEquals(400, stream(DIFF, "gzip").getStatusCode().value());
+        assertEquals(400, stream(Arrays.copyOf(gzip, gzip.length / 2), "gzip").getStatusCode().value());
+        assertEquals(400, stream(Arrays.copyOf(zstd, zstd.length / 2), "zstd").getStatusCode().value());
+    }
+
+    private ResponseEntity<?> stream(byte[] body, String contentEncoding) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/analyze/stream");
+        request.setContentType("text/x-diff");
+        request.setContent(body);
+        request.addHeader("Content-Encoding", contentEncoding);
+        return controller.analyzeStream(request, "1", "octocat", "acme/service", null, null);
+    }
+}
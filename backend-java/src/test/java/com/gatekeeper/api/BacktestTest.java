@@ -0,0 +1,117 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BacktestTest {
+    @TempDir
+    static Path repository;
+
+    private static String util, exit, revert, side;
+
+    /**
+     * Four commits and a merge: a harmless one, one calling System.exit, its revert, and one on a merged branch.
+     */
+    @BeforeAll
+    static void history() throws Exception {
+        git("init", "-q", "-b", "main");
+        util = commit("Ann", "src/main/java/Util.java", "class Util {\n    int twice(int x) {\n        return 2 * x;\n    }\n}\n", "Add util");
+        exit = commit("Doe, Jane", "src/main/java/Shutdown.java", "class Shutdown {\n    void run() {\n        System.exit(1);\n    }\n}\n", "Add shutdown");
+        git("-c", "user.name=Ann", "-c", "user.email=ann@example.com", "revert", "--no-edit", exit);
+        revert = git("rev-parse", "HEAD").trim();
+        git("checkout", "-q", "-b", "side");
+        side = commit("Bob", "README.md", "# Fixture\n", "Add readme");
+        git("checkout", "-q", "main");
+        git("-c", "user.name=Ann", "-c", "user.email=ann@example.com", "merge", "-q", "--no-ff", "-m", "Merge side", "side");
+    }
+
+    @Test
+    void analyzesEveryCommitButMerges(@TempDir Path out) throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Backtest.Verdict[] verdicts = new Backtest(repository).run(List.of("HEAD"), out, new PrintStream(log, true, StandardCharsets.UTF_8));
+
+        // Fixture commits share a timestamp, so only the set is fixed
+        assertEquals(Set.of(side, revert, exit, util), Arrays.stream(verdicts).map(Backtest.Verdict::commit).collect(Collectors.toSet()));
+        Backtest.Verdict shutdown = verdict(verdicts, exit);
+        assertEquals("Doe, Jane", shutdown.author());
+        assertEquals(1, shutdown.files());
+        assertEquals("BLOCK", shutdown.decision());
+        assertTrue(shutdown.risk() > verdict(verdicts, util).risk());
+        assertFalse(shutdown.truncated());
+        assertTrue(log.toString(StandardCharsets.UTF_8).contains("Analyzing 4 commits"));
+    }
+
+    @Test
+    void writesVerdictsAndSweepWithRevertedCommitsAsBad(@TempDir Path out) throws Exception {
+        new Backtest(repository).run(List.of("HEAD"), out, new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+
+        List<String> rows = Files.readAllLines(out.resolve("verdicts.csv"));
+        assertEquals(5, rows.size());
+        assertTrue(rows.get(0).startsWith("commit,time,author,"));
+        List<String> bad = new ArrayList<>();
+        for (String row : rows.subList(1, rows.size())) {
+            if (row.endsWith(",true")) bad.add(row.substring(0, 40));
+        }
+        assertEquals(List.of(exit), bad);
+        assertTrue(rows.stream().anyMatch(r -> r.startsWith(exit + ",") && r.contains(",\"Doe, Jane\",")));
+
+        List<String> sweep = Files.readAllLines(out.resolve("sweep.csv"));
+        assertEquals("threshold,flagged,flaggedShare,flaggedBad,precision,recall", sweep.get(0));
+        // Every commit is at or above 0: all flagged, the one bad among them
+        assertEquals("0.00,4,1.0000,1,0.2500,1.0000", sweep.get(1));
+        assertTrue(sweep.get(sweep.size() - 1).startsWith("1.00,"));
+    }
+
+    @Test
+    void chunkingDoesNotChangeTheVerdicts(@TempDir Path out) throws Exception {
+        PrintStream quiet = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+        Backtest.Verdict[] whole = new Backtest(repository, 256).run(List.of("HEAD"), out.resolve("whole"), quiet);
+        // One git process per commit, forked over the pool
+        Backtest.Verdict[] split = new Backtest(repository, 1).run(List.of("HEAD"), out.resolve("split"), quiet);
+        assertArrayEquals(whole, split);
+        assertEquals(Files.readAllLines(out.resolve("whole/verdicts.csv")), Files.readAllLines(out.resolve("split/verdicts.csv")));
+    }
+
+    @Test
+    void revisionRangeLimitsTheCommits(@TempDir Path out) throws Exception {
+        Backtest.Verdict[] verdicts = new Backtest(repository).run(List.of(util + ".." + revert), out,
+            new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        assertEquals(Set.of(revert, exit), Arrays.stream(verdicts).map(Backtest.Verdict::commit).collect(Collectors.toSet()));
+    }
+
+    private static Backtest.Verdict verdict(Backtest.Verdict[] verdicts, String commit) {
+        return Arrays.stream(verdicts).filter(v -> v.commit().equals(commit)).findFirst().orElseThrow();
+    }
+
+    private static String commit(String author, String file, String content, String message) throws Exception {
+        Path path = repository.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+        git("add", file);
+        git("-c", "user.name=" + author, "-c", "user.email=dev@example.com", "commit", "-q", "-m", message);
+        return git("rev-parse", "HEAD").trim();
+    }
+
+    private static String git(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("git", "-C", repository.toString(), "-c", "commit.gpgsign=false"));
+        command.addAll(List.of(args));
+        Process git = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(git.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, git.waitFor(), () -> String.join(" ", command) + ": " + output);
+        return output;
+    }
+}
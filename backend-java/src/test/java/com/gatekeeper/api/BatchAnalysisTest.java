@@ -0,0 +1,166 @@
+package com.gatekeeper.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class BatchAnalysisTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Holding controller = new Holding();
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+    @AfterEach
+    void release() {
+        controller.release.countDown();
+    }
+
+    @Test
+    void writesEachPrAsSoonAsItIsDone() throws Exception {
+        controller.held.add("1");
+        MvcResult batch = start(pr("1"), pr("2"), pr("3"));
+
+        // PR 1 is still in its scan while the others are already on the wire
+        await(() -> prNumbers(batch).size() == 2);
+        assertEquals(Set.of("2", "3"), new HashSet<>(prNumbers(batch)));
+
+        controller.release.countDown();
+        batch.getAsyncResult(5000);
+        assertEquals("1", prNumbers(batch).get(2));
+        for (String line : lines(batch)) {
+            assertEquals("BLOCK", objectMapper.readTree(line).get("decision").asText());
+        }
+    }
+
+    @Test
+    void timeoutDropsUnfinishedPrs() throws Exception {
+        controller.held.add("1");
+        MvcResult batch = start(pr("1"), pr("2"));
+        await(() -> prNumbers(batch).equals(List.of("2")));
+
+        notify(batch, AsyncListener::onTimeout);
+        controller.release.countDown();
+        // The held PR finishes its scan but goes no further
+        await(() -> controller.scanned.contains("1"));
+        Thread.sleep(100);
+        assertEquals(List.of("2"), prNumbers(batch));
+        assertFalse(controller.recorded.contains("1"));
+    }
+
+    @Test
+    void clientGoingAwayAbortsTheBatch() throws Exception {
+        controller.held.add("1");
+        MvcResult batch = start(pr("1"), pr("2"));
+        await(() -> prNumbers(batch).equals(List.of("2")));
+
+        notify(batch, AsyncListener::onError);
+        controller.release.countDown();
+        await(() -> controller.scanned.contains("1"));
+        Thread.sleep(100);
+        assertEquals(List.of("2"), prNumbers(batch));
+        assertFalse(controller.recorded.contains("1"));
+    }
+
+    @Test
+    void rejectsOversizedBatches() throws Exception {
+        List<AnalyzeController.AnalyzeRequest> requests = Collections.nCopies(BatchAnalysis.MAX_BATCH_SIZE + 1, pr("1"));
+        mvc.perform(post("/api/analyze/batch").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(requests)))
+            .andExpect(status().isPayloadTooLarge());
+    }
+
+    private MvcResult start(AnalyzeController.AnalyzeRequest... requests) throws Exception {
+        return mvc.perform(post("/api/analyze/batch").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(requests)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    }
+
+    private interface Event {
+        void fire(AsyncListener listener, AsyncEvent event) throws IOException;
+    }
+
+    /** Deliver a container event, such as the async timeout, to the listeners of the batch response. */
+    private static void notify(MvcResult batch, Event event) throws IOException {
+        MockAsyncContext context = (MockAsyncContext) batch.getRequest().getAsyncContext();
+        for (AsyncListener listener : context.getListeners()) {
+            event.fire(listener, new AsyncEvent(context, new IOException("Broken pipe")));
+        }
+    }
+
+    private List<String> lines(MvcResult batch) throws UnsupportedEncodingException {
+        String body = batch.getResponse().getContentAsString();
+        return body.isEmpty() ? List.of() : List.of(body.split("\n"));
+    }
+
+    private List<String> prNumbers(MvcResult batch) {
+        try {
+            List<String> numbers = new ArrayList<>();
+            for (String line : lines(batch)) numbers.add(objectMapper.readTree(line).get("prNumber").asText());
+            return numbers;
+        } catch (IOException e) {
+            // A line caught half-written
+            return List.of();
+        }
+    }
+
+    private static AnalyzeController.AnalyzeRequest pr(String prNumber) {
+        return new AnalyzeController.AnalyzeRequest(prNumber, "octocat", "acme/service", List.of("src/main/A.java"), "+public void run() {\n+  System.exit(1);\n");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    /** Holds the scans of some PRs until released, and notes which PRs were scanned and recorded. */
+    private static final class Holding extends AnalyzeController {
+        final Set<String> held = ConcurrentHashMap.newKeySet();
+        final Set<String> recorded = ConcurrentHashMap.newKeySet();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Set<String> scanned = ConcurrentHashMap.newKeySet();
+
+        Holding() {
+            super(null);
+        }
+
+        @Override
+        FileScans scan(AnalyzeRequest req) {
+            if (held.contains(req.prNumber())) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            FileScans scan = super.scan(req);
+            scanned.add(req.prNumber());
+            return scan;
+        }
+
+        @Override
+        AnalyzeResponse recorded(AnalyzeRequest req, AnalyzeResponse response) {
+            recorded.add(req.prNumber());
+            return super.recorded(req, response);
+        }
+    }
+}
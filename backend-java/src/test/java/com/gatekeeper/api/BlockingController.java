@@ -0,0 +1,22 @@
+package com.gatekeeper.api;
+
+import java.util.concurrent.CountDownLatch;
+
+/** Holds every analysis in its scan until released. */
+class BlockingController extends AnalyzeController {
+    final CountDownLatch release = new CountDownLatch(1);
+
+    BlockingController() {
+        super(null);
+    }
+
+    @Override
+    FileScans scan(AnalyzeRequest req) {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return super.scan(req);
+    }
+}
@@ -0,0 +1,108 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long OPEN_MS = 100;
+
+    // Opens when half of the last 4 calls failed, once 3 were seen
+    private final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreaker.Config(4, 3, 0.5, SLOW, TimeUnit.MILLISECONDS.toNanos(OPEN_MS)));
+
+    @Test
+    void waitsForTheMinimumCalls() {
+        breaker.failure();
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allow());
+
+        breaker.success(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.allow());
+        assertEquals(1, breaker.opened());
+    }
+
+    @Test
+    void judgesOnlyTheLastWindowOfCalls() {
+        breaker.failure();
+        for (int i = 0; i < 3; i++) breaker.success(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        // The first failure has left the window: one of four still fails
+        breaker.success(0);
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void slowAnswersCountAsFailures() {
+        breaker.success(SLOW);
+        breaker.success(SLOW + 1);
+        breaker.success(SLOW + 1);
+        breaker.success(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void halfOpensForOneProbeThatClosesIt() throws InterruptedException {
+        trip();
+        assertFalse(breaker.allow());
+        Thread.sleep(OPEN_MS + 20);
+
+        assertTrue(breaker.allow());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.allow(), "Only one probe at a time");
+
+        breaker.success(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allow());
+        // Counts start over: earlier failures do not reopen it
+        breaker.failure();
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void failedProbeReopens() throws InterruptedException {
+        trip();
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(breaker.allow());
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.allow());
+        assertEquals(2, breaker.opened());
+
+        // A slow probe reopens it too
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(breaker.allow());
+        breaker.success(SLOW + 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void probeThatNeverReportsIsReplaced() throws InterruptedException {
+        trip();
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(breaker.allow());
+        assertFalse(breaker.allow());
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(breaker.allow());
+    }
+
+    @Test
+    void ignoresOutcomesWhileOpen() {
+        trip();
+        for (int i = 0; i < 10; i++) breaker.success(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private void trip() {
+        for (int i = 0; i < 3; i++) breaker.failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+}
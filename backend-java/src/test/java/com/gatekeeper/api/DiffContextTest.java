@@ -0,0 +1,92 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffContextTest {
+    private static final RuleSet RULES = RuleEngine.current();
+
+    private static final String LOCKFILE = file("package-lock.json", "+    \"left-pad\": \"1.3.0\",\n".repeat(200));
+    private static final String RISKY = file("src/main/Exit.java", "+public void run() {\n+  System.exit(1);\n+}\n");
+    private static final String PLAIN = file("src/main/Util.java", "+int x = 1;\n".repeat(20));
+
+    @Test
+    void estimatesTokensFromWordAndSymbolRuns() {
+        assertEquals(1, DiffContext.tokens("hello"));
+        assertEquals(2, DiffContext.tokens("helloworld"));
+        assertEquals(3, DiffContext.tokens("helloworld1"));
+        assertEquals(1, DiffContext.tokens(");"));
+        assertEquals(2, DiffContext.tokens(");;"));
+        // Spaces are free, line breaks are not
+        assertEquals(2, DiffContext.tokens("a    b"));
+        assertEquals(3, DiffContext.tokens("a\nb"));
+        assertEquals(0, DiffContext.tokens(""));
+    }
+
+    @Test
+    void sendsADiffThatFitsUnchanged() {
+        String diff = RISKY + PLAIN;
+        assertSame(diff, DiffContext.select(RULES, diff, DiffContext.tokens(diff)));
+        assertEquals("", DiffContext.select(RULES, diff, 0));
+        assertEquals("", DiffContext.select(RULES, null, 100));
+    }
+
+    @Test
+    void prefersTheRiskyHunkOverEarlierNoise() {
+        String diff = LOCKFILE + PLAIN + RISKY;
+        int budget = DiffContext.tokens(RISKY) + 5;
+        String selected = DiffContext.select(RULES, diff, budget);
+        assertEquals(RISKY, selected);
+    }
+
+    @Test
+    void packsHunksWithTheirHeadersInDiffOrder() {
+        String diff = LOCKFILE + RISKY + PLAIN;
+        String selected = DiffContext.select(RULES, diff, DiffContext.tokens(RISKY + PLAIN));
+        // The lockfile hunk is too large for what is left; the other two fit, each with its header
+        assertEquals(RISKY + PLAIN, selected);
+    }
+
+    @Test
+    void staysWithinEveryBudget() {
+        StringBuilder diff = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            diff.append(file("src/main/F" + i + ".java", ("+line " + i + " of work;\n").repeat(1 + i % 7) + (i % 5 == 0 ? "+eval(input);\n" : "")));
+        }
+        diff.append(LOCKFILE);
+        String text = diff.toString();
+        for (int budget = 1; budget < DiffContext.tokens(text); budget += 17) {
+            String selected = DiffContext.select(RULES, text, budget);
+            assertTrue(DiffContext.tokens(selected) <= budget, "Over budget " + budget + ": " + DiffContext.tokens(selected));
+            assertFalse(selected.isEmpty(), "Nothing selected for budget " + budget);
+        }
+    }
+
+    @Test
+    void cutsAnOversizedBestHunkAtALineBreak() {
+        String header = "diff --git a/src/main/Exit.java b/src/main/Exit.java\n--- a/src/main/Exit.java\n+++ b/src/main/Exit.java\n";
+        String diff = header + "@@ -0,0 +1,200 @@\n" + "+System.exit(1);\n".repeat(200);
+        int budget = DiffContext.tokens(header) + 40;
+        String selected = DiffContext.select(RULES, diff, budget);
+        assertTrue(selected.startsWith(header + "@@ -0,0 +1,200 @@\n+System.exit(1);\n"), selected);
+        assertTrue(selected.endsWith("\n"));
+        assertTrue(DiffContext.tokens(selected) <= budget);
+        assertTrue(DiffContext.tokens(selected) > budget - DiffContext.tokens("+System.exit(1);\n"), "Cut too early");
+    }
+
+    @Test
+    void cutsTextWithoutHunksAtTheLastLineThatFits() {
+        String text = "just some words here\n".repeat(50);
+        String selected = DiffContext.select(RULES, text, 30);
+        assertTrue(text.startsWith(selected));
+        assertTrue(selected.endsWith("\n"));
+        assertTrue(DiffContext.tokens(selected) <= 30);
+        assertTrue(DiffContext.tokens(selected + "just some words here\n") > 30);
+    }
+
+    private static String file(String path, String added) {
+        long lines = added.chars().filter(c -> c == '\n').count();
+        return "diff --git a/" + path + " b/" + path + "\n--- a/" + path + "\n+++ b/" + path + "\n@@ -0,0 +1," + lines + " @@\n" + added;
+    }
+}
@@ -0,0 +1,139 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The pom limits bodies to 64 KB and the retained diff to 4096 characters for these tests
+class DiffIngestTest {
+    private static final String DIFF = """
+        diff --git a/src/main/java/A.java b/src/main/java/A.java
+        --- a/src/main/java/A.java
+        +++ b/src/main/java/A.java
+        @@ -1,1 +1,2 @@
+         class A {
+        +  public void run() { System.exit(1); }
+        diff --git a/README.md b/README.md
+        --- a/README.md
+        +++ b/README.md
+        @@ -1 +1 @@
+        -old
+        +new
+        """;
+
+    @Test
+    void decodesJsonEscapes() throws IOException {
+        DiffIngest ingest = json("""
+            {"prNumber": 42, "author": "a\\"b", "diff": "+x\\n+\\ty\\\\ \\/ \\u0041\\u00e9 \\ud83d\\ude00\\r\\b\\f"}""");
+        AnalyzeController.AnalyzeRequest req = ingest.toRequest(null, null, null, null);
+        assertEquals("42", req.prNumber());
+        assertEquals("a\"b", req.author());
+        assertEquals("+x\n+\ty\\ / A\u00e9 \ud83d\ude00\r\b\f", req.diff());
+        assertEquals(2, ingest.scan().lines());
+    }
+
+    @Test
+    void rejectsMalformedUnicodeEscapes() {
+        assertThrows(IllegalArgumentException.class, () -> json("{\"diff\": \"+x\\u00zz\"}"));
+        assertThrows(IllegalArgumentException.class, () -> json("{\"diff\": \"+x\\u12\"}"));
+        // Digits of other scripts are not JSON hex digits
+        assertThrows(IllegalArgumentException.class, () -> json("{\"diff\": \"+x\\u\u0660\u066041\"}"));
+        assertThrows(IllegalArgumentException.class, () -> json("{\"author\": \"\\uXYZW\", \"diff\": \"+x\"}"));
+    }
+
+    @Test
+    void skipsUnknownFieldsAndReadsMetadata() throws IOException {
+        DiffIngest ingest = json("""
+            {
+              "extra": {"a": "}]\\"", "b": [1, {"c": "{"}], "d": null},
+              "changedFiles": ["src/A.java", "README.md", null],
+              "repository": "acme/service",
+              "prNumber": "7",
+              "flag": true,
+              "author": null,
+              "diff": "+line"
+            }""");
+        AnalyzeController.AnalyzeRequest req = ingest.toRequest("1", "octocat", "other/repo", List.of("x"));
+        assertEquals("7", req.prNumber());
+        assertEquals("octocat", req.author());
+        assertEquals("acme/service", req.repository());
+        assertEquals(List.of("src/A.java", "README.md"), req.changedFiles());
+        assertEquals("+line", req.diff());
+        assertFalse(ingest.truncated());
+    }
+
+    @Test
+    void rejectsMalformedJson() {
+        assertThrows(IllegalArgumentException.class, () -> json("[\"diff\"]"));
+        assertThrows(IllegalArgumentException.class, () -> json("{\"diff\" \"+x\"}"));
+        assertThrows(IllegalArgumentException.class, () -> json("{\"diff\": \"+x\" ]"));
+        // Ending early is only accepted when the size limit ended it
+        assertThrows(IllegalArgumentException.class, () -> json("{\"diff\": \"+x"));
+    }
+
+    @Test
+    void takesPathsOfRawDiffsFromGitHeaders() throws IOException {
+        DiffIngest ingest = DiffIngest.read(bytes(DIFF), "text/x-diff", null);
+        AnalyzeController.AnalyzeRequest req = ingest.toRequest("3", "octocat", null, null);
+        assertEquals(List.of("src/main/java/A.java", "README.md"), req.changedFiles());
+        assertEquals(DIFF, req.diff());
+        assertTrue(ingest.scan().has("SYSTEM_EXIT"));
+        // Files named in the request win over the diff headers
+        assertEquals(List.of("B.java"), ingest.toRequest("3", "octocat", null, List.of("B.java")).changedFiles());
+    }
+
+    @Test
+    void decompressesGzipBodies() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(DIFF.getBytes(StandardCharsets.UTF_8));
+        }
+        DiffIngest ingest = DiffIngest.read(new ByteArrayInputStream(out.toByteArray()), "text/x-diff", "gzip");
+        assertEquals(DIFF, ingest.toRequest(null, null, null, null).diff());
+        assertThrows(IllegalArgumentException.class, () -> DiffIngest.read(bytes(DIFF), "text/x-diff", "br"));
+    }
+
+    @Test
+    void truncatesRawDiffsAtTheSizeLimit() throws IOException {
+        String diff = "+password = x\n".repeat(10_000);
+        DiffIngest ingest = DiffIngest.read(bytes(diff), "text/x-diff", null);
+        assertTrue(ingest.truncated());
+        assertEquals(DiffIngest.MAX_DIFF_BYTES, ingest.scan().chars());
+        assertEquals(diff.substring(0, DiffIngest.RETAIN_CHARS), ingest.toRequest(null, null, null, null).diff());
+    }
+
+    @Test
+    void keepsWhatWasReadWhenTheLimitCutsAJsonString() throws IOException {
+        String body = "{\"prNumber\": \"9\", \"diff\": \"" + "+TODO\\n".repeat(20_000) + "\"}";
+        DiffIngest ingest = json(body);
+        assertTrue(ingest.truncated());
+        AnalyzeController.AnalyzeRequest req = ingest.toRequest(null, null, null, null);
+        assertEquals("9", req.prNumber());
+        assertEquals(DiffIngest.RETAIN_CHARS, req.diff().length());
+        assertTrue(req.diff().startsWith("+TODO\n+TODO\n"));
+        // 7 bytes of JSON per line
+        assertTrue(ingest.scan().count("TODO") > 9_000);
+    }
+
+    @Test
+    void bodiesUpToTheLimitAreNotTruncated() throws IOException {
+        String diff = "x".repeat((int) DiffIngest.MAX_DIFF_BYTES);
+        DiffIngest ingest = DiffIngest.read(bytes(diff), "text/x-diff", null);
+        assertFalse(ingest.truncated());
+        assertEquals(diff.length(), ingest.scan().chars());
+    }
+
+    private static DiffIngest json(String body) throws IOException {
+        return DiffIngest.read(bytes(body), "application/json", null);
+    }
+
+    private static ByteArrayInputStream bytes(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
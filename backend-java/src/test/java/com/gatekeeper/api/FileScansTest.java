@@ -0,0 +1,157 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The fork-join scan against a single pass over the whole diff and over each file on its own. Diffs are well
+ * past {@code GATEKEEPER_SCAN_CHUNK_CHARS} so they are split across the pool, with one file cut into pieces.
+ */
+class FileScansTest {
+    private static final String[] TOKENS = {"public void run(", "public static int[] f (", "private int x;", "System.exit(0);",
+        "Runtime.getRuntime()", "password", "secret", "TODO", "FIXME", "@GetMapping", "@PostMapping", "foo", "bar()", " ", "\t", "été"};
+    private static final String[] PATHS = {"src/main/java/com/acme/UserController.java", "src/main/java/com/acme/FooService.java",
+        "src/test/java/com/acme/FooServiceTest.java", "config/application.yml", "README.md", "src/main/java/com/acme/Crypto.java",
+        "kubernetes/deployment.yaml", "docs/guide.md"};
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private final RuleSet rules = RuleEngine.current();
+    private final AnalyzeController controller = new AnalyzeController(null);
+
+    private record Section(String path, String text) {}
+
+    @AfterAll
+    static void shutdown() {
+        POOL.shutdown();
+    }
+
+    @Test
+    void forkJoinTotalEqualsOnePass() {
+        for (int seed = 0; seed < 4; seed++) {
+            String diff = join(sections(new SplittableRandom(seed)));
+            assertScan(DiffScanner.scan(rules, diff), FileScans.scan(rules, diff, POOL).total(), "seed " + seed);
+        }
+    }
+
+    @Test
+    void eachFileEqualsScanningItAlone() {
+        for (int seed = 0; seed < 4; seed++) {
+            List<Section> sections = sections(new SplittableRandom(seed));
+            List<FileScans.FileScan> files = FileScans.scan(rules, join(sections), POOL).files();
+            // The large file was cut into pieces and still comes back as one entry
+            assertEquals(sections.size(), files.size(), "seed " + seed);
+            for (int i = 0; i < sections.size(); i++) {
+                assertEquals(sections.get(i).path(), files.get(i).path());
+                assertScan(DiffScanner.scan(rules, sections.get(i).text()), files.get(i).scan(), "seed " + seed + " file " + i);
+            }
+        }
+    }
+
+    @Test
+    void textBeforeTheFirstFileCountsOnlyTowardsTheTotal() {
+        String preamble = "From 1234 Mon Sep 17 00:00:00 2001\nSubject: shut down with System.exit(0);\n\n";
+        Section file = section("src/main/java/A.java", List.of("+int x;"));
+        String diff = preamble + file.text();
+
+        FileScans scans = FileScans.scan(rules, diff, POOL);
+        assertScan(DiffScanner.scan(rules, diff), scans.total(), "total");
+        assertEquals(1, scans.files().size());
+        assertScan(DiffScanner.scan(rules, file.text()), scans.files().get(0).scan(), "file");
+        assertEquals(0, scans.files().get(0).scan().count("SYSTEM_EXIT"));
+    }
+
+    @Test
+    void fileFindingsEqualPerFileSinglePasses() {
+        for (int seed = 0; seed < 4; seed++) {
+            List<Section> sections = sections(new SplittableRandom(seed));
+            // A file appearing twice in the diff gets one finding for both sections
+            sections.add(sections.get(0));
+            String diff = join(sections);
+            FileScans.Builder reference = new FileScans.Builder(rules);
+            for (Section s : sections) reference.add(s.path(), DiffScanner.scan(rules, s.text()));
+
+            List<String> changed = sections.stream().map(Section::path).distinct().toList();
+            AnalyzeController.AnalyzeRequest req = new AnalyzeController.AnalyzeRequest("1", "octocat", "acme/service", changed, diff);
+            AnalyzeController.Verdict v = controller.heuristics(req, FileScans.scan(rules, diff, POOL));
+            assertEquals(controller.fileFindings(reference.build(), v.files()), v.fileFindings(), "seed " + seed);
+            assertEquals(changed.size(), v.fileFindings().size());
+        }
+    }
+
+    @Test
+    void fileFindingsRankFilesByContribution() {
+        Section controllerFile = section("src/main/java/com/acme/UserController.java", List.of("+@GetMapping", "+System.exit(0);"));
+        Section service = section("src/main/java/com/acme/FooService.java", List.of("+public void run() {", "+}"));
+        String diff = service.text() + controllerFile.text();
+        AnalyzeController.AnalyzeRequest req = new AnalyzeController.AnalyzeRequest("1", "octocat", "acme/service",
+            List.of(service.path(), controllerFile.path()), diff);
+
+        List<AnalyzeController.FileFinding> findings = controller.heuristics(req, FileScans.scan(rules, diff)).fileFindings();
+        assertEquals(List.of(controllerFile.path(), service.path()), findings.stream().map(AnalyzeController.FileFinding::path).toList());
+        assertTrue(findings.get(0).riskContribution() > findings.get(1).riskContribution());
+        assertTrue(findings.get(0).missingTests().contains("Integration tests for new endpoints"));
+        assertTrue(findings.get(0).missingTests().contains("Integration tests for API endpoints"));
+        assertTrue(findings.get(1).missingTests().contains("Unit tests for new/changed public methods (1 found)"));
+        assertTrue(findings.get(1).missingTests().contains("Unit tests for service layer changes"));
+        // Neither file is a test, so both are flagged for missing tests
+        for (AnalyzeController.FileFinding f : findings) {
+            assertTrue(f.missingTests().contains("Test files are missing for modified source code"), f.path());
+        }
+    }
+
+    @Test
+    void undividedScanHasNoFiles() {
+        assertEquals(List.of(), FileScans.of(DiffScanner.scan(rules, "+System.exit(0);\n")).files());
+        assertEquals(List.of(), FileScans.scan(rules, "").files());
+        assertTrue(FileScans.scan(rules, null).total().blank());
+    }
+
+    // Distinct files in a random order, one of them larger than a scan chunk; about 1.5 MB in all
+    private static List<Section> sections(SplittableRandom random) {
+        List<String> paths = new ArrayList<>(List.of(PATHS));
+        for (int i = paths.size() - 1; i > 0; i--) paths.set(i, paths.set(random.nextInt(i + 1), paths.get(i)));
+        int large = random.nextInt(paths.size());
+        List<Section> sections = new ArrayList<>();
+        for (int f = 0; f < paths.size(); f++) {
+            int count = f == large ? 40_000 : 1 + random.nextInt(10_000);
+            List<String> lines = new ArrayList<>(count);
+            for (int l = 0; l < count; l++) {
+                StringBuilder line = new StringBuilder(random.nextInt(5) == 0 ? " " : "+");
+                for (int t = random.nextInt(4); t > 0; t--) line.append(TOKENS[random.nextInt(TOKENS.length)]);
+                lines.add(line.toString());
+            }
+            sections.add(section(paths.get(f), lines));
+        }
+        return sections;
+    }
+
+    private static Section section(String path, List<String> lines) {
+        long context = lines.stream().filter(l -> l.startsWith(" ")).count();
+        StringBuilder text = new StringBuilder("diff --git a/" + path + " b/" + path + "\n--- a/" + path + "\n+++ b/" + path + "\n");
+        text.append("@@ -1,").append(context).append(" +1,").append(lines.size()).append(" @@\n");
+        for (String line : lines) text.append(line).append('\n');
+        return new Section(path, text.toString());
+    }
+
+    private static String join(List<Section> sections) {
+        StringBuilder diff = new StringBuilder();
+        for (Section s : sections) diff.append(s.text());
+        return diff.toString();
+    }
+
+    private static void assertScan(DiffScan expected, DiffScan actual, String message) {
+        assertEquals(expected.chars(), actual.chars(), message);
+        assertEquals(expected.lines(), actual.lines(), message);
+        assertEquals(expected.newlines(), actual.newlines(), message);
+        assertEquals(expected.blank(), actual.blank(), message);
+        assertArrayEquals(expected.keywordCounts(), actual.keywordCounts(), message);
+        assertArrayEquals(expected.foundKeywords(), actual.foundKeywords(), message);
+        assertEquals(expected.publicMethods(), actual.publicMethods(), message);
+    }
+}
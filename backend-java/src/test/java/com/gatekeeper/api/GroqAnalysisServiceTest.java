@@ -0,0 +1,217 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroqAnalysisServiceTest {
+    private static final String ANSWER = "Stub streamed answer 1 written one word at a time.";
+    private static final List<String> DIFF_FILES = List.of("src/main/A.java");
+    private static final String DIFF = "+public void run() {\n+  System.exit(1);\n";
+
+    private final GroqAnalysisService groq = new GroqAnalysisService("test-key");
+    private GroqStubServer stub;
+
+    @AfterEach
+    void stop() {
+        if (stub != null) stub.stop();
+    }
+
+    @Test
+    void streamsTheExplanationInOrderAndCompletes() throws Exception {
+        GroqAnalysisService service = stubbed(new GroqStubServer.Config(200, 0, 1000, 0.0, 0.0), null);
+        Collecting subscriber = new Collecting(Long.MAX_VALUE);
+        service.streamEnhancedExplanation("BLOCK", 0.9, DIFF, DIFF_FILES).subscribe(subscriber);
+
+        subscriber.done.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("Stub", " streamed", " answer", " 1", " written", " one", " word", " at", " a", " time."), subscriber.items);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void returnsTheWholeTextAndCachesIt() {
+        GroqAnalysisService service = stubbed(new GroqStubServer.Config(0, 0, 1000, 0.0, 0.0), new GroqResponseCache(1 << 20, 60_000, null));
+        List<String> pieces = new ArrayList<>();
+        assertEquals(ANSWER, service.generateEnhancedExplanation("BLOCK", 0.9, DIFF, DIFF_FILES, pieces::add));
+        assertEquals(ANSWER, String.join("", pieces));
+
+        // The same prompt again is answered from the cache in one piece
+        pieces.clear();
+        assertEquals(ANSWER, service.generateEnhancedExplanation("BLOCK", 0.9, DIFF, DIFF_FILES, pieces::add));
+        assertEquals(List.of(ANSWER), pieces);
+        assertEquals(1, stub.counts()[0]);
+    }
+
+    @Test
+    void consumerCancellingStopsTheStream() {
+        // The first word after a second, the other nine a tenth of a second apart
+        GroqResponseCache cache = new GroqResponseCache(1 << 20, 60_000, null);
+        GroqAnalysisService service = stubbed(new GroqStubServer.Config(1000, 0, 1000, 0.0, 0.0), cache);
+        List<String> pieces = new ArrayList<>();
+        long start = System.nanoTime();
+        String text = service.generateEnhancedExplanation("BLOCK", 0.9, DIFF, DIFF_FILES, piece -> {
+            pieces.add(piece);
+            throw new CancellationException();
+        });
+        assertNull(text);
+        assertEquals(List.of("Stub"), pieces);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1600), "Read the whole stream");
+        // A cut-off answer is not cached
+        assertEquals(0, cache.stats().entries());
+    }
+
+    @Test
+    void subscriberCancellingGetsNothingMore() throws Exception {
+        GroqAnalysisService service = stubbed(new GroqStubServer.Config(1000, 0, 1000, 0.0, 0.0), null);
+        Collecting subscriber = new Collecting(1);
+        service.streamEnhancedExplanation("BLOCK", 0.9, DIFF, DIFF_FILES).subscribe(subscriber);
+        subscriber.first.get(5, TimeUnit.SECONDS);
+        subscriber.subscription.cancel();
+
+        Thread.sleep(1500);
+        assertEquals(List.of("Stub"), subscriber.items);
+        assertFalse(subscriber.done.isDone());
+    }
+
+    @Test
+    void failedStreamEndsWithAnError() throws Exception {
+        GroqAnalysisService service = stubbed(new GroqStubServer.Config(0, 0, 1000, 0.0, 1.0), null);
+        Collecting subscriber = new Collecting(Long.MAX_VALUE);
+        service.streamEnhancedExplanation("BLOCK", 0.9, DIFF, DIFF_FILES).subscribe(subscriber);
+
+        subscriber.done.get(5, TimeUnit.SECONDS);
+        assertInstanceOf(IOException.class, subscriber.error);
+        assertEquals(List.of(), subscriber.items);
+    }
+
+    @Test
+    void parsesACompleteAnswer() {
+        GroqAnalysisService.Consolidated answer = groq.parseConsolidated("""
+            {"explanation": " Calls System.exit. ", "tests": ["exits", "logs"], "spelling": [], "recommendation": "Throw instead."}""");
+        assertEquals("Calls System.exit.", answer.explanation());
+        assertEquals(List.of("exits", "logs"), answer.tests());
+        assertEquals(List.of(), answer.spelling());
+        assertEquals("Throw instead.", answer.recommendation());
+    }
+
+    @Test
+    void findsTheObjectAmidProseAndFences() {
+        GroqAnalysisService.Consolidated answer = groq.parseConsolidated("""
+            Here is the analysis:
+            ```json
+            {"explanation": "Risky.", "extra": {"nested": [1, 2]}, "tests": ["t"]}
+            ```""");
+        assertEquals("Risky.", answer.explanation());
+        assertEquals(List.of("t"), answer.tests());
+    }
+
+    @Test
+    void leavesMissingAndMistypedFieldsNull() {
+        GroqAnalysisService.Consolidated answer = groq.parseConsolidated("""
+            {"explanation": 42, "tests": "not a list", "recommendation": "   ", "spelling": ["teh"]}""");
+        assertEquals(List.of("teh"), answer.spelling());
+        assertNull(answer.explanation());
+        assertNull(answer.tests());
+        assertNull(answer.recommendation());
+    }
+
+    @Test
+    void capsListsAndSkipsBlankOrNonTextItems() {
+        GroqAnalysisService.Consolidated answer = groq.parseConsolidated("""
+            {"tests": ["a", "", 3, {"b": 1}, "c", "d", "e"], "spelling": ["1", "2", "3", "4", "5", "6"]}""");
+        assertEquals(List.of("a", "c", "d"), answer.tests());
+        assertEquals(List.of("1", "2", "3", "4", "5"), answer.spelling());
+    }
+
+    @Test
+    void keepsTheFieldsBeforeACutOff() {
+        // Answer stopped at the token limit in the middle of the tests
+        GroqAnalysisService.Consolidated answer = groq.parseConsolidated("""
+            {"explanation": "Risky.", "spelling": ["teh"], "tests": ["one", "tw""");
+        assertEquals("Risky.", answer.explanation());
+        assertEquals(List.of("teh"), answer.spelling());
+        assertNull(answer.tests());
+        assertNull(answer.recommendation());
+
+        answer = groq.parseConsolidated("{\"explanation\": \"Risky.\", \"recommendation\": \"Thr");
+        assertEquals("Risky.", answer.explanation());
+        assertNull(answer.recommendation());
+    }
+
+    @Test
+    void keepsTheFieldsBeforeMalformedJson() {
+        GroqAnalysisService.Consolidated answer = groq.parseConsolidated("""
+            {"explanation": "Risky.", "tests": ["a"] "spelling": ["b"]}""");
+        assertEquals("Risky.", answer.explanation());
+        assertEquals(List.of("a"), answer.tests());
+        assertNull(answer.spelling());
+    }
+
+    @Test
+    void rejectsAnswersWithoutAnObject() {
+        assertNull(groq.parseConsolidated(null));
+        assertNull(groq.parseConsolidated("I cannot help with that."));
+        assertNull(groq.parseConsolidated("{]"));
+        assertNull(groq.parseConsolidated("{\"summary\": \"Looks fine.\"}"));
+    }
+
+    private GroqAnalysisService stubbed(GroqStubServer.Config config, GroqResponseCache cache) {
+        stub = new GroqStubServer(config);
+        try {
+            stub.start(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        URI url = URI.create("http://localhost:" + stub.port() + "/openai/v1/chat/completions");
+        GroqScheduler scheduler = new GroqScheduler(new GroqScheduler.Config(url, 6000, 1_000_000, 4, 16, 0, 100, 400, Duration.ofSeconds(5)), "test-key");
+        return new GroqAnalysisService("test-key", scheduler, cache);
+    }
+
+    /** Collects the pieces it is sent, requesting {@code batch} at a time. */
+    private static final class Collecting implements Flow.Subscriber<String> {
+        final List<String> items = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<Void> first = new CompletableFuture<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final long batch;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+
+        Collecting(long batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(batch);
+        }
+
+        @Override
+        public void onNext(String item) {
+            items.add(item);
+            first.complete(null);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.complete(null);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
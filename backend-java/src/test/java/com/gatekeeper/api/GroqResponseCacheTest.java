@@ -0,0 +1,202 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroqResponseCacheTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void entriesExpireAfterTheirTtl() throws InterruptedException {
+        GroqResponseCache cache = new GroqResponseCache(1 << 20, 50, null);
+        cache.put("k", "v");
+        assertEquals("v", cache.get("k"));
+        Thread.sleep(80);
+        assertNull(cache.get("k"));
+
+        GroqResponseCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.expirations());
+        assertEquals(0, stats.entries());
+        assertEquals(0, stats.weightBytes());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedByWeight() {
+        // Each entry weighs 96 + 2 * (1 + 100) = 298; three fit
+        GroqResponseCache cache = new GroqResponseCache(900, DAY, null);
+        cache.put("a", value('a'));
+        cache.put("b", value('b'));
+        cache.put("c", value('c'));
+        assertNotNull(cache.get("a"));
+        cache.put("d", value('d'));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(1, cache.stats().evictions());
+        assertEquals(3 * 298, cache.stats().weightBytes());
+
+        // An entry heavier than the whole cache is not kept and evicts nothing
+        cache.put("huge", "x".repeat(1000));
+        assertNull(cache.get("huge"));
+        assertEquals(3, cache.stats().entries());
+    }
+
+    @Test
+    void replaysTheFileOnStartup() throws Exception {
+        Path file = dir.resolve("cache.bin");
+        GroqResponseCache cache = new GroqResponseCache(1 << 20, DAY, file);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("a", "3");
+        awaitSize(file, 3 * record("a", "1"));
+
+        GroqResponseCache restarted = new GroqResponseCache(1 << 20, DAY, file);
+        assertEquals("3", restarted.get("a"));
+        assertEquals("2", restarted.get("b"));
+        assertEquals(0, restarted.stats().evictions());
+        // The overwritten record was compacted away
+        assertEquals(2 * record("a", "1"), Files.size(file));
+    }
+
+    @Test
+    void dropsExpiredRecordsOnReplay() throws Exception {
+        Path file = dir.resolve("cache.bin");
+        GroqResponseCache cache = new GroqResponseCache(1 << 20, 50, file);
+        cache.put("a", "1");
+        awaitSize(file, record("a", "1"));
+        Thread.sleep(80);
+
+        GroqResponseCache restarted = new GroqResponseCache(1 << 20, 50, file);
+        assertNull(restarted.get("a"));
+        assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    void dropsATornLastRecord() throws Exception {
+        Path file = dir.resolve("cache.bin");
+        GroqResponseCache cache = new GroqResponseCache(1 << 20, DAY, file);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        awaitSize(file, 2 * record("a", "1"));
+        // A crash in the middle of the last append
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        GroqResponseCache restarted = new GroqResponseCache(1 << 20, DAY, file);
+        assertEquals("1", restarted.get("a"));
+        assertNull(restarted.get("b"));
+        assertEquals(record("a", "1"), Files.size(file));
+
+        // Appends after the repair replay cleanly
+        restarted.put("c", "3");
+        awaitSize(file, 2 * record("a", "1"));
+        GroqResponseCache again = new GroqResponseCache(1 << 20, DAY, file);
+        assertEquals("1", again.get("a"));
+        assertEquals("3", again.get("c"));
+    }
+
+    @Test
+    void compactsTheFileOnceItOutgrowsTheLiveEntries() throws Exception {
+        Path file = dir.resolve("cache.bin");
+        // Two 4000-character values fit, so the appends soon dwarf what is live
+        GroqResponseCache cache = new GroqResponseCache(20_000, DAY, file);
+        long[] largest = new long[1];
+        for (int i = 0; i < 600; i++) {
+            cache.put(String.format("%03d", i), "v".repeat(4000));
+            largest[0] = Math.max(largest[0], size(file));
+        }
+        // Appends only grow the file; it shrinks when it is rewritten
+        await(() -> size(file) < (largest[0] = Math.max(largest[0], size(file))));
+        assertTrue(cache.stats().diskTier());
+
+        cache.put("last", "v".repeat(4000));
+        awaitQuiet(file);
+        GroqResponseCache restarted = new GroqResponseCache(20_000, DAY, file);
+        assertNotNull(restarted.get("last"));
+        assertTrue(Files.size(file) < 1024 * 1024, "File was not compacted: " + Files.size(file));
+    }
+
+    @Test
+    void switchesTheDiskTierOffWhenWritesFail() throws InterruptedException {
+        // Every write to /dev/full fails with ENOSPC
+        GroqResponseCache cache = new GroqResponseCache(1 << 20, DAY, Path.of("/dev/full"));
+        assertTrue(cache.stats().diskTier());
+        cache.put("a", "1");
+        await(() -> !cache.stats().diskTier());
+
+        // The memory tier carries on
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        assertEquals("2", cache.get("b"));
+    }
+
+    @Test
+    void fileThatCannotBeOpenedLeavesMemoryOnly() throws IOException {
+        Path notADirectory = Files.writeString(dir.resolve("plain"), "x");
+        GroqResponseCache cache = new GroqResponseCache(1 << 20, DAY, notADirectory.resolve("cache.bin"));
+        assertFalse(cache.stats().diskTier());
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+    }
+
+    private static String value(char c) {
+        return String.valueOf(c).repeat(100);
+    }
+
+    // Bytes of one record in the cache file
+    private static long record(String key, String value) {
+        return 1 + 8 + 4 + key.getBytes(StandardCharsets.UTF_8).length + 4 + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void awaitSize(Path file, long bytes) throws InterruptedException {
+        await(() -> size(file) == bytes);
+    }
+
+    // Until the writer has been idle for a while
+    private static void awaitQuiet(Path file) throws InterruptedException {
+        long[] last = {-1};
+        await(() -> {
+            long now = size(file);
+            boolean quiet = now == last[0];
+            last[0] = now;
+            return quiet;
+        }, 50);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        await(condition, 5);
+    }
+
+    private static void await(BooleanSupplier condition, long pollMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(pollMillis);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.gatekeeper.api;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroqSchedulerTest {
+    private static final String OK = "{\"choices\":[{\"message\":{\"content\":\"ok\"}}]}";
+
+    private GroqStubServer stub;
+    private HttpServer server;
+
+    @AfterEach
+    void stop() {
+        if (stub != null) stub.stop();
+        if (server != null) server.stop(0);
+    }
+
+    @Test
+    void retriesA429AfterItsRetryAfter() throws Exception {
+        // Every call is answered with 429 and "retry-after: 1"
+        GroqScheduler scheduler = scheduler(stub(new GroqStubServer.Config(0, 0, 1000, 1.0, 0.0)), 6000, 1_000_000, 5, 2500);
+        long start = System.nanoTime();
+        assertNull(scheduler.execute("{}", 10, GroqScheduler.Priority.INTERACTIVE));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Attempts at 0, 1 and 2 seconds; a third retry would end after the deadline
+        assertArrayEquals(new long[] {0, 3, 0}, stub.counts());
+        GroqScheduler.Stats stats = scheduler.stats();
+        assertEquals(3, stats.rateLimited());
+        assertEquals(2, stats.retried());
+        assertEquals(1, stats.failed());
+        assertTrue(elapsedMs >= 2000 && elapsedMs < 2500, String.valueOf(elapsedMs));
+    }
+
+    @Test
+    void backsOffAfterServerErrors() throws Exception {
+        GroqScheduler scheduler = scheduler(stub(new GroqStubServer.Config(0, 0, 1000, 0.0, 1.0)), 6000, 1_000_000, 2, 5000);
+        long start = System.nanoTime();
+        assertNull(scheduler.execute("{}", 10, GroqScheduler.Priority.INTERACTIVE));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertArrayEquals(new long[] {0, 0, 3}, stub.counts());
+        assertEquals(2, scheduler.stats().retried());
+        assertEquals(1, scheduler.stats().failed());
+        // Jittered backoff of at least half of 100 and 200 ms
+        assertTrue(elapsedMs >= 150, String.valueOf(elapsedMs));
+    }
+
+    @Test
+    void expiresACallTheBudgetCannotCoverBeforeItsDeadline() throws Exception {
+        // One request per 100 seconds
+        GroqScheduler scheduler = scheduler(stub(new GroqStubServer.Config(0, 0, 1000, 0.0, 0.0)), 0.6, 1_000_000, 3, 5000);
+        assertNotNull(scheduler.execute("{}", 10, GroqScheduler.Priority.INTERACTIVE));
+        long start = System.nanoTime();
+        assertNull(scheduler.execute("{}", 10, GroqScheduler.Priority.INTERACTIVE));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        assertArrayEquals(new long[] {1, 0, 0}, stub.counts());
+        assertEquals(1, scheduler.stats().expired());
+        // Not GROQ's fault, so not a breaker failure
+        assertEquals(0, scheduler.stats().failed());
+    }
+
+    @Test
+    void pausesWhenTheProviderReportsNoRequestsLeft() throws Exception {
+        // The stub allows one request per minute and says so in x-ratelimit-remaining-requests
+        GroqScheduler scheduler = scheduler(stub(new GroqStubServer.Config(0, 0, 1, 0.0, 0.0)), 6000, 1_000_000, 3, 2000);
+        assertNotNull(scheduler.execute("{}", 10, GroqScheduler.Priority.INTERACTIVE));
+        assertNull(scheduler.execute("{}", 10, GroqScheduler.Priority.INTERACTIVE));
+
+        // The second call waited for the reset locally instead of collecting a 429
+        assertArrayEquals(new long[] {1, 0, 0}, stub.counts());
+        assertEquals(1, scheduler.stats().expired());
+    }
+
+    @Test
+    void ignoresMalformedRateLimitHeaders() throws Exception {
+        GroqScheduler scheduler = scheduler(server(Map.of(
+            "x-ratelimit-remaining-requests", "soon",
+            "x-ratelimit-remaining-tokens", "n/a",
+            "retry-after", "Wed, 21 Oct 2015 07:28:00 GMT")), 6000, 1_000_000, 3, 2000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(OK, scheduler.execute("{}", 10, GroqScheduler.Priority.INTERACTIVE));
+        }
+        // Read as "nothing left", each header would pause the next call for a second
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test
+    void callsThatFitGoAheadOfOneWaitingForTokens() throws Exception {
+        // 2 tokens per second, at most 12 at once
+        GroqScheduler scheduler = scheduler(server(Map.of()), 6000, 120, 3, 10_000);
+        assertNotNull(scheduler.execute("{}", 12, GroqScheduler.Priority.INTERACTIVE));
+
+        // Needs 6 seconds of token budget
+        CompletableFuture<String> expensive = CompletableFuture.supplyAsync(() -> {
+            try {
+                return scheduler.execute("{}", 12, GroqScheduler.Priority.INTERACTIVE);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, Executors.newVirtualThreadPerTaskExecutor());
+        for (int i = 0; i < 100 && scheduler.queued() == 0; i++) Thread.sleep(10);
+
+        long start = System.nanoTime();
+        assertEquals(OK, scheduler.execute("{}", 1, GroqScheduler.Priority.BATCH));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertFalse(expensive.isDone());
+        assertEquals(1, scheduler.queued());
+    }
+
+    @Test
+    void batchWorkWaitsForRoomInFlight() throws Exception {
+        GroqScheduler scheduler = scheduler(URI.create("http://localhost:1/"), 6000, 1_000_000, 0, 1000);
+        // Four calls can be in flight; a reservation never asks for more
+        scheduler.acquireBatch(10);
+        CompletableFuture<Void> next = CompletableFuture.runAsync(() -> {
+            try {
+                scheduler.acquireBatch(1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, Executors.newVirtualThreadPerTaskExecutor());
+        Thread.sleep(100);
+        assertFalse(next.isDone());
+
+        scheduler.releaseBatch(10);
+        next.get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void parsesResetDurations() {
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(7660), GroqScheduler.parseDuration("7.66s"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(179_560), GroqScheduler.parseDuration("2m59.56s"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(120), GroqScheduler.parseDuration("120ms"));
+        assertEquals(0, GroqScheduler.parseDuration("soon"));
+    }
+
+    private URI stub(GroqStubServer.Config config) throws IOException {
+        stub = new GroqStubServer(config);
+        stub.start(0);
+        return URI.create("http://localhost:" + stub.port() + "/openai/v1/chat/completions");
+    }
+
+    /** Answers every call at once with 200 and the given headers. */
+    private URI server(Map<String, String> headers) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            headers.forEach(exchange.getResponseHeaders()::add);
+            byte[] body = OK.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    private static GroqScheduler scheduler(URI url, double requestsPerMinute, double tokensPerMinute, int maxRetries, long timeoutMs) {
+        return new GroqScheduler(new GroqScheduler.Config(url, requestsPerMinute, tokensPerMinute, 4, 16, maxRetries, 100, 400,
+            Duration.ofMillis(timeoutMs)), "test-key");
+    }
+}
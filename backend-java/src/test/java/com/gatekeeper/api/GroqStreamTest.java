@@ -0,0 +1,98 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroqStreamTest {
+    private final List<String> deltas = new ArrayList<>();
+    private final Lines lines = new Lines();
+
+    @Test
+    void handsOnContentDeltasOneLineAtATime() {
+        GroqStream stream = new GroqStream(deltas::add);
+        stream.onSubscribe(lines);
+        assertEquals(1, lines.requested);
+
+        stream.onNext(event("Hello"));
+        stream.onNext("");
+        stream.onNext(": keep-alive");
+        stream.onNext("data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}");
+        stream.onNext(event(" world"));
+        assertFalse(stream.finished());
+        stream.onNext("data: [DONE]");
+        stream.onComplete();
+
+        assertEquals(List.of("Hello", " world"), deltas);
+        assertEquals("Hello world", stream.text());
+        assertTrue(stream.finished());
+        // One more line after each one read
+        assertEquals(7, lines.requested);
+    }
+
+    @Test
+    void skipsMalformedEvents() {
+        GroqStream stream = new GroqStream(deltas::add);
+        stream.onSubscribe(lines);
+        stream.onNext("data: {\"choices\":[{\"delta\":");
+        stream.onNext(event("ok"));
+        assertEquals(List.of("ok"), deltas);
+    }
+
+    @Test
+    void streamWithoutDoneIsNotFinished() {
+        GroqStream stream = new GroqStream(deltas::add);
+        stream.onSubscribe(lines);
+        stream.onNext(event("Cut"));
+        stream.onComplete();
+        assertFalse(stream.finished());
+        assertEquals("Cut", stream.text());
+    }
+
+    @Test
+    void consumerCancellingStopsReading() {
+        GroqStream stream = new GroqStream(delta -> {
+            deltas.add(delta);
+            throw new CancellationException();
+        });
+        stream.onSubscribe(lines);
+        stream.onNext(event("first"));
+        stream.onNext(event("second"));
+
+        assertTrue(lines.cancelled);
+        assertEquals(1, lines.requested);
+        assertEquals(List.of("first"), deltas);
+    }
+
+    @Test
+    void cancelledBeforeSubscribing() {
+        GroqStream stream = new GroqStream(deltas::add);
+        stream.cancel();
+        stream.onSubscribe(lines);
+        assertTrue(lines.cancelled);
+        assertEquals(0, lines.requested);
+    }
+
+    private static String event(String content) {
+        return "data: {\"choices\":[{\"delta\":{\"content\":\"" + content + "\"}}]}";
+    }
+
+    private static final class Lines implements Flow.Subscription {
+        long requested;
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryLogTest {
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRecordsInAppendOrder() throws IOException {
+        List<Long> locations = new ArrayList<>();
+        try (HistoryLog log = open(new ArrayList<>())) {
+            for (int i = 0; i < 300; i++) locations.add(log.append(payload("record " + i)));
+            assertEquals("record 42", text(log.read(locations.get(42))));
+            // 300 records of 16 to 18 bytes do not fit in one segment
+            assertTrue(log.segmentCount() > 1);
+        }
+        List<String> replayed = new ArrayList<>();
+        List<Long> replayedLocations = new ArrayList<>();
+        try (HistoryLog log = new HistoryLog(dir, SEGMENT_BYTES, (location, payload) -> {
+            replayedLocations.add(location);
+            replayed.add(text(payload));
+        })) {
+            assertEquals(300, replayed.size());
+            assertEquals("record 0", replayed.get(0));
+            assertEquals("record 299", replayed.get(299));
+            assertEquals(locations, replayedLocations);
+        }
+    }
+
+    @Test
+    void dropsARecordWithADamagedPayloadAndAppendsOverIt() throws IOException {
+        long torn;
+        try (HistoryLog log = open(new ArrayList<>())) {
+            log.append(payload("first"));
+            log.append(payload("second"));
+            torn = log.append(payload("third"));
+        }
+        // A crash wrote the length and checksum but only part of the payload
+        corrupt((int) torn + 8 + 2, (byte) 0);
+
+        List<String> replayed = new ArrayList<>();
+        try (HistoryLog log = open(replayed)) {
+            assertEquals(List.of("first", "second"), replayed);
+            assertEquals(torn, log.append(payload("fourth")));
+        }
+        replayed.clear();
+        try (HistoryLog log = open(replayed)) {
+            assertEquals(List.of("first", "second", "fourth"), replayed);
+        }
+    }
+
+    @Test
+    void dropsARecordWhoseLengthRunsPastTheSegment() throws IOException {
+        long torn;
+        try (HistoryLog log = open(new ArrayList<>())) {
+            log.append(payload("kept"));
+            torn = log.append(payload("lost"));
+            log.append(payload("after"));
+        }
+        corruptInt((int) torn, SEGMENT_BYTES);
+
+        List<String> replayed = new ArrayList<>();
+        try (HistoryLog log = open(replayed)) {
+            assertEquals(List.of("kept"), replayed);
+            log.append(payload("new"));
+        }
+        // The stale record that followed the damaged one is cleared, not read back
+        replayed.clear();
+        try (HistoryLog log = open(replayed)) {
+            assertEquals(List.of("kept", "new"), replayed);
+        }
+    }
+
+    @Test
+    void rejectsRecordsLargerThanASegment() throws IOException {
+        try (HistoryLog log = open(new ArrayList<>())) {
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[SEGMENT_BYTES]));
+        }
+    }
+
+    private HistoryLog open(List<String> replayed) throws IOException {
+        return new HistoryLog(dir, SEGMENT_BYTES, (location, payload) -> replayed.add(text(payload)));
+    }
+
+    private void corrupt(int offset, byte value) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve("segment-000001.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {value}), offset);
+        }
+    }
+
+    private void corruptInt(int offset, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve("segment-000001.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, value), offset);
+        }
+    }
+
+    private static byte[] payload(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(ByteBuffer payload) {
+        return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+    }
+}
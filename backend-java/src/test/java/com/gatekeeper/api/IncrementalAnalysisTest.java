@@ -0,0 +1,127 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalAnalysisTest {
+    private static final String HEADER_A = """
+        diff --git a/src/A.java b/src/A.java
+        --- a/src/A.java
+        +++ b/src/A.java
+        """;
+    private static final String HEADER_B = """
+        diff --git a/src/B.java b/src/B.java
+        --- a/src/B.java
+        +++ b/src/B.java
+        """;
+    private static final String HUNK_A1 = "@@ -1,2 +1,2 @@\n a\n-b\n+c\n";
+    private static final String HUNK_A2 = "@@ -20 +20 @@\n-TODO old\n+TODO new\n";
+    private static final String HUNK_B = "@@ -5 +5,2 @@\n x\n+System.exit(1);\n";
+
+    private final IncrementalAnalysis incremental = new IncrementalAnalysis();
+
+    @Test
+    void firstAnalysisCoversTheWholeDiff() {
+        String diff = HEADER_A + HUNK_A1 + HUNK_A2 + HEADER_B + HUNK_B;
+        IncrementalAnalysis.Plan plan = incremental.plan(request(diff));
+        assertNull(plan.previous());
+        assertEquals(diff, plan.deltaDiff());
+        assertFalse(plan.unchanged());
+        assertEquals("acme/service#7", plan.key());
+        assertEquals(3, plan.hunkScans().size());
+    }
+
+    @Test
+    void updateSendsOnlyChangedHunksWithTheirFileHeader() {
+        IncrementalAnalysis.Plan first = incremental.plan(request(HEADER_A + HUNK_A1 + HUNK_A2 + HEADER_B + HUNK_B));
+        incremental.record(first, result("explained before", List.of()));
+
+        // The A hunks moved down by ten lines without changing; B's hunk changed
+        String changedB = "@@ -5 +5,2 @@\n x\n+Runtime.getRuntime();\n";
+        String update = HEADER_A + HUNK_A1.replace("-1,2 +1,2", "-11,2 +11,2") + HUNK_A2.replace("20", "30") + HEADER_B + changedB;
+        IncrementalAnalysis.Plan plan = incremental.plan(request(update));
+        assertEquals(HEADER_B + changedB, plan.deltaDiff());
+        assertEquals("explained before", plan.previous().explanation());
+        assertFalse(plan.unchanged());
+
+        // The merged scan is the same as scanning the whole update
+        DiffScan whole = DiffScanner.scan(RuleEngine.current(), update);
+        DiffScan merged = plan.scan().total();
+        assertEquals(whole.lines(), merged.lines());
+        assertEquals(whole.chars(), merged.chars());
+        assertArrayEquals(whole.keywordCounts(), merged.keywordCounts());
+        assertFalse(merged.has("SYSTEM_EXIT"));
+        assertTrue(merged.has("RUNTIME_GETRUNTIME"));
+    }
+
+    @Test
+    void rescansTheFunctionContextOfAnUnchangedHunk() {
+        incremental.record(incremental.plan(request(HEADER_A + "@@ -1 +1 @@ void run()\n-b\n+c\n")), result("x", List.of()));
+        IncrementalAnalysis.Plan plan = incremental.plan(request(HEADER_A + "@@ -9 +9 @@ void exec(String cmd)\n-b\n+c\n"));
+        assertTrue(plan.unchanged());
+        assertEquals(1, plan.scan().total().count("EXEC_CALL"));
+    }
+
+    @Test
+    void unchangedDiffNeedsNoGroqCall() {
+        String diff = HEADER_A + HUNK_A1;
+        incremental.record(incremental.plan(request(diff)), result("x", List.of()));
+        IncrementalAnalysis.Plan plan = incremental.plan(request(diff));
+        assertTrue(plan.unchanged());
+        assertEquals("", plan.deltaDiff());
+    }
+
+    @Test
+    void removedHunksResendTheWholeDiff() {
+        incremental.record(incremental.plan(request(HEADER_A + HUNK_A1 + HUNK_A2)), result("x", List.of()));
+        String diff = HEADER_A + HUNK_A1;
+        assertEquals(diff, incremental.plan(request(diff)).deltaDiff());
+    }
+
+    @Test
+    void untrackedRequestsHaveNoPlan() {
+        assertNull(incremental.plan(new AnalyzeController.AnalyzeRequest("7", "octocat", null, List.of(), HUNK_A1)));
+        assertNull(incremental.plan(new AnalyzeController.AnalyzeRequest(null, "octocat", "acme/service", List.of(), HUNK_A1)));
+    }
+
+    @Test
+    void mergeKeepsThePreviousExplanationUnlessGroqWroteANewOne() {
+        incremental.record(incremental.plan(request(HEADER_A + HUNK_A1)),
+            new GroqEnrichment.Result(List.of("test a", "test b"), "GROQ explanation", List.of("recieve -> receive", "teh -> the"), null));
+        String diff = HEADER_A + HUNK_A1 + "@@ -40 +40 @@\n+recieve\n";
+        IncrementalAnalysis.Plan plan = incremental.plan(request(diff));
+        GroqEnrichment.Result delta = new GroqEnrichment.Result(List.of("test c", "test a"), "Fallback explanation", List.of(), "Looks fine");
+
+        GroqEnrichment.Result fallback = incremental.merge(plan, delta, false, diff);
+        assertEquals("GROQ explanation", fallback.explanation());
+        assertEquals(List.of("test c", "test a", "test b"), fallback.suggestedTests());
+        // "teh" is no longer in the diff; a spelling finding that is left suppresses the recommendation
+        assertEquals(List.of("recieve -> receive"), fallback.spellingSuggestions());
+        assertNull(fallback.groqSuggestion());
+
+        assertEquals("Fallback explanation", incremental.merge(plan, delta, true, diff).explanation());
+    }
+
+    @Test
+    void mergeOfAFirstAnalysisIsTheDelta() {
+        IncrementalAnalysis.Plan plan = incremental.plan(request(HEADER_A + HUNK_A1));
+        GroqEnrichment.Result delta = result("only", List.of("a -> b"));
+        assertSame(delta, incremental.merge(plan, delta, false, HEADER_A + HUNK_A1));
+    }
+
+    @Test
+    void stillPresentKeepsFindingsWhoseWordOccurs() {
+        assertEquals(List.of("teh -> the", "adress"), IncrementalAnalysis.stillPresent(
+            List.of("teh -> the", "recieve -> receive", "adress", " -> x"), "+teh cat at the adress\n"));
+    }
+
+    private static AnalyzeController.AnalyzeRequest request(String diff) {
+        return new AnalyzeController.AnalyzeRequest("7", "octocat", "acme/service", List.of("src/A.java", "src/B.java"), diff);
+    }
+
+    private static GroqEnrichment.Result result(String explanation, List<String> spelling) {
+        return new GroqEnrichment.Result(List.of(), explanation, spelling, null);
+    }
+}
@@ -0,0 +1,94 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearDuplicateIndexTest {
+    private static final GroqEnrichment.Result ENRICHMENT =
+        new GroqEnrichment.Result(List.of("Test the parser"), "Rewrites the parser.", List.of(), "Looks good");
+
+    private final NearDuplicateIndex index = new NearDuplicateIndex();
+
+    @Test
+    void smallDiffsGetNoSignature() {
+        assertNull(NearDuplicateIndex.signature(null));
+        assertNull(NearDuplicateIndex.signature(lines("a", 7)));
+        // Context lines, file headers and whitespace-only changes do not count
+        String diff = "--- a/x\n+++ b/x\n" + " context\n".repeat(20) + "+   \n".repeat(20) + lines("a", 7);
+        assertNull(NearDuplicateIndex.signature(diff));
+        assertNotNull(NearDuplicateIndex.signature(lines("a", 8)));
+    }
+
+    @Test
+    void findsARebasedCopy() {
+        String original = "diff --git a/P.java b/P.java\n@@ -10,200 +10,200 @@\n" + lines("parse", 200);
+        index.add(NearDuplicateIndex.signature(original), "WARN", "acme/service", "acme/service#1", ENRICHMENT);
+
+        // Other line numbers and indentation, one line changed
+        String rebased = "diff --git a/P.java b/P.java\n@@ -42,200 +42,200 @@\n"
+            + lines("parse", 200).replace("+parse", "+  parse").replace("parse 17;", "parse 17 changed;");
+        NearDuplicateIndex.Match match = index.find(NearDuplicateIndex.signature(rebased), "WARN", "acme/service", rebased);
+        assertNotNull(match);
+        assertEquals("acme/service#1", match.source());
+        assertTrue(match.similarity() >= 0.9, String.valueOf(match.similarity()));
+        assertEquals(ENRICHMENT, match.enrichment());
+    }
+
+    @Test
+    void needsTheSameDecisionAndRepository() {
+        String diff = lines("x", 50);
+        long[] signature = NearDuplicateIndex.signature(diff);
+        index.add(signature, "WARN", "acme/service", "acme/service#1", ENRICHMENT);
+        assertNotNull(index.find(signature, "WARN", "acme/service", diff));
+        assertNull(index.find(signature, "BLOCK", "acme/service", diff));
+        assertNull(index.find(signature, "WARN", "other/service", diff));
+        assertNull(index.find(signature, "WARN", null, diff));
+    }
+
+    @Test
+    void ignoresDifferentDiffs() {
+        String diff = lines("x", 50);
+        index.add(NearDuplicateIndex.signature(diff), "WARN", "acme/service", "acme/service#1", ENRICHMENT);
+        String other = lines("x", 25) + lines("y", 25);
+        assertNull(index.find(NearDuplicateIndex.signature(other), "WARN", "acme/service", other));
+        assertNull(index.find(null, "WARN", "acme/service", other));
+    }
+
+    @Test
+    void dropsSpellingFindingsNoLongerInTheDiff() {
+        String diff = lines("x", 100) + "+recieve teh\n";
+        index.add(NearDuplicateIndex.signature(diff), "ALLOW", "acme/service", "acme/service#1",
+            new GroqEnrichment.Result(List.of(), "e", List.of("recieve -> receive", "teh -> the"), "Looks good"));
+
+        String fixedOne = lines("x", 100) + "+recieve the\n";
+        GroqEnrichment.Result reused = index.find(NearDuplicateIndex.signature(fixedOne), "ALLOW", "acme/service", fixedOne).enrichment();
+        assertEquals(List.of("recieve -> receive"), reused.spellingSuggestions());
+        assertNull(reused.groqSuggestion());
+
+        String fixedBoth = lines("x", 100) + "+receive the\n";
+        reused = index.find(NearDuplicateIndex.signature(fixedBoth), "ALLOW", "acme/service", fixedBoth).enrichment();
+        assertEquals(List.of(), reused.spellingSuggestions());
+        assertEquals("Looks good", reused.groqSuggestion());
+    }
+
+    @Test
+    void forgetsTheOldestEntriesWhenFull() {
+        String first = lines("first", 20);
+        index.add(NearDuplicateIndex.signature(first), "WARN", "acme/service", "acme/service#0", ENRICHMENT);
+        // GATEKEEPER_NEAR_DUP_ENTRIES defaults to 4096
+        for (int i = 1; i <= 4096; i++) {
+            index.add(NearDuplicateIndex.signature(lines("pr" + i + "-", 20)), "WARN", "acme/service", "acme/service#" + i, ENRICHMENT);
+        }
+        assertNull(index.find(NearDuplicateIndex.signature(first), "WARN", "acme/service", first));
+        String last = lines("pr4096-", 20);
+        assertEquals("acme/service#4096", index.find(NearDuplicateIndex.signature(last), "WARN", "acme/service", last).source());
+    }
+
+    private static String lines(String word, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append('+').append(word).append(' ').append(i).append(";\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,161 @@
+package com.gatekeeper.api;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestDecompressionTest {
+    private static final String BODY = "{\"prNumber\":\"1\",\"diff\":\"" + "+line\\n".repeat(1000) + "\"}";
+
+    private final RequestDecompression filter = new RequestDecompression();
+
+    @Test
+    void decodesGzipBodies() throws Exception {
+        HttpServletRequest seen = filter(request(gzip(bytes(BODY)), "gzip"), new MockHttpServletResponse());
+        assertEquals(BODY, new String(seen.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        assertTrue(seen.getInputStream().isFinished());
+        // Handlers see a plain body of unknown length
+        assertNull(seen.getHeader("Content-Encoding"));
+        assertEquals(-1, seen.getContentLengthLong());
+    }
+
+    @Test
+    void decodesZstdAndStackedCodings() throws Exception {
+        HttpServletRequest seen = filter(request(zstd(bytes(BODY)), "zstd"), new MockHttpServletResponse());
+        assertEquals(BODY, new String(seen.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+
+        // Applied in header order, undone last to first
+        seen = filter(request(gzip(zstd(bytes(BODY))), "zstd, gzip"), new MockHttpServletResponse());
+        assertEquals(BODY, seen.getReader().readLine());
+    }
+
+    @Test
+    void rejectsUnknownCodings() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(filter(request(bytes(BODY), "br"), response));
+        assertEquals(415, response.getStatus());
+        assertEquals(RequestDecompression.SUPPORTED, response.getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    void rejectsBodiesThatAreNotGzip() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(filter(request(bytes(BODY), "gzip"), response));
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    void rejectsADeclaredLengthOverTheCap() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(filter(request(new byte[(int) RequestDecompression.MAX_BODY_BYTES + 1], null), response));
+        assertEquals(413, response.getStatus());
+    }
+
+    @Test
+    void failsTheReadOnceTheDecodedBodyPassesTheCap() throws Exception {
+        byte[] body = gzip(new byte[(int) RequestDecompression.MAX_BODY_BYTES + 1]);
+        HttpServletRequest seen = filter(request(body, "gzip"), new MockHttpServletResponse());
+        IOException e = assertThrows(IOException.class, () -> seen.getInputStream().transferTo(OutputStream.nullOutputStream()));
+        assertTrue(e.getMessage().contains("exceeds"), e.getMessage());
+
+        // Exactly at the cap is fine
+        HttpServletRequest atCap = filter(request(gzip(new byte[(int) RequestDecompression.MAX_BODY_BYTES]), "gzip"), new MockHttpServletResponse());
+        assertEquals(RequestDecompression.MAX_BODY_BYTES, atCap.getInputStream().transferTo(OutputStream.nullOutputStream()));
+    }
+
+    @Test
+    void failsTheReadOfTruncatedBodies() throws Exception {
+        byte[] gzip = gzip(bytes(BODY));
+        HttpServletRequest seen = filter(request(Arrays.copyOf(gzip, gzip.length / 2), "gzip"), new MockHttpServletResponse());
+        assertThrows(EOFException.class, () -> seen.getInputStream().readAllBytes());
+
+        byte[] zstd = zstd(bytes(BODY));
+        HttpServletRequest seenZstd = filter(request(Arrays.copyOf(zstd, zstd.length / 2), "zstd"), new MockHttpServletResponse());
+        assertThrows(IOException.class, () -> seenZstd.getInputStream().readAllBytes());
+    }
+
+    @Test
+    void decodedBodiesAreReadSynchronously() throws Exception {
+        HttpServletRequest seen = filter(request(gzip(bytes(BODY)), "gzip"), new MockHttpServletResponse());
+        assertThrows(IllegalStateException.class, () -> seen.getInputStream().setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() {
+            }
+
+            @Override
+            public void onAllDataRead() {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        }));
+    }
+
+    @Test
+    void leavesPlainAndStreamedBodiesAlone() throws Exception {
+        MockHttpServletRequest plain = request(bytes(BODY), null);
+        assertSame(plain, filter(plain, new MockHttpServletResponse()));
+
+        // The stream endpoint decodes and limits its body itself
+        MockHttpServletRequest stream = request(gzip(bytes(BODY)), "gzip");
+        stream.setRequestURI("/api/analyze/stream");
+        assertSame(stream, filter(stream, new MockHttpServletResponse()));
+    }
+
+    @Test
+    void knowsTheSupportedCodings() {
+        assertTrue(RequestDecompression.supported(null));
+        assertTrue(RequestDecompression.supported("GZIP, zstd, identity"));
+        assertFalse(RequestDecompression.supported("gzip, br"));
+    }
+
+    /** The request the rest of the chain saw, or null when the filter answered itself. */
+    private HttpServletRequest filter(MockHttpServletRequest request, MockHttpServletResponse response) throws Exception {
+        HttpServletRequest[] seen = new HttpServletRequest[1];
+        FilterChain chain = (req, res) -> seen[0] = (HttpServletRequest) req;
+        filter.doFilter(request, response, chain);
+        return seen[0];
+    }
+
+    private static MockHttpServletRequest request(byte[] body, String contentEncoding) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/analyze");
+        request.setContentType("application/json");
+        request.setContent(body);
+        if (contentEncoding != null) request.addHeader("Content-Encoding", contentEncoding);
+        return request;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] zstd(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream zstd = new ZstdOutputStream(out)) {
+            zstd.write(data);
+        }
+        return out.toByteArray();
+    }
+}
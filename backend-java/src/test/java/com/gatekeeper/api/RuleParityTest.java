@@ -0,0 +1,195 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The bundled rules file against the rules as they were hard-coded before it existed, on random diffs and paths.
+ * The reference methods below are the original string and regex implementations. Suggestion codes follow the
+ * variant that ran whenever GROQ was configured. Paths contain no line terminators, which the old regexes
+ * never matched. The default run is short; {@code mvn test -Dgatekeeper.parity.inputs=300000} runs the full check.
+ */
+class RuleParityTest {
+    private static final int INPUTS = Integer.getInteger("gatekeeper.parity.inputs", 20_000);
+    private static final Pattern PUBLIC_METHOD = Pattern.compile("public (static )?[\\w<>\\[\\]]+\\s+\\w+\\s*\\(");
+
+    private static final String[] LINE_STARTS = {"+", "+", "-", " ", "", "@@ -1 +1 @@ ", "diff --git a/x b/x "};
+    private static final String[] TOKENS = {"public void run(", "public static int[] f (", "public  List<String>  names\t(",
+        "public static class", "public String s", "private int x;", "System.exit(0);", "SYSTEM.EXIT", "Runtime.getRuntime()",
+        "runtime.exec(cmd)", "exec(", "password", "PassWord", "secret", "apiKey", "TODO", "todo", "FIXME", "new endpoint",
+        "New Endpoint", "@GetMapping", "@getmapping", "@PostMapping", "foo", "bar()", " ", "\t", "été", "x", "\r"};
+    private static final String[] DIRS = {"src/main/java", "src/test/java", "com/acme", "security", "Auth", "docs", "config",
+        "build", "kubernetes", "docker", "ssl", "crypto", "PASSWORD", "secret", "service", "Controller", "spec", "readme", "test"};
+    private static final String[] NAMES = {"A", "FooService", "UserController", "pom", "build", "Dockerfile", "README",
+        "app", "secrets", "test_utils", "SslConfig", "Crypto"};
+    private static final String[] EXTENSIONS = {".java", ".java", ".xml", ".yml", ".yaml", ".properties", ".md", ".txt", ".doc",
+        ".test.js", ".spec.js", ".test.java", ".spec.java", ".gradle", "", ".config", "config", ".json", ".xml.bak"};
+
+    private final AnalyzeController controller = new AnalyzeController(null);
+
+    @Test
+    void bundledRulesMatchTheHardCodedRules() {
+        RuleSet rules = RuleEngine.current();
+        SplittableRandom random = new SplittableRandom(13);
+        for (int i = 0; i < INPUTS; i++) {
+            String diff = diff(random);
+            List<String> files = files(random);
+            AnalyzeController.AnalyzeRequest req = new AnalyzeController.AnalyzeRequest(String.valueOf(i), "octocat", "acme/service", files, diff);
+            AnalyzeController.Verdict v = controller.heuristics(req, FileScans.scan(rules, diff));
+
+            int n = i;
+            Supplier<String> input = () -> "input " + n + ": " + files + " " + diff.replace("\n", "\\n");
+            double risk = computeRisk(diff, files);
+            assertEquals(risk, v.risk(), 0.0, input);
+            String decision = classify(risk);
+            assertEquals(decision, v.decision(), input);
+            assertEquals(riskLevel(risk), rules.riskLevel(v.risk()), input);
+            assertEquals(findMissingTests(diff, files), v.missingTests(), input);
+            assertEquals(explain(risk, files), controller.explain(v.risk(), diff, v.files()), input);
+            assertEquals(summary(req), controller.generateSummary(req, v.files()), input);
+            assertEquals(suggestionCode(decision, risk, diff, files), rules.suggestionCode(v.decision(), v.risk(), v.scan(), v.files()), input);
+        }
+    }
+
+    private static String diff(SplittableRandom random) {
+        int bucket = random.nextInt(20);
+        // Mostly small diffs, with enough large ones to cross every line-count threshold
+        int lines = bucket < 4 ? random.nextInt(4) : bucket < 17 ? random.nextInt(60) : 150 + random.nextInt(120);
+        StringBuilder sb = new StringBuilder();
+        for (int l = 0; l < lines; l++) {
+            sb.append(LINE_STARTS[random.nextInt(LINE_STARTS.length)]);
+            for (int t = random.nextInt(3); t > 0; t--) sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+            if (l < lines - 1 || random.nextBoolean()) sb.append('\n');
+        }
+        if (random.nextInt(50) == 0) sb.append("\n\n");
+        return sb.toString();
+    }
+
+    private static List<String> files(SplittableRandom random) {
+        List<String> files = new ArrayList<>();
+        for (int n = random.nextInt(5); n > 0; n--) {
+            StringBuilder path = new StringBuilder();
+            for (int d = random.nextInt(3); d > 0; d--) path.append(DIRS[random.nextInt(DIRS.length)]).append('/');
+            path.append(NAMES[random.nextInt(NAMES.length)]).append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            files.add(path.toString());
+        }
+        return files;
+    }
+
+    // Reference implementation: the rules before gatekeeper-rules.json
+
+    private static double computeRisk(String diff, List<String> files) {
+        if (diff == null || diff.isBlank()) return 0.0;
+        int lines = diff.split("\n").length;
+        double base = Math.min(1.0, lines / 200.0);
+        String lower = diff.toLowerCase();
+        if (lower.contains("system.exit") || lower.contains("runtime.getruntime") || lower.contains("exec(") || lower.contains("password")) {
+            return Math.max(0.75, base + 0.5);
+        }
+        for (String file : files) {
+            String fileLower = file.toLowerCase();
+            if (fileLower.endsWith(".properties") || fileLower.endsWith(".yml") || fileLower.endsWith(".yaml") || fileLower.endsWith(".xml")) {
+                base += 0.1;
+            }
+            if (fileLower.contains("pom.xml") || fileLower.contains("build.gradle") || fileLower.contains("dockerfile")) {
+                base += 0.15;
+            }
+            if (fileLower.contains("security") || fileLower.contains("auth") || fileLower.contains("password") || fileLower.contains("secret")) {
+                base += 0.2;
+            }
+        }
+        return Math.min(1.0, base);
+    }
+
+    private static String classify(double risk) {
+        if (risk >= 0.75) return "BLOCK";
+        if (risk >= 0.35) return "WARN";
+        return "ALLOW";
+    }
+
+    private static String riskLevel(double risk) {
+        if (risk >= 0.90) return "CRITICAL";
+        if (risk >= 0.75) return "HIGH";
+        if (risk >= 0.35) return "MEDIUM";
+        if (risk >= 0.10) return "LOW";
+        return "MINIMAL";
+    }
+
+    private static List<String> findMissingTests(String diff, List<String> files) {
+        List<String> res = new ArrayList<>();
+        if (diff.isBlank() && files.isEmpty()) return res;
+        if (!diff.isBlank()) {
+            Matcher m = PUBLIC_METHOD.matcher(diff);
+            int count = 0;
+            while (m.find()) count++;
+            if (count > 0) res.add("Unit tests for new/changed public methods (" + count + " found)");
+            if (diff.contains("TODO") || diff.contains("FIXME")) res.add("Address TODO/FIXME and add tests");
+            if (diff.contains("new endpoint") || diff.contains("@GetMapping") || diff.contains("@PostMapping")) res.add("Integration tests for new endpoints");
+        }
+        if (!files.isEmpty()) {
+            boolean hasMainCode = files.stream().anyMatch(f -> f.toLowerCase().matches(".*src/main/.*\\.java$"));
+            boolean hasTests = files.stream().anyMatch(f -> f.toLowerCase().matches(".*src/test/.*\\.java$"));
+            if (hasMainCode && !hasTests) res.add("Test files are missing for modified source code");
+            if (files.stream().anyMatch(f -> f.toLowerCase().contains("controller"))) res.add("Integration tests for API endpoints");
+            if (files.stream().anyMatch(f -> f.toLowerCase().contains("service"))) res.add("Unit tests for service layer changes");
+        }
+        return res;
+    }
+
+    private static String explain(double risk, List<String> files) {
+        if (risk >= 0.75) return "High risk: Large changes or dangerous operations detected. Requires manual security review.";
+        if (risk >= 0.35) return "Medium risk: Moderate changes detected. Additional testing and code review recommended.";
+        if (!files.isEmpty()) {
+            if (files.stream().allMatch(f -> f.toLowerCase().matches(".*(test|spec|\\.md|\\.txt|readme).*"))) {
+                return "Low risk: Only documentation and test files modified.";
+            }
+            if (files.stream().anyMatch(f -> f.toLowerCase().matches(".*(security|auth|password|secret|crypto|ssl).*"))) {
+                return "Low risk: Small changes in security-related files. Verify implementation details.";
+            }
+        }
+        return "Low risk: Small changes or documentation-only updates.";
+    }
+
+    private static String summary(AnalyzeController.AnalyzeRequest req) {
+        List<String> files = req.changedFiles();
+        StringBuilder sb = new StringBuilder();
+        sb.append("PR #").append(req.prNumber()).append(" by ").append(req.author()).append(". ");
+        sb.append("Changed files: ").append(files.size()).append(". ");
+        if (!files.isEmpty()) {
+            List<String> categories = new ArrayList<>();
+            if (files.stream().anyMatch(f -> f.toLowerCase().contains("test"))) categories.add("tests");
+            if (files.stream().anyMatch(f -> f.toLowerCase().matches(".*(properties|yml|yaml|xml)$"))) categories.add("config");
+            if (files.stream().anyMatch(f -> f.toLowerCase().matches(".*\\.(md|txt)$"))) categories.add("docs");
+            if (files.stream().anyMatch(f -> f.toLowerCase().endsWith(".java"))) categories.add("source code");
+            if (!categories.isEmpty()) sb.append("Contains: ").append(String.join(", ", categories)).append(". ");
+        }
+        sb.append("Analysis completed by Gatekeeper.");
+        return sb.toString();
+    }
+
+    private static String suggestionCode(String decision, double risk, String diff, List<String> files) {
+        String lowerDiff = diff.toLowerCase();
+        if ("BLOCK".equals(decision)) {
+            if (lowerDiff.contains("password") || lowerDiff.contains("secret") || lowerDiff.contains("apikey")) return "BLOCK_CREDENTIAL_EXPOSURE";
+            if (lowerDiff.contains("runtime.exec") || lowerDiff.contains("system.exit")) return "BLOCK_DANGEROUS_EXEC";
+            if (risk >= 0.9) return "BLOCK_CRITICAL_SECURITY";
+            if (risk >= 0.8) return "BLOCK_HIGH_SECURITY_RISK";
+            return "BLOCK_DANGEROUS_OPERATIONS";
+        }
+        if ("WARN".equals(decision)) {
+            if (files.stream().anyMatch(f -> f.toLowerCase().matches(".*(pom|gradle|build|docker|kubernetes).*"))) return "WARN_BUILD_CONFIG_CHANGES";
+            if (files.stream().anyMatch(f -> f.toLowerCase().matches(".*(properties|yml|yaml|xml|config)$"))) return "WARN_CONFIG_CHANGES_REVIEW";
+            if (risk >= 0.5) return "WARN_MODERATE_RISK_REVIEW";
+            return "WARN_ENHANCED_TESTING_NEEDED";
+        }
+        if (risk >= 0.1) return "ALLOW_WITH_TESTING_REQUIRED";
+        return "ALLOW_LOW_RISK_SAFE";
+    }
+}
@@ -0,0 +1,217 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleSetTest {
+    private static final String RULES = """
+        {
+          "name": "test",
+          "keywords": {
+            "EXEC": {"text": "exec("},
+            "TODO": {"text": "TODO", "caseSensitive": true}
+          },
+          "paths": {
+            "CONF": ["*.yml", "*config*"],
+            "MAIN_JAVA": ["*src/main/*.java"],
+            "DOCS": ["*.md"]
+          },
+          "risk": {
+            "linesForFullRisk": 10,
+            "dangerousKeywords": ["EXEC"],
+            "dangerousIncrement": 0.5,
+            "dangerousFloor": 0.8,
+            "pathWeights": {"CONF": 0.25}
+          },
+          "decisions": {"BLOCK": 0.8, "WARN": 0.5, "ALLOW": 0.0},
+          "riskLevels": {"HIGH": 0.8, "LOW": 0.0},
+          "suggestionCodes": [
+            {"decision": "WARN", "keywords": ["EXEC"], "minRisk": 0.95, "code": "EXEC_CRITICAL"},
+            {"decision": "WARN", "keywords": ["EXEC"], "paths": ["CONF"], "code": "EXEC_IN_CONFIG"},
+            {"decision": "WARN", "minRisk": 0.6, "code": "HIGH"},
+            {"decision": "WARN", "keywords": ["EXEC"], "code": "EXEC"},
+            {"decision": "WARN", "paths": ["CONF"], "code": "CONF"},
+            {"decision": "WARN", "code": "FALLBACK"},
+            {"decision": "BLOCK", "code": "BLOCKED"},
+            {"decision": "ALLOW", "code": "OK"}
+          ]
+        }""";
+
+    @Test
+    void compilesThresholdsInFileOrder() throws IOException {
+        RuleSet rules = parse(RULES);
+        assertEquals("test", rules.name());
+        assertEquals(List.of("BLOCK", "WARN", "ALLOW"), rules.decisions());
+        assertEquals("BLOCK", rules.decision(0.8));
+        assertEquals("WARN", rules.decision(0.79));
+        assertEquals("ALLOW", rules.decision(0.1));
+        assertEquals("HIGH", rules.riskLevel(1.0));
+        assertEquals("LOW", rules.riskLevel(0.0));
+        // Below every threshold is the last entry
+        assertEquals("ALLOW", rules.decision(-1));
+    }
+
+    @Test
+    void computesRiskFromLinesKeywordsAndPaths() throws IOException {
+        RuleSet rules = parse(RULES);
+        String diff = "+a\n+b\n+c\n+d\n";
+        assertEquals(0.4, risk(rules, diff, List.of("README.md")), 1e-9);
+        assertEquals(0.9, risk(rules, diff, List.of("app.yml", "README.md", "config/x")), 1e-9);
+        assertEquals(1.0, risk(rules, diff + diff + diff, List.of("app.yml")), 1e-9);
+        // A dangerous keyword ignores the paths and raises the risk to at least the floor
+        assertEquals(0.9, risk(rules, "+a\n+b\n+c\n+exec(x)\n", List.of("app.yml")), 1e-9);
+        assertEquals(0.8, risk(rules, "+EXEC(x)\n", List.of()), 1e-9);
+        assertEquals(0.0, risk(rules, " \n\t\n", List.of("app.yml")), 0.0);
+    }
+
+    @Test
+    void caseSensitiveKeywordsMatchExactly() throws IOException {
+        RuleSet rules = parse(RULES);
+        DiffScan scan = DiffScanner.scan(rules, "+TODO todo ToDo\n+Exec( EXEC( exec(\n");
+        assertEquals(1, scan.count("TODO"));
+        assertEquals(3, scan.count("EXEC"));
+        assertEquals(0, scan.count("UNDEFINED"));
+    }
+
+    @Test
+    void classifiesPathsByGlob() throws IOException {
+        RuleSet rules = parse(RULES);
+        ChangedFileIndex files = ChangedFileIndex.of(rules, List.of("a/src/main/B.java", "src/test/C.java", "Docs/README.MD", "my-config.json"));
+        assertArrayEquals(new int[] {rules.category("MAIN_JAVA")}, files.categories(0));
+        assertArrayEquals(new int[0], files.categories(1));
+        assertArrayEquals(new int[] {rules.category("DOCS")}, files.categories(2));
+        assertArrayEquals(new int[] {rules.category("CONF")}, files.categories(3));
+        assertFalse(files.all("DOCS"));
+        assertTrue(ChangedFileIndex.of(rules, List.of("a.md", "b.md")).all("DOCS"));
+    }
+
+    @Test
+    void indexClassifiesOnlyAsFarAsAsked() throws IOException {
+        RuleSet rules = parse(RULES);
+        List<String> paths = new ArrayList<>(List.of("app.yml"));
+        for (int i = 0; i < 1000; i++) paths.add("src/main/File" + i + ".java");
+        ChangedFileIndex files = ChangedFileIndex.of(rules, paths);
+        assertTrue(files.any("CONF"));
+        assertTrue(files.any("MAIN_JAVA"));
+        assertFalse(files.all("CONF"));
+        assertFalse(files.any("NONE"));
+        assertEquals("CONF", rules.suggestionCode("WARN", 0.5, DiffScanner.scan(rules, "+x\n"), files));
+        assertFalse(files.complete());
+
+        // A category no path is in needs them all
+        assertFalse(files.any("DOCS"));
+        assertTrue(files.complete());
+        assertEquals(1000, files.count("MAIN_JAVA"));
+        assertArrayEquals(new int[] {rules.category("CONF"), rules.category("MAIN_JAVA")}, files.present());
+    }
+
+    @Test
+    void firstMatchingSuggestionRowWins() throws IOException {
+        RuleSet rules = parse(RULES);
+        assertEquals("EXEC_CRITICAL", code(rules, "WARN", 0.96, "+exec(\n", List.of("app.yml")));
+        assertEquals("EXEC_IN_CONFIG", code(rules, "WARN", 0.7, "+exec(\n", List.of("app.yml")));
+        assertEquals("HIGH", code(rules, "WARN", 0.7, "+exec(\n", List.of("README.md")));
+        assertEquals("HIGH", code(rules, "WARN", 0.6, "+x\n", List.of()));
+        assertEquals("EXEC", code(rules, "WARN", 0.5, "+exec(\n", List.of("README.md")));
+        assertEquals("CONF", code(rules, "WARN", 0.5, "+x\n", List.of("README.md", "app.yml")));
+        assertEquals("FALLBACK", code(rules, "WARN", 0.5, "+x\n", List.of("README.md")));
+        assertEquals("BLOCKED", code(rules, "BLOCK", 1.0, "+exec(\n", List.of("app.yml")));
+        assertEquals("OK", code(rules, "ALLOW", 0.0, "", List.of()));
+    }
+
+    @Test
+    void rejectsInconsistentRules() {
+        assertRejected(RULES.replace("\"dangerousKeywords\": [\"EXEC\"]", "\"dangerousKeywords\": [\"EVAL\"]"), "Unknown keyword: EVAL");
+        assertRejected(RULES.replace("\"paths\": [\"CONF\"], \"code\": \"CONF\"", "\"paths\": [\"CFG\"], \"code\": \"CONF\""), "Unknown path category: CFG");
+        assertRejected(RULES.replace("{\"decision\": \"WARN\", \"code\": \"FALLBACK\"},", ""), "Decision WARN needs a suggestion code row without conditions");
+        assertRejected(RULES.replace("\"ALLOW\": 0.0}", "\"ALLOW\": 0.0, \"MERGE\": 0.0}"), "Unknown decision MERGE");
+        assertRejected(RULES.replace("\"linesForFullRisk\": 10", "\"linesForFullRisk\": 0"), "risk.linesForFullRisk must be positive");
+        assertRejected(RULES.replace("\"text\": \"exec(\"", "\"text\": \"\""), "Keyword EXEC has no text");
+        assertRejected(RULES.replace("\"riskLevels\": {\"HIGH\": 0.8, \"LOW\": 0.0},", ""), "Rules need a \"riskLevels\" section");
+        assertRejected(RULES.replace("\"code\": \"OK\"", "\"code\": null"), "Suggestion code rows need a code");
+    }
+
+    @Test
+    void bundledRulesLoad() {
+        RuleSet rules = RuleEngine.current();
+        assertEquals("default", rules.name());
+        assertEquals(List.of("BLOCK", "WARN", "ALLOW"), rules.decisions());
+        assertEquals(List.of("CRITICAL", "HIGH", "MEDIUM", "LOW", "MINIMAL"), rules.riskLevels());
+        assertEquals(11, rules.suggestionRules());
+    }
+
+    /**
+     * The indexed decision table against trying every row in order, on random rule sets, diffs and paths.
+     */
+    @Test
+    void decisionTableMatchesAFirstMatchScan() {
+        SplittableRandom random = new SplittableRandom(7);
+        String[] words = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot"};
+        String[] decisions = {"BLOCK", "WARN", "ALLOW"};
+        for (int round = 0; round < 200; round++) {
+            Map<String, RuleSet.Keyword> keywords = new LinkedHashMap<>();
+            for (String w : words) keywords.put(w.toUpperCase(Locale.ROOT), new RuleSet.Keyword(w, false));
+            Map<String, List<String>> paths = new LinkedHashMap<>();
+            for (int c = 0; c < 5; c++) paths.put("CAT" + c, List.of("*cat" + c + "*"));
+            List<RuleSet.Suggestion> rows = new ArrayList<>();
+            for (int r = random.nextInt(40); r > 0; r--) {
+                Double minRisk = random.nextBoolean() ? null : random.nextInt(11) / 10.0;
+                rows.add(new RuleSet.Suggestion(decisions[random.nextInt(3)], minRisk,
+                    pick(random, new ArrayList<>(keywords.keySet())), pick(random, new ArrayList<>(paths.keySet())), "row" + rows.size()));
+            }
+            for (String d : decisions) rows.add(new RuleSet.Suggestion(d, null, List.of(), List.of(), "fallback-" + d));
+            RuleSet rules = RuleSet.compile(new RuleSet.Definition("random", keywords, paths,
+                new RuleSet.Risk(100, List.of(), 0, 0, Map.of()), Map.of("BLOCK", 0.75, "WARN", 0.35, "ALLOW", 0.0),
+                Map.of("ANY", 0.0), rows), "random");
+
+            for (int input = 0; input < 200; input++) {
+                StringBuilder diff = new StringBuilder();
+                for (int n = random.nextInt(4); n > 0; n--) diff.append("+ ").append(words[random.nextInt(words.length)]).append('\n');
+                List<String> files = new ArrayList<>();
+                for (int n = random.nextInt(6); n > 0; n--) files.add("src/cat" + random.nextInt(7) + "/File.java");
+                String decision = decisions[random.nextInt(3)];
+                double risk = random.nextInt(11) / 10.0;
+
+                String expected = null;
+                for (RuleSet.Suggestion row : rows) {
+                    if (!row.decision().equals(decision) || (row.minRisk() != null && risk < row.minRisk())) continue;
+                    if (!row.keywords().isEmpty() && row.keywords().stream().noneMatch(k -> diff.toString().contains(k.toLowerCase(Locale.ROOT)))) continue;
+                    if (!row.paths().isEmpty() && row.paths().stream().noneMatch(c -> files.stream().anyMatch(f -> f.contains(c.toLowerCase(Locale.ROOT))))) continue;
+                    expected = row.code();
+                    break;
+                }
+                assertEquals(expected, code(rules, decision, risk, diff.toString(), files), () -> rows + " " + decision + " " + risk + " " + diff + files);
+            }
+        }
+    }
+
+    private static List<String> pick(SplittableRandom random, List<String> names) {
+        List<String> picked = new ArrayList<>();
+        for (String n : names) {
+            if (random.nextInt(names.size() * 2) == 0) picked.add(n);
+        }
+        return picked;
+    }
+
+    private static double risk(RuleSet rules, String diff, List<String> files) {
+        return rules.risk(DiffScanner.scan(rules, diff), ChangedFileIndex.of(rules, files));
+    }
+
+    private static String code(RuleSet rules, String decision, double risk, String diff, List<String> files) {
+        return rules.suggestionCode(decision, risk, DiffScanner.scan(rules, diff), ChangedFileIndex.of(rules, files));
+    }
+
+    private static void assertRejected(String json, String message) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> parse(json));
+        assertTrue(e.getMessage().startsWith(message), e.getMessage());
+    }
+
+    private static RuleSet parse(String json) throws IOException {
+        return RuleSet.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "test");
+    }
+}
@@ -0,0 +1,132 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+    private static final AnalyzeController.AnalyzeRequest REQUEST = request("acme/service", "7", "octocat", List.of("A.java"), "+a\n");
+
+    private final SingleFlight singleFlight = new SingleFlight(TimeUnit.MILLISECONDS.toNanos(200));
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    void identicalRequestsShareOneAnalysis() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<AnalyzeController.AnalyzeResponse> analysis = () -> {
+            await(release);
+            return response("7");
+        };
+        List<Future<AnalyzeController.AnalyzeResponse>> answers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            answers.add(threads.submit(() -> singleFlight.run(REQUEST, analysis)));
+        }
+        Thread.sleep(100);
+        release.countDown();
+
+        AnalyzeController.AnalyzeResponse first = answers.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<AnalyzeController.AnalyzeResponse> answer : answers) {
+            assertSame(first, answer.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void recentResponseAnswersLateDuplicatesWithinTheWindow() throws InterruptedException {
+        AnalyzeController.AnalyzeResponse first = singleFlight.run(REQUEST, this::analyze);
+        assertSame(first, singleFlight.run(REQUEST, this::analyze));
+        assertEquals(1, runs.get());
+
+        Thread.sleep(250);
+        assertNotSame(first, singleFlight.run(REQUEST, this::analyze));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void waitersRetryOnTheirOwnWhenTheLeaderFails() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<AnalyzeController.AnalyzeResponse> leader = threads.submit(() -> singleFlight.run(REQUEST, () -> {
+            runs.incrementAndGet();
+            await(release);
+            throw new IllegalStateException("GROQ exploded");
+        }));
+        Thread.sleep(50);
+        List<Future<AnalyzeController.AnalyzeResponse>> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            waiters.add(threads.submit(() -> singleFlight.run(REQUEST, this::analyze)));
+        }
+        Thread.sleep(50);
+        release.countDown();
+
+        ExecutionException failed = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, failed.getCause());
+        for (Future<AnalyzeController.AnalyzeResponse> waiter : waiters) {
+            assertEquals("7", waiter.get(5, TimeUnit.SECONDS).prNumber());
+        }
+        // The failed leader and each waiter's own attempt
+        assertEquals(4, runs.get());
+    }
+
+    @Test
+    void failureIsNotKept() {
+        assertThrows(IllegalStateException.class, () -> singleFlight.run(REQUEST, () -> {
+            throw new IllegalStateException("GROQ exploded");
+        }));
+        singleFlight.run(REQUEST, this::analyze);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void differentContentIsNotCoalesced() {
+        singleFlight.run(REQUEST, this::analyze);
+        singleFlight.run(request("acme/service", "7", "octocat", List.of("A.java"), "+b\n"), this::analyze);
+        singleFlight.run(request("acme/service", "7", "hubot", List.of("A.java"), "+a\n"), this::analyze);
+        singleFlight.run(request("acme/service", "8", "octocat", List.of("A.java"), "+a\n"), this::analyze);
+        singleFlight.run(request("acme/other", "7", "octocat", List.of("A.java"), "+a\n"), this::analyze);
+        assertEquals(5, runs.get());
+
+        // Values are hashed with separators, so moving a character between them is a different request
+        singleFlight.run(request("acme/service", "9", "octocat", List.of("ab", "c"), "+a\n"), this::analyze);
+        singleFlight.run(request("acme/service", "9", "octocat", List.of("a", "bc"), "+a\n"), this::analyze);
+        assertEquals(7, runs.get());
+    }
+
+    @Test
+    void requestsWithoutRepositoryOrNumberAreNeverCoalesced() {
+        AnalyzeController.AnalyzeRequest noRepository = request(null, "7", "octocat", List.of("A.java"), "+a\n");
+        AnalyzeController.AnalyzeRequest noNumber = request("acme/service", null, "octocat", List.of("A.java"), "+a\n");
+        singleFlight.run(noRepository, this::analyze);
+        singleFlight.run(noRepository, this::analyze);
+        singleFlight.run(noNumber, this::analyze);
+        singleFlight.run(noNumber, this::analyze);
+        assertEquals(4, runs.get());
+    }
+
+    private AnalyzeController.AnalyzeResponse analyze() {
+        return response("7");
+    }
+
+    private AnalyzeController.AnalyzeResponse response(String prNumber) {
+        runs.incrementAndGet();
+        return new AnalyzeController.AnalyzeResponse(prNumber, 0.5, "MEDIUM", "WARN", null, List.of(), List.of(), null, null, null,
+            List.of(), null, null, System.nanoTime(), false, null, List.of());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static AnalyzeController.AnalyzeRequest request(String repository, String prNumber, String author, List<String> files, String diff) {
+        return new AnalyzeController.AnalyzeRequest(prNumber, author, repository, files, diff);
+    }
+}
@@ -0,0 +1,112 @@
+package com.gatekeeper.api;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnifiedDiffTest {
+
+    @Test
+    void splitsIntoHeadersAndHunks() {
+        String diff = """
+            diff --git a/src/A.java b/src/A.java
+            index 1234567..89abcde 100644
+            --- a/src/A.java
+            +++ b/src/A.java
+            @@ -1,3 +1,3 @@ class A
+             a
+            -b
+            +c
+             d
+            @@ -10 +10,2 @@
+            -e
+            +f
+            +g
+            diff --git a/docs/B.md b/docs/B.md
+            --- a/docs/B.md
+            +++ b/docs/B.md
+            @@ -1 +1 @@
+            -x
+            +y
+            """;
+        List<UnifiedDiff.Section> sections = UnifiedDiff.parse(diff);
+        assertContiguous(diff, sections);
+        assertEquals(List.of(false, true, true, false, true), sections.stream().map(UnifiedDiff.Section::hunk).toList());
+        assertEquals(List.of("src/A.java", "src/A.java", "src/A.java", "docs/B.md", "docs/B.md"),
+            sections.stream().map(UnifiedDiff.Section::path).toList());
+        UnifiedDiff.Section second = sections.get(2);
+        assertEquals("@@ -10 +10,2 @@\n-e\n+f\n+g\n", second.text(diff).toString());
+        assertEquals("-e\n+f\n+g\n", diff.substring(second.bodyStart(diff), second.end()));
+    }
+
+    @Test
+    void removedLinesThatLookLikeHeadersStayInTheirHunk() {
+        String diff = """
+            diff --git a/notes.txt b/notes.txt
+            --- a/notes.txt
+            +++ b/notes.txt
+            @@ -1,4 +1,1 @@
+            --- a/other.txt
+            -+++ b/other.txt
+            -diff --git a/x b/x
+             kept
+            \\ No newline at end of file
+            """;
+        List<UnifiedDiff.Section> sections = UnifiedDiff.parse(diff);
+        assertContiguous(diff, sections);
+        assertEquals(2, sections.size());
+        assertTrue(sections.get(1).hunk());
+        assertEquals("notes.txt", sections.get(1).path());
+        assertTrue(sections.get(1).text(diff).toString().endsWith("\\ No newline at end of file\n"));
+    }
+
+    @Test
+    void readsPlainDiffsAndDeletedFiles() {
+        String diff = """
+            Some preamble
+            --- a/gone.txt\t2024-01-01
+            +++ /dev/null
+            @@ -1 +0,0 @@
+            -bye
+            --- old/kept.txt
+            +++ new/kept.txt
+            @@ -1 +1 @@
+            -a
+            +b
+            """;
+        List<UnifiedDiff.Section> sections = UnifiedDiff.parse(diff);
+        assertContiguous(diff, sections);
+        assertNull(sections.get(0).path());
+        assertFalse(sections.get(0).hunk());
+        assertEquals("gone.txt", sections.get(1).path());
+        assertEquals("gone.txt", sections.get(2).path());
+        assertEquals("new/kept.txt", sections.get(4).path());
+        assertTrue(sections.get(4).hunk());
+    }
+
+    @Test
+    void malformedHunkBodiesEndTheHunk() {
+        String diff = "@@ -1,5 +1,5 @@\n a\nnot a diff line\n";
+        List<UnifiedDiff.Section> sections = UnifiedDiff.parse(diff);
+        assertContiguous(diff, sections);
+        assertEquals(List.of(true, false), sections.stream().map(UnifiedDiff.Section::hunk).toList());
+        assertEquals("not a diff line\n", sections.get(1).text(diff).toString());
+    }
+
+    @Test
+    void emptyDiffsHaveNoSections() {
+        assertTrue(UnifiedDiff.parse("").isEmpty());
+        assertTrue(UnifiedDiff.parse(null).isEmpty());
+    }
+
+    private static void assertContiguous(String diff, List<UnifiedDiff.Section> sections) {
+        int pos = 0;
+        for (UnifiedDiff.Section s : sections) {
+            assertEquals(pos, s.start());
+            assertTrue(s.end() > s.start());
+            pos = s.end();
+        }
+        assertEquals(diff.length(), pos);
+    }
+}
@@ -0,0 +1,44 @@
+#!/bin/bash
+# Measure startup and first-request latency of one backend launch command, e.g.
+#   ./startup-bench.sh java -jar target/ai-gatekeeper-backend-0.0.1-SNAPSHOT.jar
+#   ./startup-bench.sh ./target/ai-gatekeeper-backend
+# Startup is the time from launch until /actuator/health answers; the first request is one /api/analyze call
+# right after that. Runs RUNS times (default 5) and prints each run and the median.
+
+PORT=${PORT:-18080}
+RUNS=${RUNS:-5}
+URL=http://localhost:$PORT
+
+if [ $# -eq 0 ]; then
+  echo "usage: $0 <command> [args...]" >&2
+  exit 2
+fi
+
+now_ms() { date +%s%3N; }
+
+startups=()
+firsts=()
+for run in $(seq 1 "$RUNS"); do
+  start=$(now_ms)
+  SERVER_PORT=$PORT GATEKEEPER_HISTORY_DIR=$(mktemp -d) "$@" > /tmp/startup-bench.log 2>&1 &
+  pid=$!
+  until curl -sf "$URL/actuator/health" > /dev/null; do
+    if ! kill -0 $pid 2> /dev/null; then
+      echo "Backend exited during startup, see /tmp/startup-bench.log" >&2
+      exit 1
+    fi
+    sleep 0.01
+  done
+  ready=$(now_ms)
+  first=$(curl -s -o /dev/null -w '%{time_total}' -X POST "$URL/api/analyze" \
+    -H 'Content-Type: application/json' -H 'X-API-KEY: changeme' \
+    -d '{"prNumber":"1","author":"bench","repository":"bench/repo","changedFiles":["src/auth/Login.java"],"diff":"+ String password = request.getParameter(\"password\");"}')
+  kill $pid
+  wait $pid 2> /dev/null
+  startups+=($((ready - start)))
+  firsts+=($(awk -v s="$first" 'BEGIN { printf "%d", s * 1000 }'))
+  echo "run $run: startup ${startups[-1]} ms, first request ${firsts[-1]} ms"
+done
+
+median() { printf '%s\n' "$@" | sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'; }
+echo "median: startup $(median "${startups[@]}") ms, first request $(median "${firsts[@]}") ms"
@@ -0,0 +1,154 @@
+package com.gatekeeper.api;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Throughput and latency of each analysis stage and of the full {@code /api/analyze} path.
+ * {@code indexFiles} classifies every changed path, the most the lazy index ever does; the rule stages read an
+ * index that is already complete, while {@code analyze} classifies only as many paths as its rules look at.
+ * Stages only depend on the inputs they use, so JMH crosses diff sizes with file counts only where both matter.
+ * Run with {@code -prof gc} for allocation rates and {@code -rf json} for a machine-readable report.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+@State(Scope.Benchmark)
+public class AnalysisBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class DiffInput {
+        @Param({"1024", "1048576", "104857600"})
+        public int diffBytes;
+
+        @Param({"synthetic", "recorded"})
+        public String source;
+
+        String diff;
+        DiffScan scan;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            diff = DiffCorpus.diff(source, diffBytes);
+            scan = DiffScanner.scan(diff);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FilesInput {
+        @Param({"1", "1000", "50000"})
+        public int files;
+
+        @Param({"mixed", "vendored"})
+        public String kind;
+
+        List<String> changedFiles;
+        ChangedFileIndex index;
+        AnalyzeController.AnalyzeRequest request;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            changedFiles = DiffCorpus.changedFiles(kind, files);
+            index = ChangedFileIndex.of(RuleEngine.current(), changedFiles);
+            request = new AnalyzeController.AnalyzeRequest("42", "octocat", null, changedFiles, null);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Service {
+        @Param({"none", "stub"})
+        public String groq;
+
+        AnalyzeController controller;
+        // Whatever the environment requires, so the benchmark never measures a 401
+        final String apiKey = System.getenv("GATEKEEPER_API_KEY");
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            controller = new AnalyzeController("stub".equals(groq) ? new StubGroqService() : null);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Workers {
+        @Param({"1", "2", "4", "8"})
+        public int parallelism;
+
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    /** Stages only need a controller for their rules. */
+    private final AnalyzeController rules = new AnalyzeController(null);
+    private final GroqAnalysisService groqService = new StubGroqService();
+
+    @Benchmark
+    public DiffScan scan(DiffInput in) {
+        return DiffScanner.scan(in.diff);
+    }
+
+    /** The per-file scan on pools of different sizes; compare with {@code scan} for the one-pass cost. */
+    @Benchmark
+    public FileScans scanFiles(DiffInput in, Workers workers) {
+        return FileScans.scan(RuleEngine.current(), in.diff, workers.pool);
+    }
+
+    @Benchmark
+    public ChangedFileIndex indexFiles(FilesInput files) {
+        ChangedFileIndex index = ChangedFileIndex.of(RuleEngine.current(), files.changedFiles);
+        index.present();
+        return index;
+    }
+
+    @Benchmark
+    public double computeRisk(DiffInput in, FilesInput files) {
+        return rules.computeRisk(in.scan, files.index);
+    }
+
+    @Benchmark
+    public List<String> findMissingTests(DiffInput in, FilesInput files) {
+        return rules.findMissingTests(in.scan, files.index);
+    }
+
+    @Benchmark
+    public String generateSummary(FilesInput files) {
+        return rules.generateSummary(files.request, files.index);
+    }
+
+    @Benchmark
+    public String classify(FilesInput files) {
+        // Below every threshold, so the file categories are consulted
+        return rules.classify(0.05, "", files.index);
+    }
+
+    @Benchmark
+    public String selectContext(DiffInput in) {
+        return DiffContext.select(RuleEngine.current(), in.diff, GroqAnalysisService.DIFF_TOKENS);
+    }
+
+    @Benchmark
+    public String escapeJson(DiffInput in) {
+        return groqService.escapeJson(in.diff);
+    }
+
+    @Benchmark
+    public ResponseEntity<AnalyzeController.AnalyzeResponse> analyze(DiffInput in, FilesInput files, Service service) {
+        // No repository, so every call is a full analysis rather than an incremental update
+        AnalyzeController.AnalyzeRequest req = new AnalyzeController.AnalyzeRequest("42", "octocat", null, files.changedFiles, in.diff);
+        return service.controller.analyze(req, service.apiKey);
+    }
+}
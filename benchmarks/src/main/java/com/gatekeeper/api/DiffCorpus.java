@@ -0,0 +1,128 @@
+package com.gatekeeper.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Deterministic inputs for the benchmarks: diffs of a given size and changed-file lists of a given length.
+ * Synthetic diffs are generated Java hunks with the keywords the rules look for at a low, realistic density;
+ * recorded diffs repeat a real diff from this repository until the size is reached.
+ */
+final class DiffCorpus {
+    private static final String[] CODE = {
+        "    private final Map<String, Integer> counts = new HashMap<>();",
+        "        for (int i = 0; i < items.size(); i++) {",
+        "            total += items.get(i).weight();",
+        "        }",
+        "        return Optional.ofNullable(cache.get(key)).orElseGet(() -> load(key));",
+        "        if (request == null || request.body() == null) return ResponseEntity.badRequest().build();",
+        "        log.debug(\"Processed {} entries in {} ms\", processed, elapsed);",
+        "    public List<String> findByOwner(String owner) {",
+        "    public static int parseLimit(String value) {",
+        "        // TODO handle pagination once the API supports it",
+        "        String password = config.get(\"db.password\");",
+        "    @GetMapping(\"/items/{id}\")",
+        "        Runtime.getRuntime().addShutdownHook(new Thread(this::close));",
+        "",
+    };
+    // Relative weights of the lines above; keyword lines are rare
+    private static final int[] WEIGHTS = {12, 10, 10, 10, 8, 8, 8, 3, 2, 1, 1, 1, 1, 6};
+    private static final String[] EXTENSIONS = {".java", ".java", ".java", "Test.java", ".ts", ".md", ".yml", ".xml", ".properties", ".txt"};
+    private static final String[] DIRECTORIES = {"src/main/java/com/acme/service/", "src/main/java/com/acme/controller/",
+        "src/test/java/com/acme/", "docs/", "config/", "src/main/resources/", "web/src/components/"};
+    // Dependency and generated trees committed with a PR; no rule matches these paths
+    private static final String[] VENDORED_EXTENSIONS = {".js", ".js", ".d.ts", ".go", ".pb.go", ".min.css"};
+    private static final String[] VENDORED_DIRECTORIES = {"node_modules/lodash/fp/", "node_modules/@babel/core/lib/",
+        "vendor/github.com/acme/lib/", "generated/proto/v1/"};
+
+    private DiffCorpus() {}
+
+    /**
+     * A diff of about {@code bytes} characters, cut at a line boundary.
+     * @param source "synthetic" or "recorded"
+     */
+    static String diff(String source, int bytes) {
+        return switch (source) {
+            case "synthetic" -> synthetic(bytes);
+            case "recorded" -> repeat(recorded(), bytes);
+            default -> throw new IllegalArgumentException("Unknown diff source: " + source);
+        };
+    }
+
+    /**
+     * {@code count} changed paths: "mixed" application sources, tests, docs and config, or "vendored"
+     * dependency and generated files that none of the rules match.
+     */
+    static List<String> changedFiles(String kind, int count) {
+        String[] directories, extensions;
+        switch (kind) {
+            case "mixed" -> { directories = DIRECTORIES; extensions = EXTENSIONS; }
+            case "vendored" -> { directories = VENDORED_DIRECTORIES; extensions = VENDORED_EXTENSIONS; }
+            default -> throw new IllegalArgumentException("Unknown file list kind: " + kind);
+        }
+        Random random = new Random(7);
+        List<String> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            files.add(directories[random.nextInt(directories.length)] + "File" + i + extensions[random.nextInt(extensions.length)]);
+        }
+        return files;
+    }
+
+    private static String synthetic(int bytes) {
+        Random random = new Random(42);
+        int totalWeight = Arrays.stream(WEIGHTS).sum();
+        StringBuilder sb = new StringBuilder(bytes + 256);
+        int file = 0;
+        while (sb.length() < bytes) {
+            String path = "src/main/java/com/acme/service/Service" + file++ + ".java";
+            sb.append("diff --git a/").append(path).append(" b/").append(path).append('\n')
+              .append("index 3b18e51..a9c2f0d 100644\n")
+              .append("--- a/").append(path).append('\n')
+              .append("+++ b/").append(path).append('\n');
+            int hunks = 1 + random.nextInt(4);
+            for (int h = 0; h < hunks && sb.length() < bytes; h++) {
+                int context = 3, added = 2 + random.nextInt(20), removed = random.nextInt(8);
+                int start = 1 + random.nextInt(400);
+                sb.append("@@ -").append(start).append(',').append(context + removed)
+                  .append(" +").append(start).append(',').append(context + added).append(" @@\n");
+                for (int i = 0; i < removed; i++) sb.append('-').append(line(random, totalWeight)).append('\n');
+                for (int i = 0; i < added; i++) sb.append('+').append(line(random, totalWeight)).append('\n');
+                for (int i = 0; i < context; i++) sb.append(' ').append(line(random, totalWeight)).append('\n');
+            }
+        }
+        return cut(sb, bytes);
+    }
+
+    private static String line(Random random, int totalWeight) {
+        int pick = random.nextInt(totalWeight);
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            pick -= WEIGHTS[i];
+            if (pick < 0) return CODE[i];
+        }
+        return CODE[0];
+    }
+
+    private static String recorded() {
+        try (InputStream in = DiffCorpus.class.getResourceAsStream("/diffs/recorded.diff")) {
+            if (in == null) throw new IllegalStateException("diffs/recorded.diff missing from the classpath");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String repeat(String diff, int bytes) {
+        StringBuilder sb = new StringBuilder(bytes + diff.length());
+        while (sb.length() < bytes) sb.append(diff);
+        return cut(sb, bytes);
+    }
+
+    private static String cut(StringBuilder sb, int bytes) {
+        if (sb.length() <= bytes) return sb.toString();
+        int nl = sb.lastIndexOf("\n", bytes - 1);
+        return sb.substring(0, nl > 0 ? nl + 1 : bytes);
+    }
+}
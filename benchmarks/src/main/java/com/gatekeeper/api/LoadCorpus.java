@@ -0,0 +1,140 @@
+package com.gatekeeper.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Requests the load test replays. A corpus file holds one JSON object per line, or one JSON array of them;
+ * each object is either an {@code AnalyzeRequest} body or a captured GitHub {@code pull_request} webhook
+ * payload, which is turned into the request the webhook receiver would send (the diff comes from a
+ * {@code diff} field added when capturing, else the PR body, as without a GitHub token). Without a file the
+ * corpus is generated from {@link DiffCorpus}.
+ * <p>
+ * Bodies are serialized once up front, apart from the PR number, so the generator spends no time on JSON
+ * while sending.
+ */
+final class LoadCorpus {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @param rest The request without its PR number, serialized
+     */
+    private record Entry(String prNumber, byte[] rest) {}
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private LoadCorpus(List<ObjectNode> requests) {
+        if (requests.isEmpty()) throw new IllegalArgumentException("Load test corpus is empty");
+        for (ObjectNode req : requests) {
+            String prNumber = req.path("prNumber").asText("unknown");
+            ObjectNode rest = req.deepCopy();
+            rest.remove("prNumber");
+            try {
+                entries.add(new Entry(prNumber, MAPPER.writeValueAsBytes(rest)));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    static LoadCorpus read(Path file) throws IOException {
+        List<ObjectNode> requests = new ArrayList<>();
+        String text = Files.readString(file, StandardCharsets.UTF_8).strip();
+        if (text.startsWith("[")) {
+            for (JsonNode node : MAPPER.readTree(text)) add(requests, node, file);
+        } else {
+            try (BufferedReader lines = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                int n = 0;
+                for (String line; (line = lines.readLine()) != null; ) {
+                    n++;
+                    if (line.isBlank()) continue;
+                    try {
+                        add(requests, MAPPER.readTree(line), file);
+                    } catch (JsonProcessingException e) {
+                        throw new IOException(file + " line " + n + " is not JSON: " + e.getOriginalMessage(), e);
+                    }
+                }
+            }
+        }
+        return new LoadCorpus(requests);
+    }
+
+    /**
+     * {@code count} requests over generated diffs: mostly small ones, some of 64 KB and 1 MB, like PR traffic.
+     */
+    static LoadCorpus generated(int count) {
+        int[] sizes = {2_048, 8_192, 2_048, 16_384, 4_096, 65_536, 2_048, 8_192, 4_096, 1_048_576};
+        Map<Integer, String> diffs = new HashMap<>();
+        List<ObjectNode> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = sizes[i % sizes.length];
+            ObjectNode req = MAPPER.createObjectNode();
+            req.put("prNumber", String.valueOf(i + 1));
+            req.put("author", "load-" + (i % 17));
+            req.put("repository", "acme/service-" + (i % 5));
+            List<String> files = DiffCorpus.changedFiles("mixed", 1 + i % 40);
+            files.forEach(req.putArray("changedFiles")::add);
+            req.put("diff", diffs.computeIfAbsent(size, s -> DiffCorpus.diff("synthetic", s)));
+            requests.add(req);
+        }
+        return new LoadCorpus(requests);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Body of the {@code index}-th request sent. Each pass over the corpus after the first gets its own PR
+     * numbers when {@code unique} is set, so replays are analyzed again rather than answered as redeliveries.
+     */
+    byte[] body(long index, boolean unique) {
+        Entry entry = entries.get((int) (index % entries.size()));
+        long pass = index / entries.size();
+        String prNumber = unique && pass > 0 ? entry.prNumber() + "-" + pass : entry.prNumber();
+        byte[] head;
+        try {
+            head = ("{\"prNumber\":" + MAPPER.writeValueAsString(prNumber) + (entry.rest().length > 2 ? "," : "")).getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        // rest starts with '{', which head replaces
+        byte[] body = Arrays.copyOf(head, head.length + entry.rest().length - 1);
+        System.arraycopy(entry.rest(), 1, body, head.length, entry.rest().length - 1);
+        return body;
+    }
+
+    private static void add(List<ObjectNode> requests, JsonNode node, Path file) throws IOException {
+        if (!node.isObject()) throw new IOException(file + " holds a " + node.getNodeType() + " where a request object was expected");
+        requests.add(node.has("pull_request") ? fromWebhook(node) : (ObjectNode) node);
+    }
+
+    /**
+     * The request the webhook receiver builds from a pull_request payload.
+     */
+    private static ObjectNode fromWebhook(JsonNode payload) {
+        JsonNode pr = payload.path("pull_request");
+        JsonNode repo = payload.path("repository");
+        ObjectNode req = MAPPER.createObjectNode();
+        req.put("prNumber", pr.hasNonNull("number") ? pr.path("number").asText() : "unknown");
+        req.put("author", pr.path("user").path("login").asText("unknown"));
+        req.put("repository", repo.path("owner").path("login").asText("unknown") + "/" + repo.path("name").asText("unknown"));
+        var files = req.putArray("changedFiles");
+        if (pr.path("files").isArray()) {
+            for (JsonNode f : pr.path("files")) files.add(f.isTextual() ? f.asText() : f.path("filename").asText(f.toString()));
+        } else if (pr.path("changed_files").isNumber()) {
+            files.add(pr.path("changed_files").asInt() + " files changed");
+        }
+        String diff = payload.path("diff").asText(pr.path("diff").asText(pr.path("body").asText("")));
+        req.put("diff", diff);
+        return req;
+    }
+}
@@ -0,0 +1,269 @@
+package com.gatekeeper.api;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Open-loop load generator for {@code /api/analyze}. Requests from a {@link LoadCorpus} are sent at a fixed
+ * rate whether or not earlier ones have been answered, as webhooks arrive, so a slow backend builds up a
+ * backlog instead of slowing the generator down. Response times are measured from the moment each request
+ * was due rather than from when it actually went out, which corrects for coordinated omission: a stall in
+ * the backend or the generator shows up in the latency of every request that should have been sent during it.
+ * Requests that time out or never get an answer count with at least the timeout, so they raise the percentiles
+ * instead of dropping out of them. Successful responses and errors are also reported apart, as fast 503s from
+ * load shedding would otherwise pull the percentiles down just when the backend is saturated. Service times
+ * from the actual send are reported next to them.
+ * <p>
+ * Without {@code LOADTEST_TARGET} the backend is started in this JVM on a free port and its GROQ calls go to
+ * an embedded {@link GroqStubServer}, configured with the {@code GROQ_STUB_*} settings, so no GROQ quota is
+ * used. Backend settings ({@code GROQ_REQUESTS_PER_MINUTE}, {@code GATEKEEPER_MAX_ANALYSES}, ...) apply to
+ * it as usual.
+ * <p>
+ * Run with {@code java -cp target/benchmarks.jar com.gatekeeper.api.LoadTest [corpus.jsonl]}.
+ */
+public final class LoadTest {
+    private static final double RATE = Env.doubleValue("LOADTEST_RATE", 20);
+    private static final long DURATION_SECONDS = Env.longValue("LOADTEST_DURATION_SECONDS", 60);
+    private static final long WARMUP_SECONDS = Env.longValue("LOADTEST_WARMUP_SECONDS", 10);
+    private static final String TARGET = Env.value("LOADTEST_TARGET");
+    private static final String API_KEY = Env.value("LOADTEST_API_KEY", Env.value("GATEKEEPER_API_KEY"));
+    private static final Duration TIMEOUT = Duration.ofMillis(Env.longValue("LOADTEST_TIMEOUT_MS", 30_000));
+    private static final boolean UNIQUE_PRS = Env.flag("LOADTEST_UNIQUE_PRS", true);
+    private static final String REPORT = Env.value("LOADTEST_REPORT");
+    private static final double[] PERCENTILES = {0.50, 0.95, 0.99, 1.0};
+
+    private LoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        LoadCorpus corpus = args.length > 0 ? LoadCorpus.read(Path.of(args[0])) : LoadCorpus.generated(200);
+        GroqStubServer stub = null;
+        ConfigurableApplicationContext backend = null;
+        URI target;
+        if (TARGET != null) {
+            target = URI.create(TARGET.replaceAll("/+$", "") + "/api/analyze");
+        } else {
+            stub = new GroqStubServer();
+            stub.start(0);
+            backend = startBackend(stub);
+            target = URI.create("http://localhost:" + ((WebServerApplicationContext) backend).getWebServer().getPort() + "/api/analyze");
+        }
+        System.out.printf("Replaying %d requests at %.1f/s for %d s after %d s warm-up against %s%n",
+            corpus.size(), RATE, DURATION_SECONDS, WARMUP_SECONDS, target);
+
+        Results results = run(corpus, target);
+        results.print(System.out);
+        if (stub != null) {
+            long[] counts = stub.counts();
+            System.out.printf("GROQ stub: %d answered, %d rate limited, %d failed (whole run)%n", counts[0], counts[1], counts[2]);
+        }
+        if (REPORT != null) {
+            Files.write(Path.of(REPORT), new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsBytes(results.report()));
+        }
+        if (backend != null) backend.close();
+        if (stub != null) stub.stop();
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext startBackend(GroqStubServer stub) throws IOException {
+        // System properties win over the environment, so a real GROQ key in the environment is never used
+        System.setProperty("GROQ_API_KEY", "stub");
+        System.setProperty("GROQ_API_URL", "http://localhost:" + stub.port() + "/openai/v1/chat/completions");
+        if (Env.value("GATEKEEPER_HISTORY_DIR") == null) {
+            System.setProperty("GATEKEEPER_HISTORY_DIR", Files.createTempDirectory("gatekeeper-loadtest").toString());
+        }
+        return SpringApplication.run(GatekeeperApplication.class,
+            "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=WARN");
+    }
+
+    private static Results run(LoadCorpus corpus, URI target) throws InterruptedException {
+        long warmup = (long) (RATE * WARMUP_SECONDS);
+        long total = warmup + (long) (RATE * DURATION_SECONDS);
+        Results results = new Results((int) (total - warmup));
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(TIMEOUT)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+        AtomicInteger outstanding = new AtomicInteger();
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+        for (long i = 0; i < total; i++) {
+            long due = start + (long) (i * 1e9 / RATE);
+            for (long wait; (wait = due - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+
+            HttpRequest.Builder request = HttpRequest.newBuilder(target)
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(corpus.body(i, UNIQUE_PRS)));
+            if (API_KEY != null) request.header("X-API-KEY", API_KEY);
+            int slot = (int) (i - warmup);
+            if (slot == 0) results.started(due);
+            long sent = System.nanoTime();
+            outstanding.incrementAndGet();
+            client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+                if (slot >= 0) results.record(slot, due, sent, System.nanoTime(), response, error);
+                outstanding.decrementAndGet();
+            });
+        }
+
+        long deadline = System.nanoTime() + TIMEOUT.toNanos() + TimeUnit.SECONDS.toNanos(1);
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        results.finish(System.nanoTime());
+        return results;
+    }
+
+    /**
+     * Per-request timings of the measured part of a run, indexed by send order, and outcome counts.
+     */
+    private static final class Results {
+        // From the due time, for every request: timeouts and requests without an answer count as at least TIMEOUT
+        private final long[] responseNanos;
+        // From the actual send, for requests that got a response
+        private final long[] serviceNanos;
+        private final long[] lagNanos;
+        private final boolean[] succeeded;
+        private final Map<String, LongAdder> outcomes = new ConcurrentSkipListMap<>();
+        private final AtomicLong lastDone = new AtomicLong();
+        private long firstDue;
+        private long unanswered;
+        private boolean finished;
+
+        Results(int size) {
+            responseNanos = new long[size];
+            serviceNanos = new long[size];
+            lagNanos = new long[size];
+            succeeded = new boolean[size];
+            Arrays.fill(responseNanos, -1);
+            Arrays.fill(serviceNanos, -1);
+            Arrays.fill(lagNanos, -1);
+        }
+
+        void started(long due) {
+            firstDue = due;
+        }
+
+        synchronized void record(int slot, long due, long sent, long done, HttpResponse<String> response, Throwable error) {
+            // Counted as unanswered already
+            if (finished) return;
+            lastDone.accumulateAndGet(done, Math::max);
+            lagNanos[slot] = sent - due;
+            responseNanos[slot] = done - due;
+            String outcome;
+            if (response != null) {
+                serviceNanos[slot] = done - sent;
+                succeeded[slot] = response.statusCode() / 100 == 2;
+                outcome = String.valueOf(response.statusCode());
+                if (response.statusCode() == 200 && response.body().contains("\"degraded\":true")) outcome += " degraded";
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                outcome = cause instanceof HttpTimeoutException ? "timeout"
+                    : cause instanceof ConnectException ? "connect failed"
+                    : cause.getClass().getSimpleName();
+                if (cause instanceof HttpTimeoutException) responseNanos[slot] = Math.max(responseNanos[slot], TIMEOUT.toNanos());
+            }
+            outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+        }
+
+        /**
+         * Count the requests still without an answer as taking until now, and at least the timeout.
+         */
+        synchronized void finish(long now) {
+            finished = true;
+            for (int slot = 0; slot < responseNanos.length; slot++) {
+                if (responseNanos[slot] >= 0) continue;
+                long due = firstDue + (long) (slot * 1e9 / RATE);
+                responseNanos[slot] = Math.max(now - due, TIMEOUT.toNanos());
+                unanswered++;
+            }
+            if (unanswered > 0) outcomes.computeIfAbsent("no answer", k -> new LongAdder()).add(unanswered);
+        }
+
+        /** Timings of the selected requests in milliseconds, sorted; -1 marks a request without one. */
+        private double[] sorted(long[] nanos, Boolean success) {
+            return IntStream.range(0, nanos.length)
+                .filter(i -> nanos[i] >= 0 && (success == null || succeeded[i] == success))
+                .mapToLong(i -> nanos[i])
+                .sorted()
+                .mapToDouble(n -> n / 1e6)
+                .toArray();
+        }
+
+        private static double percentile(double[] sorted, double p) {
+            if (sorted.length == 0) return Double.NaN;
+            return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+        }
+
+        private long succeeded() {
+            return outcomes.entrySet().stream()
+                .filter(e -> e.getKey().startsWith("2"))
+                .mapToLong(e -> e.getValue().sum())
+                .sum();
+        }
+
+        private double seconds() {
+            return Math.max(1, lastDone.get() - firstDue) / 1e9;
+        }
+
+        void print(PrintStream out) {
+            out.printf("%nSent %d, completed %d, %d missing after the timeout%n", responseNanos.length, responseNanos.length - unanswered, unanswered);
+            out.printf("Throughput: %.1f successful responses/s (offered %.1f/s)%n", succeeded() / seconds(), RATE);
+            out.printf("%-36s%10s%10s%10s%10s%n", "Latency (ms)", "p50", "p95", "p99", "max");
+            row(out, "Response time, all (from due time)", sorted(responseNanos, null));
+            row(out, "  2xx responses", sorted(responseNanos, true));
+            row(out, "  Errors, timeouts, no answer", sorted(responseNanos, false));
+            row(out, "Service time, 2xx (from send)", sorted(serviceNanos, true));
+            row(out, "Generator lag", sorted(lagNanos, null));
+            out.println("Outcomes:");
+            outcomes.forEach((outcome, count) -> out.printf("  %-18s%8d%n", outcome, count.sum()));
+        }
+
+        private static void row(PrintStream out, String name, double[] sorted) {
+            out.printf("%-36s", name);
+            for (double p : PERCENTILES) out.printf("%10.1f", percentile(sorted, p));
+            out.println();
+        }
+
+        Map<String, Object> report() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("offeredRate", RATE);
+            report.put("durationSeconds", DURATION_SECONDS);
+            report.put("sent", responseNanos.length);
+            report.put("throughput", succeeded() / seconds());
+            report.put("responseTimeMs", percentiles(sorted(responseNanos, null)));
+            report.put("successResponseTimeMs", percentiles(sorted(responseNanos, true)));
+            report.put("errorResponseTimeMs", percentiles(sorted(responseNanos, false)));
+            report.put("serviceTimeMs", percentiles(sorted(serviceNanos, true)));
+            report.put("generatorLagMs", percentiles(sorted(lagNanos, null)));
+            Map<String, Long> counts = new LinkedHashMap<>();
+            outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+            report.put("outcomes", counts);
+            return report;
+        }
+
+        private static Map<String, Double> percentiles(double[] sorted) {
+            Map<String, Double> values = new LinkedHashMap<>();
+            for (double p : PERCENTILES) values.put(p == 1.0 ? "max" : "p" + Math.round(p * 100), percentile(sorted, p));
+            return values;
+        }
+    }
+}
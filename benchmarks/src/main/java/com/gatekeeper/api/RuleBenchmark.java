@@ -0,0 +1,93 @@
+package com.gatekeeper.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the rule engine as the rule count grows: the bundled rules plus {@code extraRules} generated
+ * keywords, path categories and suggestion code rows. Generated rows come first in the table, so a
+ * first-match scan over the rows would pay for every one of them; none of them matches the inputs.
+ * {@code scan}, {@code index} and {@code evaluate} should stay flat; {@code compile} is the cost of a reload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class RuleBenchmark {
+    private static final String[] DECISIONS = {"BLOCK", "WARN", "ALLOW"};
+
+    @Param({"0", "100", "1000", "5000"})
+    public int extraRules;
+
+    RuleSet.Definition definition;
+    RuleSet rules;
+    String diff;
+    List<String> changedFiles;
+    // A one-line diff, so the risk is not settled by the diff alone and every path weight is added up
+    DiffScan smallScan;
+    ChangedFileIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        definition = generate(extraRules);
+        rules = RuleSet.compile(definition, "benchmark");
+        diff = DiffCorpus.diff("synthetic", 64 * 1024);
+        changedFiles = DiffCorpus.changedFiles("mixed", 1000);
+        smallScan = DiffScanner.scan(rules, "+        int retries = 3;\n");
+        index = ChangedFileIndex.of(rules, changedFiles);
+    }
+
+    @Benchmark
+    public DiffScan scan() {
+        return DiffScanner.scan(rules, diff);
+    }
+
+    @Benchmark
+    public ChangedFileIndex index() {
+        // Every path classified, as for a rule that needs them all
+        ChangedFileIndex files = ChangedFileIndex.of(rules, changedFiles);
+        files.present();
+        return files;
+    }
+
+    @Benchmark
+    public String evaluate() {
+        double risk = rules.risk(smallScan, index);
+        String decision = rules.decision(risk);
+        return rules.riskLevel(risk) + rules.suggestionCode(decision, risk, smallScan, index);
+    }
+
+    @Benchmark
+    public RuleSet compile() {
+        return RuleSet.compile(definition, "benchmark");
+    }
+
+    private static RuleSet.Definition generate(int extra) throws IOException {
+        RuleSet.Definition bundled;
+        try (InputStream in = RuleBenchmark.class.getResourceAsStream("/gatekeeper-rules.json")) {
+            bundled = new ObjectMapper().readValue(in, RuleSet.Definition.class);
+        }
+        Map<String, RuleSet.Keyword> keywords = new LinkedHashMap<>(bundled.keywords());
+        Map<String, List<String>> paths = new LinkedHashMap<>(bundled.paths());
+        List<RuleSet.Suggestion> rows = new ArrayList<>();
+        for (int i = 0; i < extra; i++) {
+            String keyword = "GENERATED_KEYWORD_" + i;
+            String category = "GENERATED_PATH_" + i;
+            // Shaped like real rules: a call or identifier per keyword, a directory and extension per category
+            keywords.put(keyword, new RuleSet.Keyword("legacyApi" + i + ".invoke(", i % 2 == 0));
+            paths.put(category, List.of("*modules/team-" + i + "/*.java", "*team-" + i + ".yml"));
+            String decision = DECISIONS[i % DECISIONS.length];
+            rows.add(i % 2 == 0
+                ? new RuleSet.Suggestion(decision, null, List.of(keyword), null, decision + "_GENERATED_" + i)
+                : new RuleSet.Suggestion(decision, 0.2, null, List.of(category), decision + "_GENERATED_" + i));
+        }
+        rows.addAll(bundled.suggestionCodes());
+        return new RuleSet.Definition(bundled.name(), keywords, paths, bundled.risk(), bundled.decisions(), bundled.riskLevels(), rows);
+    }
+}
@@ -0,0 +1,41 @@
+package com.gatekeeper.api;
+
+import java.util.List;
+
+/**
+ * GROQ service that answers every call at once with a canned value, so the analyze benchmarks measure
+ * the rule-based stages and the enrichment orchestration rather than the network.
+ */
+final class StubGroqService extends GroqAnalysisService {
+    private static final List<String> TESTS = List.of("Test the new endpoint with an empty body", "Test pagination limits", "Test the error path");
+
+    StubGroqService() {
+        super("stub");
+    }
+
+    @Override
+    public String generateEnhancedExplanation(String decision, double riskScore, String diff, List<String> changedFiles) {
+        return "Stub explanation for a " + decision + " decision.";
+    }
+
+    @Override
+    public String generateEnhancedSuggestionDescription(String code, String explanation) {
+        return "Review " + code + " before merging.";
+    }
+
+    @Override
+    public List<String> generateTestRecommendations(List<String> changedFiles, String diff) {
+        return TESTS;
+    }
+
+    @Override
+    public List<String> generateSpellingSuggestions(String diff) {
+        return List.of();
+    }
+
+    @Override
+    public Consolidated generateConsolidatedAnalysis(String decision, double riskScore, String diff, List<String> changedFiles, String suggestionCode) {
+        return new Consolidated(generateEnhancedExplanation(decision, riskScore, diff, changedFiles), TESTS, List.of(),
+            generateEnhancedSuggestionDescription(suggestionCode, null));
+    }
+}
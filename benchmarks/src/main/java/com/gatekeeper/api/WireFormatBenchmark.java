@@ -0,0 +1,74 @@
+package com.gatekeeper.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import io.airlift.compress.zstd.ZstdOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the {@code /api/analyze} request body in each wire format the backend accepts: JSON, Smile or CBOR,
+ * sent as is, gzip or zstd. {@code encode} is the client's side (serialize, then compress), {@code decode}
+ * the backend's (decompress with {@link RequestDecompression#decode}, then bind), both on a recorded diff
+ * repeated to {@code diffBytes}. Run with {@code -prof gc} for the allocation per request; the encoded size
+ * of each combination is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    public int diffBytes;
+
+    @Param({"json", "smile", "cbor"})
+    public String format;
+
+    @Param({"identity", "gzip", "zstd"})
+    public String coding;
+
+    ObjectMapper mapper;
+    AnalyzeController.AnalyzeRequest request;
+    byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mapper = switch (format) {
+            case "json" -> new ObjectMapper();
+            case "smile" -> new SmileMapper();
+            case "cbor" -> new CBORMapper();
+            default -> throw new IllegalArgumentException("Unknown format: " + format);
+        };
+        request = new AnalyzeController.AnalyzeRequest("42", "octocat", "acme/service",
+            DiffCorpus.changedFiles("mixed", 200), DiffCorpus.diff("recorded", diffBytes));
+        encoded = encode();
+        System.out.printf("%n%s/%s: %d bytes on the wire for a %d character diff%n", format, coding, encoded.length, diffBytes);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(diffBytes / 4 + 1024);
+        OutputStream out = switch (coding) {
+            case "gzip" -> new GZIPOutputStream(bytes, 64 * 1024);
+            case "zstd" -> new ZstdOutputStream(bytes);
+            default -> bytes;
+        };
+        // Closes the stream, which writes the compressed trailer
+        mapper.writeValue(out, request);
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public AnalyzeController.AnalyzeRequest decode() throws IOException {
+        return mapper.readValue(RequestDecompression.decode(new ByteArrayInputStream(encoded), coding), AnalyzeController.AnalyzeRequest.class);
+    }
+}
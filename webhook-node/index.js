@@ -1,6 +1,9 @@
 const express = require('express');
 const fetch = require('node-fetch');
 const bodyParser = require('body-parser');
+const zlib = require('zlib');
+const { promisify } = require('util');
+const gzip = promisify(zlib.gzip);
 
 const app = express();
 app.use(bodyParser.json());
@@ -21,6 +24,8 @@ const MAX_ANALYSES = 20;
 const GATEKEEPER_URL = process.env.GATEKEEPER_URL || 'http://localhost:8080/api/analyze';
 const API_KEY = process.env.GATEKEEPER_API_KEY || '';
 const GITHUB_TOKEN = process.env.GITHUB_TOKEN || '';
+// Request bodies from this size on are gzipped; large diffs shrink about 4x on the wire
+const COMPRESS_MIN_BYTES = parseInt(process.env.GATEKEEPER_COMPRESS_MIN_BYTES || '16384', 10);
 
 /**
  * Fetch PR details from GitHub API
@@ -139,13 +144,17 @@ app.post('/webhook', async (req, res) => {
     };
 
     console.log(`Analyzing PR #${prNumber} from ${author} in ${owner}/${repoName}`);
+    const json = Buffer.from(JSON.stringify(analyzePayload));
+    const compress = json.length >= COMPRESS_MIN_BYTES;
+    const headers = {
+      'Content-Type': 'application/json',
+      'X-API-KEY': API_KEY
+    };
+    if (compress) headers['Content-Encoding'] = 'gzip';
     const resp = await fetch(GATEKEEPER_URL, {
       method: 'POST',
-      headers: {
-        'Content-Type': 'application/json',
-        'X-API-KEY': API_KEY
-      },
-      body: JSON.stringify(analyzePayload)
+      headers,
+      body: compress ? await gzip(json) : json
     });
 
     const data = await resp.json();